@@ -9,13 +9,22 @@ import com.android.volley.Response;
 import com.android.volley.Response.ErrorListener;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.gson.Gson;
+import com.magikarp.android.data.model.GetMessagesBatchRequest;
+import com.magikarp.android.data.model.GetMessagesBatchResponse;
 import com.magikarp.android.data.model.GetMessagesRequest;
 import com.magikarp.android.data.model.GetMessagesResponse;
+import com.magikarp.android.data.model.MessageEvent;
 import com.magikarp.android.di.HiltQualifiers.UrlGetMessages;
+import com.magikarp.android.di.HiltQualifiers.UrlGetMessagesBatch;
 import com.magikarp.android.di.HiltQualifiers.UrlGetUserMessages;
+import com.magikarp.android.di.HiltQualifiers.UrlSubscribeMessages;
 import com.magikarp.android.network.GsonRequest;
+import com.magikarp.android.network.MessageSubscription;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import okhttp3.OkHttpClient;
 
 /**
  * Class for generating map items.
@@ -29,19 +38,35 @@ public class MapsRepository {
 
   private final String urlGetUserMessages;
 
+  private final String urlGetMessagesBatch;
+
+  private final OkHttpClient httpClient;
+
+  private final String urlSubscribeMessages;
+
   /**
    * Create a new map item repository.
    *
-   * @param requestQueue   queue for adding network requests
-   * @param urlGetMessages URL of endpoint for requesting messages
+   * @param requestQueue         queue for adding network requests
+   * @param urlGetMessages       URL of endpoint for requesting messages
+   * @param urlGetUserMessages   URL of endpoint for requesting user messages
+   * @param urlGetMessagesBatch  URL of endpoint for requesting messages of several regions
+   * @param httpClient           HTTP client for opening message subscriptions
+   * @param urlSubscribeMessages URL of endpoint for subscribing to messages
    */
   @Inject
   public MapsRepository(@NonNull RequestQueue requestQueue,
                         @NonNull @UrlGetMessages String urlGetMessages,
-                        @NonNull @UrlGetUserMessages String urlGetUserMessages) {
+                        @NonNull @UrlGetUserMessages String urlGetUserMessages,
+                        @NonNull @UrlGetMessagesBatch String urlGetMessagesBatch,
+                        @NonNull OkHttpClient httpClient,
+                        @NonNull @UrlSubscribeMessages String urlSubscribeMessages) {
     this.requestQueue = requestQueue;
     this.urlGetMessages = urlGetMessages;
     this.urlGetUserMessages = urlGetUserMessages;
+    this.urlGetMessagesBatch = urlGetMessagesBatch;
+    this.httpClient = httpClient;
+    this.urlSubscribeMessages = urlSubscribeMessages;
   }
 
   /**
@@ -57,9 +82,7 @@ public class MapsRepository {
                           @NonNull Response.Listener<GetMessagesResponse> listener,
                           @Nullable ErrorListener errorListener) {
     // Create message body.
-    final GetMessagesRequest body = new GetMessagesRequest(bounds.northeast.latitude,
-        bounds.southwest.longitude, bounds.southwest.latitude, bounds.northeast.longitude,
-        maxRecords);
+    final GetMessagesRequest body = getMessagesRequest(bounds, maxRecords);
     // Build endpoint URL.
     final String url =
         TextUtils.isEmpty(userId) ? urlGetMessages : String.format(urlGetUserMessages, userId);
@@ -70,4 +93,48 @@ public class MapsRepository {
     requestQueue.add(request);
   }
 
+  /**
+   * Get messages of several regions (ex. the tiles of a prefetch ring) in a single request.
+   * Messages shared by overlapping regions are only sent once.
+   *
+   * @param bounds        map of region keys to geographic bounds of each region
+   * @param maxRecords    maximum records to return per region
+   * @param listener      listener for new messages
+   * @param errorListener error listener
+   */
+  public void getMessagesBatch(@NonNull Map<String, LatLngBounds> bounds, int maxRecords,
+                               @NonNull Response.Listener<GetMessagesBatchResponse> listener,
+                               @Nullable ErrorListener errorListener) {
+    // Create message body.
+    final Map<String, GetMessagesRequest> boxes = new LinkedHashMap<>();
+    for (Map.Entry<String, LatLngBounds> entry : bounds.entrySet()) {
+      boxes.put(entry.getKey(), getMessagesRequest(entry.getValue(), maxRecords));
+    }
+    final GetMessagesBatchRequest body = new GetMessagesBatchRequest(boxes);
+    // Create a new GSON request.
+    final GsonRequest<GetMessagesBatchResponse> request =
+        new GsonRequest<>(Request.Method.POST, urlGetMessagesBatch, GetMessagesBatchResponse.class,
+            new Gson().toJson(body), listener, errorListener);
+    requestQueue.add(request);
+  }
+
+  /**
+   * Subscribe to messages created, updated or deleted inside a viewport. The subscription
+   * connects once its viewport is set.
+   *
+   * @param listener listener for message events
+   * @return a message subscription
+   */
+  @NonNull
+  public MessageSubscription subscribeToMessages(
+      @NonNull Response.Listener<MessageEvent> listener) {
+    return new MessageSubscription(httpClient, urlSubscribeMessages, listener);
+  }
+
+  private static GetMessagesRequest getMessagesRequest(@NonNull LatLngBounds bounds,
+                                                       int maxRecords) {
+    return new GetMessagesRequest(bounds.northeast.latitude, bounds.southwest.longitude,
+        bounds.southwest.latitude, bounds.northeast.longitude, maxRecords);
+  }
+
 }
@@ -0,0 +1,23 @@
+package com.magikarp.android.data.model;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class GetMessagesBatchRequest {
+
+  private final Map<String, GetMessagesRequest> boxes;
+
+  /**
+   * Create a batched get messages request.
+   *
+   * @param boxes map of keys to the get messages request for each region
+   */
+  public GetMessagesBatchRequest(Map<String, GetMessagesRequest> boxes) {
+    this.boxes = boxes;
+  }
+
+  public Map<String, GetMessagesRequest> getBoxes() {
+    return Collections.unmodifiableMap(boxes);
+  }
+
+}
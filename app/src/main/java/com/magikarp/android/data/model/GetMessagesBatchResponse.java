@@ -0,0 +1,64 @@
+package com.magikarp.android.data.model;
+
+import androidx.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class GetMessagesBatchResponse {
+
+  private final Map<String, Message> records;
+
+  private final Map<String, List<String>> results;
+
+  private final Map<String, String> errors;
+
+  /**
+   * Create a batched get messages response.
+   *
+   * @param records map of message IDs to messages, shared by all regions
+   * @param results map of region keys to the IDs of the messages in each region
+   * @param errors  map of region keys to errors for regions that failed
+   */
+  public GetMessagesBatchResponse(Map<String, Message> records, Map<String, List<String>> results,
+                                  Map<String, String> errors) {
+    this.records = records;
+    this.results = results;
+    this.errors = errors;
+  }
+
+  public Map<String, Message> getRecords() {
+    return (records == null) ? Collections.emptyMap() : Collections.unmodifiableMap(records);
+  }
+
+  public Map<String, List<String>> getResults() {
+    return (results == null) ? Collections.emptyMap() : Collections.unmodifiableMap(results);
+  }
+
+  public Map<String, String> getErrors() {
+    return (errors == null) ? Collections.emptyMap() : Collections.unmodifiableMap(errors);
+  }
+
+  /**
+   * Get the messages of a region.
+   *
+   * @param key region key
+   * @return the messages of the region, empty if the region failed or was not requested
+   */
+  @NonNull
+  public List<Message> getMessages(@NonNull String key) {
+    final List<String> ids = getResults().get(key);
+    final List<Message> messages = new ArrayList<>();
+    if (ids != null) {
+      for (String id : ids) {
+        final Message message = getRecords().get(id);
+        if (message != null) {
+          messages.add(message);
+        }
+      }
+    }
+    return messages;
+  }
+
+}
@@ -0,0 +1,47 @@
+package com.magikarp.android.data.model;
+
+import com.google.gson.annotations.SerializedName;
+
+public class MessageEvent {
+
+  public static final String TYPE_NEW = "new";
+
+  public static final String TYPE_UPDATE = "update";
+
+  public static final String TYPE_DELETE = "delete";
+
+  public static final String TYPE_RESYNC = "resync";
+
+  private final String type;
+
+  private final Message record;
+
+  @SerializedName("record_id")
+  private final String recordId;
+
+  /**
+   * Create a message event pushed by a viewport subscription.
+   *
+   * @param type     event type
+   * @param record   new or updated message, or {@code null} for delete and resync events
+   * @param recordId ID of the affected message, or {@code null} for resync events
+   */
+  public MessageEvent(String type, Message record, String recordId) {
+    this.type = type;
+    this.record = record;
+    this.recordId = recordId;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public Message getRecord() {
+    return record;
+  }
+
+  public String getRecordId() {
+    return recordId;
+  }
+
+}
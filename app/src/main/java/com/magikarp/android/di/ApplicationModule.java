@@ -24,8 +24,10 @@ import com.magikarp.android.data.PostRepository.FileNameGenerator;
 import com.magikarp.android.data.model.Message;
 import com.magikarp.android.di.HiltQualifiers.UrlDeleteMessage;
 import com.magikarp.android.di.HiltQualifiers.UrlGetMessages;
+import com.magikarp.android.di.HiltQualifiers.UrlGetMessagesBatch;
 import com.magikarp.android.di.HiltQualifiers.UrlGetUserMessages;
 import com.magikarp.android.di.HiltQualifiers.UrlNewMessage;
+import com.magikarp.android.di.HiltQualifiers.UrlSubscribeMessages;
 import com.magikarp.android.di.HiltQualifiers.UrlUpdateMessage;
 import com.magikarp.android.network.ImageCache;
 import com.magikarp.android.network.LruBitmapCache;
@@ -37,6 +39,7 @@ import dagger.hilt.android.qualifiers.ApplicationContext;
 import java.util.List;
 import java.util.UUID;
 import javax.inject.Singleton;
+import okhttp3.OkHttpClient;
 
 /**
  * A Hilt module for dependency injections that are needed at the {@code Application} level or
@@ -171,6 +174,17 @@ public class ApplicationModule {
     return Volley.newRequestQueue(applicationContext);
   }
 
+  /**
+   * Injector for creating an HTTP client for web socket connections.
+   *
+   * @return an HTTP client
+   */
+  @Singleton
+  @Provides
+  public static OkHttpClient provideOkHttpClient() {
+    return new OkHttpClient();
+  }
+
   /**
    * Injector for creating a shared preferences object.
    *
@@ -210,6 +224,20 @@ public class ApplicationModule {
         + resources.getString(R.string.server_get_user_messages);
   }
 
+  /**
+   * Injector for creating a URL for batched get messages endpoint.
+   *
+   * @param applicationContext the application context
+   * @return a URL for batched get messages endpoint
+   */
+  @UrlGetMessagesBatch
+  @Provides
+  public static String provideGetMessagesBatchUrl(@ApplicationContext Context applicationContext) {
+    final Resources resources = applicationContext.getResources();
+    return resources.getString(R.string.server_url)
+        + resources.getString(R.string.server_get_messages_batch);
+  }
+
   /**
    * Injector for creating a URL for new messages endpoint.
    *
@@ -252,4 +280,18 @@ public class ApplicationModule {
         + resources.getString(R.string.server_delete_message);
   }
 
+  /**
+   * Injector for creating a URL for subscribe messages endpoint.
+   *
+   * @param applicationContext the application context
+   * @return a URL for subscribe messages endpoint
+   */
+  @UrlSubscribeMessages
+  @Provides
+  public static String provideSubscribeMessagesUrl(@ApplicationContext Context applicationContext) {
+    final Resources resources = applicationContext.getResources();
+    return resources.getString(R.string.server_url)
+        + resources.getString(R.string.server_subscribe_messages);
+  }
+
 }
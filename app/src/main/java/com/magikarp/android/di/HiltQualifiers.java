@@ -19,6 +19,11 @@ public class HiltQualifiers {
   public @interface UrlGetUserMessages {
   }
 
+  @Qualifier
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface UrlGetMessagesBatch {
+  }
+
   @Qualifier
   @Retention(RetentionPolicy.RUNTIME)
   public @interface UrlNewMessage {
@@ -34,4 +39,9 @@ public class HiltQualifiers {
   public @interface UrlDeleteMessage {
   }
 
+  @Qualifier
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface UrlSubscribeMessages {
+  }
+
 }
@@ -0,0 +1,135 @@
+package com.magikarp.android.network;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.android.volley.Response.Listener;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.magikarp.android.data.model.GetMessagesRequest;
+import com.magikarp.android.data.model.MessageEvent;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * Class for receiving pushed message events inside a map viewport.
+ */
+public class MessageSubscription extends WebSocketListener {
+
+  private static final int CLOSE_NORMAL = 1000;
+
+  private final Gson gson = new Gson();
+
+  private final OkHttpClient client;
+
+  private final String url;
+
+  private final Listener<MessageEvent> listener;
+
+  private Handler mainHandler;
+
+  private WebSocket webSocket;
+
+  private String viewport;
+
+  /**
+   * Create a new message subscription.
+   *
+   * @param client      HTTP client for opening the web socket
+   * @param url         URL of endpoint for subscribing to messages
+   * @param listener    listener for message events, called on the main thread
+   * @param mainHandler handler for the main thread
+   */
+  @VisibleForTesting
+  MessageSubscription(@NonNull OkHttpClient client, @NonNull String url,
+                      @NonNull Listener<MessageEvent> listener, @Nullable Handler mainHandler) {
+    this.client = client;
+    this.url = url;
+    this.listener = listener;
+    this.mainHandler = mainHandler;
+  }
+
+  /**
+   * Create a new message subscription that calls its listener on the main looper.
+   *
+   * @param client   HTTP client for opening the web socket
+   * @param url      URL of endpoint for subscribing to messages
+   * @param listener listener for message events, called on the main thread
+   */
+  public MessageSubscription(@NonNull OkHttpClient client, @NonNull String url,
+                             @NonNull Listener<MessageEvent> listener) {
+    // The main thread handler is created on the first event.
+    this(client, url, listener, null);
+  }
+
+  /**
+   * Set the viewport to receive message events for, connecting if needed.
+   *
+   * @param bounds geographic bounds of the viewport
+   */
+  public synchronized void setViewport(@NonNull LatLngBounds bounds) {
+    viewport = gson.toJson(new GetMessagesRequest(bounds.northeast.latitude,
+        bounds.southwest.longitude, bounds.southwest.latitude, bounds.northeast.longitude, 0));
+    if (webSocket == null) {
+      webSocket = client.newWebSocket(new Request.Builder().url(url).build(), this);
+    } else {
+      webSocket.send(viewport);
+    }
+  }
+
+  /**
+   * Close the subscription.
+   */
+  public synchronized void close() {
+    if (webSocket != null) {
+      webSocket.close(CLOSE_NORMAL, null);
+      webSocket = null;
+    }
+  }
+
+  @Override
+  public synchronized void onOpen(@NonNull WebSocket webSocket, @NonNull Response response) {
+    if (viewport != null) {
+      webSocket.send(viewport);
+    }
+  }
+
+  @Override
+  public void onMessage(@NonNull WebSocket webSocket, @NonNull String text) {
+    final MessageEvent event = parseMessageEvent(text);
+    if (event != null) {
+      if (mainHandler == null) {
+        mainHandler = new Handler(Looper.getMainLooper());
+      }
+      mainHandler.post(() -> listener.onResponse(event));
+    }
+  }
+
+  @Override
+  public synchronized void onFailure(@NonNull WebSocket webSocket, @NonNull Throwable t,
+                                     @Nullable Response response) {
+    // Reconnect on the next viewport change.
+    if (this.webSocket == webSocket) {
+      this.webSocket = null;
+    }
+  }
+
+  @VisibleForTesting
+  @Nullable
+  MessageEvent parseMessageEvent(@NonNull String text) {
+    try {
+      final MessageEvent event = gson.fromJson(text, MessageEvent.class);
+      // Validation errors from the server are sent as plain text.
+      return ((event != null) && (event.getType() != null)) ? event : null;
+    } catch (JsonSyntaxException exception) {
+      return null;
+    }
+  }
+
+}
@@ -1,5 +1,6 @@
 package com.magikarp.android.ui.maps;
 
+import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
@@ -14,6 +15,9 @@ import com.google.android.gms.maps.model.LatLngBounds;
 import com.magikarp.android.data.MapsRepository;
 import com.magikarp.android.data.model.GetMessagesResponse;
 import com.magikarp.android.data.model.Message;
+import com.magikarp.android.data.model.MessageEvent;
+import com.magikarp.android.network.MessageSubscription;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -30,6 +34,12 @@ public class MapsViewModel extends ViewModel
 
   private final SavedStateHandle savedStateHandle;
 
+  private MessageSubscription messageSubscription;
+
+  private LatLngBounds lastBounds;
+
+  private int lastMaxRecords;
+
   /**
    * Create a new map view model.
    *
@@ -54,7 +64,8 @@ public class MapsViewModel extends ViewModel
   }
 
   /**
-   * Set the query to send to the maps repository.
+   * Set the query to send to the maps repository. Queries of all users' messages also subscribe
+   * to messages pushed inside the queried bounds.
    *
    * @param userId        user ID
    * @param bounds        the geographic bounds of the query
@@ -64,6 +75,52 @@ public class MapsViewModel extends ViewModel
   public void setMapsQuery(@Nullable String userId, @NonNull LatLngBounds bounds, int maxRecords,
                            @Nullable ErrorListener errorListener) {
     mapsRepository.getMessages(userId, bounds, maxRecords, this, errorListener);
+    if (TextUtils.isEmpty(userId)) {
+      lastBounds = bounds;
+      lastMaxRecords = maxRecords;
+      if (messageSubscription == null) {
+        messageSubscription = mapsRepository.subscribeToMessages(this::onMessageEvent);
+      }
+      messageSubscription.setViewport(bounds);
+    }
+  }
+
+  /**
+   * Apply a message event pushed by the message subscription to the current messages.
+   *
+   * @param event message event
+   */
+  @VisibleForTesting
+  void onMessageEvent(@NonNull MessageEvent event) {
+    if (MessageEvent.TYPE_RESYNC.equals(event.getType())) {
+      // Events were dropped, so re-query the viewport.
+      if (lastBounds != null) {
+        mapsRepository.getMessages(null, lastBounds, lastMaxRecords, this, null);
+      }
+      return;
+    }
+    final List<Message> current = savedStateHandle.get(KEY_MESSAGES);
+    final List<Message> messages = new ArrayList<>();
+    if (current != null) {
+      for (Message message : current) {
+        if (!message.getId().equals(event.getRecordId())) {
+          messages.add(message);
+        }
+      }
+    }
+    if (!MessageEvent.TYPE_DELETE.equals(event.getType()) && (event.getRecord() != null)) {
+      messages.add(event.getRecord());
+    }
+    savedStateHandle.set(KEY_MESSAGES, messages);
+  }
+
+  @Override
+  protected void onCleared() {
+    super.onCleared();
+    if (messageSubscription != null) {
+      messageSubscription.close();
+      messageSubscription = null;
+    }
   }
 
   @Override
@@ -1,6 +1,7 @@
 package com.magikarp.android.data;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.mockito.Mockito.verify;
 
 
@@ -9,9 +10,15 @@ import com.android.volley.Response;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.gson.Gson;
+import com.magikarp.android.data.model.GetMessagesBatchRequest;
+import com.magikarp.android.data.model.GetMessagesBatchResponse;
 import com.magikarp.android.data.model.GetMessagesRequest;
 import com.magikarp.android.data.model.GetMessagesResponse;
+import com.magikarp.android.data.model.MessageEvent;
 import com.magikarp.android.network.GsonRequest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import okhttp3.OkHttpClient;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -29,16 +36,27 @@ public class TestMapsRepository {
 
   private final String urlGetUserMessages = "https://www.example.com/%s";
 
+  private final String urlGetMessagesBatch = "https://www.example.com/batch";
+
+  private final String urlSubscribeMessages = "https://www.example.com/subscribe";
+
   @Mock
   RequestQueue requestQueue;
   @Mock
   Response.Listener<GetMessagesResponse> listener;
+  @Mock
+  Response.Listener<GetMessagesBatchResponse> batchListener;
+  @Mock
+  Response.Listener<MessageEvent> eventListener;
+  @Mock
+  OkHttpClient httpClient;
 
   private MapsRepository mapsRepository;
 
   @Before
   public void setup() {
-    mapsRepository = new MapsRepository(requestQueue, urlGetMessages, urlGetUserMessages);
+    mapsRepository = new MapsRepository(requestQueue, urlGetMessages, urlGetUserMessages,
+        urlGetMessagesBatch, httpClient, urlSubscribeMessages);
   }
 
   @Test
@@ -74,4 +92,30 @@ public class TestMapsRepository {
     assertEquals(new String(request.getBody()), new Gson().toJson(body));
   }
 
+  @Test
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void testGetMessagesBatch() {
+    final ArgumentCaptor<GsonRequest> captor = ArgumentCaptor.forClass(GsonRequest.class);
+    final Map<String, LatLngBounds> bounds = new LinkedHashMap<>();
+    bounds.put("a", new LatLngBounds(new LatLng(1, 2), new LatLng(3, 4)));
+    bounds.put("b", new LatLngBounds(new LatLng(5, 6), new LatLng(7, 8)));
+
+    mapsRepository.getMessagesBatch(bounds, 1, batchListener, null);
+
+    verify(requestQueue).add(captor.capture());
+    GsonRequest request = captor.getValue();
+
+    final Map<String, GetMessagesRequest> boxes = new LinkedHashMap<>();
+    boxes.put("a", new GetMessagesRequest(3.0, 2.0, 1.0, 4.0, 1));
+    boxes.put("b", new GetMessagesRequest(7.0, 6.0, 5.0, 8.0, 1));
+    assertEquals(request.getUrl(), urlGetMessagesBatch);
+    assertEquals(new String(request.getBody()),
+        new Gson().toJson(new GetMessagesBatchRequest(boxes)));
+  }
+
+  @Test
+  public void testSubscribeToMessages() {
+    assertNotNull(mapsRepository.subscribeToMessages(eventListener));
+  }
+
 }
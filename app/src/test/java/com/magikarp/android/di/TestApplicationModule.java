@@ -46,9 +46,12 @@ public class TestApplicationModule {
     assertNotNull(ApplicationModule.provideSharedPreferences(context));
     assertNotNull(ApplicationModule.provideGetMessagesUrl(context));
     assertNotNull(ApplicationModule.provideGetUserMessagesUrl(context));
+    assertNotNull(ApplicationModule.provideGetMessagesBatchUrl(context));
     assertNotNull(ApplicationModule.provideNewMessageUrl(context));
     assertNotNull(ApplicationModule.provideUpdateMessageUrl(context));
     assertNotNull(ApplicationModule.provideDeleteMessageUrl(context));
+    assertNotNull(ApplicationModule.provideOkHttpClient());
+    assertNotNull(ApplicationModule.provideSubscribeMessagesUrl(context));
   }
 
 }
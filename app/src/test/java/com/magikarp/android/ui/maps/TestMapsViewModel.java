@@ -1,9 +1,12 @@
 package com.magikarp.android.ui.maps;
 
 import static com.magikarp.android.ui.maps.MapsViewModel.KEY_MESSAGES;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -17,12 +20,15 @@ import com.google.android.gms.maps.model.LatLngBounds;
 import com.magikarp.android.data.MapsRepository;
 import com.magikarp.android.data.model.GetMessagesResponse;
 import com.magikarp.android.data.model.Message;
+import com.magikarp.android.data.model.MessageEvent;
+import com.magikarp.android.network.MessageSubscription;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
@@ -40,6 +46,8 @@ public class TestMapsViewModel {
   GetMessagesResponse getMessagesResponse;
   @Mock
   VolleyError volleyError;
+  @Mock
+  MessageSubscription messageSubscription;
 
   private MapsViewModel viewModel;
 
@@ -104,4 +112,57 @@ public class TestMapsViewModel {
     verify(savedStateHandle).set(KEY_MESSAGES, messages);
   }
 
+  @Test
+  public void testSetMapsQuerySubscribesWithoutUserId() {
+    LatLngBounds bounds = new LatLngBounds(new LatLng(0.0, 0.0), new LatLng(1.0, 1.0));
+    when(mapsRepository.subscribeToMessages(any())).thenReturn(messageSubscription);
+
+    viewModel.setMapsQuery(null, bounds, 5, null);
+    viewModel.setMapsQuery(null, bounds, 5, null);
+
+    verify(mapsRepository).subscribeToMessages(any());
+    verify(messageSubscription, times(2)).setViewport(bounds);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testOnMessageEventNew() {
+    final Message existing =
+        new Message("id1", "userId", "imageUrl", "text", 1.0d, 2.0d, "timestamp");
+    final Message created =
+        new Message("id2", "userId", "imageUrl", "text", 1.0d, 2.0d, "timestamp");
+    when(savedStateHandle.get(KEY_MESSAGES)).thenReturn(Collections.singletonList(existing));
+    final ArgumentCaptor<List<Message>> captor = ArgumentCaptor.forClass(List.class);
+
+    viewModel.onMessageEvent(new MessageEvent(MessageEvent.TYPE_NEW, created, "id2"));
+
+    verify(savedStateHandle).set(eq(KEY_MESSAGES), captor.capture());
+    assertEquals(2, captor.getValue().size());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testOnMessageEventDelete() {
+    final Message existing =
+        new Message("id1", "userId", "imageUrl", "text", 1.0d, 2.0d, "timestamp");
+    when(savedStateHandle.get(KEY_MESSAGES)).thenReturn(Collections.singletonList(existing));
+    final ArgumentCaptor<List<Message>> captor = ArgumentCaptor.forClass(List.class);
+
+    viewModel.onMessageEvent(new MessageEvent(MessageEvent.TYPE_DELETE, null, "id1"));
+
+    verify(savedStateHandle).set(eq(KEY_MESSAGES), captor.capture());
+    assertEquals(0, captor.getValue().size());
+  }
+
+  @Test
+  public void testOnMessageEventResyncRequeries() {
+    LatLngBounds bounds = new LatLngBounds(new LatLng(0.0, 0.0), new LatLng(1.0, 1.0));
+    when(mapsRepository.subscribeToMessages(any())).thenReturn(messageSubscription);
+    viewModel.setMapsQuery(null, bounds, 5, null);
+
+    viewModel.onMessageEvent(new MessageEvent(MessageEvent.TYPE_RESYNC, null, null));
+
+    verify(mapsRepository, times(2)).getMessages(null, bounds, 5, viewModel, null);
+  }
+
 }
@@ -0,0 +1,69 @@
+package message;
+
+import static helper.TestHelper.getRandomDate;
+import static helper.TestHelper.getRandomDocumentData;
+import static helper.TestHelper.getRandomLatitude;
+import static helper.TestHelper.getRandomLongitude;
+import static helper.TestHelper.getRandomString;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+final class BenchmarkData {
+  // Strings, dates and document data are drawn from pools so the largest datasets fit in memory;
+  // every message still gets its own coordinates.
+  private static final int POOL_SIZE = 10000;
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Build messages at random locations.
+   *
+   * @param size Number of messages
+   * @return List of Messages
+   */
+  static List<Message> getMessages(int size) {
+    String[] strings = new String[POOL_SIZE];
+    Date[] dates = new Date[POOL_SIZE];
+    for (int i = 0; i < POOL_SIZE; i++) {
+      strings[i] = getRandomString(20);
+      dates[i] = getRandomDate();
+    }
+
+    List<Message> messages = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      messages.add(new Message(
+          strings[i % POOL_SIZE],
+          strings[(i + 1) % POOL_SIZE],
+          getRandomLatitude(),
+          getRandomLongitude(),
+          strings[(i + 2) % POOL_SIZE],
+          dates[i % POOL_SIZE],
+          strings[(i + 3) % POOL_SIZE]
+      ));
+    }
+    return messages;
+  }
+
+  /**
+   * Build Firestore document data for random messages.
+   *
+   * @param size Number of documents
+   * @return List of document data maps
+   */
+  static List<Map<String, Object>> getDocumentData(int size) {
+    List<Map<String, Object>> pool = new ArrayList<>(POOL_SIZE);
+    for (int i = 0; i < POOL_SIZE; i++) {
+      pool.add(getRandomDocumentData());
+    }
+
+    List<Map<String, Object>> documentData = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      documentData.add(pool.get(i % POOL_SIZE));
+    }
+    return documentData;
+  }
+}
@@ -0,0 +1,45 @@
+package message;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DocumentParsingBenchmark {
+  @Param({"10000", "1000000", "10000000"})
+  public int size;
+
+  private List<Map<String, Object>> documentData;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    documentData = BenchmarkData.getDocumentData(size);
+  }
+
+  /**
+   * Convert document data to Messages the way getMessagesFromQuerySnapshot does. The snapshot
+   * itself is left out, since QueryDocumentSnapshots can only be mocked outside of Firestore and
+   * the mock dispatch would dominate the measurement.
+   *
+   * @return List of Messages
+   */
+  @Benchmark
+  public List<Message> getMessagesFromDocumentData() {
+    return documentData
+        .stream()
+        .map(MessageFinderImpl::getMessageFromDocumentData)
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,98 @@
+package message;
+
+import com.google.cloud.firestore.GeoPoint;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FilterMessageBenchmark {
+  @Param({"10000", "1000000", "10000000"})
+  public int size;
+
+  // A city-sized box, a box wrapping around the 180 longitude line, and the whole world. The
+  // wrapping box covers longitudes up to -170 and from 170 on, so it excludes everything between.
+  @Param({"city", "wrapping", "world"})
+  public String box;
+
+  private List<Message> messages;
+  private GeoPoint lesserPoint;
+  private GeoPoint greaterPoint;
+  private boolean isCrossing180Longitude;
+
+  /**
+   * Build the dataset and bounding box.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    messages = BenchmarkData.getMessages(size);
+    switch (box) {
+      case "city":
+        lesserPoint = new GeoPoint(40.6, -74.1);
+        greaterPoint = new GeoPoint(40.9, -73.8);
+        break;
+      case "wrapping":
+        lesserPoint = new GeoPoint(-30, -170);
+        greaterPoint = new GeoPoint(30, 170);
+        isCrossing180Longitude = true;
+        break;
+      default:
+        lesserPoint = new GeoPoint(-90, -180);
+        greaterPoint = new GeoPoint(90, 180);
+        break;
+    }
+  }
+
+  /**
+   * Filter every message with filterMessage.
+   *
+   * @return Number of messages inside the box
+   */
+  @Benchmark
+  public int filterMessage() {
+    int count = 0;
+    for (Message message : messages) {
+      if (MessageFinderImpl.filterMessage(
+          message,
+          lesserPoint,
+          greaterPoint,
+          false,
+          isCrossing180Longitude
+      )) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Test the longitude of every message with isInsideBoundedBox.
+   *
+   * @return Number of messages inside the longitude interval
+   */
+  @Benchmark
+  public int isInsideBoundedBox() {
+    int count = 0;
+    for (Message message : messages) {
+      if (MessageFinderImpl.isInsideBoundedBox(
+          message.getLongitude(),
+          lesserPoint.getLongitude(),
+          greaterPoint.getLongitude(),
+          isCrossing180Longitude
+      )) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,37 @@
+package message;
+
+import com.google.gson.Gson;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import responses.MessagesResponse;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessagesResponseBenchmark {
+  // A 10 million record response would be gigabytes of JSON, so the largest size is 1 million.
+  @Param({"100", "10000", "1000000"})
+  public int size;
+
+  private final Gson gson = new Gson();
+  private List<Message> messages;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    messages = BenchmarkData.getMessages(size);
+  }
+
+  @Benchmark
+  public String toJson() {
+    return gson.toJson(new MessagesResponse(messages));
+  }
+}
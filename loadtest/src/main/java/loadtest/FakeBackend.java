@@ -0,0 +1,234 @@
+package loadtest;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.GeoPoint;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import message.BoundingBox;
+import message.Message;
+import message.MessageFinder;
+import message.MessagePoster;
+import message.MessageSource;
+import responses.DeletePostResponse;
+import responses.NewPostResponse;
+import responses.UpdatePostResponse;
+
+public class FakeBackend implements MessageFinder, MessageSource, MessagePoster {
+  private final Map<String, Message> messages = new ConcurrentHashMap<>();
+  // Record IDs available to update and delete calls, guarded by this.
+  private final List<String> recordIds = new ArrayList<>();
+  private final LatencyDistribution readLatency;
+  private final LatencyDistribution writeLatency;
+
+  /**
+   * In-memory stand-in for the Firestore backed finder, source and poster. Every call sleeps for
+   * a latency drawn from the passed distributions before touching the in-memory store, so the
+   * server sees roughly the response times it would against Firestore.
+   *
+   * @param readLatency  LatencyDistribution of queries
+   * @param writeLatency LatencyDistribution of writes
+   */
+  public FakeBackend(LatencyDistribution readLatency, LatencyDistribution writeLatency) {
+    this.readLatency = readLatency;
+    this.writeLatency = writeLatency;
+  }
+
+  /**
+   * Fill the store with randomly placed messages spread over a number of users.
+   *
+   * @param count  Number of messages to add
+   * @param users  Number of distinct user IDs
+   * @param random Random used to place the messages
+   */
+  public void seed(int count, int users, Random random) {
+    for (int i = 0; i < count; i++) {
+      put(new Message(
+          UUID.randomUUID().toString(),
+          "https://example.com/" + i + ".jpg",
+          random.nextDouble() * 180 - 90,
+          random.nextDouble() * 360 - 180,
+          "Seed message " + i,
+          new Date(),
+          getUserId(random.nextInt(users))
+      ));
+    }
+  }
+
+  public static String getUserId(int index) {
+    return "user-" + index;
+  }
+
+  public int size() {
+    return messages.size();
+  }
+
+  /**
+   * Pick a random stored message to update or delete.
+   *
+   * @param random Random used to pick the message
+   * @param remove True to stop handing out the message, for deletes
+   * @return Message, or null if the store is empty
+   */
+  public Message pickMessage(Random random, boolean remove) {
+    while (true) {
+      String recordId;
+      synchronized (this) {
+        if (recordIds.isEmpty()) {
+          return null;
+        }
+        int index = random.nextInt(recordIds.size());
+        recordId = recordIds.get(index);
+        if (remove) {
+          recordIds.set(index, recordIds.get(recordIds.size() - 1));
+          recordIds.remove(recordIds.size() - 1);
+        }
+      }
+      Message message = messages.get(recordId);
+      if (message != null) {
+        return message;
+      }
+    }
+  }
+
+  @Override
+  public List<Message> findByUserId(String userId) throws InterruptedException {
+    readLatency.sleep(ThreadLocalRandom.current());
+    List<Message> results = new ArrayList<>();
+    for (Message message : messages.values()) {
+      if (message.getUserId().equals(userId)) {
+        results.add(message);
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public Message findByRecordId(String recordId) throws InterruptedException {
+    readLatency.sleep(ThreadLocalRandom.current());
+    return messages.get(recordId);
+  }
+
+  @Override
+  public List<Message> findByBoundingBox(
+      GeoPoint lesserPoint,
+      GeoPoint greaterPoint,
+      int maxRecords,
+      boolean isCrossing90Latitude,
+      boolean isCrossing180Longitude
+  ) throws InterruptedException {
+    readLatency.sleep(ThreadLocalRandom.current());
+    BoundingBox boundingBox =
+        new BoundingBox(lesserPoint, greaterPoint, isCrossing90Latitude, isCrossing180Longitude);
+    List<Message> results = new ArrayList<>();
+    for (Message message : messages.values()) {
+      if (results.size() >= maxRecords) {
+        break;
+      }
+      if (boundingBox.contains(message.getLatitude(), message.getLongitude())) {
+        results.add(message);
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public List<Message> getAllMessages() throws InterruptedException {
+    readLatency.sleep(ThreadLocalRandom.current());
+    return new ArrayList<>(messages.values());
+  }
+
+  @Override
+  public List<Message> getMessages(int maxMessages) throws InterruptedException {
+    readLatency.sleep(ThreadLocalRandom.current());
+    List<Message> results = new ArrayList<>();
+    for (Message message : messages.values()) {
+      if (results.size() >= maxMessages) {
+        break;
+      }
+      results.add(message);
+    }
+    return results;
+  }
+
+  @Override
+  public NewPostResponse postNewMessage(
+      String recordId,
+      String userID,
+      String imageUrl,
+      String text,
+      double lat,
+      double lon,
+      Timestamp now
+  ) {
+    if (!sleepForWrite()) {
+      return new NewPostResponse(401, null, "Interrupted");
+    }
+    put(new Message(recordId, imageUrl, lat, lon, text, now.toDate(), userID));
+    return new NewPostResponse(201, recordId, null);
+  }
+
+  @Override
+  public List<NewPostResponse> postNewMessages(List<Message> newMessages) {
+    List<NewPostResponse> responses = new ArrayList<>();
+    if (!sleepForWrite()) {
+      for (int i = 0; i < newMessages.size(); i++) {
+        responses.add(new NewPostResponse(401, null, "Interrupted"));
+      }
+      return responses;
+    }
+    for (Message message : newMessages) {
+      put(message);
+      responses.add(new NewPostResponse(201, message.getId(), null));
+    }
+    return responses;
+  }
+
+  @Override
+  public UpdatePostResponse updateMessage(
+      String recordId,
+      String userID,
+      String imageUrl,
+      String text,
+      double lat,
+      double lon,
+      Timestamp now
+  ) {
+    if (!sleepForWrite()) {
+      return new UpdatePostResponse(401, "Interrupted");
+    }
+    messages.put(recordId, new Message(recordId, imageUrl, lat, lon, text, now.toDate(), userID));
+    return new UpdatePostResponse(201, null);
+  }
+
+  @Override
+  public DeletePostResponse deleteMessage(String recordId) {
+    if (!sleepForWrite()) {
+      return new DeletePostResponse(401, "Interrupted");
+    }
+    messages.remove(recordId);
+    return new DeletePostResponse(201, null);
+  }
+
+  private void put(Message message) {
+    messages.put(message.getId(), message);
+    synchronized (this) {
+      recordIds.add(message.getId());
+    }
+  }
+
+  private boolean sleepForWrite() {
+    try {
+      writeLatency.sleep(ThreadLocalRandom.current());
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
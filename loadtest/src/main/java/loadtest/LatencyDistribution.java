@@ -0,0 +1,71 @@
+package loadtest;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class LatencyDistribution {
+  // z-score of the 99th percentile of a standard normal distribution.
+  private static final double P99_Z_SCORE = 2.326;
+
+  private final double mu;
+  private final double sigma;
+
+  /**
+   * Log-normal latency distribution, the usual shape of remote call latencies. A zero median
+   * gives no latency at all, and equal median and 99th percentile give a fixed latency.
+   *
+   * @param medianMillis Median latency in milliseconds
+   * @param p99Millis    99th percentile latency in milliseconds
+   */
+  public LatencyDistribution(double medianMillis, double p99Millis) {
+    if (medianMillis < 0 || p99Millis < medianMillis) {
+      throw new IllegalArgumentException("Invalid latency distribution");
+    }
+    this.mu = medianMillis == 0 ? Double.NEGATIVE_INFINITY : Math.log(medianMillis);
+    this.sigma = medianMillis == 0 ? 0 : (Math.log(p99Millis) - mu) / P99_Z_SCORE;
+  }
+
+  /**
+   * Parse a distribution of the form median_ms:p99_ms, or a single number for a fixed latency.
+   *
+   * @param spec String to parse, such as 20:150
+   * @return LatencyDistribution described by the string
+   */
+  public static LatencyDistribution parse(String spec) {
+    String[] parts = spec.split(":");
+    if (parts.length == 1) {
+      double millis = Double.parseDouble(parts[0]);
+      return new LatencyDistribution(millis, millis);
+    } else if (parts.length == 2) {
+      return new LatencyDistribution(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]));
+    }
+    throw new IllegalArgumentException("Invalid latency distribution " + spec);
+  }
+
+  /**
+   * Draw a latency from the distribution.
+   *
+   * @param random Random to draw with
+   * @return Latency in nanoseconds
+   */
+  public long sampleNanos(Random random) {
+    if (mu == Double.NEGATIVE_INFINITY) {
+      return 0;
+    }
+    double millis = Math.exp(mu + sigma * random.nextGaussian());
+    return (long) (millis * TimeUnit.MILLISECONDS.toNanos(1));
+  }
+
+  /**
+   * Sleep for a latency drawn from the distribution.
+   *
+   * @param random Random to draw with
+   * @throws InterruptedException If the thread is interrupted while sleeping
+   */
+  public void sleep(Random random) throws InterruptedException {
+    long nanos = sampleNanos(random);
+    if (nanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package loadtest;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class LoadGenerator {
+  private final HttpClient client;
+  private final String baseUrl;
+  private final FakeBackend backend;
+  private final int users;
+  private final Map<Operation, Double> mix;
+  private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+
+  /**
+   * Drives the server with a weighted mix of operations and records their latencies.
+   *
+   * @param client  HttpClient sending the requests
+   * @param baseUrl Base URL of the server, such as http://localhost:8080
+   * @param backend FakeBackend the server runs against
+   * @param users   Number of distinct user IDs
+   * @param mix     Relative weight of each operation
+   */
+  public LoadGenerator(
+      HttpClient client,
+      String baseUrl,
+      FakeBackend backend,
+      int users,
+      Map<Operation, Double> mix
+  ) {
+    this.client = client;
+    this.baseUrl = baseUrl;
+    this.backend = backend;
+    this.users = users;
+    this.mix = new EnumMap<>(mix);
+    for (Operation operation : Operation.values()) {
+      stats.put(operation, new OperationStats());
+    }
+  }
+
+  /**
+   * Get the statistics of each operation, keyed by operation name.
+   *
+   * @return Map of operation name to OperationStats
+   */
+  public Map<String, OperationStats> getStats() {
+    Map<String, OperationStats> statsByName = new LinkedHashMap<>();
+    for (Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+      statsByName.put(entry.getKey().getName(), entry.getValue());
+    }
+    return statsByName;
+  }
+
+  /**
+   * Reset the statistics of every operation, such as at the end of the warmup.
+   */
+  public void reset() {
+    for (OperationStats operationStats : stats.values()) {
+      operationStats.reset();
+    }
+  }
+
+  /**
+   * Run a closed-loop test: each virtual user sends a request, waits for the response and the
+   * think time, then sends the next one. Throughput is bounded by the server's latency.
+   *
+   * @param virtualUsers     Number of concurrent virtual users
+   * @param thinkTimeMillis  Pause in milliseconds between a response and the next request
+   * @param deadlineNanos    System.nanoTime() at which to stop
+   * @throws InterruptedException If interrupted while waiting for the virtual users
+   */
+  public void runClosedLoop(int virtualUsers, long thinkTimeMillis, long deadlineNanos)
+      throws InterruptedException {
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < virtualUsers; i++) {
+      Thread thread = new Thread(() -> {
+        Random random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadlineNanos) {
+          Operation operation = pickOperation(random);
+          HttpRequest request = operation.newRequest(baseUrl, backend, users, random);
+          long start = System.nanoTime();
+          boolean isSuccess;
+          try {
+            HttpResponse<String> response =
+                client.send(request, HttpResponse.BodyHandlers.ofString());
+            isSuccess = operation.isSuccess(response.statusCode(), response.body());
+          } catch (IOException e) {
+            isSuccess = false;
+          } catch (InterruptedException e) {
+            return;
+          }
+          stats.get(operation).record(System.nanoTime() - start, isSuccess);
+          if (thinkTimeMillis > 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(thinkTimeMillis));
+          }
+        }
+      }, "virtual-user-" + i);
+      thread.setDaemon(true);
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  /**
+   * Run an open-loop test: requests arrive as a Poisson process at a fixed rate whether or not
+   * earlier ones have completed. Latency is measured from each request's intended start, so time
+   * spent queued behind a slow server is counted instead of hidden.
+   *
+   * @param requestsPerSecond Mean arrival rate
+   * @param maxOutstanding    Maximum number of requests in flight, beyond which arrivals are
+   *                          dropped and counted
+   * @param deadlineNanos     System.nanoTime() at which to stop sending
+   * @throws InterruptedException If interrupted while waiting for outstanding requests
+   */
+  public void runOpenLoop(double requestsPerSecond, int maxOutstanding, long deadlineNanos)
+      throws InterruptedException {
+    Random random = new Random();
+    Semaphore outstanding = new Semaphore(maxOutstanding);
+    double meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+    long intendedStart = System.nanoTime();
+
+    while (intendedStart < deadlineNanos) {
+      long delay = intendedStart - System.nanoTime();
+      if (delay > 0) {
+        LockSupport.parkNanos(delay);
+      }
+      Operation operation = pickOperation(random);
+      OperationStats operationStats = stats.get(operation);
+      if (!outstanding.tryAcquire()) {
+        operationStats.recordDropped();
+      } else {
+        long start = intendedStart;
+        client
+            .sendAsync(
+                operation.newRequest(baseUrl, backend, users, random),
+                HttpResponse.BodyHandlers.ofString()
+            )
+            .whenComplete((response, throwable) -> {
+              operationStats.record(
+                  System.nanoTime() - start,
+                  throwable == null && operation.isSuccess(response.statusCode(), response.body())
+              );
+              outstanding.release();
+            });
+      }
+      // Exponential inter-arrival times give a Poisson arrival process.
+      intendedStart += (long) (-Math.log(1 - random.nextDouble()) * meanIntervalNanos);
+    }
+    outstanding.acquire(maxOutstanding);
+  }
+
+  private Operation pickOperation(Random random) {
+    double total = 0;
+    for (double weight : mix.values()) {
+      total += weight;
+    }
+    double value = random.nextDouble() * total;
+    for (Map.Entry<Operation, Double> entry : mix.entrySet()) {
+      value -= entry.getValue();
+      if (value < 0) {
+        return entry.getKey();
+      }
+    }
+    return mix.keySet().iterator().next();
+  }
+}
@@ -0,0 +1,197 @@
+package loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import server.Server;
+
+public class LoadTest {
+  private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+  static {
+    DEFAULTS.put("mode", "closed");
+    DEFAULTS.put("port", "7070");
+    DEFAULTS.put("virtual-users", "32");
+    DEFAULTS.put("think-time-millis", "0");
+    DEFAULTS.put("rate", "200");
+    DEFAULTS.put("max-outstanding", "2000");
+    DEFAULTS.put("warmup-seconds", "10");
+    DEFAULTS.put("duration-seconds", "60");
+    DEFAULTS.put("seed-messages", "100000");
+    DEFAULTS.put("user-ids", "1000");
+    DEFAULTS.put("read-latency", "20:150");
+    DEFAULTS.put("write-latency", "30:250");
+    DEFAULTS.put("mix", "bbox:70,user:15,new:10,update:3,delete:2");
+    DEFAULTS.put("output", "");
+  }
+
+  private LoadTest() {
+  }
+
+  /**
+   * Parse --key=value arguments over the defaults.
+   *
+   * @param args     Command line arguments
+   * @param defaults Map of every known option to its default value
+   * @return Map of every option to its value
+   */
+  static Map<String, String> parseArgs(String[] args, Map<String, String> defaults) {
+    Map<String, String> options = new HashMap<>(defaults);
+    for (String arg : args) {
+      int separator = arg.indexOf('=');
+      if (!arg.startsWith("--") || separator < 0) {
+        throw new IllegalArgumentException("Expected --key=value but got " + arg);
+      }
+      String key = arg.substring(2, separator);
+      if (!defaults.containsKey(key)) {
+        throw new IllegalArgumentException("Unknown option " + key);
+      }
+      options.put(key, arg.substring(separator + 1));
+    }
+    return options;
+  }
+
+  /**
+   * Parse an operation mix of the form bbox:70,user:15,new:10.
+   *
+   * @param spec String to parse
+   * @return Map of each Operation to its relative weight
+   */
+  static Map<Operation, Double> parseMix(String spec) {
+    Map<Operation, Double> mix = new EnumMap<>(Operation.class);
+    for (String entry : spec.split(",")) {
+      String[] parts = entry.split(":");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid mix entry " + entry);
+      }
+      double weight = Double.parseDouble(parts[1]);
+      if (weight < 0) {
+        throw new IllegalArgumentException("Invalid mix weight " + entry);
+      }
+      if (weight > 0) {
+        mix.put(Operation.fromName(parts[0]), weight);
+      }
+    }
+    if (mix.isEmpty()) {
+      throw new IllegalArgumentException("Empty mix");
+    }
+    return mix;
+  }
+
+  /**
+   * Start the server against a FakeBackend, drive it with the configured load and print a JSON
+   * report of throughput, latency percentiles and error rates.
+   *
+   * @param args --key=value options overriding the defaults
+   * @throws IOException          If the report can't be written
+   * @throws InterruptedException If interrupted while running the load
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Map<String, String> options = parseArgs(args, DEFAULTS);
+    String mode = options.get("mode");
+    if (!mode.equals("closed") && !mode.equals("open")) {
+      throw new IllegalArgumentException("Unknown mode " + mode);
+    }
+
+    FakeBackend backend = startServer(options);
+    LoadGenerator generator = new LoadGenerator(
+        newHttpClient(),
+        "http://localhost:" + options.get("port"),
+        backend,
+        Integer.parseInt(options.get("user-ids")),
+        parseMix(options.get("mix"))
+    );
+
+    LoadTestReport report;
+    try {
+      run(generator, mode, options, Long.parseLong(options.get("warmup-seconds")));
+      generator.reset();
+      long start = System.nanoTime();
+      run(generator, mode, options, Long.parseLong(options.get("duration-seconds")));
+      double durationSeconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+      report = new LoadTestReport(mode, durationSeconds, generator.getStats());
+    } finally {
+      Server.stop();
+    }
+
+    writeReport(report, options.get("output"));
+  }
+
+  /**
+   * Start the server on the port option against a FakeBackend seeded and slowed down as the
+   * seed-messages, user-ids, read-latency and write-latency options say.
+   *
+   * @param options Map of options
+   * @return FakeBackend the server runs against
+   * @throws IOException If the server can't be set up
+   */
+  static FakeBackend startServer(Map<String, String> options) throws IOException {
+    FakeBackend backend = new FakeBackend(
+        LatencyDistribution.parse(options.get("read-latency")),
+        LatencyDistribution.parse(options.get("write-latency"))
+    );
+    backend.seed(
+        Integer.parseInt(options.get("seed-messages")),
+        Integer.parseInt(options.get("user-ids")),
+        new Random()
+    );
+
+    Server.setup(Integer.parseInt(options.get("port")), backend, backend, backend);
+    Server.start();
+    return backend;
+  }
+
+  static HttpClient newHttpClient() {
+    return HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  }
+
+  /**
+   * Write a report as JSON to a file, or to standard output.
+   *
+   * @param report LoadTestReport to write
+   * @param output Path of the file, or an empty string for standard output
+   * @throws IOException If the file can't be written
+   */
+  static void writeReport(LoadTestReport report, String output) throws IOException {
+    Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    if (output.isEmpty()) {
+      System.out.println(gson.toJson(report));
+    } else {
+      try (Writer writer = Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+        gson.toJson(report, writer);
+      }
+    }
+  }
+
+  private static void run(
+      LoadGenerator generator,
+      String mode,
+      Map<String, String> options,
+      long seconds
+  ) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    if (mode.equals("closed")) {
+      generator.runClosedLoop(
+          Integer.parseInt(options.get("virtual-users")),
+          Long.parseLong(options.get("think-time-millis")),
+          deadline
+      );
+    } else {
+      generator.runOpenLoop(
+          Double.parseDouble(options.get("rate")),
+          Integer.parseInt(options.get("max-outstanding")),
+          deadline
+      );
+    }
+  }
+}
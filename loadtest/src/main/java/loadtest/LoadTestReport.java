@@ -0,0 +1,118 @@
+package loadtest;
+
+import com.google.gson.annotations.SerializedName;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.HdrHistogram.Histogram;
+
+public class LoadTestReport {
+  private final String mode;
+  @SerializedName("duration_seconds")
+  private final double durationSeconds;
+  private final OperationReport total;
+  private final Map<String, OperationReport> operations;
+
+  /**
+   * Machine-readable summary of a load test run.
+   *
+   * @param mode            Arrival model, closed, open or replay
+   * @param durationSeconds Length of the measured interval in seconds
+   * @param stats           OperationStats of each operation by name, read once
+   */
+  public LoadTestReport(
+      String mode,
+      double durationSeconds,
+      Map<String, OperationStats> stats
+  ) {
+    this.mode = mode;
+    this.durationSeconds = durationSeconds;
+    this.operations = new LinkedHashMap<>();
+
+    Histogram totalHistogram = new Histogram(3);
+    long totalErrors = 0;
+    long totalDropped = 0;
+    for (Map.Entry<String, OperationStats> entry : stats.entrySet()) {
+      Histogram histogram = entry.getValue().getIntervalHistogram();
+      long errors = entry.getValue().getErrorCount();
+      long dropped = entry.getValue().getDroppedCount();
+      if (histogram.getTotalCount() + dropped > 0) {
+        operations.put(
+            entry.getKey(),
+            new OperationReport(histogram, errors, dropped, durationSeconds)
+        );
+      }
+      totalHistogram.add(histogram);
+      totalErrors += errors;
+      totalDropped += dropped;
+    }
+    this.total = new OperationReport(totalHistogram, totalErrors, totalDropped, durationSeconds);
+  }
+
+  public OperationReport getTotal() {
+    return total;
+  }
+
+  public Map<String, OperationReport> getOperations() {
+    return operations;
+  }
+
+  public static class OperationReport {
+    private final long requests;
+    private final long errors;
+    private final long dropped;
+    @SerializedName("error_rate")
+    private final double errorRate;
+    @SerializedName("throughput_per_second")
+    private final double throughputPerSecond;
+    @SerializedName("latency_millis")
+    private final Map<String, Double> latencyMillis;
+
+    /**
+     * Summary of one operation, or of all of them.
+     *
+     * @param histogram       Histogram of latencies in microseconds
+     * @param errors          Number of failed requests
+     * @param dropped         Number of requests never sent because too many were outstanding
+     * @param durationSeconds Length of the measured interval in seconds
+     */
+    public OperationReport(
+        Histogram histogram,
+        long errors,
+        long dropped,
+        double durationSeconds
+    ) {
+      this.requests = histogram.getTotalCount();
+      this.errors = errors;
+      this.dropped = dropped;
+      long attempts = requests + dropped;
+      this.errorRate = attempts == 0 ? 0 : (double) (errors + dropped) / attempts;
+      this.throughputPerSecond = durationSeconds == 0 ? 0 : requests / durationSeconds;
+      this.latencyMillis = new LinkedHashMap<>();
+      latencyMillis.put("mean", histogram.getMean() / 1000);
+      latencyMillis.put("p50", histogram.getValueAtPercentile(50) / 1000.0);
+      latencyMillis.put("p99", histogram.getValueAtPercentile(99) / 1000.0);
+      latencyMillis.put("p999", histogram.getValueAtPercentile(99.9) / 1000.0);
+      latencyMillis.put("max", histogram.getMaxValue() / 1000.0);
+    }
+
+    public long getRequests() {
+      return requests;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+
+    public double getErrorRate() {
+      return errorRate;
+    }
+
+    public double getThroughputPerSecond() {
+      return throughputPerSecond;
+    }
+
+    public Map<String, Double> getLatencyMillis() {
+      return latencyMillis;
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.Random;
+import java.util.UUID;
+import message.Message;
+import requests.FindMessagesByBoundingBoxRequest;
+import requests.MessageRequest;
+
+public enum Operation {
+  BOUNDING_BOX("bbox", false),
+  USER("user", false),
+  NEW("new", true),
+  UPDATE("update", true),
+  DELETE("delete", true);
+
+  private static final Gson gson = new Gson();
+  // Largest viewport side in degrees, roughly a zoomed out city view.
+  private static final double MAX_VIEWPORT_DEGREES = 5;
+  private static final int MAX_RECORDS = 100;
+
+  private final String name;
+  private final boolean isWrite;
+
+  Operation(String name, boolean isWrite) {
+    this.name = name;
+    this.isWrite = isWrite;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Find the operation with a name.
+   *
+   * @param name Name of the operation, such as bbox
+   * @return Operation with the name
+   */
+  public static Operation fromName(String name) {
+    for (Operation operation : values()) {
+      if (operation.name.equals(name)) {
+        return operation;
+      }
+    }
+    throw new IllegalArgumentException("Unknown operation " + name);
+  }
+
+  /**
+   * Build a random request for the operation. Updates and deletes target messages that exist in
+   * the backend, using the owner's user ID.
+   *
+   * @param baseUrl Base URL of the server, such as http://localhost:8080
+   * @param backend FakeBackend the server runs against
+   * @param users   Number of distinct user IDs
+   * @param random  Random used to build the request
+   * @return HttpRequest for the operation
+   */
+  public HttpRequest newRequest(String baseUrl, FakeBackend backend, int users, Random random) {
+    String userId = FakeBackend.getUserId(random.nextInt(users));
+    String path;
+    Object body;
+    switch (this) {
+      case BOUNDING_BOX:
+        double latitude = random.nextDouble() * 180 - 90;
+        double longitude = random.nextDouble() * 360 - 180;
+        double size = random.nextDouble() * MAX_VIEWPORT_DEGREES;
+        path = "/messages";
+        body = new FindMessagesByBoundingBoxRequest(
+            latitude,
+            Math.min(90, latitude + size),
+            longitude,
+            Math.min(180, longitude + size),
+            MAX_RECORDS
+        );
+        break;
+      case USER:
+        path = "/messages/" + userId;
+        body = null;
+        break;
+      case NEW:
+        path = "/messages/" + userId + "/new";
+        body = getMessageRequest(random);
+        break;
+      default:
+        Message message = backend.pickMessage(random, this == DELETE);
+        String recordId = message == null ? UUID.randomUUID().toString() : message.getId();
+        if (message != null) {
+          userId = message.getUserId();
+        }
+        path = "/messages/" + userId + (this == DELETE ? "/delete/" : "/update/") + recordId;
+        body = this == DELETE ? null : getMessageRequest(random);
+        break;
+    }
+    return HttpRequest
+        .newBuilder(URI.create(baseUrl + path))
+        .POST(body == null
+            ? HttpRequest.BodyPublishers.noBody()
+            : HttpRequest.BodyPublishers.ofString(gson.toJson(body)))
+        .build();
+  }
+
+  /**
+   * Check whether the server answered the operation successfully. The server answers errors with
+   * HTTP 200 as well, so the body is checked too.
+   *
+   * @param statusCode HTTP status code of the response
+   * @param body       Body of the response
+   * @return True if the operation succeeded
+   */
+  public boolean isSuccess(int statusCode, String body) {
+    return isSuccess(statusCode, body, isWrite);
+  }
+
+  /**
+   * Check whether the server answered a request successfully. Writes must report a 201 response
+   * code and queries must return a JSON object.
+   *
+   * @param statusCode HTTP status code of the response
+   * @param body       Body of the response
+   * @param isWrite    True if the request was a write
+   * @return True if the request succeeded
+   */
+  static boolean isSuccess(int statusCode, String body, boolean isWrite) {
+    if (statusCode != 200) {
+      return false;
+    }
+    try {
+      JsonElement element = JsonParser.parseString(body);
+      if (!element.isJsonObject()) {
+        return false;
+      }
+      JsonObject object = element.getAsJsonObject();
+      if (isWrite) {
+        return object.has("response_code") && object.get("response_code").getAsInt() == 201;
+      }
+      return true;
+    } catch (JsonSyntaxException | IllegalStateException | NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static MessageRequest getMessageRequest(Random random) {
+    return new MessageRequest(
+        "https://example.com/" + random.nextInt(1000) + ".jpg",
+        "Load test message",
+        random.nextDouble() * 180 - 90,
+        random.nextDouble() * 360 - 180
+    );
+  }
+}
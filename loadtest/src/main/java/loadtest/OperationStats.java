@@ -0,0 +1,65 @@
+package loadtest;
+
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+public class OperationStats {
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+  private final LongAdder errorCount = new LongAdder();
+  private final LongAdder droppedCount = new LongAdder();
+
+  /**
+   * Latency and outcome counts of one operation, safe to record from any number of threads.
+   */
+  public OperationStats() {
+  }
+
+  /**
+   * Record a completed request.
+   *
+   * @param latencyNanos Latency of the request in nanoseconds
+   * @param isSuccess    True if the request succeeded
+   */
+  public void record(long latencyNanos, boolean isSuccess) {
+    recorder.recordValue(Math.max(1, latencyNanos / 1000));
+    if (!isSuccess) {
+      errorCount.increment();
+    }
+  }
+
+  /**
+   * Record a request the open-loop generator could not send because too many were outstanding.
+   */
+  public void recordDropped() {
+    droppedCount.increment();
+  }
+
+  /**
+   * Discard everything recorded so far, such as at the end of the warmup.
+   */
+  public void reset() {
+    recorder.reset();
+    errorCount.reset();
+    droppedCount.reset();
+  }
+
+  /**
+   * Get the latencies recorded since the last call or reset, in microseconds.
+   *
+   * @return Histogram of latencies in microseconds
+   */
+  public Histogram getIntervalHistogram() {
+    return recorder.getIntervalHistogram();
+  }
+
+  public long getErrorCount() {
+    return errorCount.sum();
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.sum();
+  }
+}
@@ -0,0 +1,180 @@
+package loadtest;
+
+import capture.CaptureReader;
+import capture.CaptureRecord;
+import capture.TrafficCapture;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import server.Server;
+
+public class Replay {
+  private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+  static {
+    DEFAULTS.put("capture", "");
+    DEFAULTS.put("speed", "1");
+    DEFAULTS.put("target", "");
+    DEFAULTS.put("max-outstanding", "2000");
+    DEFAULTS.put("port", "7070");
+    DEFAULTS.put("seed-messages", "100000");
+    DEFAULTS.put("user-ids", "1000");
+    DEFAULTS.put("read-latency", "20:150");
+    DEFAULTS.put("write-latency", "30:250");
+    DEFAULTS.put("output", "");
+  }
+
+  private final HttpClient client;
+  private final String baseUrl;
+  private final double speed;
+  private final Semaphore outstanding;
+  private final int maxOutstanding;
+  private final Map<String, OperationStats> stats = new TreeMap<>();
+
+  /**
+   * Re-issues captured requests against a server, keeping their relative arrival times scaled by
+   * a speed factor. Latency is measured from each request's scheduled time, as in the open-loop
+   * load test.
+   *
+   * @param client         HttpClient sending the requests
+   * @param baseUrl        Base URL of the server, such as http://localhost:7070
+   * @param speed          Replay speed, 1 for the captured rate and N for N times faster
+   * @param maxOutstanding Maximum number of requests in flight, beyond which requests are dropped
+   *                       and counted
+   */
+  public Replay(HttpClient client, String baseUrl, double speed, int maxOutstanding) {
+    if (speed <= 0) {
+      throw new IllegalArgumentException("Invalid speed " + speed);
+    }
+    this.client = client;
+    this.baseUrl = baseUrl;
+    this.speed = speed;
+    this.outstanding = new Semaphore(maxOutstanding);
+    this.maxOutstanding = maxOutstanding;
+  }
+
+  public Map<String, OperationStats> getStats() {
+    return stats;
+  }
+
+  /**
+   * Replay capture logs in order, as one timeline starting with their first request.
+   *
+   * @param files List of capture log paths, oldest first
+   * @throws IOException          If a log can't be read
+   * @throws InterruptedException If interrupted while waiting for outstanding requests
+   */
+  public void replay(List<Path> files) throws IOException, InterruptedException {
+    long replayStartNanos = System.nanoTime();
+    long firstArrivalMicros = -1;
+    for (Path file : files) {
+      try (CaptureReader reader = new CaptureReader(file)) {
+        long fileStartMicros = TimeUnit.MILLISECONDS.toMicros(reader.getStartEpochMillis());
+        CaptureRecord record;
+        while ((record = reader.next()) != null) {
+          long arrivalMicros = fileStartMicros + record.getOffsetMicros();
+          if (firstArrivalMicros < 0) {
+            firstArrivalMicros = arrivalMicros;
+          }
+          long scheduledNanos = replayStartNanos
+              + (long) (TimeUnit.MICROSECONDS.toNanos(arrivalMicros - firstArrivalMicros) / speed);
+          long delay = scheduledNanos - System.nanoTime();
+          if (delay > 0) {
+            LockSupport.parkNanos(delay);
+          }
+          send(record, scheduledNanos);
+        }
+      }
+    }
+    outstanding.acquire(maxOutstanding);
+  }
+
+  private void send(CaptureRecord record, long scheduledNanos) {
+    OperationStats operationStats =
+        stats.computeIfAbsent(record.getRoute(), route -> new OperationStats());
+    if (!outstanding.tryAcquire()) {
+      operationStats.recordDropped();
+      return;
+    }
+    boolean isWrite = isWrite(record.getRoute());
+    HttpRequest request = HttpRequest
+        .newBuilder(URI.create(baseUrl + record.getPath()))
+        .POST(HttpRequest.BodyPublishers.ofByteArray(record.getBody()))
+        .build();
+    client
+        .sendAsync(request, HttpResponse.BodyHandlers.ofString())
+        .whenComplete((response, throwable) -> {
+          operationStats.record(
+              System.nanoTime() - scheduledNanos,
+              throwable == null
+                  && Operation.isSuccess(response.statusCode(), response.body(), isWrite)
+          );
+          outstanding.release();
+        });
+  }
+
+  private static boolean isWrite(String route) {
+    return route.endsWith("/new")
+        || route.endsWith("/:user_id/batch")
+        || route.contains("/update/")
+        || route.contains("/delete/");
+  }
+
+  /**
+   * Replay a traffic capture against a server and print a JSON report of throughput, latency
+   * percentiles and error rates per route. Without a target URL the server is started in-process
+   * against a FakeBackend, as in LoadTest. Captured user IDs are hashes, so user queries and
+   * updates of captured records only exercise the lookups rather than finding data.
+   *
+   * @param args --key=value options overriding the defaults; --capture is a capture log or a
+   *             directory of them
+   * @throws IOException          If the capture can't be read or the report written
+   * @throws InterruptedException If interrupted while replaying
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Map<String, String> options = LoadTest.parseArgs(args, DEFAULTS);
+    Path capture = Paths.get(options.get("capture"));
+    List<Path> files = Files.isDirectory(capture)
+        ? TrafficCapture.getFiles(capture)
+        : Collections.singletonList(capture);
+
+    String target = options.get("target");
+    boolean isInProcess = target.isEmpty();
+    if (isInProcess) {
+      LoadTest.startServer(options);
+      target = "http://localhost:" + options.get("port");
+    }
+
+    Replay replay = new Replay(
+        LoadTest.newHttpClient(),
+        target,
+        Double.parseDouble(options.get("speed")),
+        Integer.parseInt(options.get("max-outstanding"))
+    );
+    LoadTestReport report;
+    try {
+      long start = System.nanoTime();
+      replay.replay(files);
+      double durationSeconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+      report = new LoadTestReport("replay", durationSeconds, replay.getStats());
+    } finally {
+      if (isInProcess) {
+        Server.stop();
+      }
+    }
+    LoadTest.writeReport(report, options.get("output"));
+  }
+}
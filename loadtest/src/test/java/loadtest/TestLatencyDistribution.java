@@ -0,0 +1,48 @@
+package loadtest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class TestLatencyDistribution {
+
+  @Test
+  public void testPercentilesMatchParameters() {
+    LatencyDistribution distribution = new LatencyDistribution(20, 150);
+    Random random = new Random(1);
+    long[] samples = new long[100000];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = distribution.sampleNanos(random);
+    }
+    Arrays.sort(samples);
+
+    double millis = TimeUnit.MILLISECONDS.toNanos(1);
+    assertEquals(20, samples[samples.length / 2] / millis, 1);
+    assertEquals(150, samples[samples.length * 99 / 100] / millis, 10);
+  }
+
+  @Test
+  public void testParse() {
+    Random random = new Random(1);
+
+    assertEquals(0, LatencyDistribution.parse("0").sampleNanos(random));
+    assertEquals(
+        TimeUnit.MILLISECONDS.toNanos(5),
+        LatencyDistribution.parse("5").sampleNanos(random),
+        1
+    );
+    assertThrows(IllegalArgumentException.class, () -> LatencyDistribution.parse("20:10"));
+    assertThrows(IllegalArgumentException.class, () -> LatencyDistribution.parse("1:2:3"));
+  }
+
+  @Test
+  public void testParseMix() {
+    assertEquals(2, LoadTest.parseMix("bbox:1,user:1,new:0").size());
+    assertThrows(IllegalArgumentException.class, () -> LoadTest.parseMix("bbox:0"));
+    assertThrows(IllegalArgumentException.class, () -> LoadTest.parseMix("unknown:1"));
+  }
+}
@@ -0,0 +1,69 @@
+package capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+public class CaptureReader implements Closeable {
+  private final DataInputStream input;
+  private final long startEpochMillis;
+  private long previousOffsetMicros;
+
+  /**
+   * Reader of a capture log written by TrafficCapture.
+   *
+   * @param file Path of the capture log
+   * @throws IOException If the file can't be opened or is not a capture log
+   */
+  public CaptureReader(Path file) throws IOException {
+    input = new DataInputStream(new BufferedInputStream(
+        new GZIPInputStream(Files.newInputStream(file))
+    ));
+    try {
+      if (input.readInt() != TrafficCapture.MAGIC
+          || input.readByte() != TrafficCapture.VERSION) {
+        throw new IOException("Not a capture log: " + file);
+      }
+      startEpochMillis = input.readLong();
+    } catch (IOException e) {
+      input.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Get the wall clock time the capture started, which record offsets are relative to.
+   *
+   * @return Start time in milliseconds since the epoch
+   */
+  public long getStartEpochMillis() {
+    return startEpochMillis;
+  }
+
+  /**
+   * Read the next record. A record cut short at the end of the file, such as by a crash, is
+   * treated as the end of the log.
+   *
+   * @return Next CaptureRecord, or null at the end of the log
+   * @throws IOException If the file can't be read
+   */
+  public CaptureRecord next() throws IOException {
+    try {
+      CaptureRecord record = CaptureRecord.read(input, previousOffsetMicros);
+      previousOffsetMicros = record.getOffsetMicros();
+      return record;
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+}
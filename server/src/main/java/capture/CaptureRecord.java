@@ -0,0 +1,175 @@
+package capture;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+public class CaptureRecord {
+  private static final int HAS_USER = 1;
+  private static final int HAS_RECORD = 2;
+
+  private final long offsetMicros;
+  private final String route;
+  private final String userHash;
+  private final String recordHash;
+  private final byte[] body;
+
+  /**
+   * Captured request, as written to and read from a capture log.
+   *
+   * @param offsetMicros Arrival time in microseconds since the capture started
+   * @param route        Route the request matched, such as /messages/:user_id
+   * @param userHash     Hash of the user_id path parameter, or null if the route has none
+   * @param recordHash   Hash of the record_id path parameter, or null if the route has none
+   * @param body         Request body
+   */
+  public CaptureRecord(
+      long offsetMicros,
+      String route,
+      String userHash,
+      String recordHash,
+      byte[] body
+  ) {
+    this.offsetMicros = offsetMicros;
+    this.route = route;
+    this.userHash = userHash;
+    this.recordHash = recordHash;
+    this.body = body.clone();
+  }
+
+  public long getOffsetMicros() {
+    return offsetMicros;
+  }
+
+  public String getRoute() {
+    return route;
+  }
+
+  public String getUserHash() {
+    return userHash;
+  }
+
+  public String getRecordHash() {
+    return recordHash;
+  }
+
+  public byte[] getBody() {
+    return body.clone();
+  }
+
+  /**
+   * Get the request path with the route's parameters replaced by their hashes.
+   *
+   * @return Path such as /messages/1f2e3d4c5b6a7980/new
+   */
+  public String getPath() {
+    String path = route;
+    if (userHash != null) {
+      path = path.replace(":user_id", userHash);
+    }
+    if (recordHash != null) {
+      path = path.replace(":record_id", recordHash);
+    }
+    return path;
+  }
+
+  /**
+   * Write the record. Arrival times are stored as the difference to the previous record of the
+   * file, and hashes as 64-bit values.
+   *
+   * @param output               DataOutput to write to
+   * @param previousOffsetMicros Arrival offset of the previous record of the file, or 0
+   * @throws IOException If the output can't be written
+   */
+  public void write(DataOutput output, long previousOffsetMicros) throws IOException {
+    writeVarLong(output, zigZag(offsetMicros - previousOffsetMicros));
+    output.writeUTF(route);
+    output.writeByte((userHash != null ? HAS_USER : 0) | (recordHash != null ? HAS_RECORD : 0));
+    if (userHash != null) {
+      output.writeLong(Long.parseUnsignedLong(userHash, 16));
+    }
+    if (recordHash != null) {
+      output.writeLong(Long.parseUnsignedLong(recordHash, 16));
+    }
+    writeVarLong(output, body.length);
+    output.write(body);
+  }
+
+  /**
+   * Read a record written by write.
+   *
+   * @param input                DataInput to read from
+   * @param previousOffsetMicros Arrival offset of the previous record of the file, or 0
+   * @return CaptureRecord read
+   * @throws IOException If the input can't be read or ends in the middle of a record
+   */
+  public static CaptureRecord read(DataInput input, long previousOffsetMicros)
+      throws IOException {
+    long offsetMicros = previousOffsetMicros + unZigZag(readVarLong(input));
+    String route = input.readUTF();
+    int flags = input.readByte();
+    String userHash = (flags & HAS_USER) != 0 ? toHash(input.readLong()) : null;
+    String recordHash = (flags & HAS_RECORD) != 0 ? toHash(input.readLong()) : null;
+    byte[] body = new byte[Math.toIntExact(readVarLong(input))];
+    input.readFully(body);
+    return new CaptureRecord(offsetMicros, route, userHash, recordHash, body);
+  }
+
+  static String toHash(long value) {
+    return String.format("%016x", value);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    CaptureRecord that = (CaptureRecord) o;
+    return offsetMicros == that.offsetMicros
+        && route.equals(that.route)
+        && Objects.equals(userHash, that.userHash)
+        && Objects.equals(recordHash, that.recordHash)
+        && Arrays.equals(body, that.body);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Objects.hash(offsetMicros, route, userHash, recordHash)
+        + Arrays.hashCode(body);
+  }
+
+  // Arrivals from different request threads can be queued slightly out of order, so deltas may be
+  // negative.
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static void writeVarLong(DataOutput output, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      output.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    output.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInput input) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = input.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable length number");
+  }
+}
@@ -0,0 +1,51 @@
+package capture;
+
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+public class CapturingHandler implements Handler {
+  private static final String USER_ID = ":user_id";
+  private static final String RECORD_ID = ":record_id";
+  private static final byte[] EMPTY = new byte[0];
+
+  private final TrafficCapture capture;
+  private final String route;
+  private final long maxBodyBytes;
+  private final Handler handler;
+
+  /**
+   * Handler recording each request to a TrafficCapture before passing it on. Bodies over the
+   * limit are recorded as empty, since Javalin only keeps bodies up to its request cache size
+   * readable a second time.
+   *
+   * @param capture      TrafficCapture recording the requests
+   * @param route        Route the handler is registered for
+   * @param maxBodyBytes Largest body in bytes that is recorded
+   * @param handler      Handler serving the request
+   */
+  public CapturingHandler(
+      TrafficCapture capture,
+      String route,
+      long maxBodyBytes,
+      Handler handler
+  ) {
+    this.capture = capture;
+    this.route = route;
+    this.maxBodyBytes = maxBodyBytes;
+    this.handler = handler;
+  }
+
+  @Override
+  public void handle(Context ctx) throws Exception {
+    long arrivalNanos = System.nanoTime();
+    long contentLength = ctx.req.getContentLengthLong();
+    capture.record(
+        arrivalNanos,
+        route,
+        route.contains(USER_ID) ? ctx.pathParam(USER_ID.substring(1)) : null,
+        route.contains(RECORD_ID) ? ctx.pathParam(RECORD_ID.substring(1)) : null,
+        contentLength >= 0 && contentLength <= maxBodyBytes ? ctx.bodyAsBytes() : EMPTY
+    );
+    handler.handle(ctx);
+  }
+}
@@ -0,0 +1,224 @@
+package capture;
+
+import com.google.common.hash.Hashing;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TrafficCapture {
+  static final int MAGIC = 0x4d4b4350;
+  static final int VERSION = 1;
+  static final String FILE_PREFIX = "capture-";
+  static final String FILE_SUFFIX = ".bin.gz";
+
+  private static final Logger logger = LoggerFactory.getLogger(TrafficCapture.class);
+
+  private final Path directory;
+  private final long maxFileBytes;
+  private final int maxFiles;
+  private final String salt;
+  private final BlockingQueue<CaptureRecord> queue;
+  private final long startNanos = System.nanoTime();
+  private final long startEpochMillis = System.currentTimeMillis();
+  private final Thread writer;
+  private final LongAdder droppedCount = new LongAdder();
+  private final LongAdder recordCount = new LongAdder();
+
+  // Only used by the writer thread.
+  private DataOutputStream output;
+  private long previousOffsetMicros;
+  private int fileIndex;
+
+  /**
+   * Capture of incoming requests written by a background thread to rotating gzipped binary logs,
+   * for replay against a local server. User and record IDs are replaced by stable salted hashes,
+   * so the same user maps to the same hash across the whole capture.
+   *
+   * @param directory    Directory the logs are written to
+   * @param maxFileBytes Uncompressed size in bytes after which a new log is started
+   * @param maxFiles     Number of logs kept; the oldest are deleted
+   * @param queueSize    Maximum number of requests waiting to be written before new ones are
+   *                     dropped
+   * @param salt         Salt mixed into the ID hashes
+   * @throws IOException If the directory can't be created
+   */
+  public TrafficCapture(
+      Path directory,
+      long maxFileBytes,
+      int maxFiles,
+      int queueSize,
+      String salt
+  ) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.maxFileBytes = maxFileBytes;
+    this.maxFiles = maxFiles;
+    this.salt = salt;
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.writer = new Thread(this::write, "traffic-capture");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Queue a request to be written. Never blocks; requests are dropped while the queue is full.
+   *
+   * @param arrivalNanos System.nanoTime() at which the request arrived
+   * @param route        Route the request matched
+   * @param userId       user_id path parameter, or null
+   * @param recordId     record_id path parameter, or null
+   * @param body         Request body
+   */
+  public void record(
+      long arrivalNanos,
+      String route,
+      String userId,
+      String recordId,
+      byte[] body
+  ) {
+    CaptureRecord record = new CaptureRecord(
+        TimeUnit.NANOSECONDS.toMicros(arrivalNanos - startNanos),
+        route,
+        userId == null ? null : hash(userId),
+        recordId == null ? null : hash(recordId),
+        body
+    );
+    if (!queue.offer(record)) {
+      droppedCount.increment();
+    }
+  }
+
+  /**
+   * Hash an ID with the capture's salt.
+   *
+   * @param id ID to hash
+   * @return Hash as 16 hexadecimal digits
+   */
+  public String hash(String id) {
+    return CaptureRecord.toHash(
+        Hashing.sha256().hashString(salt + id, StandardCharsets.UTF_8).asLong()
+    );
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.sum();
+  }
+
+  public long getRecordCount() {
+    return recordCount.sum();
+  }
+
+  /**
+   * Stop the writer thread after it has written every queued request, and close the current log.
+   *
+   * @throws InterruptedException If interrupted while waiting for the writer thread
+   */
+  public void shutdown() throws InterruptedException {
+    writer.interrupt();
+    writer.join();
+  }
+
+  private void write() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        CaptureRecord record;
+        try {
+          record = queue.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        writeRecord(record);
+      }
+      List<CaptureRecord> remaining = new ArrayList<>();
+      queue.drainTo(remaining);
+      for (CaptureRecord record : remaining) {
+        writeRecord(record);
+      }
+    } finally {
+      closeFile();
+    }
+  }
+
+  private void writeRecord(CaptureRecord record) {
+    try {
+      if (output == null || output.size() >= maxFileBytes) {
+        closeFile();
+        openFile();
+      }
+      record.write(output, previousOffsetMicros);
+      previousOffsetMicros = record.getOffsetMicros();
+      recordCount.increment();
+    } catch (IOException e) {
+      droppedCount.increment();
+      logger.warn("Failed to write traffic capture", e);
+      closeFile();
+    }
+  }
+
+  private void openFile() throws IOException {
+    // Zero-padded so the logs sort in capture order by name.
+    Path file = directory.resolve(
+        String.format("%s%d-%06d%s", FILE_PREFIX, startEpochMillis, fileIndex++, FILE_SUFFIX)
+    );
+    output = new DataOutputStream(new BufferedOutputStream(
+        new GZIPOutputStream(Files.newOutputStream(file))
+    ));
+    output.writeInt(MAGIC);
+    output.writeByte(VERSION);
+    output.writeLong(startEpochMillis);
+    previousOffsetMicros = 0;
+    deleteOldFiles();
+  }
+
+  private void closeFile() {
+    if (output == null) {
+      return;
+    }
+    try {
+      output.close();
+    } catch (IOException e) {
+      logger.warn("Failed to close traffic capture", e);
+    }
+    output = null;
+  }
+
+  private void deleteOldFiles() throws IOException {
+    List<Path> files = getFiles(directory);
+    for (int i = 0; i < files.size() - maxFiles; i++) {
+      Files.deleteIfExists(files.get(i));
+    }
+  }
+
+  /**
+   * List the capture logs in a directory in capture order.
+   *
+   * @param directory Directory holding capture logs
+   * @return List of capture log paths, oldest first
+   * @throws IOException If the directory can't be listed
+   */
+  public static List<Path> getFiles(Path directory) throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+      for (Path file : stream) {
+        files.add(file);
+      }
+    }
+    Collections.sort(files);
+    return files;
+  }
+}
@@ -17,10 +17,148 @@ public class Constants {
   public static final String FIRESTORE_URL = "https://magikarp-295201.firebaseio.com";
 
   public static final String COLLECTION_PATH = "messages";
+  // A document by record ID for every deleted message, with the time it was deleted, so servers
+  // resuming from a message snapshot see deletes of older messages. Only written when
+  // MESSAGE_SNAPSHOT_PATH is set, see MESSAGE_DELETES_RETENTION_MILLIS.
+  public static final String DELETES_COLLECTION_PATH = "message_deletes";
 
   public static final String PROJECT_ID = "magikarp-295201";
   public static final String GCS_BUCKET_ROOT = "https://storage.googleapis.com/";
   public static final String PROJECT_BUCKET = "magikarp-images";
   public static final String FULL_PROJECT_BUCKET = GCS_BUCKET_ROOT + PROJECT_BUCKET;
 
+  // Maximum number of unacknowledged pushes per viewport subscriber before events are dropped.
+  public static final int SUBSCRIBER_MAX_PENDING_MESSAGES = 64;
+  // Size in degrees of the tile grid concurrent bounding box queries are coalesced on.
+  public static final double COALESCING_TILE_DEGREES = 0.1;
+  // Snapped boxes covering more tiles than this are fetched with the caller's limit rather than
+  // without one, and only coalesced with queries for the same box and limit.
+  public static final int COALESCING_MAX_UNLIMITED_TILES = 64;
+  // Bounding box queries arriving within this window share a single scan of the messages.
+  public static final long BATCH_QUERY_WINDOW_MILLIS = 5;
+  public static final int BATCH_QUERY_THREADS = 4;
+  // Limits for the /messages/batch endpoint.
+  public static final int BATCH_ENDPOINT_MAX_QUERIES = 64;
+  public static final int BATCH_ENDPOINT_THREADS = 16;
+  public static final int BATCH_ENDPOINT_MAX_ZOOM = 22;
+  // Limits for the /messages/:user_id/batch endpoint. Firestore allows 500 writes per batch.
+  public static final int BATCH_POST_MAX_MESSAGES = 5000;
+  public static final int BATCH_POST_CHUNK_SIZE = 500;
+  public static final int BATCH_POST_MAX_IN_FLIGHT_CHUNKS = 4;
+  // Requests slower than this are always written to the slow request log, along with a sample of
+  // the others.
+  public static final long TRACE_SLOW_REQUEST_MILLIS = 500;
+  public static final double TRACE_SAMPLE_RATE = 0.001;
+  public static final int TRACE_LOG_QUEUE_SIZE = 1024;
+  // Maximum number of Firestore documents a message scan may read for one request. Once the
+  // collection outgrows it, scans are answered from a cached scan refreshed in the background, or
+  // from a sample of READ_BUDGET_DOCUMENTS documents once the cached scan is too stale.
+  public static final int READ_BUDGET_DOCUMENTS = 20000;
+  public static final long READ_BUDGET_REFRESH_MILLIS = 10000;
+  public static final long READ_BUDGET_MAX_STALENESS_MILLIS = 120000;
+  // Setting TRAFFIC_CAPTURE_DIR records incoming requests there for replay, with user and record
+  // IDs hashed with the optional TRAFFIC_CAPTURE_SALT.
+  public static final String CAPTURE_DIR_ENV_VAR = "TRAFFIC_CAPTURE_DIR";
+  public static final String CAPTURE_SALT_ENV_VAR = "TRAFFIC_CAPTURE_SALT";
+  public static final long CAPTURE_MAX_FILE_BYTES = 64L * 1024 * 1024;
+  public static final int CAPTURE_MAX_FILES = 16;
+  public static final int CAPTURE_QUEUE_SIZE = 4096;
+  public static final long CAPTURE_MAX_BODY_BYTES = 1024 * 1024;
+  // Adaptive concurrency limits of the read and write routes. Requests over the limit are
+  // rejected with 503 and asked to retry after LIMIT_RETRY_AFTER_SECONDS.
+  public static final int READ_LIMIT_INITIAL = 64;
+  public static final int READ_LIMIT_MIN = 8;
+  public static final int READ_LIMIT_MAX = 200;
+  public static final int WRITE_LIMIT_INITIAL = 32;
+  public static final int WRITE_LIMIT_MIN = 4;
+  public static final int WRITE_LIMIT_MAX = 100;
+  public static final double LIMIT_BACKOFF_RATIO = 0.9;
+  public static final double LIMIT_LATENCY_TOLERANCE = 2.0;
+  // The latency baseline of a route is this percentile of its last successful requests.
+  public static final int LIMIT_BASELINE_WINDOW = 100;
+  public static final double LIMIT_BASELINE_PERCENTILE = 0.1;
+  public static final long LIMIT_RETRY_AFTER_SECONDS = 1;
+  // Thread pools serving the read and write routes, so a burst of one can't take the Jetty threads
+  // the other needs. Each class holds at most threads + queue Jetty threads.
+  public static final int READ_BULKHEAD_THREADS = 64;
+  public static final int READ_BULKHEAD_QUEUE_SIZE = 64;
+  public static final int WRITE_BULKHEAD_THREADS = 16;
+  public static final int WRITE_BULKHEAD_QUEUE_SIZE = 32;
+  // Deadlines of read and write requests without an X-Request-Timeout-Millis header, and the
+  // longest a client may ask for. Firestore calls made outside of a request, such as shared scans,
+  // wait at most DEADLINE_DEFAULT_WAIT_MILLIS.
+  public static final long READ_TIMEOUT_MILLIS = 5000;
+  public static final long WRITE_TIMEOUT_MILLIS = 10000;
+  public static final long MAX_TIMEOUT_MILLIS = 30000;
+  public static final long DEADLINE_DEFAULT_WAIT_MILLIS = 60000;
+  // Circuit breaker around message queries. It opens when half of the last BREAKER_WINDOW_SIZE
+  // calls failed or were slower than BREAKER_SLOW_CALL_MILLIS, and probes the backend again after
+  // BREAKER_OPEN_MILLIS. Meanwhile reads get the last known good results for the user or area,
+  // refreshed in the background once older than BREAKER_REVALIDATE_MILLIS.
+  public static final int BREAKER_WINDOW_SIZE = 100;
+  public static final int BREAKER_MIN_CALLS = 20;
+  public static final double BREAKER_FAILURE_RATE = 0.5;
+  public static final long BREAKER_SLOW_CALL_MILLIS = 2000;
+  public static final double BREAKER_SLOW_CALL_RATE = 0.5;
+  public static final long BREAKER_OPEN_MILLIS = 5000;
+  public static final int BREAKER_HALF_OPEN_PROBES = 3;
+  // Maximum number of messages held across the last known good results of every user and area.
+  public static final long BREAKER_CACHE_MAX_MESSAGES = 500000;
+  public static final long BREAKER_REVALIDATE_MILLIS = 5000;
+  public static final int BREAKER_REFRESH_THREADS = 2;
+  public static final int BREAKER_REFRESH_QUEUE_SIZE = 64;
+  // Setting MESSAGE_INDEX to true keeps the messages in an in-memory index updated by a Firestore
+  // listener, instead of reading the collection for bounding box queries.
+  public static final String MESSAGE_INDEX_ENV_VAR = "MESSAGE_INDEX";
+  public static final int MESSAGE_INDEX_BLOCK_SIZE = 512;
+  public static final long MESSAGE_INDEX_LOAD_TIMEOUT_MILLIS = 60000;
+  // A failed index listener registers again after a delay doubling up to the maximum.
+  public static final long MESSAGE_INDEX_RETRY_INITIAL_MILLIS = 500;
+  public static final long MESSAGE_INDEX_RETRY_MAX_MILLIS = 30000;
+  // Setting MESSAGE_SNAPSHOT_PATH to a file on a persistent volume writes the message index there
+  // every MESSAGE_SNAPSHOT_INTERVAL_MILLIS. Restarted servers load it and only read the messages
+  // written and deleted since, starting MESSAGE_SNAPSHOT_OVERLAP_MILLIS early to allow for clock
+  // skew.
+  public static final String MESSAGE_SNAPSHOT_PATH_ENV_VAR = "MESSAGE_SNAPSHOT_PATH";
+  public static final long MESSAGE_SNAPSHOT_INTERVAL_MILLIS = 300000;
+  public static final long MESSAGE_SNAPSHOT_OVERLAP_MILLIS = 60000;
+  // With MESSAGE_SNAPSHOT_PATH set, every delete also writes a record to DELETES_COLLECTION_PATH,
+  // two document writes instead of one, so servers sharing a database should all set it or none.
+  // Records older than MESSAGE_DELETES_RETENTION_MILLIS are pruned every
+  // MESSAGE_DELETES_PRUNE_INTERVAL_MILLIS, and snapshots older than that are ignored. A Firestore
+  // TTL policy on the records' timestamp field can delete them instead.
+  public static final long MESSAGE_DELETES_RETENTION_MILLIS = 604800000;
+  public static final long MESSAGE_DELETES_PRUNE_INTERVAL_MILLIS = 3600000;
+  // The message index also keeps Roaring bitmaps of the messages by user, hour and 0.1 degree cell,
+  // for queries combining them. Query areas spanning more cells are checked message by message.
+  public static final double BITMAP_INDEX_CELL_DEGREES = 0.1;
+  public static final long BITMAP_INDEX_TIME_BUCKET_MILLIS = 3600000;
+  public static final int BITMAP_INDEX_MAX_CELLS = 4096;
+  // Query parameter adding the access path chosen by the bitmap index planner to responses.
+  public static final String EXPLAIN_QUERY_PARAM = "explain";
+  // Most distinct keywords a /messages/search query may combine, each a condition the planner
+  // weighs.
+  public static final int SEARCH_MAX_KEYWORDS = 8;
+  // Message counts by Web Mercator tile for the /density endpoint, which needs MESSAGE_INDEX, kept
+  // for zoom levels 0 to DENSITY_MAX_ZOOM. Levels up to DENSITY_DENSE_MAX_ZOOM are arrays of
+  // 4^zoom counts.
+  public static final int DENSITY_MAX_ZOOM = 16;
+  public static final int DENSITY_DENSE_MAX_ZOOM = 10;
+  public static final int DENSITY_MAX_TILES = 16384;
+  // Ring of write events applied to the structures derived from the messages. Writes wait when the
+  // slowest handler is WRITE_EVENT_RING_SIZE events behind. Write responses carry a version token,
+  // which reads can pass back in READ_VERSION_HEADER to see the write.
+  public static final int WRITE_EVENT_RING_SIZE = 4096;
+  public static final long WRITE_EVENT_IDLE_MICROS = 100;
+  public static final String READ_VERSION_HEADER = "X-Read-Version";
+  // Bounding box results are cached for READ_CACHE_TTL_MILLIS regardless of writes; only reads
+  // presenting a newer version token bypass them.
+  public static final long READ_CACHE_TTL_MILLIS = 30000;
+  public static final long READ_CACHE_MAX_MESSAGES = 1000000;
+  // Message lists of the USER_CACHE_MAX_USERS most recently active users are cached and updated by
+  // writes. Without the message index listener, writes through other servers show up once the
+  // list is USER_CACHE_TTL_MILLIS old.
+  public static final int USER_CACHE_MAX_USERS = 10000;
+  public static final long USER_CACHE_TTL_MILLIS = 300000;
+
 }
@@ -0,0 +1,135 @@
+package deadline;
+
+import constants.Constants;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public final class Deadline {
+  private static final Deadline NONE = new Deadline(false, 0);
+  private static final long DEFAULT_WAIT_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(Constants.DEADLINE_DEFAULT_WAIT_MILLIS);
+  private static final ThreadLocal<Deadline> current = ThreadLocal.withInitial(() -> NONE);
+
+  private final boolean isSet;
+  private final long deadlineNanos;
+
+  private Deadline(boolean isSet, long deadlineNanos) {
+    this.isSet = isSet;
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * Create a deadline a duration from now.
+   *
+   * @param timeoutNanos Time in nanoseconds until the deadline
+   * @return Deadline
+   */
+  public static Deadline after(long timeoutNanos) {
+    return new Deadline(true, System.nanoTime() + timeoutNanos);
+  }
+
+  /**
+   * Get the deadline of the request served by the current thread, to hand it to another thread.
+   *
+   * @return Deadline of the current thread, which is unset outside of a request
+   */
+  public static Deadline current() {
+    return current.get();
+  }
+
+  /**
+   * Run work on the current thread under this deadline, restoring the previous one afterwards.
+   *
+   * @param callable Work to run
+   * @param <T>      Result type of the work
+   * @return Result of the work
+   * @throws Exception If the work fails
+   */
+  public <T> T call(Callable<T> callable) throws Exception {
+    Deadline previous = current.get();
+    current.set(this);
+    try {
+      return callable.call();
+    } finally {
+      current.set(previous);
+    }
+  }
+
+  /**
+   * Get the time left until the deadline. Work outside of a request, such as background scans,
+   * gets DEADLINE_DEFAULT_WAIT_MILLIS so it can't wait forever either.
+   *
+   * @return Remaining time in nanoseconds, negative once the deadline has passed
+   */
+  public long getRemainingNanos() {
+    return isSet ? deadlineNanos - System.nanoTime() : DEFAULT_WAIT_NANOS;
+  }
+
+  public boolean isExpired() {
+    return getRemainingNanos() <= 0;
+  }
+
+  /**
+   * Fail fast if the deadline of the current thread has passed, before starting more work.
+   *
+   * @throws DeadlineExceededException If the deadline has passed
+   */
+  public static void check() {
+    if (current.get().isExpired()) {
+      throw new DeadlineExceededException();
+    }
+  }
+
+  /**
+   * Wait for a future owned by the current request until the deadline of the current thread,
+   * cancelling it if the deadline passes. Cancelling a Firestore future cancels its RPC.
+   *
+   * @param future Future to wait for
+   * @param <T>    Result type of the future
+   * @return Result of the future
+   * @throws ExecutionException        If the future fails
+   * @throws InterruptedException      If interrupted while waiting
+   * @throws DeadlineExceededException If the deadline passes first
+   */
+  public static <T> T await(Future<T> future) throws ExecutionException, InterruptedException {
+    return await(future, true);
+  }
+
+  /**
+   * Wait for a future shared with other requests until the deadline of the current thread,
+   * leaving it running for the others if the deadline passes.
+   *
+   * @param future Future to wait for
+   * @param <T>    Result type of the future
+   * @return Result of the future
+   * @throws ExecutionException        If the future fails
+   * @throws InterruptedException      If interrupted while waiting
+   * @throws DeadlineExceededException If the deadline passes first, or the deadline of another
+   *                                   request ended the shared work
+   */
+  public static <T> T awaitShared(Future<T> future)
+      throws ExecutionException, InterruptedException {
+    return await(future, false);
+  }
+
+  private static <T> T await(Future<T> future, boolean cancel)
+      throws ExecutionException, InterruptedException {
+    try {
+      return future.get(Math.max(0, current.get().getRemainingNanos()), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      if (cancel) {
+        future.cancel(true);
+      }
+      throw new DeadlineExceededException();
+    } catch (ExecutionException e) {
+      // Another request's deadline ended the shared work.
+      if (e.getCause() instanceof DeadlineExceededException) {
+        throw new DeadlineExceededException();
+      }
+      throw e;
+    }
+  }
+}
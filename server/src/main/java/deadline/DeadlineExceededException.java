@@ -0,0 +1,9 @@
+package deadline;
+
+public class DeadlineExceededException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public DeadlineExceededException() {
+    super("Deadline exceeded");
+  }
+}
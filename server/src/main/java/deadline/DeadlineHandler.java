@@ -0,0 +1,60 @@
+package deadline;
+
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import java.util.concurrent.TimeUnit;
+
+public class DeadlineHandler implements Handler {
+  public static final String TIMEOUT_HEADER = "X-Request-Timeout-Millis";
+  public static final int TIMEOUT_STATUS = 504;
+
+  private final long defaultTimeoutMillis;
+  private final long maxTimeoutMillis;
+  private final Handler handler;
+
+  /**
+   * Handler that gives each request a deadline, taken from the X-Request-Timeout-Millis header or
+   * the route's default, and answers 504 once the request's backend calls run past it.
+   *
+   * @param defaultTimeoutMillis Timeout in milliseconds of requests without the header
+   * @param maxTimeoutMillis     Longest timeout in milliseconds a client may ask for
+   * @param handler              Handler serving the route
+   */
+  public DeadlineHandler(long defaultTimeoutMillis, long maxTimeoutMillis, Handler handler) {
+    this.defaultTimeoutMillis = defaultTimeoutMillis;
+    this.maxTimeoutMillis = maxTimeoutMillis;
+    this.handler = handler;
+  }
+
+  @Override
+  public void handle(Context ctx) throws Exception {
+    long timeoutMillis = getTimeoutMillis(ctx.header(TIMEOUT_HEADER));
+    try {
+      Deadline.after(TimeUnit.MILLISECONDS.toNanos(timeoutMillis)).call(() -> {
+        handler.handle(ctx);
+        return null;
+      });
+    } catch (DeadlineExceededException e) {
+      ctx.status(TIMEOUT_STATUS);
+      ctx.result(e.getMessage());
+    }
+  }
+
+  /**
+   * Get the timeout of a request, ignoring header values that aren't a positive number.
+   *
+   * @param header Value of the timeout header, or null
+   * @return Timeout in milliseconds
+   */
+  long getTimeoutMillis(String header) {
+    if (header == null) {
+      return defaultTimeoutMillis;
+    }
+    try {
+      long timeoutMillis = Long.parseLong(header.trim());
+      return timeoutMillis > 0 ? Math.min(timeoutMillis, maxTimeoutMillis) : defaultTimeoutMillis;
+    } catch (NumberFormatException e) {
+      return defaultTimeoutMillis;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package density;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import message.BoundingBox;
+import message.Message;
+
+public class DensityPyramid {
+  // Web Mercator tiles stop at the latitudes where they become square.
+  private static final double MAX_LATITUDE = 85.05112878;
+
+  private final int maxZoom;
+  private final int denseMaxZoom;
+  // Counts of the levels up to denseMaxZoom, by y * 2^zoom + x.
+  private final int[][] denseLevels;
+  // Counts of the deeper levels, by y * 2^zoom + x, holding only tiles with messages.
+  private final List<Map<Long, Integer>> sparseLevels = new ArrayList<>();
+  // Tile of each counted message at maxZoom, as x * 2^maxZoom + y.
+  private final Map<String, Long> tilesById = new HashMap<>();
+
+  /**
+   * Pyramid of message counts by Web Mercator tile, a quadtree from zoom 0 to maxZoom updated in
+   * O(levels) per changed message. The coarse levels are dense arrays; the deeper ones, mostly
+   * empty, are maps. Messages are counted once by record ID, so the same change can be applied
+   * again, as when a write reaches it through this server and then the Firestore listener.
+   *
+   * @param maxZoom      Deepest zoom level counted, at most 31
+   * @param denseMaxZoom Deepest zoom level stored as an array
+   */
+  public DensityPyramid(int maxZoom, int denseMaxZoom) {
+    this.maxZoom = maxZoom;
+    this.denseMaxZoom = Math.min(denseMaxZoom, maxZoom);
+    this.denseLevels = new int[this.denseMaxZoom + 1][];
+    for (int zoom = 0; zoom <= this.denseMaxZoom; zoom++) {
+      denseLevels[zoom] = new int[1 << 2 * zoom];
+    }
+    for (int zoom = this.denseMaxZoom + 1; zoom <= maxZoom; zoom++) {
+      sparseLevels.add(new HashMap<>());
+    }
+  }
+
+  /**
+   * Apply a set of changes. Removals are applied first, so a message both removed and upserted is
+   * counted.
+   *
+   * @param upserts    Messages added or replaced, by record ID
+   * @param removedIds Record IDs of Messages removed
+   */
+  public synchronized void apply(Collection<Message> upserts, Collection<String> removedIds) {
+    for (String recordId : removedIds) {
+      Long tile = tilesById.remove(recordId);
+      if (tile != null) {
+        add(tile, -1);
+      }
+    }
+    for (Message message : upserts) {
+      long tile = (long) getTileX(message.getLongitude(), maxZoom) << maxZoom
+          | getTileY(message.getLatitude(), maxZoom);
+      Long previous = tilesById.put(message.getId(), tile);
+      if (previous == null || previous != tile) {
+        if (previous != null) {
+          add(previous, -1);
+        }
+        add(tile, 1);
+      }
+    }
+  }
+
+  /**
+   * Get the counts of a grid of tiles. Columns past the last one wrap around to the first.
+   *
+   * @param zoom    Zoom level of the tiles
+   * @param x       Column of the top-left tile
+   * @param y       Row of the top-left tile
+   * @param columns Number of columns
+   * @param rows    Number of rows
+   * @return Counts row by row from the top-left tile
+   */
+  public synchronized int[] getCounts(int zoom, int x, int y, int columns, int rows) {
+    int[] counts = new int[columns * rows];
+    long tiles = 1L << zoom;
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < columns; column++) {
+        long index = (y + row) * tiles + (x + column) % tiles;
+        counts[row * columns + column] = zoom <= denseMaxZoom
+            ? denseLevels[zoom][(int) index]
+            : sparseLevels.get(zoom - denseMaxZoom - 1).getOrDefault(index, 0);
+      }
+    }
+    return counts;
+  }
+
+  public synchronized int getMessageCount() {
+    return tilesById.size();
+  }
+
+  public int getMaxZoom() {
+    return maxZoom;
+  }
+
+  /**
+   * Get the column of the tile holding a longitude.
+   *
+   * @param longitude Longitude between -180 and 180
+   * @param zoom      Zoom level of the tile
+   * @return Column between 0 and 2^zoom - 1
+   */
+  public static int getTileX(double longitude, int zoom) {
+    return getTile((longitude + 180) / 360, zoom);
+  }
+
+  /**
+   * Get the row of the tile holding a latitude, counted from the north like BoundingBox.fromTile.
+   *
+   * @param latitude Latitude between -90 and 90, clamped to the Web Mercator range
+   * @param zoom     Zoom level of the tile
+   * @return Row between 0 and 2^zoom - 1
+   */
+  public static int getTileY(double latitude, int zoom) {
+    double radians = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+    double mercator = Math.log(Math.tan(radians) + 1 / Math.cos(radians));
+    return getTile((1 - mercator / Math.PI) / 2, zoom);
+  }
+
+  /**
+   * Get the grid of tiles covering a bounding box, with the same semantics as bounding box
+   * queries: along a crossing edge pair, the box holds the values up to the lesser edge and from
+   * the greater edge on. The columns of a crossing longitude so start at the greater edge and wrap
+   * around to the lesser one, spanning every column once the edges overlap, and a crossing
+   * latitude spans every row.
+   *
+   * @param boundingBox BoundingBox to cover
+   * @param zoom        Zoom level of the tiles
+   * @return Grid of tiles covering the bounding box
+   */
+  public static Grid getGrid(BoundingBox boundingBox, int zoom) {
+    int tiles = 1 << zoom;
+    int left = getTileX(boundingBox.getLesserPoint().getLongitude(), zoom);
+    int right = getTileX(boundingBox.getGreaterPoint().getLongitude(), zoom);
+    int x = left;
+    int columns = right - left + 1;
+    if (boundingBox.isCrossing180Longitude()) {
+      columns = Math.min(tiles, tiles - right + left + 1);
+      x = columns == tiles ? 0 : right;
+    }
+    int y = 0;
+    int rows = tiles;
+    if (!boundingBox.isCrossing90Latitude()) {
+      y = getTileY(boundingBox.getGreaterPoint().getLatitude(), zoom);
+      rows = getTileY(boundingBox.getLesserPoint().getLatitude(), zoom) - y + 1;
+    }
+    return new Grid(x, y, columns, rows);
+  }
+
+  private static int getTile(double fraction, int zoom) {
+    long tiles = 1L << zoom;
+    return (int) Math.max(0, Math.min(tiles - 1, (long) Math.floor(fraction * tiles)));
+  }
+
+  private void add(long tile, int delta) {
+    long x = tile >>> maxZoom;
+    long y = tile & (1L << maxZoom) - 1;
+    for (int zoom = maxZoom; zoom >= 0; zoom--) {
+      int shift = maxZoom - zoom;
+      long index = (y >>> shift << zoom) + (x >>> shift);
+      if (zoom <= denseMaxZoom) {
+        denseLevels[zoom][(int) index] += delta;
+      } else {
+        sparseLevels.get(zoom - denseMaxZoom - 1)
+            .merge(index, delta, (count, change) -> count + change == 0 ? null : count + change);
+      }
+    }
+  }
+
+  public static final class Grid {
+    private final int x;
+    private final int y;
+    private final int columns;
+    private final int rows;
+
+    private Grid(int x, int y, int columns, int rows) {
+      this.x = x;
+      this.y = y;
+      this.columns = columns;
+      this.rows = rows;
+    }
+
+    public int getX() {
+      return x;
+    }
+
+    public int getY() {
+      return y;
+    }
+
+    public int getColumns() {
+      return columns;
+    }
+
+    public int getRows() {
+      return rows;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package limit;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class AimdConcurrencyLimit {
+  private final int minLimit;
+  private final int maxLimit;
+  private final double backoffRatio;
+  private final double latencyTolerance;
+  private final int baselineWindow;
+  private final double baselinePercentile;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder rejectedCount = new LongAdder();
+  private volatile int limit;
+
+  // Guarded by this.
+  private double preciseLimit;
+  private long lastDecreaseNanos;
+
+  /**
+   * Concurrency limit adjusted with additive increase, multiplicative decrease (AIMD). Every
+   * request that completes close to the baseline latency of its route while the limit is at least
+   * half used raises the limit by one. A failed request, or one slower than latencyTolerance times
+   * the baseline, multiplies it by backoffRatio, at most once per request duration so a single
+   * slow burst doesn't collapse it. The baseline of a route is a low percentile of the latencies
+   * of its last successful requests, so neither its own occasional fast responses, like cache
+   * hits, nor the latencies of other routes sharing the limit pull it down.
+   *
+   * @param initialLimit       Limit to start with
+   * @param minLimit           Lowest the limit goes
+   * @param maxLimit           Highest the limit goes
+   * @param backoffRatio       Factor applied to the limit on a slow or failed request
+   * @param latencyTolerance   Multiple of the baseline latency above which a request is slow
+   * @param baselineWindow     Number of recent successful requests of a route its baseline is
+   *                           taken from
+   * @param baselinePercentile Percentile of the window, between 0 and 1, used as the baseline
+   */
+  public AimdConcurrencyLimit(
+      int initialLimit,
+      int minLimit,
+      int maxLimit,
+      double backoffRatio,
+      double latencyTolerance,
+      int baselineWindow,
+      double baselinePercentile
+  ) {
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.backoffRatio = backoffRatio;
+    this.latencyTolerance = latencyTolerance;
+    this.baselineWindow = baselineWindow;
+    this.baselinePercentile = baselinePercentile;
+    this.preciseLimit = initialLimit;
+    this.limit = initialLimit;
+  }
+
+  /**
+   * Create the latency baseline of a route sharing the limit.
+   *
+   * @return Route to release the route's requests with
+   */
+  public Route newRoute() {
+    return new Route(baselineWindow);
+  }
+
+  /**
+   * Take a slot if fewer requests than the limit are in flight. Never blocks.
+   *
+   * @return True if the request may proceed and must call release, false if it is rejected
+   */
+  public boolean tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= limit) {
+        rejectedCount.increment();
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Give back a slot taken by tryAcquire and adjust the limit with the request's outcome.
+   *
+   * @param route        Route of the request
+   * @param latencyNanos Time the request took in nanoseconds
+   * @param isFailure    True if the request failed because of the backend
+   */
+  public void release(Route route, long latencyNanos, boolean isFailure) {
+    int current = inFlight.getAndDecrement();
+    update(route, latencyNanos, isFailure, current, System.nanoTime());
+  }
+
+  @VisibleForTesting
+  synchronized void update(
+      Route route,
+      long latencyNanos,
+      boolean isFailure,
+      int inFlightCount,
+      long nowNanos
+  ) {
+    if (!isFailure) {
+      route.add(latencyNanos, baselinePercentile);
+    }
+
+    if (isFailure || latencyNanos > route.baselineNanos * latencyTolerance) {
+      if (nowNanos - lastDecreaseNanos >= latencyNanos) {
+        preciseLimit = Math.max(minLimit, preciseLimit * backoffRatio);
+        lastDecreaseNanos = nowNanos;
+      }
+    } else if (inFlightCount * 2 >= preciseLimit) {
+      preciseLimit = Math.min(maxLimit, preciseLimit + 1);
+    }
+    limit = (int) preciseLimit;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.sum();
+  }
+
+  public static final class Route {
+    // Latencies of the last successful requests in a ring, guarded by the limit.
+    private final long[] window;
+    private final long[] sorted;
+    private int count;
+    private int next;
+    private long baselineNanos;
+
+    private Route(int windowSize) {
+      this.window = new long[windowSize];
+      this.sorted = new long[windowSize];
+    }
+
+    private void add(long latencyNanos, double percentile) {
+      window[next] = latencyNanos;
+      next = (next + 1) % window.length;
+      count = Math.min(count + 1, window.length);
+      System.arraycopy(window, 0, sorted, 0, count);
+      Arrays.sort(sorted, 0, count);
+      baselineNanos = sorted[(int) (percentile * (count - 1))];
+    }
+  }
+}
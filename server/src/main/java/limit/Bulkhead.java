@@ -0,0 +1,90 @@
+package limit;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import metrics.LatencyHistogram;
+
+public class Bulkhead {
+  private final ThreadPoolExecutor executor;
+  private final LatencyHistogram queueWait;
+  private final LongAdder rejectedCount = new LongAdder();
+
+  /**
+   * Fixed size thread pool with a bounded queue, isolating one class of work from the others.
+   * Work submitted while every thread is busy and the queue is full is rejected instead of
+   * waiting.
+   *
+   * @param name      Name of the pool, used for its thread names
+   * @param threads   Number of threads
+   * @param queueSize Maximum number of tasks waiting for a thread
+   * @param queueWait LatencyHistogram recording how long tasks waited for a thread
+   */
+  public Bulkhead(String name, int threads, int queueSize, LatencyHistogram queueWait) {
+    this.executor = new ThreadPoolExecutor(
+        threads,
+        threads,
+        0,
+        TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueSize),
+        runnable -> {
+          Thread thread = new Thread(runnable, name + "-bulkhead");
+          thread.setDaemon(true);
+          return thread;
+        }
+    );
+    this.queueWait = queueWait;
+  }
+
+  /**
+   * Submit a task to the pool.
+   *
+   * @param task Task to run, passed the time it waited for a thread
+   * @param <T>  Result type of the task
+   * @return Future of the task's result
+   * @throws RejectedExecutionException If every thread is busy and the queue is full
+   */
+  public <T> Future<T> submit(Task<T> task) {
+    long submitNanos = System.nanoTime();
+    try {
+      return executor.submit(() -> {
+        long waitNanos = System.nanoTime() - submitNanos;
+        queueWait.recordNanos(waitNanos);
+        return task.run(waitNanos);
+      });
+    } catch (RejectedExecutionException e) {
+      rejectedCount.increment();
+      throw e;
+    }
+  }
+
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  public int getQueueSize() {
+    return executor.getQueue().size();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.sum();
+  }
+
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  public interface Task<T> {
+    /**
+     * Run the task on a pool thread.
+     *
+     * @param queueWaitNanos Time in nanoseconds the task waited for a thread
+     * @return Result of the task
+     * @throws Exception If the task fails
+     */
+    T run(long queueWaitNanos) throws Exception;
+  }
+}
@@ -0,0 +1,99 @@
+package limit;
+
+import deadline.Deadline;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import tracing.RequestTrace;
+
+public class BulkheadHandler implements Handler {
+  private final Bulkhead bulkhead;
+  private final String route;
+  private final String retryAfterSeconds;
+  private final Handler handler;
+
+  /**
+   * Handler that serves requests on a Bulkhead's threads. The Jetty thread waits for the result,
+   * but a class of routes can only hold as many Jetty threads as its Bulkhead has threads and
+   * queue slots; beyond that requests are rejected with 503 and a Retry-After header, leaving the
+   * remaining Jetty threads to the other classes. The time spent queued and the stages traced on
+   * the pool thread are added to the request's trace, and the request's deadline is carried over
+   * to the pool thread.
+   *
+   * @param bulkhead          Bulkhead shared by the routes of a class
+   * @param route             Route the handler is registered for
+   * @param retryAfterSeconds Seconds clients are asked to wait before retrying
+   * @param handler           Handler serving the route
+   */
+  public BulkheadHandler(
+      Bulkhead bulkhead,
+      String route,
+      long retryAfterSeconds,
+      Handler handler
+  ) {
+    this.bulkhead = bulkhead;
+    this.route = route;
+    this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+    this.handler = handler;
+  }
+
+  @Override
+  public void handle(Context ctx) throws Exception {
+    String path = ctx.path();
+    Deadline deadline = Deadline.current();
+    Future<Outcome> future;
+    try {
+      future = bulkhead.submit(queueWaitNanos -> deadline.call(() -> {
+        RequestTrace trace = RequestTrace.begin(route, path);
+        Exception exception = null;
+        try {
+          // Requests that expired while queued don't start any backend work.
+          Deadline.check();
+          handler.handle(ctx);
+        } catch (Exception e) {
+          exception = e;
+        }
+        return new Outcome(queueWaitNanos, trace.end().copy(), exception);
+      }));
+    } catch (RejectedExecutionException e) {
+      ctx.status(ConcurrencyLimitHandler.OVERLOADED_STATUS);
+      ctx.header("Retry-After", retryAfterSeconds);
+      ctx.result(ConcurrencyLimitHandler.OVERLOADED_ERROR);
+      return;
+    }
+
+    Outcome outcome;
+    try {
+      // Not bounded by the deadline: the task's own waits are, and the handler must be done with
+      // the Context before this thread writes the response.
+      outcome = future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw (Exception) e.getCause();
+    }
+    RequestTrace.addStage("bulkhead_queue", outcome.queueWaitNanos);
+    RequestTrace.join(outcome.trace);
+    if (outcome.exception != null) {
+      throw outcome.exception;
+    }
+  }
+
+  private static final class Outcome {
+    final long queueWaitNanos;
+    final RequestTrace trace;
+    final Exception exception;
+
+    Outcome(long queueWaitNanos, RequestTrace trace, Exception exception) {
+      this.queueWaitNanos = queueWaitNanos;
+      this.trace = trace;
+      this.exception = exception;
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package limit;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final int minCalls;
+  private final double failureRateThreshold;
+  private final long slowCallNanos;
+  private final double slowCallRateThreshold;
+  private final long openNanos;
+  private final int halfOpenProbes;
+  private final LongAdder openCount = new LongAdder();
+  private final LongAdder rejectedCount = new LongAdder();
+
+  // Outcomes of the last calls in a ring, guarded by this.
+  private final boolean[] failures;
+  private final boolean[] slowCalls;
+  private int windowCount;
+  private int windowNext;
+  private int failureCount;
+  private int slowCallCount;
+
+  // Guarded by this.
+  private State state = State.CLOSED;
+  private long openedNanos;
+  private int probesStarted;
+  private int probesSucceeded;
+
+  /**
+   * Circuit breaker over the outcomes of the last windowSize backend calls. Once at least minCalls
+   * are recorded and either the failure rate or the rate of calls slower than slowCallMillis
+   * reaches its threshold, the breaker opens and rejects calls for openMillis. It then lets
+   * halfOpenProbes calls through, closing again if they all succeed quickly and reopening on the
+   * first one that doesn't.
+   *
+   * @param windowSize            Number of recent calls the rates are measured over
+   * @param minCalls              Number of calls needed in the window before the breaker may open
+   * @param failureRateThreshold  Fraction of failed calls that opens the breaker
+   * @param slowCallMillis        Latency in milliseconds above which a call is slow
+   * @param slowCallRateThreshold Fraction of slow calls that opens the breaker
+   * @param openMillis            Time in milliseconds the breaker stays open before probing
+   * @param halfOpenProbes        Number of probe calls that must succeed to close the breaker
+   */
+  public CircuitBreaker(
+      int windowSize,
+      int minCalls,
+      double failureRateThreshold,
+      long slowCallMillis,
+      double slowCallRateThreshold,
+      long openMillis,
+      int halfOpenProbes
+  ) {
+    this.failures = new boolean[windowSize];
+    this.slowCalls = new boolean[windowSize];
+    this.minCalls = minCalls;
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    this.halfOpenProbes = halfOpenProbes;
+  }
+
+  /**
+   * Ask whether a backend call may be made. Never blocks.
+   *
+   * @return True if the call may proceed and must record its outcome, false if it is rejected
+   */
+  public boolean tryAcquire() {
+    return tryAcquire(System.nanoTime());
+  }
+
+  /**
+   * Record the outcome of a call allowed by tryAcquire.
+   *
+   * @param latencyNanos Time the call took in nanoseconds
+   * @param isFailure    True if the call failed because of the backend
+   */
+  public void record(long latencyNanos, boolean isFailure) {
+    record(latencyNanos, isFailure, System.nanoTime());
+  }
+
+  @VisibleForTesting
+  synchronized boolean tryAcquire(long nowNanos) {
+    if (state == State.OPEN && nowNanos - openedNanos >= openNanos) {
+      state = State.HALF_OPEN;
+      probesStarted = 0;
+      probesSucceeded = 0;
+    }
+    if (state == State.CLOSED || (state == State.HALF_OPEN && probesStarted < halfOpenProbes)) {
+      if (state == State.HALF_OPEN) {
+        probesStarted++;
+      }
+      return true;
+    }
+    rejectedCount.increment();
+    return false;
+  }
+
+  @VisibleForTesting
+  synchronized void record(long latencyNanos, boolean isFailure, long nowNanos) {
+    boolean isSlow = latencyNanos > slowCallNanos;
+    if (state == State.HALF_OPEN) {
+      if (isFailure || isSlow) {
+        open(nowNanos);
+      } else if (++probesSucceeded >= halfOpenProbes) {
+        state = State.CLOSED;
+        clearWindow();
+      }
+      return;
+    }
+    if (state == State.OPEN) {
+      // A call started before the breaker opened; the window restarts once it closes.
+      return;
+    }
+
+    if (windowCount == failures.length) {
+      failureCount -= failures[windowNext] ? 1 : 0;
+      slowCallCount -= slowCalls[windowNext] ? 1 : 0;
+    } else {
+      windowCount++;
+    }
+    failures[windowNext] = isFailure;
+    slowCalls[windowNext] = isSlow;
+    failureCount += isFailure ? 1 : 0;
+    slowCallCount += isSlow ? 1 : 0;
+    windowNext = (windowNext + 1) % failures.length;
+
+    if (windowCount >= minCalls
+        && (failureCount >= failureRateThreshold * windowCount
+        || slowCallCount >= slowCallRateThreshold * windowCount)) {
+      open(nowNanos);
+    }
+  }
+
+  private void open(long nowNanos) {
+    state = State.OPEN;
+    openedNanos = nowNanos;
+    openCount.increment();
+    clearWindow();
+  }
+
+  private void clearWindow() {
+    windowCount = 0;
+    windowNext = 0;
+    failureCount = 0;
+    slowCallCount = 0;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  public long getOpenCount() {
+    return openCount.sum();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.sum();
+  }
+}
@@ -0,0 +1,9 @@
+package limit;
+
+public class CircuitBreakerOpenException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public CircuitBreakerOpenException() {
+    super("Circuit breaker open");
+  }
+}
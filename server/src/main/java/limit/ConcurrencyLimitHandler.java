@@ -0,0 +1,65 @@
+package limit;
+
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+public class ConcurrencyLimitHandler implements Handler {
+  public static final int OVERLOADED_STATUS = 503;
+  public static final String OVERLOADED_ERROR = "Server is overloaded";
+  private static final String FAILURE_ATTRIBUTE =
+      ConcurrencyLimitHandler.class.getName() + ".failure";
+
+  private final AimdConcurrencyLimit limit;
+  private final AimdConcurrencyLimit.Route route;
+  private final String retryAfterSeconds;
+  private final Handler handler;
+
+  /**
+   * Handler that rejects requests over a concurrency limit straight away with 503 and a
+   * Retry-After header, instead of letting them queue for a thread, and feeds the latency of the
+   * others back into the limit, against the latency baseline of this route.
+   *
+   * @param limit             AimdConcurrencyLimit shared by the routes of a class
+   * @param retryAfterSeconds Seconds clients are asked to wait before retrying
+   * @param handler           Handler serving the route
+   */
+  public ConcurrencyLimitHandler(
+      AimdConcurrencyLimit limit,
+      long retryAfterSeconds,
+      Handler handler
+  ) {
+    this.limit = limit;
+    this.route = limit.newRoute();
+    this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+    this.handler = handler;
+  }
+
+  /**
+   * Mark a request as failed because of the backend, for handlers that report backend errors in
+   * the response body with a success status, so the limit backs off on them as on a 5xx status.
+   *
+   * @param ctx Context of the request
+   */
+  public static void reportFailure(Context ctx) {
+    ctx.attribute(FAILURE_ATTRIBUTE, true);
+  }
+
+  @Override
+  public void handle(Context ctx) throws Exception {
+    if (!limit.tryAcquire()) {
+      ctx.status(OVERLOADED_STATUS);
+      ctx.header("Retry-After", retryAfterSeconds);
+      ctx.result(OVERLOADED_ERROR);
+      return;
+    }
+
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      handler.handle(ctx);
+      failed = ctx.status() >= 500 || ctx.attribute(FAILURE_ATTRIBUTE) != null;
+    } finally {
+      limit.release(route, System.nanoTime() - start, failed);
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package message;
+
+import com.google.cloud.firestore.GeoPoint;
+import com.google.common.annotations.VisibleForTesting;
+import deadline.Deadline;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import tracing.BoundingBoxQueryEvent;
+import tracing.RequestTrace;
+
+public class BatchingMessageFinder implements MessageFinder {
+
+  private final MessageFinder delegate;
+  private final MessageSource messageSource;
+  private final long windowMillis;
+  private final ScheduledExecutorService executor;
+  private final Object lock = new Object();
+  private final LongAdder batchCount = new LongAdder();
+  private final LongAdder queryCount = new LongAdder();
+
+  // Queries waiting for the current window to close, guarded by lock.
+  private List<PendingQuery> pendingQueries = new ArrayList<>();
+
+  /**
+   * MessageFinder that answers bounding box queries arriving within a short window with a single
+   * shared pass over the messages. Each message is tested only against the pending boxes whose
+   * latitude interval contains it, and every query's result list is filled in the same pass.
+   *
+   * @param delegate      MessageFinder used for user ID queries
+   * @param messageSource MessageSource scanned once per batch
+   * @param windowMillis  Time in milliseconds to collect queries before running a batch
+   * @param threads       Number of threads running batches
+   */
+  public BatchingMessageFinder(
+      MessageFinder delegate,
+      MessageSource messageSource,
+      long windowMillis,
+      int threads
+  ) {
+    this.delegate = delegate;
+    this.messageSource = messageSource;
+    this.windowMillis = windowMillis;
+    this.executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+      Thread thread = new Thread(runnable, "batching-message-finder");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public List<Message> findByUserId(String userId) throws ExecutionException, InterruptedException {
+    return delegate.findByUserId(userId);
+  }
+
+  @Override
+  public Message findByRecordId(String recordId)
+      throws ExecutionException, InterruptedException {
+    return delegate.findByRecordId(recordId);
+  }
+
+  @Override
+  public List<Message> findByBoundingBox(
+      GeoPoint lesserPoint,
+      GeoPoint greaterPoint,
+      int maxRecords,
+      boolean isCrossing90Latitude,
+      boolean isCrossing180Longitude
+  ) throws ExecutionException, InterruptedException {
+    if (maxRecords <= 0) {
+      return new ArrayList<>();
+    }
+
+    PendingQuery query = new PendingQuery(
+        new BoundingBox(lesserPoint, greaterPoint, isCrossing90Latitude, isCrossing180Longitude),
+        maxRecords,
+        ReadVersion.getRequired()
+    );
+    synchronized (lock) {
+      pendingQueries.add(query);
+      if (pendingQueries.size() == 1) {
+        executor.schedule(this::runBatch, windowMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    List<Message> messages = Deadline.await(query.future);
+    RequestTrace.addDocumentsRead(query.documentsRead);
+    return messages;
+  }
+
+  public long getBatchCount() {
+    return batchCount.sum();
+  }
+
+  public long getQueryCount() {
+    return queryCount.sum();
+  }
+
+  /**
+   * Stop the batch threads. Queries already waiting are still answered.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  private void runBatch() {
+    List<PendingQuery> batch;
+    synchronized (lock) {
+      batch = pendingQueries;
+      pendingQueries = new ArrayList<>();
+    }
+    // Queries whose deadline passed while waiting are cancelled; don't scan for them.
+    batch.removeIf(query -> query.future.isCancelled());
+    if (batch.isEmpty()) {
+      return;
+    }
+    batchCount.increment();
+    queryCount.add(batch.size());
+
+    try {
+      BoundingBoxQueryEvent[] events = new BoundingBoxQueryEvent[batch.size()];
+      for (int i = 0; i < events.length; i++) {
+        events[i] = new BoundingBoxQueryEvent();
+        events[i].begin();
+      }
+      // Trace the batch thread to find out how many documents the scan read, then split them
+      // between the queries so each request is charged its share.
+      RequestTrace trace = RequestTrace.begin("batch", "batch");
+      // The scan must see the writes every query of the batch must see.
+      long version = batch.stream().mapToLong(query -> query.version).max().getAsLong();
+      List<Message> messages = ReadVersion.query(version, messageSource::getAllMessages);
+      long documentsRead = trace.end().getDocumentsRead();
+      for (int i = 0; i < batch.size(); i++) {
+        batch.get(i).documentsRead =
+            documentsRead / batch.size() + (i < documentsRead % batch.size() ? 1 : 0);
+      }
+      int scannedCount = scan(messages, batch);
+      for (int i = 0; i < events.length; i++) {
+        commitEvent(events[i], batch.get(i), batch.size(), messages.size(), scannedCount);
+      }
+      for (PendingQuery query : batch) {
+        query.future.complete(query.results);
+      }
+    } catch (ExecutionException e) {
+      completeExceptionally(batch, e.getCause());
+    } catch (InterruptedException e) {
+      completeExceptionally(batch, e);
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      completeExceptionally(batch, e);
+    }
+  }
+
+  /**
+   * Fill the results of every query in a single pass over the messages, in message order so each
+   * query gets the same records as an individual scan would.
+   *
+   * @param messages List of Messages to scan
+   * @param batch    List of PendingQuery to fill
+   * @return Number of Messages tested before every query was filled
+   */
+  @VisibleForTesting
+  static int scan(List<Message> messages, List<PendingQuery> batch) {
+    BoundingBoxIntervalIndex<PendingQuery> index = new BoundingBoxIntervalIndex<>();
+    for (PendingQuery query : batch) {
+      index.add(query.boundingBox, query);
+    }
+
+    int unfilled = batch.size();
+    int scannedCount = 0;
+    for (Message message : messages) {
+      scannedCount++;
+      double latitude = message.getLatitude();
+      double longitude = message.getLongitude();
+      for (PendingQuery query : index.getCandidates(latitude)) {
+        if (query.results.size() < query.maxRecords
+            && query.boundingBox.contains(latitude, longitude)) {
+          query.results.add(message);
+          if (query.results.size() == query.maxRecords) {
+            unfilled--;
+          }
+        }
+      }
+      if (unfilled == 0) {
+        break;
+      }
+    }
+    return scannedCount;
+  }
+
+  private static void commitEvent(
+      BoundingBoxQueryEvent event,
+      PendingQuery query,
+      int batchSize,
+      int fetchedCount,
+      int scannedCount
+  ) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.area = query.boundingBox.getArea();
+      event.maxRecords = query.maxRecords;
+      event.batchSize = batchSize;
+      event.fetchedCount = fetchedCount;
+      event.scannedCount = scannedCount;
+      event.matchedCount = query.results.size();
+      event.returnedCount = query.results.size();
+      event.commit();
+    }
+  }
+
+  private static void completeExceptionally(List<PendingQuery> batch, Throwable throwable) {
+    for (PendingQuery query : batch) {
+      query.future.completeExceptionally(throwable);
+    }
+  }
+
+  @VisibleForTesting
+  static final class PendingQuery {
+    final BoundingBox boundingBox;
+    final int maxRecords;
+    // Write version the results must reflect, or -1 for any.
+    final long version;
+    final List<Message> results = new ArrayList<>();
+    final CompletableFuture<List<Message>> future = new CompletableFuture<>();
+    // Set before the future completes.
+    long documentsRead;
+
+    PendingQuery(BoundingBox boundingBox, int maxRecords, long version) {
+      this.boundingBox = boundingBox;
+      this.maxRecords = maxRecords;
+      this.version = version;
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package message;
+
+import com.google.cloud.firestore.GeoPoint;
+
+public class BoundingBox {
+  private final GeoPoint lesserPoint;
+  private final GeoPoint greaterPoint;
+  private final boolean isCrossing90Latitude;
+  private final boolean isCrossing180Longitude;
+
+  /**
+   * Geographic area used for bounding box queries and viewport subscriptions.
+   *
+   * @param lesserPoint            Bottom-Left corner of the bounding box
+   * @param greaterPoint           Top-Right corner of the bounding box
+   * @param isCrossing90Latitude   True if the box wraps around the 90/-90 latitude line
+   * @param isCrossing180Longitude True if the box wraps around the 180/-180 longitude line
+   */
+  public BoundingBox(
+      GeoPoint lesserPoint,
+      GeoPoint greaterPoint,
+      boolean isCrossing90Latitude,
+      boolean isCrossing180Longitude
+  ) {
+    this.lesserPoint = lesserPoint;
+    this.greaterPoint = greaterPoint;
+    this.isCrossing90Latitude = isCrossing90Latitude;
+    this.isCrossing180Longitude = isCrossing180Longitude;
+  }
+
+  /**
+   * Build a bounding box from its edges, wrapping around the globe in any direction where the
+   * lesser edge is not below the greater edge.
+   *
+   * @param latitudeBottom Bottom-most latitude
+   * @param latitudeTop    Top-most latitude
+   * @param longitudeLeft  Left-most longitude
+   * @param longitudeRight Right-most longitude
+   * @return BoundingBox covering the passed edges
+   */
+  public static BoundingBox fromEdges(
+      double latitudeBottom,
+      double latitudeTop,
+      double longitudeLeft,
+      double longitudeRight
+  ) {
+    return new BoundingBox(
+        new GeoPoint(latitudeBottom, longitudeLeft),
+        new GeoPoint(latitudeTop, longitudeRight),
+        latitudeBottom >= latitudeTop,
+        longitudeLeft >= longitudeRight
+    );
+  }
+
+  /**
+   * Build the bounding box of a Web Mercator (slippy map) tile.
+   *
+   * @param zoom Zoom level of the tile, between 0 and 30
+   * @param x    Column of the tile, between 0 and 2^zoom - 1
+   * @param y    Row of the tile counted from the north, between 0 and 2^zoom - 1
+   * @return BoundingBox covering the tile
+   */
+  public static BoundingBox fromTile(int zoom, int x, int y) {
+    double tiles = 1 << zoom;
+    return fromEdges(
+        getTileLatitude(y + 1, tiles),
+        getTileLatitude(y, tiles),
+        x / tiles * 360 - 180,
+        (x + 1) / tiles * 360 - 180
+    );
+  }
+
+  private static double getTileLatitude(int y, double tiles) {
+    return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y / tiles))));
+  }
+
+  public GeoPoint getLesserPoint() {
+    return lesserPoint;
+  }
+
+  public GeoPoint getGreaterPoint() {
+    return greaterPoint;
+  }
+
+  public boolean isCrossing90Latitude() {
+    return isCrossing90Latitude;
+  }
+
+  public boolean isCrossing180Longitude() {
+    return isCrossing180Longitude;
+  }
+
+  /**
+   * Get the area covered by the bounding box, measured in square degrees, over the points contains
+   * accepts.
+   *
+   * @return Area in square degrees
+   */
+  public double getArea() {
+    return getSpan(
+        lesserPoint.getLatitude(),
+        greaterPoint.getLatitude(),
+        90,
+        isCrossing90Latitude
+    ) * getSpan(
+        lesserPoint.getLongitude(),
+        greaterPoint.getLongitude(),
+        180,
+        isCrossing180Longitude
+    );
+  }
+
+  private static double getSpan(double lesser, double greater, double limit, boolean isCrossing) {
+    // A crossing box covers the values up to its lesser edge and from its greater edge on, like
+    // MessageFinderImpl.isInsideBoundedBox, which is the whole range once the two overlap.
+    return isCrossing
+        ? Math.min(2 * limit, lesser + limit + limit - greater)
+        : greater - lesser;
+  }
+
+  /**
+   * Check whether a point lies within the bounding box, using the same rules as bounding box
+   * queries. Along a crossing edge pair, the box holds the values up to the lesser edge and from
+   * the greater edge on, so a box built by fromEdges with flipped edges spans the whole range.
+   *
+   * @param latitude  Latitude of the point
+   * @param longitude Longitude of the point
+   * @return True if the point is inside the bounding box
+   */
+  public boolean contains(double latitude, double longitude) {
+    return MessageFinderImpl.isInsideBoundedBox(
+        latitude,
+        lesserPoint.getLatitude(),
+        greaterPoint.getLatitude(),
+        isCrossing90Latitude
+    ) && MessageFinderImpl.isInsideBoundedBox(
+        longitude,
+        lesserPoint.getLongitude(),
+        greaterPoint.getLongitude(),
+        isCrossing180Longitude
+    );
+  }
+}
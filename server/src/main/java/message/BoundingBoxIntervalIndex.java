@@ -0,0 +1,63 @@
+package message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class BoundingBoxIntervalIndex<T> {
+  private static final int BUCKETS = 180;
+
+  private final List<List<T>> buckets;
+
+  /**
+   * Index over the latitude intervals of a set of bounding boxes. Latitudes are split into
+   * one-degree buckets and each value is stored in every bucket its box overlaps, so looking up a
+   * point returns only the boxes whose latitude interval can contain it.
+   */
+  public BoundingBoxIntervalIndex() {
+    buckets = new ArrayList<>(BUCKETS);
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets.add(new ArrayList<>());
+    }
+  }
+
+  /**
+   * Add a value for the latitude interval of a bounding box.
+   *
+   * @param boundingBox BoundingBox whose latitude interval the value is stored for
+   * @param value       Value returned for points within the interval
+   */
+  public void add(BoundingBox boundingBox, T value) {
+    int lesser = getBucket(boundingBox.getLesserPoint().getLatitude());
+    int greater = getBucket(boundingBox.getGreaterPoint().getLatitude());
+
+    if (boundingBox.isCrossing90Latitude()) {
+      // Covers everything outside of (lesser, greater); avoid adding twice if the ranges meet.
+      for (int i = 0; i <= lesser; i++) {
+        buckets.get(i).add(value);
+      }
+      for (int i = Math.max(greater, lesser + 1); i < BUCKETS; i++) {
+        buckets.get(i).add(value);
+      }
+    } else {
+      for (int i = lesser; i <= greater; i++) {
+        buckets.get(i).add(value);
+      }
+    }
+  }
+
+  /**
+   * Get the values whose latitude interval may contain a latitude. Callers still need to test
+   * the exact bounding box.
+   *
+   * @param latitude Latitude of the point
+   * @return List of candidate values
+   */
+  public List<T> getCandidates(double latitude) {
+    return Collections.unmodifiableList(buckets.get(getBucket(latitude)));
+  }
+
+  private static int getBucket(double latitude) {
+    return Math.max(0, Math.min(BUCKETS - 1, (int) Math.floor(latitude + 90)));
+  }
+}
@@ -0,0 +1,242 @@
+package message;
+
+import deadline.Deadline;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BudgetedMessageSource implements MessageSource {
+
+  private final MessageSource delegate;
+  private final int readBudget;
+  private final long refreshNanos;
+  private final long maxStalenessNanos;
+  private final Executor refreshExecutor;
+  private final AtomicReference<CompletableFuture<List<Message>>> refreshing =
+      new AtomicReference<>();
+  private final LongAdder fullScanCount = new LongAdder();
+  private final LongAdder cachedCount = new LongAdder();
+  private final LongAdder sampledCount = new LongAdder();
+  private final LongAdder refreshCount = new LongAdder();
+  private final LongAdder awaitedScanCount = new LongAdder();
+
+  // Last full scan, only kept once the collection has outgrown the budget.
+  private volatile Snapshot snapshot;
+  // Writes applied while a scan runs, replayed onto its results, guarded by this.
+  private List<Patch> pendingPatches;
+
+  /**
+   * MessageSource that caps the Firestore documents read per request. Requests read one document
+   * past the budget, and get every message while that fits in it. Beyond that, requests get the
+   * messages of the last full scan, which is loaded and refreshed in the background, or a sample of
+   * the messages until it is loaded or once it is too stale. The writes of this server are applied
+   * to the cached scan as they are made, so a request that must see one, per ReadVersion, is served
+   * the cached scan however stale, and waits for it to load rather than getting a sample.
+   *
+   * @param delegate           MessageSource reading from Firestore
+   * @param readBudget         Maximum number of documents read for a request
+   * @param refreshMillis      Age in milliseconds after which a cached scan is refreshed
+   * @param maxStalenessMillis Age in milliseconds after which a cached scan is no longer served
+   * @param refreshExecutor    Executor running background refreshes
+   */
+  public BudgetedMessageSource(
+      MessageSource delegate,
+      int readBudget,
+      long refreshMillis,
+      long maxStalenessMillis,
+      Executor refreshExecutor
+  ) {
+    this.delegate = delegate;
+    this.readBudget = readBudget;
+    this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+    this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+    this.refreshExecutor = refreshExecutor;
+  }
+
+  @Override
+  public List<Message> getAllMessages() throws ExecutionException, InterruptedException {
+    boolean mustSeeWrites = ReadVersion.getRequired() >= 0;
+    Snapshot current = snapshot;
+    if (current == null) {
+      // One document past the budget tells whether the collection still fits in it.
+      List<Message> messages = delegate.getMessages(readBudget + 1);
+      if (messages.size() <= readBudget) {
+        fullScanCount.increment();
+        return messages;
+      }
+      CompletableFuture<List<Message>> refresh = startRefresh();
+      if (!mustSeeWrites) {
+        sampledCount.increment();
+        return messages.subList(0, readBudget);
+      }
+      // The sample may leave the write out, so wait for the scan loading in the background.
+      awaitedScanCount.increment();
+      return Deadline.awaitShared(refresh);
+    }
+
+    long age = System.nanoTime() - current.loadedNanos;
+    if (age >= refreshNanos) {
+      startRefresh();
+    }
+    if (age < maxStalenessNanos || mustSeeWrites) {
+      cachedCount.increment();
+      return current.messages;
+    }
+    sampledCount.increment();
+    return delegate.getMessages(readBudget);
+  }
+
+  @Override
+  public List<Message> getMessages(int maxMessages)
+      throws ExecutionException, InterruptedException {
+    return delegate.getMessages(Math.min(maxMessages, readBudget));
+  }
+
+  /**
+   * Apply writes of this server to the cached scan, so requests that must see them don't need to
+   * scan again. A message both removed and upserted is kept.
+   *
+   * @param upserts    Messages created or updated
+   * @param removedIds Record IDs of the deleted messages
+   */
+  public synchronized void apply(Collection<Message> upserts, Collection<String> removedIds) {
+    Patch patch = new Patch(upserts, removedIds);
+    if (pendingPatches != null) {
+      pendingPatches.add(patch);
+    }
+    Snapshot current = snapshot;
+    if (current != null) {
+      snapshot = new Snapshot(patch.applyTo(current.messages), current.loadedNanos);
+    }
+  }
+
+  public long getFullScanCount() {
+    return fullScanCount.sum();
+  }
+
+  public long getCachedCount() {
+    return cachedCount.sum();
+  }
+
+  public long getSampledCount() {
+    return sampledCount.sum();
+  }
+
+  public long getRefreshCount() {
+    return refreshCount.sum();
+  }
+
+  /**
+   * Get the number of requests that had to see a write and waited for the first full scan to load
+   * in the background instead of getting a sample.
+   *
+   * @return Number of requests
+   */
+  public long getAwaitedScanCount() {
+    return awaitedScanCount.sum();
+  }
+
+  private CompletableFuture<List<Message>> startRefresh() {
+    CompletableFuture<List<Message>> refresh = new CompletableFuture<>();
+    CompletableFuture<List<Message>> running = refreshing.compareAndExchange(null, refresh);
+    if (running != null) {
+      return running;
+    }
+    refreshExecutor.execute(() -> refresh(refresh));
+    return refresh;
+  }
+
+  private void refresh(CompletableFuture<List<Message>> refresh) {
+    try {
+      refreshCount.increment();
+      refresh.complete(scan());
+    } catch (ExecutionException e) {
+      // Keep serving the cached scan until it is too stale, then fall back to samples.
+      refresh.completeExceptionally(e.getCause());
+    } catch (RuntimeException e) {
+      refresh.completeExceptionally(e);
+    } catch (InterruptedException e) {
+      refresh.completeExceptionally(e);
+      Thread.currentThread().interrupt();
+    } finally {
+      refreshing.set(null);
+    }
+  }
+
+  private List<Message> scan() throws ExecutionException, InterruptedException {
+    synchronized (this) {
+      pendingPatches = new ArrayList<>();
+    }
+    long start = System.nanoTime();
+    List<Message> messages;
+    try {
+      messages = delegate.getAllMessages();
+    } catch (ExecutionException | InterruptedException | RuntimeException e) {
+      synchronized (this) {
+        pendingPatches = null;
+      }
+      throw e;
+    }
+    synchronized (this) {
+      // Writes made during the scan may or may not be included, so apply them again.
+      for (Patch patch : pendingPatches) {
+        messages = patch.applyTo(messages);
+      }
+      pendingPatches = null;
+      // A collection back within the budget is read directly again.
+      snapshot = messages.size() <= readBudget ? null : new Snapshot(messages, start);
+    }
+    return Collections.unmodifiableList(messages);
+  }
+
+  private static final class Snapshot {
+    final List<Message> messages;
+    final long loadedNanos;
+
+    Snapshot(List<Message> messages, long loadedNanos) {
+      this.messages = Collections.unmodifiableList(messages);
+      this.loadedNanos = loadedNanos;
+    }
+  }
+
+  private static final class Patch {
+    final Map<String, Message> upserts = new HashMap<>();
+    final Set<String> removedIds;
+
+    Patch(Collection<Message> upserts, Collection<String> removedIds) {
+      for (Message message : upserts) {
+        this.upserts.put(message.getId(), message);
+      }
+      this.removedIds = new HashSet<>(removedIds);
+    }
+
+    /**
+     * Get the messages with the patch applied, keeping their order and appending new messages.
+     */
+    List<Message> applyTo(List<Message> messages) {
+      Map<String, Message> remaining = new HashMap<>(upserts);
+      List<Message> patched = new ArrayList<>(messages.size() + remaining.size());
+      for (Message message : messages) {
+        Message upsert = remaining.remove(message.getId());
+        if (upsert != null) {
+          patched.add(upsert);
+        } else if (!removedIds.contains(message.getId())) {
+          patched.add(message);
+        }
+      }
+      patched.addAll(remaining.values());
+      return patched;
+    }
+  }
+}
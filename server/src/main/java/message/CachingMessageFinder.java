@@ -0,0 +1,154 @@
+package message;
+
+import com.google.cloud.firestore.GeoPoint;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+public class CachingMessageFinder implements MessageFinder {
+
+  private final MessageFinder delegate;
+  private final double tileDegrees;
+  private final int maxUnlimitedTiles;
+  private final LongSupplier writeVersion;
+  private final Cache<CoalescingMessageFinder.BoundingBoxKey, CachedResult> cache;
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder bypassCount = new LongAdder();
+
+  /**
+   * MessageFinder caching bounding box results on a tile grid for a fixed time, without
+   * invalidating them on writes. Each entry remembers the write version its results are sure to
+   * reflect. A query that must see a newer write, because its client presented the version token
+   * of that write, bypasses the entry and replaces it with results loaded at the current version;
+   * every other query keeps hitting it. Results loaded for other queries may come from a shared or
+   * cached read that started before the latest writes, so they don't vouch for any version.
+   *
+   * @param delegate          MessageFinder computing the results
+   * @param tileDegrees       Size in degrees of the tile grid bounding boxes are snapped to
+   * @param maxUnlimitedTiles Maximum number of tiles of a snapped box fetched without a limit
+   * @param ttlMillis         Time in milliseconds an entry is served for
+   * @param maxMessages       Maximum number of messages held across all entries
+   * @param writeVersion      Supplier of the last write version a query started now is sure to see
+   */
+  public CachingMessageFinder(
+      MessageFinder delegate,
+      double tileDegrees,
+      int maxUnlimitedTiles,
+      long ttlMillis,
+      long maxMessages,
+      LongSupplier writeVersion
+  ) {
+    this.delegate = delegate;
+    this.tileDegrees = tileDegrees;
+    this.maxUnlimitedTiles = maxUnlimitedTiles;
+    this.writeVersion = writeVersion;
+    this.cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .maximumWeight(maxMessages)
+        .<CoalescingMessageFinder.BoundingBoxKey, CachedResult>weigher(
+            (key, result) -> result.messages.size() + 1
+        )
+        .build();
+  }
+
+  @Override
+  public List<Message> findByUserId(String userId) throws ExecutionException, InterruptedException {
+    return delegate.findByUserId(userId);
+  }
+
+  @Override
+  public Message findByRecordId(String recordId)
+      throws ExecutionException, InterruptedException {
+    return delegate.findByRecordId(recordId);
+  }
+
+  @Override
+  public List<Message> findByBoundingBox(
+      GeoPoint lesserPoint,
+      GeoPoint greaterPoint,
+      int maxRecords,
+      boolean isCrossing90Latitude,
+      boolean isCrossing180Longitude
+  ) throws ExecutionException, InterruptedException {
+    CoalescingMessageFinder.BoundingBoxKey key = CoalescingMessageFinder.BoundingBoxKey.forQuery(
+        lesserPoint,
+        greaterPoint,
+        maxRecords,
+        isCrossing90Latitude,
+        isCrossing180Longitude,
+        tileDegrees,
+        maxUnlimitedTiles
+    );
+
+    long required = ReadVersion.getRequired();
+    CachedResult cached = cache.getIfPresent(key);
+    if (cached != null && cached.version >= required) {
+      hitCount.increment();
+    } else {
+      if (cached == null) {
+        missCount.increment();
+      } else {
+        bypassCount.increment();
+      }
+      // Read the version before the query: writes finishing during it may or may not be included.
+      long version = required < 0 ? -1 : Math.max(required, writeVersion.getAsLong());
+      CachedResult loaded = new CachedResult(
+          ReadVersion.query(version, () -> delegate.findByBoundingBox(
+              key.lesserPoint,
+              key.greaterPoint,
+              key.maxRecords,
+              isCrossing90Latitude,
+              isCrossing180Longitude
+          )),
+          version
+      );
+      // Don't replace results a concurrent query loaded at a newer version.
+      cached = cache.asMap().merge(
+          key,
+          loaded,
+          (current, update) -> current.version > update.version ? current : update
+      );
+    }
+
+    return cached.messages
+        .stream()
+        .filter(message -> MessageFinderImpl.filterMessage(
+            message,
+            lesserPoint,
+            greaterPoint,
+            isCrossing90Latitude,
+            isCrossing180Longitude
+        ))
+        .limit(maxRecords)
+        .collect(Collectors.toList());
+  }
+
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  public long getBypassCount() {
+    return bypassCount.sum();
+  }
+
+  private static final class CachedResult {
+    final List<Message> messages;
+    final long version;
+
+    CachedResult(List<Message> messages, long version) {
+      this.messages = Collections.unmodifiableList(messages);
+      this.version = version;
+    }
+  }
+}
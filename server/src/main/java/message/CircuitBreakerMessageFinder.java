@@ -0,0 +1,464 @@
+package message;
+
+import com.google.cloud.firestore.GeoPoint;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import deadline.Deadline;
+import deadline.DeadlineExceededException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import limit.CircuitBreaker;
+import limit.CircuitBreakerOpenException;
+
+public class CircuitBreakerMessageFinder implements MessageFinder {
+  private static final long NOT_STALE = -1;
+  private static final ThreadLocal<Long> stalenessMillis = ThreadLocal.withInitial(() -> NOT_STALE);
+  // Boxes covering more tiles than this are checked one by one on writes instead of being indexed.
+  private static final int MAX_INDEXED_TILES = 256;
+  // Slack for locations on tile boundaries, which belong to the boxes on both sides.
+  private static final double BOUNDARY_EPSILON = 1e-9;
+
+  private final MessageFinder delegate;
+  private final CircuitBreaker breaker;
+  private final double tileDegrees;
+  private final int maxUnlimitedTiles;
+  private final long revalidateNanos;
+  private final long refreshTimeoutNanos;
+  private final Executor refreshExecutor;
+  private final Cache<Object, CachedResult> cache;
+  private final Set<Object> refreshing = ConcurrentHashMap.newKeySet();
+  // Cached box keys by the tiles they cover, and boxes too large to index, guarded by tileIndex.
+  private final Map<Long, Set<CoalescingMessageFinder.BoundingBoxKey>> tileIndex = new HashMap<>();
+  private final Set<CoalescingMessageFinder.BoundingBoxKey> wideKeys = new HashSet<>();
+  private final LongAdder staleCount = new LongAdder();
+  private final LongAdder rejectedCount = new LongAdder();
+  private final LongAdder refreshCount = new LongAdder();
+
+  /**
+   * MessageFinder that stops calling a failing or slow backend once the circuit breaker opens.
+   * Results of successful user ID and bounding box queries are kept as the last known good answer
+   * for the user or area, and served instead while the breaker is open or when a call fails.
+   * Serving an entry older than revalidateMillis, or one a write has made out of date, queues a
+   * refresh on refreshExecutor, which doubles as a probe of the backend, so requests never wait
+   * for it.
+   *
+   * @param delegate             MessageFinder calling the backend
+   * @param breaker              CircuitBreaker guarding the backend calls
+   * @param tileDegrees          Size in degrees of the tile grid areas are cached on
+   * @param maxUnlimitedTiles    Maximum number of tiles of a snapped box fetched without a limit
+   * @param maxCacheMessages     Maximum number of messages held across all cached users and areas
+   * @param revalidateMillis     Age in milliseconds after which a served entry is refreshed
+   * @param refreshTimeoutMillis Time in milliseconds a refresh may take
+   * @param refreshExecutor      Bounded Executor running refreshes, which drops them when full
+   */
+  public CircuitBreakerMessageFinder(
+      MessageFinder delegate,
+      CircuitBreaker breaker,
+      double tileDegrees,
+      int maxUnlimitedTiles,
+      long maxCacheMessages,
+      long revalidateMillis,
+      long refreshTimeoutMillis,
+      Executor refreshExecutor
+  ) {
+    this.delegate = delegate;
+    this.breaker = breaker;
+    this.tileDegrees = tileDegrees;
+    this.maxUnlimitedTiles = maxUnlimitedTiles;
+    this.revalidateNanos = TimeUnit.MILLISECONDS.toNanos(revalidateMillis);
+    this.refreshTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(refreshTimeoutMillis);
+    this.refreshExecutor = refreshExecutor;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxCacheMessages)
+        .<Object, CachedResult>weigher((key, result) -> result.messages.size() + 1)
+        .removalListener(notification -> {
+          if (notification.getKey() instanceof CoalescingMessageFinder.BoundingBoxKey) {
+            unindex((CoalescingMessageFinder.BoundingBoxKey) notification.getKey());
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Get the age of the stale results the last query on this thread was answered with, and clear
+   * it for the next query.
+   *
+   * @return Age in milliseconds, or -1 if the results came from the backend
+   */
+  public static long takeStalenessMillis() {
+    long staleness = stalenessMillis.get();
+    stalenessMillis.set(NOT_STALE);
+    return staleness;
+  }
+
+  @Override
+  public List<Message> findByUserId(String userId) throws ExecutionException, InterruptedException {
+    UserKey key = new UserKey(userId);
+    return find(key, () -> delegate.findByUserId(userId), messages -> messages);
+  }
+
+  @Override
+  public Message findByRecordId(String recordId)
+      throws ExecutionException, InterruptedException {
+    // Used to check ownership before writes, which must not act on stale data.
+    return delegate.findByRecordId(recordId);
+  }
+
+  @Override
+  public List<Message> findByBoundingBox(
+      GeoPoint lesserPoint,
+      GeoPoint greaterPoint,
+      int maxRecords,
+      boolean isCrossing90Latitude,
+      boolean isCrossing180Longitude
+  ) throws ExecutionException, InterruptedException {
+    // Nearby viewports share an entry holding every message of their snapped box, which is
+    // filtered down to the caller's box and limit when served. Boxes on the grid or too large to
+    // snap are cached by their own box and limit.
+    CoalescingMessageFinder.BoundingBoxKey key = CoalescingMessageFinder.BoundingBoxKey.forQuery(
+        lesserPoint,
+        greaterPoint,
+        maxRecords,
+        isCrossing90Latitude,
+        isCrossing180Longitude,
+        tileDegrees,
+        maxUnlimitedTiles
+    );
+    return find(
+        key,
+        () -> delegate.findByBoundingBox(
+            key.lesserPoint,
+            key.greaterPoint,
+            key.maxRecords,
+            isCrossing90Latitude,
+            isCrossing180Longitude
+        ),
+        messages -> messages
+            .stream()
+            .filter(message -> MessageFinderImpl.filterMessage(
+                message,
+                lesserPoint,
+                greaterPoint,
+                isCrossing90Latitude,
+                isCrossing180Longitude
+            ))
+            .limit(maxRecords)
+            .collect(Collectors.toList())
+    );
+  }
+
+  /**
+   * Mark cached results that writes have made out of date, so serving them as the last known good
+   * answer queues a refresh. They are kept, since they are still the best answer while the backend
+   * is failing.
+   *
+   * @param userIds   User IDs whose messages changed
+   * @param locations GeoPoints of the changed messages, before and after the writes
+   */
+  public void invalidate(Collection<String> userIds, Collection<GeoPoint> locations) {
+    Set<Object> keys = new HashSet<>();
+    for (String userId : userIds) {
+      keys.add(new UserKey(userId));
+    }
+    synchronized (tileIndex) {
+      for (GeoPoint location : locations) {
+        for (long tile : getTiles(location)) {
+          addContaining(keys, tileIndex.getOrDefault(tile, Collections.emptySet()), location);
+        }
+        addContaining(keys, wideKeys, location);
+      }
+    }
+    for (Object key : keys) {
+      CachedResult cached = cache.getIfPresent(key);
+      if (cached != null) {
+        cached.isOutdated = true;
+      }
+    }
+  }
+
+  public long getStaleCount() {
+    return staleCount.sum();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.sum();
+  }
+
+  public long getRefreshCount() {
+    return refreshCount.sum();
+  }
+
+  private List<Message> find(Object key, BackendCall call, CachedFilter filter)
+      throws ExecutionException, InterruptedException {
+    stalenessMillis.set(NOT_STALE);
+    if (!breaker.tryAcquire()) {
+      List<Message> stale = getStale(key, call, filter);
+      if (stale == null) {
+        rejectedCount.increment();
+        throw new ExecutionException(new CircuitBreakerOpenException());
+      }
+      return stale;
+    }
+
+    try {
+      return filter.apply(callBackend(key, call));
+    } catch (ExecutionException | RuntimeException e) {
+      List<Message> stale = getStale(key, call, filter);
+      if (stale == null) {
+        throw e;
+      }
+      return stale;
+    }
+  }
+
+  private List<Message> callBackend(Object key, BackendCall call)
+      throws ExecutionException, InterruptedException {
+    long start = System.nanoTime();
+    List<Message> messages;
+    try {
+      messages = call.call();
+    } catch (DeadlineExceededException e) {
+      // The caller's deadline may be far shorter than the backend needs, so only count the call
+      // as slow, not failed.
+      breaker.record(System.nanoTime() - start, false);
+      throw e;
+    } catch (ExecutionException | RuntimeException e) {
+      breaker.record(System.nanoTime() - start, true);
+      throw e;
+    }
+    breaker.record(System.nanoTime() - start, false);
+    if (key instanceof CoalescingMessageFinder.BoundingBoxKey) {
+      // Indexed together, so an entry evicted concurrently can't be left out of the index.
+      synchronized (tileIndex) {
+        cache.put(key, new CachedResult(messages, start));
+        index((CoalescingMessageFinder.BoundingBoxKey) key);
+      }
+    } else {
+      cache.put(key, new CachedResult(messages, start));
+    }
+    return messages;
+  }
+
+  private List<Message> getStale(Object key, BackendCall call, CachedFilter filter) {
+    CachedResult cached = cache.getIfPresent(key);
+    if (cached == null) {
+      return null;
+    }
+    long age = System.nanoTime() - cached.loadedNanos;
+    if (cached.isOutdated || age >= revalidateNanos) {
+      refresh(key, call);
+    }
+    staleCount.increment();
+    stalenessMillis.set(TimeUnit.NANOSECONDS.toMillis(age));
+    return filter.apply(cached.messages);
+  }
+
+  private void refresh(Object key, BackendCall call) {
+    if (!refreshing.add(key)) {
+      return;
+    }
+    try {
+      refreshExecutor.execute(() -> {
+        try {
+          if (breaker.tryAcquire()) {
+            refreshCount.increment();
+            Deadline.after(refreshTimeoutNanos).call(() -> callBackend(key, call));
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (Exception e) {
+          // Keep serving the cached entry; the next stale read queues another refresh.
+        } finally {
+          refreshing.remove(key);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      refreshing.remove(key);
+    }
+  }
+
+  private void index(CoalescingMessageFinder.BoundingBoxKey key) {
+    List<Long> tiles = getTiles(key);
+    if (tiles == null) {
+      wideKeys.add(key);
+      return;
+    }
+    for (long tile : tiles) {
+      tileIndex.computeIfAbsent(tile, t -> new HashSet<>()).add(key);
+    }
+  }
+
+  private void unindex(CoalescingMessageFinder.BoundingBoxKey key) {
+    synchronized (tileIndex) {
+      if (cache.asMap().containsKey(key)) {
+        // Replaced rather than evicted.
+        return;
+      }
+      List<Long> tiles = getTiles(key);
+      if (tiles == null) {
+        wideKeys.remove(key);
+        return;
+      }
+      for (long tile : tiles) {
+        Set<CoalescingMessageFinder.BoundingBoxKey> keys = tileIndex.get(tile);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+          tileIndex.remove(tile);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the tiles a box covers, including the tiles bordering its edges.
+   *
+   * @return List of tile IDs, or null if the box covers more than MAX_INDEXED_TILES tiles
+   */
+  private List<Long> getTiles(CoalescingMessageFinder.BoundingBoxKey key) {
+    long[] rows = getTileRange(
+        key.lesserPoint.getLatitude(),
+        key.greaterPoint.getLatitude(),
+        key.isCrossing90Latitude,
+        90
+    );
+    long[] columns = getTileRange(
+        key.lesserPoint.getLongitude(),
+        key.greaterPoint.getLongitude(),
+        key.isCrossing180Longitude,
+        180
+    );
+    if ((long) rows.length * columns.length > MAX_INDEXED_TILES) {
+      return null;
+    }
+    List<Long> tiles = new ArrayList<>();
+    for (long row : rows) {
+      for (long column : columns) {
+        tiles.add(getTile(row, column));
+      }
+    }
+    return tiles;
+  }
+
+  /**
+   * Get the tiles a location falls in, which are several on tile boundaries.
+   */
+  private Set<Long> getTiles(GeoPoint location) {
+    Set<Long> tiles = new HashSet<>();
+    for (double latitudeSlack : new double[]{-BOUNDARY_EPSILON, BOUNDARY_EPSILON}) {
+      for (double longitudeSlack : new double[]{-BOUNDARY_EPSILON, BOUNDARY_EPSILON}) {
+        tiles.add(getTile(
+            getTileIndex(location.getLatitude() + latitudeSlack),
+            getTileIndex(location.getLongitude() + longitudeSlack)
+        ));
+      }
+    }
+    return tiles;
+  }
+
+  /**
+   * Get the tile indexes of one axis of a box. A wrapping box covers everything outside of
+   * (lesser, greater).
+   */
+  private long[] getTileRange(double lesser, double greater, boolean isCrossing, double limit) {
+    long first = getTileIndex(-limit);
+    long last = getTileIndex(limit);
+    long lesserTile = getTileIndex(lesser);
+    long greaterTile = getTileIndex(greater);
+    if (!isCrossing) {
+      return rangeOf(lesserTile, greaterTile);
+    } else if (lesserTile >= greaterTile) {
+      return rangeOf(first, last);
+    }
+    long[] low = rangeOf(first, lesserTile);
+    long[] high = rangeOf(greaterTile, last);
+    long[] range = new long[low.length + high.length];
+    System.arraycopy(low, 0, range, 0, low.length);
+    System.arraycopy(high, 0, range, low.length, high.length);
+    return range;
+  }
+
+  private static long[] rangeOf(long first, long last) {
+    long[] range = new long[(int) Math.max(0, last - first + 1)];
+    for (int i = 0; i < range.length; i++) {
+      range[i] = first + i;
+    }
+    return range;
+  }
+
+  private long getTileIndex(double degrees) {
+    return (long) Math.floor(degrees / tileDegrees);
+  }
+
+  private static long getTile(long row, long column) {
+    return (row << 32) | (column & 0xffffffffL);
+  }
+
+  private static void addContaining(
+      Set<Object> keys,
+      Set<CoalescingMessageFinder.BoundingBoxKey> candidates,
+      GeoPoint location
+  ) {
+    for (CoalescingMessageFinder.BoundingBoxKey key : candidates) {
+      BoundingBox boundingBox = new BoundingBox(
+          key.lesserPoint,
+          key.greaterPoint,
+          key.isCrossing90Latitude,
+          key.isCrossing180Longitude
+      );
+      if (boundingBox.contains(location.getLatitude(), location.getLongitude())) {
+        keys.add(key);
+      }
+    }
+  }
+
+  private interface BackendCall {
+    List<Message> call() throws ExecutionException, InterruptedException;
+  }
+
+  private interface CachedFilter {
+    List<Message> apply(List<Message> messages);
+  }
+
+  private static final class CachedResult {
+    final List<Message> messages;
+    final long loadedNanos;
+    // Set once a write has made the results out of date.
+    volatile boolean isOutdated;
+
+    CachedResult(List<Message> messages, long loadedNanos) {
+      this.messages = Collections.unmodifiableList(messages);
+      this.loadedNanos = loadedNanos;
+    }
+  }
+
+  private static final class UserKey {
+    private final String userId;
+
+    private UserKey(String userId) {
+      this.userId = userId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof UserKey && Objects.equals(userId, ((UserKey) o).userId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(userId);
+    }
+  }
+}
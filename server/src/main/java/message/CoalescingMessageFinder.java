@@ -0,0 +1,354 @@
+package message;
+
+import com.google.cloud.firestore.GeoPoint;
+import com.google.common.annotations.VisibleForTesting;
+import deadline.Deadline;
+import deadline.DeadlineExceededException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+public class CoalescingMessageFinder implements MessageFinder {
+
+  private final MessageFinder delegate;
+  private final double tileDegrees;
+  private final int maxUnlimitedTiles;
+  private final ConcurrentHashMap<Object, Computation> inFlight = new ConcurrentHashMap<>();
+  private final LongAdder requestCount = new LongAdder();
+  private final LongAdder backendCallCount = new LongAdder();
+  private final LongAdder joinedCount = new LongAdder();
+
+  /**
+   * MessageFinder that lets concurrent identical queries share a single backend computation.
+   * Bounding boxes are snapped outwards to a tile grid so that nearly identical viewports share a
+   * key, whatever their record limits; every caller then filters the shared result down to its own
+   * box and limit. Boxes already on the grid, and boxes snapping to too many tiles to fetch without
+   * a limit, are instead fetched with the caller's limit and only shared with the same limit. A
+   * query that must see a write, per ReadVersion, only joins a computation started for that write
+   * version or a newer one, and otherwise starts its own for later queries to join. A caller whose
+   * shared computation is ended by the deadline of the caller running it starts or joins another
+   * one if it has time left.
+   *
+   * @param delegate          MessageFinder performing the backend computation
+   * @param tileDegrees       Size in degrees of the tile grid bounding boxes are snapped to
+   * @param maxUnlimitedTiles Maximum number of tiles of a snapped box fetched without a limit
+   */
+  public CoalescingMessageFinder(
+      MessageFinder delegate,
+      double tileDegrees,
+      int maxUnlimitedTiles
+  ) {
+    this.delegate = delegate;
+    this.tileDegrees = tileDegrees;
+    this.maxUnlimitedTiles = maxUnlimitedTiles;
+  }
+
+  @Override
+  public List<Message> findByUserId(String userId) throws ExecutionException, InterruptedException {
+    return coalesce(new UserKey(userId), () -> delegate.findByUserId(userId));
+  }
+
+  @Override
+  public Message findByRecordId(String recordId)
+      throws ExecutionException, InterruptedException {
+    return delegate.findByRecordId(recordId);
+  }
+
+  @Override
+  public List<Message> findByBoundingBox(
+      GeoPoint lesserPoint,
+      GeoPoint greaterPoint,
+      int maxRecords,
+      boolean isCrossing90Latitude,
+      boolean isCrossing180Longitude
+  ) throws ExecutionException, InterruptedException {
+    BoundingBoxKey key = BoundingBoxKey.forQuery(
+        lesserPoint,
+        greaterPoint,
+        maxRecords,
+        isCrossing90Latitude,
+        isCrossing180Longitude,
+        tileDegrees,
+        maxUnlimitedTiles
+    );
+
+    List<Message> messages = coalesce(key, () -> delegate.findByBoundingBox(
+        key.lesserPoint,
+        key.greaterPoint,
+        key.maxRecords,
+        isCrossing90Latitude,
+        isCrossing180Longitude
+    ));
+
+    return messages
+        .stream()
+        .filter(message -> MessageFinderImpl.filterMessage(
+            message,
+            lesserPoint,
+            greaterPoint,
+            isCrossing90Latitude,
+            isCrossing180Longitude
+        ))
+        .limit(maxRecords)
+        .collect(Collectors.toList());
+  }
+
+  public long getRequestCount() {
+    return requestCount.sum();
+  }
+
+  public long getBackendCallCount() {
+    return backendCallCount.sum();
+  }
+
+  /**
+   * Get the number of requests that joined another caller's backend computation. A request is
+   * counted once it is sure to get the shared result.
+   *
+   * @return Number of requests
+   */
+  public long getJoinedCount() {
+    return joinedCount.sum();
+  }
+
+  /**
+   * Get the fraction of requests that were answered by another caller's backend computation.
+   *
+   * @return double between 0 and 1, 0 if there have been no requests
+   */
+  public double getCoalescingRatio() {
+    long requests = requestCount.sum();
+    return requests == 0 ? 0 : 1 - (double) backendCallCount.sum() / requests;
+  }
+
+  private List<Message> coalesce(Object key, BackendCall call)
+      throws ExecutionException, InterruptedException {
+    requestCount.increment();
+
+    long version = ReadVersion.getRequired();
+    Computation computation = null;
+    while (computation == null) {
+      Computation candidate = new Computation(version);
+      // A computation started for an older version may have read the messages before the write.
+      Computation existing = inFlight.compute(
+          key,
+          (k, current) -> current == null || current.version < version ? candidate : current
+      );
+      if (existing == candidate) {
+        computation = candidate;
+        continue;
+      }
+      joinedCount.increment();
+      try {
+        return Deadline.awaitShared(existing.future);
+      } catch (DeadlineExceededException e) {
+        if (Deadline.current().isExpired()) {
+          throw e;
+        }
+        // The deadline of the caller running the computation ended it, not this caller's, so
+        // start or join another one with the time left.
+        joinedCount.decrement();
+        inFlight.remove(key, existing);
+      }
+    }
+
+    backendCallCount.increment();
+    try {
+      List<Message> messages = Collections.unmodifiableList(call.call());
+      computation.future.complete(messages);
+      return messages;
+    } catch (ExecutionException e) {
+      computation.future.completeExceptionally(e.getCause());
+      throw e;
+    } catch (InterruptedException | RuntimeException e) {
+      computation.future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, computation);
+    }
+  }
+
+  private static final class Computation {
+    final CompletableFuture<List<Message>> future = new CompletableFuture<>();
+    // Write version the computation's results are sure to reflect.
+    final long version;
+
+    Computation(long version) {
+      this.version = version;
+    }
+  }
+
+  private interface BackendCall {
+    List<Message> call() throws ExecutionException, InterruptedException;
+  }
+
+  private static final class UserKey {
+    private final String userId;
+
+    private UserKey(String userId) {
+      this.userId = userId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof UserKey && Objects.equals(userId, ((UserKey) o).userId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(userId);
+    }
+  }
+
+  @VisibleForTesting
+  static final class BoundingBoxKey {
+    final GeoPoint lesserPoint;
+    final GeoPoint greaterPoint;
+    final boolean isCrossing90Latitude;
+    final boolean isCrossing180Longitude;
+    // Limit the box is fetched with.
+    final int maxRecords;
+
+    private BoundingBoxKey(
+        GeoPoint lesserPoint,
+        GeoPoint greaterPoint,
+        boolean isCrossing90Latitude,
+        boolean isCrossing180Longitude,
+        int maxRecords
+    ) {
+      this.lesserPoint = lesserPoint;
+      this.greaterPoint = greaterPoint;
+      this.isCrossing90Latitude = isCrossing90Latitude;
+      this.isCrossing180Longitude = isCrossing180Longitude;
+      this.maxRecords = maxRecords;
+    }
+
+    /**
+     * Get the key a bounding box query is fetched and shared by. The snapped box can hold more
+     * matches than the caller's box, so it is fetched without a limit, and the caller's limit
+     * applied after filtering. Fetching the caller's own box with its limit reads less when the box
+     * doesn't grow or would grow into too many tiles.
+     */
+    static BoundingBoxKey forQuery(
+        GeoPoint lesserPoint,
+        GeoPoint greaterPoint,
+        int maxRecords,
+        boolean isCrossing90Latitude,
+        boolean isCrossing180Longitude,
+        double tileDegrees,
+        int maxUnlimitedTiles
+    ) {
+      BoundingBoxKey snapped = snap(
+          lesserPoint,
+          greaterPoint,
+          isCrossing90Latitude,
+          isCrossing180Longitude,
+          tileDegrees
+      );
+      if (snapped.isSameBox(lesserPoint, greaterPoint)
+          || snapped.getTileCount(tileDegrees) > maxUnlimitedTiles) {
+        return new BoundingBoxKey(
+            lesserPoint,
+            greaterPoint,
+            isCrossing90Latitude,
+            isCrossing180Longitude,
+            maxRecords
+        );
+      }
+      return snapped;
+    }
+
+    /**
+     * Snap a bounding box outwards to the tile grid. A wrapping box covers everything outside
+     * of (lesser, greater), so it grows by moving lesser up and greater down. The snapped box is
+     * fetched without a limit.
+     */
+    static BoundingBoxKey snap(
+        GeoPoint lesserPoint,
+        GeoPoint greaterPoint,
+        boolean isCrossing90Latitude,
+        boolean isCrossing180Longitude,
+        double tileDegrees
+    ) {
+      return new BoundingBoxKey(
+          new GeoPoint(
+              snap(lesserPoint.getLatitude(), !isCrossing90Latitude, tileDegrees, 90),
+              snap(lesserPoint.getLongitude(), !isCrossing180Longitude, tileDegrees, 180)
+          ),
+          new GeoPoint(
+              snap(greaterPoint.getLatitude(), isCrossing90Latitude, tileDegrees, 90),
+              snap(greaterPoint.getLongitude(), isCrossing180Longitude, tileDegrees, 180)
+          ),
+          isCrossing90Latitude,
+          isCrossing180Longitude,
+          Integer.MAX_VALUE
+      );
+    }
+
+    private boolean isSameBox(GeoPoint lesserPoint, GeoPoint greaterPoint) {
+      return isSame(this.lesserPoint.getLatitude(), lesserPoint.getLatitude())
+          && isSame(this.lesserPoint.getLongitude(), lesserPoint.getLongitude())
+          && isSame(this.greaterPoint.getLatitude(), greaterPoint.getLatitude())
+          && isSame(this.greaterPoint.getLongitude(), greaterPoint.getLongitude());
+    }
+
+    /**
+     * Get the number of grid tiles the box covers, once snapped.
+     */
+    private long getTileCount(double tileDegrees) {
+      double latitudeSpan = greaterPoint.getLatitude() - lesserPoint.getLatitude();
+      double longitudeSpan = greaterPoint.getLongitude() - lesserPoint.getLongitude();
+      if (isCrossing90Latitude) {
+        latitudeSpan = 180 - latitudeSpan;
+      }
+      if (isCrossing180Longitude) {
+        longitudeSpan = 360 - longitudeSpan;
+      }
+      return Math.round(latitudeSpan / tileDegrees) * Math.round(longitudeSpan / tileDegrees);
+    }
+
+    // Snapping divides and multiplies by the tile size, so values on the grid may differ slightly.
+    private static boolean isSame(double snapped, double value) {
+      return Math.abs(snapped - value) < 1e-9;
+    }
+
+    private static double snap(double value, boolean down, double tileDegrees, double limit) {
+      double tiles = value / tileDegrees;
+      // Keep values already on the grid there despite rounding, such as 0.4 / 0.1 > 4.
+      if (isSame(Math.rint(tiles), tiles)) {
+        tiles = Math.rint(tiles);
+      }
+      double snapped = (down ? Math.floor(tiles) : Math.ceil(tiles)) * tileDegrees;
+      return Math.max(-limit, Math.min(limit, snapped));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof BoundingBoxKey)) {
+        return false;
+      }
+      BoundingBoxKey other = (BoundingBoxKey) o;
+      return isCrossing90Latitude == other.isCrossing90Latitude
+          && maxRecords == other.maxRecords
+          && isCrossing180Longitude == other.isCrossing180Longitude
+          && lesserPoint.equals(other.lesserPoint)
+          && greaterPoint.equals(other.greaterPoint);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+          lesserPoint,
+          greaterPoint,
+          isCrossing90Latitude,
+          isCrossing180Longitude,
+          maxRecords
+      );
+    }
+  }
+}
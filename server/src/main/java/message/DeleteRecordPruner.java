@@ -0,0 +1,114 @@
+package message;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import constants.Constants;
+import deadline.Deadline;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import metrics.DocumentCounter;
+import metrics.FirestoreMetrics;
+import metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DeleteRecordPruner {
+  private static final Logger logger = LoggerFactory.getLogger(DeleteRecordPruner.class);
+  private static final LatencyHistogram FIND_DELETE_RECORDS_LATENCY =
+      FirestoreMetrics.getHistogram("find_delete_records");
+  private static final LatencyHistogram PRUNE_DELETE_RECORDS_LATENCY =
+      FirestoreMetrics.getHistogram("prune_delete_records");
+  private static final DocumentCounter FIND_DELETE_RECORDS_READS =
+      FirestoreMetrics.getReadCounter("find_delete_records");
+  private static final DocumentCounter PRUNE_DELETE_RECORDS_WRITES =
+      FirestoreMetrics.getWriteCounter("prune_delete_records");
+  // Firestore allows 500 writes per batch.
+  private static final int BATCH_SIZE = 500;
+
+  private final Firestore firestore;
+  private final CollectionReference deletesCollection;
+  private final long retentionMillis;
+  private final ScheduledExecutorService executor;
+  private final LongAdder prunedCount = new LongAdder();
+  private final LongAdder failureCount = new LongAdder();
+
+  /**
+   * Background pruner of the records of deleted messages, which servers resuming from a message
+   * snapshot only read back as far as the snapshot. Records older than the retention are deleted,
+   * so the snapshots loaded must be more recent than that. Pruning is idempotent, so every server
+   * may run it.
+   *
+   * @param firestore       Firestore holding the records of deleted messages
+   * @param retentionMillis Age in milliseconds after which a record is deleted
+   * @param intervalMillis  Time in milliseconds between prunes
+   */
+  public DeleteRecordPruner(Firestore firestore, long retentionMillis, long intervalMillis) {
+    this.firestore = firestore;
+    this.deletesCollection = firestore.collection(Constants.DELETES_COLLECTION_PATH);
+    this.retentionMillis = retentionMillis;
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "delete-record-pruner");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::prune, intervalMillis, intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  public long getPrunedCount() {
+    return prunedCount.sum();
+  }
+
+  public long getFailureCount() {
+    return failureCount.sum();
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Delete the records older than the retention, a batch at a time.
+   */
+  void prune() {
+    Timestamp cutoff = Timestamp.ofTimeMicroseconds(
+        TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() - retentionMillis)
+    );
+    try {
+      int found;
+      do {
+        QuerySnapshot records = Deadline.await(FirestoreMetrics.record(
+            deletesCollection
+                .whereLessThan(Message.FS_TIMESTAMP_FIELD_NAME, cutoff)
+                .limit(BATCH_SIZE)
+                .get(),
+            FIND_DELETE_RECORDS_LATENCY
+        ));
+        found = records.getDocuments().size();
+        FIND_DELETE_RECORDS_READS.add(found);
+        if (found == 0) {
+          return;
+        }
+        WriteBatch batch = firestore.batch();
+        for (QueryDocumentSnapshot record : records.getDocuments()) {
+          batch.delete(record.getReference());
+        }
+        Deadline.await(FirestoreMetrics.record(batch.commit(), PRUNE_DELETE_RECORDS_LATENCY));
+        PRUNE_DELETE_RECORDS_WRITES.add(found);
+        prunedCount.add(found);
+      } while (found == BATCH_SIZE);
+    } catch (ExecutionException | RuntimeException e) {
+      failureCount.increment();
+      logger.warn("Failed to prune the records of deleted messages", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
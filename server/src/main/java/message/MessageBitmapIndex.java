@@ -0,0 +1,569 @@
+package message;
+
+import com.google.cloud.firestore.GeoPoint;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+public class MessageBitmapIndex {
+  // Planner costs, in units of checking one message against the query.
+  private static final double LOOKUP_COST = 1;
+  private static final double BITMAP_VALUE_COST = 0.05;
+
+  private final double cellDegrees;
+  private final long timeBucketMillis;
+  private final int maxCells;
+  private final long columns;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final LongAdder queryCount = new LongAdder();
+  private final LongAdder materializedCount = new LongAdder();
+
+  // Guarded by lock.
+  private final Map<String, Integer> ordinalsById = new HashMap<>();
+  private Message[] messagesByOrdinal = new Message[64];
+  // Ordinals of removed messages, reused first to keep the ordinals dense.
+  private final Deque<Integer> freeOrdinals = new ArrayDeque<>();
+  private int nextOrdinal;
+  private final Map<String, RoaringBitmap> byUser = new HashMap<>();
+  private final NavigableMap<Long, RoaringBitmap> byTimeBucket = new TreeMap<>();
+  private final Map<Long, RoaringBitmap> byCell = new HashMap<>();
+  // Posting lists of the terms of the message texts, as tokenized by MessageTokenizer.
+  private final Map<String, RoaringBitmap> byTerm = new HashMap<>();
+
+  /**
+   * Secondary indexes of the messages for queries combining a user, a time window, an area and
+   * keywords. Every message gets a dense ordinal, and each user, time bucket, grid cell and text
+   * term maps to a Roaring bitmap of the ordinals of its messages. A query intersects the bitmaps
+   * of its conditions, smallest first, and only looks at the messages left.
+   *
+   * @param cellDegrees      Size in degrees of the grid cells
+   * @param timeBucketMillis Length in milliseconds of the time buckets
+   * @param maxCells         Maximum number of cells a query area is looked up in; larger areas are
+   *                         only checked against the messages left by the other conditions
+   */
+  public MessageBitmapIndex(double cellDegrees, long timeBucketMillis, int maxCells) {
+    this.cellDegrees = cellDegrees;
+    this.timeBucketMillis = timeBucketMillis;
+    this.maxCells = maxCells;
+    this.columns = getCell(360, cellDegrees) + 1;
+  }
+
+  /**
+   * Apply a set of changes. Removals are applied first, so a message both removed and upserted is
+   * kept.
+   *
+   * @param upserts    Messages added or replaced, by record ID
+   * @param removedIds Record IDs of Messages removed
+   */
+  public void apply(Collection<Message> upserts, Collection<String> removedIds) {
+    lock.writeLock().lock();
+    try {
+      for (String recordId : removedIds) {
+        Integer ordinal = ordinalsById.remove(recordId);
+        if (ordinal != null) {
+          unindex(ordinal);
+          messagesByOrdinal[ordinal] = null;
+          freeOrdinals.push(ordinal);
+        }
+      }
+      for (Message message : upserts) {
+        Integer ordinal = ordinalsById.get(message.getId());
+        if (ordinal != null) {
+          unindex(ordinal);
+        } else {
+          ordinal = freeOrdinals.isEmpty() ? nextOrdinal++ : freeOrdinals.pop();
+          ordinalsById.put(message.getId(), ordinal);
+          if (ordinal == messagesByOrdinal.length) {
+            messagesByOrdinal = Arrays.copyOf(messagesByOrdinal, 2 * ordinal);
+          }
+        }
+        messagesByOrdinal[ordinal] = message;
+        index(ordinal);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public List<Message> find(
+      String userId,
+      BoundingBox boundingBox,
+      Date postedAfter,
+      int maxRecords
+  ) {
+    return find(userId, boundingBox, postedAfter, Collections.emptyList(), maxRecords, null);
+  }
+
+  public List<Message> find(
+      String userId,
+      BoundingBox boundingBox,
+      Date postedAfter,
+      Collection<String> terms,
+      int maxRecords
+  ) {
+    return find(userId, boundingBox, postedAfter, terms, maxRecords, null);
+  }
+
+  /**
+   * Find messages matching every passed condition, the way the planner deems cheapest.
+   *
+   * @param userId      User ID of the messages, or null for any
+   * @param boundingBox BoundingBox the messages are in, or null for anywhere
+   * @param postedAfter Time after which the messages were last posted, or null for any
+   * @param terms       Terms the message texts all contain, as tokenized by MessageTokenizer
+   * @param maxRecords  Maximum number of records to return
+   * @param plans       List to add the QueryPlan the query ran with to, or null
+   * @return List of matching Messages in no particular order
+   */
+  public List<Message> find(
+      String userId,
+      BoundingBox boundingBox,
+      Date postedAfter,
+      Collection<String> terms,
+      int maxRecords,
+      List<QueryPlan> plans
+  ) {
+    queryCount.increment();
+    lock.readLock().lock();
+    try {
+      List<Condition> conditions = getConditions(userId, boundingBox, postedAfter, terms);
+      List<QueryPlan.Path> paths = plans == null ? null : new ArrayList<>();
+      int chosen = plan(conditions, maxRecords, paths);
+      if (plans != null) {
+        plans.add(getQueryPlan(conditions, paths));
+      }
+      // Term bitmaps are exact, so only the terms left out of the intersection are checked.
+      List<String> uncheckedTerms = new ArrayList<>();
+      for (int i = 0; i < conditions.size(); i++) {
+        if (conditions.get(i).term != null && (chosen & 1 << i) == 0) {
+          uncheckedTerms.add(conditions.get(i).term);
+        }
+      }
+
+      RoaringBitmap ordinals;
+      if (chosen == 0) {
+        ordinals = new RoaringBitmap();
+        ordinals.add(0L, (long) nextOrdinal);
+      } else {
+        List<RoaringBitmap> bitmaps = new ArrayList<>();
+        for (int i = 0; i < conditions.size(); i++) {
+          if ((chosen & 1 << i) != 0) {
+            List<RoaringBitmap> parts = conditions.get(i).bitmaps;
+            bitmaps.add(parts.size() == 1 ? parts.get(0) : FastAggregation.or(parts.iterator()));
+          }
+        }
+        bitmaps.sort(Comparator.comparingInt(RoaringBitmap::getCardinality));
+        ordinals = bitmaps.get(0);
+        for (int i = 1; i < bitmaps.size() && !ordinals.isEmpty(); i++) {
+          ordinals = RoaringBitmap.and(ordinals, bitmaps.get(i));
+        }
+      }
+
+      // Scans and cells or buckets are coarser than the conditions, so check the survivors exactly.
+      List<Message> messages = new ArrayList<>();
+      IntIterator iterator = ordinals.getIntIterator();
+      while (iterator.hasNext() && messages.size() < maxRecords) {
+        Message message = messagesByOrdinal[iterator.next()];
+        if (message == null) {
+          continue;
+        }
+        materializedCount.increment();
+        if ((userId == null || userId.equals(message.getUserId()))
+            && (boundingBox == null
+            || boundingBox.contains(message.getLatitude(), message.getLongitude()))
+            && (postedAfter == null || message.getTimestamp().after(postedAfter))
+            && (uncheckedTerms.isEmpty()
+            || MessageTokenizer.tokenize(message.getText()).containsAll(uncheckedTerms))) {
+          messages.add(message);
+        }
+      }
+      return messages;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public QueryPlan explain(
+      String userId,
+      BoundingBox boundingBox,
+      Date postedAfter,
+      int maxRecords
+  ) {
+    return explain(userId, boundingBox, postedAfter, Collections.emptyList(), maxRecords);
+  }
+
+  /**
+   * Explain how a query would be answered, without running it.
+   *
+   * @param userId      User ID of the messages, or null for any
+   * @param boundingBox BoundingBox the messages are in, or null for anywhere
+   * @param postedAfter Time after which the messages were last posted, or null for any
+   * @param terms       Terms the message texts all contain, as tokenized by MessageTokenizer
+   * @param maxRecords  Maximum number of records to return
+   * @return QueryPlan with the chosen access path and the estimates of every path
+   */
+  public QueryPlan explain(
+      String userId,
+      BoundingBox boundingBox,
+      Date postedAfter,
+      Collection<String> terms,
+      int maxRecords
+  ) {
+    lock.readLock().lock();
+    try {
+      List<Condition> conditions = getConditions(userId, boundingBox, postedAfter, terms);
+      List<QueryPlan.Path> paths = new ArrayList<>();
+      plan(conditions, maxRecords, paths);
+      return getQueryPlan(conditions, paths);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private QueryPlan getQueryPlan(List<Condition> conditions, List<QueryPlan.Path> paths) {
+    paths.sort(Comparator.comparingDouble(QueryPlan.Path::getEstimatedCost));
+    return new QueryPlan(
+        paths.get(0).getName(),
+        ordinalsById.size(),
+        getMatchingCount(conditions),
+        paths
+    );
+  }
+
+  /**
+   * Choose the cheapest access path: intersecting the bitmaps of some of the conditions and
+   * checking the candidates left, or scanning the messages. Statistics are the cardinalities of
+   * the bitmaps, assuming conditions are independent and messages spread evenly within a bitmap.
+   * Both kinds of path stop once maxRecords messages matched, which favors scans when most
+   * messages match.
+   *
+   * @param conditions Conditions of the query
+   * @param maxRecords Maximum number of records to return
+   * @param paths      List to add every path considered to, or null
+   * @return Bit mask of the conditions whose bitmaps to intersect, 0 to scan
+   */
+  private int plan(List<Condition> conditions, int maxRecords, List<QueryPlan.Path> paths) {
+    double total = Math.max(1, ordinalsById.size());
+    double matching = getMatchingCount(conditions);
+
+    int chosen = 0;
+    double chosenCost = getCheckCost(total, matching, maxRecords);
+    if (paths != null) {
+      paths.add(new QueryPlan.Path("scan", 0, total, chosenCost, chosenCost));
+    }
+    for (int mask = 1; mask < 1 << conditions.size(); mask++) {
+      double candidates = total;
+      long lookups = 0;
+      double bitmapValues = 0;
+      List<String> names = new ArrayList<>();
+      boolean isUsable = true;
+      for (int i = 0; i < conditions.size(); i++) {
+        if ((mask & 1 << i) != 0) {
+          Condition condition = conditions.get(i);
+          isUsable &= condition.bitmaps != null;
+          if (isUsable) {
+            candidates *= condition.selectivity;
+            lookups += condition.bitmaps.size();
+            bitmapValues += condition.cardinality;
+            names.add(condition.name);
+          }
+        }
+      }
+      if (!isUsable) {
+        continue;
+      }
+      double checked = getCheckCost(candidates, matching, maxRecords);
+      double cost = lookups * LOOKUP_COST + bitmapValues * BITMAP_VALUE_COST + checked;
+      if (paths != null) {
+        paths.add(new QueryPlan.Path(String.join("+", names), lookups, candidates, checked, cost));
+      }
+      if (cost < chosenCost) {
+        chosen = mask;
+        chosenCost = cost;
+      }
+    }
+    return chosen;
+  }
+
+  /**
+   * Estimate the number of candidates checked before maxRecords of them match.
+   *
+   * @return Estimated number of messages checked
+   */
+  private static double getCheckCost(double candidates, double matching, int maxRecords) {
+    if (matching >= candidates) {
+      return Math.min(candidates, maxRecords);
+    }
+    return matching == 0 ? candidates : Math.min(candidates, maxRecords * candidates / matching);
+  }
+
+  private double getMatchingCount(List<Condition> conditions) {
+    double matching = ordinalsById.size();
+    for (Condition condition : conditions) {
+      matching *= condition.selectivity;
+    }
+    return matching;
+  }
+
+  private List<Condition> getConditions(
+      String userId,
+      BoundingBox boundingBox,
+      Date postedAfter,
+      Collection<String> terms
+  ) {
+    double total = Math.max(1, ordinalsById.size());
+    List<Condition> conditions = new ArrayList<>();
+    if (userId != null) {
+      RoaringBitmap bitmap = byUser.get(userId);
+      conditions.add(new Condition(
+          "user",
+          Collections.singletonList(bitmap == null ? new RoaringBitmap() : bitmap),
+          total
+      ));
+    }
+    if (postedAfter != null) {
+      conditions.add(new Condition(
+          "time",
+          new ArrayList<>(byTimeBucket.tailMap(getTimeBucket(postedAfter), true).values()),
+          total
+      ));
+    }
+    if (boundingBox != null) {
+      List<RoaringBitmap> cells = getCellBitmaps(boundingBox);
+      conditions.add(cells != null
+          ? new Condition("area", cells, total)
+          // Too many cells to look up, so guess from the share of the globe the box covers.
+          : new Condition("area", Math.min(1, boundingBox.getArea() / (180 * 360))));
+    }
+    for (String term : terms) {
+      RoaringBitmap bitmap = byTerm.get(term);
+      conditions.add(new Condition(
+          "text:" + term,
+          term,
+          bitmap == null ? new RoaringBitmap() : bitmap,
+          total
+      ));
+    }
+    return conditions;
+  }
+
+  /**
+   * Get the number of messages indexed.
+   *
+   * @return Number of messages
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return ordinalsById.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Get the memory held by the bitmaps.
+   *
+   * @return Size of the bitmaps in bytes
+   */
+  public long getBitmapBytes() {
+    lock.readLock().lock();
+    try {
+      return getSizeInBytes(byUser) + getSizeInBytes(byTimeBucket) + getSizeInBytes(byCell)
+          + getSizeInBytes(byTerm);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Get the number of distinct terms in the message texts.
+   *
+   * @return Number of terms
+   */
+  public int getTermCount() {
+    lock.readLock().lock();
+    try {
+      return byTerm.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public long getQueryCount() {
+    return queryCount.sum();
+  }
+
+  public long getMaterializedCount() {
+    return materializedCount.sum();
+  }
+
+  private void index(int ordinal) {
+    Message message = messagesByOrdinal[ordinal];
+    byUser.computeIfAbsent(message.getUserId(), key -> new RoaringBitmap()).add(ordinal);
+    byTimeBucket.computeIfAbsent(getTimeBucket(message.getTimestamp()), key -> new RoaringBitmap())
+        .add(ordinal);
+    byCell.computeIfAbsent(getCell(message), key -> new RoaringBitmap()).add(ordinal);
+    for (String term : MessageTokenizer.tokenize(message.getText())) {
+      byTerm.computeIfAbsent(term, key -> new RoaringBitmap()).add(ordinal);
+    }
+  }
+
+  private void unindex(int ordinal) {
+    Message message = messagesByOrdinal[ordinal];
+    remove(byUser, message.getUserId(), ordinal);
+    remove(byTimeBucket, getTimeBucket(message.getTimestamp()), ordinal);
+    remove(byCell, getCell(message), ordinal);
+    for (String term : MessageTokenizer.tokenize(message.getText())) {
+      remove(byTerm, term, ordinal);
+    }
+  }
+
+  private static long getSizeInBytes(Map<?, RoaringBitmap> bitmaps) {
+    long bytes = 0;
+    for (RoaringBitmap bitmap : bitmaps.values()) {
+      bytes += bitmap.getLongSizeInBytes();
+    }
+    return bytes;
+  }
+
+  private static <K> void remove(Map<K, RoaringBitmap> bitmaps, K key, int ordinal) {
+    RoaringBitmap bitmap = bitmaps.get(key);
+    bitmap.remove(ordinal);
+    if (bitmap.isEmpty()) {
+      bitmaps.remove(key);
+    }
+  }
+
+  private long getTimeBucket(Date date) {
+    return Math.floorDiv(date.getTime(), timeBucketMillis);
+  }
+
+  private long getCell(Message message) {
+    return getCell(message.getLatitude() + 90, cellDegrees) * columns
+        + getCell(message.getLongitude() + 180, cellDegrees);
+  }
+
+  private static long getCell(double degrees, double cellDegrees) {
+    return (long) Math.floor(degrees / cellDegrees);
+  }
+
+  /**
+   * Get the bitmaps of the cells overlapping a bounding box.
+   *
+   * @return List of bitmaps, or null if the box spans more than maxCells cells
+   */
+  private List<RoaringBitmap> getCellBitmaps(BoundingBox boundingBox) {
+    GeoPoint lesserPoint = boundingBox.getLesserPoint();
+    GeoPoint greaterPoint = boundingBox.getGreaterPoint();
+    long[] rows = getCellRanges(
+        lesserPoint.getLatitude() + 90,
+        greaterPoint.getLatitude() + 90,
+        180,
+        boundingBox.isCrossing90Latitude()
+    );
+    long[] columnRanges = getCellRanges(
+        lesserPoint.getLongitude() + 180,
+        greaterPoint.getLongitude() + 180,
+        360,
+        boundingBox.isCrossing180Longitude()
+    );
+    if (countCells(rows) * countCells(columnRanges) > maxCells) {
+      return null;
+    }
+
+    List<RoaringBitmap> bitmaps = new ArrayList<>();
+    for (int i = 0; i < rows.length; i += 2) {
+      for (long row = rows[i]; row <= rows[i + 1]; row++) {
+        for (int j = 0; j < columnRanges.length; j += 2) {
+          for (long column = columnRanges[j]; column <= columnRanges[j + 1]; column++) {
+            RoaringBitmap bitmap = byCell.get(row * columns + column);
+            if (bitmap != null) {
+              bitmaps.add(bitmap);
+            }
+          }
+        }
+      }
+    }
+    return bitmaps;
+  }
+
+  /**
+   * Get the ranges of cells covering the values between two edges, shifted to start at 0.
+   *
+   * @return Pairs of first and last cells
+   */
+  private long[] getCellRanges(double lesser, double greater, double max, boolean isWrapping) {
+    // A wrapping box covers the values up to its lesser edge and from its greater edge on, like
+    // MessageFinderImpl.isInsideBoundedBox.
+    return isWrapping
+        ? new long[]{
+            0, getCell(lesser, cellDegrees),
+            getCell(greater, cellDegrees), getCell(max, cellDegrees)
+        }
+        : new long[]{getCell(lesser, cellDegrees), getCell(greater, cellDegrees)};
+  }
+
+  private static long countCells(long[] ranges) {
+    long count = 0;
+    for (int i = 0; i < ranges.length; i += 2) {
+      count += Math.max(0, ranges[i + 1] - ranges[i] + 1);
+    }
+    return count;
+  }
+
+  private static final class Condition {
+    final String name;
+    // Term of a text condition, or null.
+    final String term;
+    // Bitmaps whose union holds the matching messages, or null if they can't be looked up.
+    final List<RoaringBitmap> bitmaps;
+    final long cardinality;
+    // Estimated share of the messages matching.
+    final double selectivity;
+
+    Condition(String name, List<RoaringBitmap> bitmaps, double total) {
+      this(name, null, bitmaps, total);
+    }
+
+    Condition(String name, String term, RoaringBitmap bitmap, double total) {
+      this(name, term, Collections.singletonList(bitmap), total);
+    }
+
+    private Condition(String name, String term, List<RoaringBitmap> bitmaps, double total) {
+      this.name = name;
+      this.term = term;
+      this.bitmaps = bitmaps;
+      long cardinality = 0;
+      for (RoaringBitmap bitmap : bitmaps) {
+        cardinality += bitmap.getCardinality();
+      }
+      this.cardinality = cardinality;
+      this.selectivity = Math.min(1, cardinality / total);
+    }
+
+    Condition(String name, double selectivity) {
+      this.name = name;
+      this.term = null;
+      this.bitmaps = null;
+      this.cardinality = 0;
+      this.selectivity = selectivity;
+    }
+  }
+}
@@ -14,6 +14,14 @@ public interface MessageFinder {
    */
   List<Message> findByUserId(String userId) throws ExecutionException, InterruptedException;
 
+  /**
+   * Find a single message by its record ID.
+   *
+   * @param recordId Record ID of the message
+   * @return Message with the record ID, or null if there is none
+   */
+  Message findByRecordId(String recordId) throws ExecutionException, InterruptedException;
+
   /**
    * Find all messages that have a longitude and latitude within a particular bounding box limited
    * by the passed maximum number of records. Provides booleans for wrapping around globe in any
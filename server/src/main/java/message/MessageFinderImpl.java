@@ -2,6 +2,7 @@ package message;
 
 import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.GeoPoint;
 import com.google.cloud.firestore.QueryDocumentSnapshot;
@@ -9,12 +10,36 @@ import com.google.cloud.firestore.QuerySnapshot;
 import com.google.common.annotations.VisibleForTesting;
 import constants.Constants;
 
+import deadline.Deadline;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
-
-public class MessageFinderImpl implements MessageFinder {
+import metrics.DocumentCounter;
+import metrics.FirestoreMetrics;
+import metrics.LatencyHistogram;
+import tracing.BoundingBoxQueryEvent;
+import tracing.FirestoreReadEvent;
+import tracing.RequestTrace;
+
+public class MessageFinderImpl implements MessageFinder, MessageSource {
+  private static final LatencyHistogram FIND_BY_USER_ID_LATENCY =
+      FirestoreMetrics.getHistogram("find_by_user_id");
+  private static final LatencyHistogram FIND_BY_RECORD_ID_LATENCY =
+      FirestoreMetrics.getHistogram("find_by_record_id");
+  private static final LatencyHistogram GET_ALL_MESSAGES_LATENCY =
+      FirestoreMetrics.getHistogram("get_all_messages");
+  private static final LatencyHistogram GET_MESSAGES_LATENCY =
+      FirestoreMetrics.getHistogram("get_messages");
+  private static final DocumentCounter FIND_BY_USER_ID_READS =
+      FirestoreMetrics.getReadCounter("find_by_user_id");
+  private static final DocumentCounter FIND_BY_RECORD_ID_READS =
+      FirestoreMetrics.getReadCounter("find_by_record_id");
+  private static final DocumentCounter GET_ALL_MESSAGES_READS =
+      FirestoreMetrics.getReadCounter("get_all_messages");
+  private static final DocumentCounter GET_MESSAGES_READS =
+      FirestoreMetrics.getReadCounter("get_messages");
 
   private final CollectionReference messagesCollection;
 
@@ -24,12 +49,43 @@ public class MessageFinderImpl implements MessageFinder {
 
   @Override
   public List<Message> findByUserId(String userId) throws ExecutionException, InterruptedException {
-    QuerySnapshot querySnapshot = this.messagesCollection
-        .whereEqualTo(Message.FS_USER_ID_FIELD_NAME, userId)
-        .get()
-        .get();
+    FirestoreReadEvent event = new FirestoreReadEvent();
+    event.begin();
+    QuerySnapshot querySnapshot = Deadline.await(FirestoreMetrics.record(
+        this.messagesCollection.whereEqualTo(Message.FS_USER_ID_FIELD_NAME, userId).get(),
+        FIND_BY_USER_ID_LATENCY
+    ));
+    commitReadEvent(event, "find_by_user_id", querySnapshot);
+    FIND_BY_USER_ID_READS.add(querySnapshot.getDocuments().size());
+    RequestTrace.mark("firestore_fetch");
+
+    List<Message> messages = getMessagesFromQuerySnapshot(querySnapshot);
+    RequestTrace.mark("parse_snapshot");
+    return messages;
+  }
+
+  @Override
+  public Message findByRecordId(String recordId)
+      throws ExecutionException, InterruptedException {
+    FirestoreReadEvent event = new FirestoreReadEvent();
+    event.begin();
+    DocumentSnapshot documentSnapshot = Deadline.await(FirestoreMetrics.record(
+        this.messagesCollection.document(recordId).get(),
+        FIND_BY_RECORD_ID_LATENCY
+    ));
+    event.end();
+    if (event.shouldCommit()) {
+      event.operation = "find_by_record_id";
+      event.documentCount = documentSnapshot.exists() ? 1 : 0;
+      event.commit();
+    }
+    FIND_BY_RECORD_ID_READS.add(1);
+    RequestTrace.mark("firestore_fetch");
 
-    return getMessagesFromQuerySnapshot(querySnapshot);
+    if (!documentSnapshot.exists()) {
+      return null;
+    }
+    return getMessageFromDocumentData(documentSnapshot.getData());
   }
 
   @Override
@@ -43,21 +99,93 @@ public class MessageFinderImpl implements MessageFinder {
     // Firestore doesn't handle GeoPoint queries very well (only filters by longitude, doesn't
     // handle wrap-around), so perform actual filtering in-memory. Clearly this doesn't scale well,
     // but should be good enough for MVP.
-    QuerySnapshot querySnapshot = this.messagesCollection.get().get();
+    BoundingBoxQueryEvent event = new BoundingBoxQueryEvent();
+    event.begin();
+    List<Message> messages = getAllMessages();
+
+    List<Message> filteredMessages = new ArrayList<>();
+    int scannedCount = 0;
+    for (Message message : messages) {
+      if (filteredMessages.size() >= maxRecords) {
+        break;
+      }
+      scannedCount++;
+      if (filterMessage(
+          message,
+          lesserPoint,
+          greaterPoint,
+          isCrossing90Latitude,
+          isCrossing180Longitude
+      )) {
+        filteredMessages.add(message);
+      }
+    }
+    RequestTrace.mark("filter");
+
+    event.end();
+    if (event.shouldCommit()) {
+      event.area = new BoundingBox(
+          lesserPoint,
+          greaterPoint,
+          isCrossing90Latitude,
+          isCrossing180Longitude
+      ).getArea();
+      event.maxRecords = maxRecords;
+      event.batchSize = 1;
+      event.fetchedCount = messages.size();
+      event.scannedCount = scannedCount;
+      event.matchedCount = filteredMessages.size();
+      event.returnedCount = filteredMessages.size();
+      event.commit();
+    }
+    return filteredMessages;
+  }
+
+  @Override
+  public List<Message> getAllMessages() throws ExecutionException, InterruptedException {
+    FirestoreReadEvent event = new FirestoreReadEvent();
+    event.begin();
+    QuerySnapshot querySnapshot = Deadline.await(
+        FirestoreMetrics.record(this.messagesCollection.get(), GET_ALL_MESSAGES_LATENCY)
+    );
+    commitReadEvent(event, "get_all_messages", querySnapshot);
+    GET_ALL_MESSAGES_READS.add(querySnapshot.getDocuments().size());
+    RequestTrace.mark("firestore_fetch");
 
     List<Message> messages = getMessagesFromQuerySnapshot(querySnapshot);
+    RequestTrace.mark("parse_snapshot");
+    return messages;
+  }
 
-    return messages
-        .stream()
-        .filter(message -> filterMessage(
-            message,
-            lesserPoint,
-            greaterPoint,
-            isCrossing90Latitude,
-            isCrossing180Longitude
-        ))
-        .limit(maxRecords)
-        .collect(Collectors.toList());
+  @Override
+  public List<Message> getMessages(int maxMessages)
+      throws ExecutionException, InterruptedException {
+    FirestoreReadEvent event = new FirestoreReadEvent();
+    event.begin();
+    QuerySnapshot querySnapshot = Deadline.await(FirestoreMetrics.record(
+        this.messagesCollection.limit(maxMessages).get(),
+        GET_MESSAGES_LATENCY
+    ));
+    commitReadEvent(event, "get_messages", querySnapshot);
+    GET_MESSAGES_READS.add(querySnapshot.getDocuments().size());
+    RequestTrace.mark("firestore_fetch");
+
+    List<Message> messages = getMessagesFromQuerySnapshot(querySnapshot);
+    RequestTrace.mark("parse_snapshot");
+    return messages;
+  }
+
+  private static void commitReadEvent(
+      FirestoreReadEvent event,
+      String operation,
+      QuerySnapshot querySnapshot
+  ) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.operation = operation;
+      event.documentCount = querySnapshot.getDocuments().size();
+      event.commit();
+    }
   }
 
   @VisibleForTesting
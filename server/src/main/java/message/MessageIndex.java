@@ -0,0 +1,231 @@
+package message;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+
+public class MessageIndex implements MessageSource {
+
+  private final int blockSize;
+  // Serializes writers; readers never take it.
+  private final Object writeLock = new Object();
+  private volatile Snapshot snapshot = new Snapshot(0, new Block[0]);
+
+  /**
+   * In-memory index of the messages, sorted by record ID like Firestore's storage order. Readers
+   * take the current immutable Snapshot with a single volatile read and never wait for writers.
+   * Messages are kept in blocks of about blockSize entries; a write copies only the blocks it
+   * changes and the array of block references, then publishes the new version atomically.
+   * Versions are reclaimed by the garbage collector once no reader holds them.
+   *
+   * @param blockSize Target number of messages per block; blocks split once past twice that
+   */
+  public MessageIndex(int blockSize) {
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * Get the current version of the index. Never blocks.
+   *
+   * @return Snapshot that stays unchanged while the caller holds it
+   */
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  @Override
+  public List<Message> getAllMessages() {
+    return snapshot.getMessages();
+  }
+
+  @Override
+  public List<Message> getMessages(int maxMessages) {
+    List<Message> messages = snapshot.getMessages();
+    return messages.subList(0, Math.min(maxMessages, messages.size()));
+  }
+
+  /**
+   * Apply a set of changes and publish them as a single new version, so readers see either none or
+   * all of them.
+   *
+   * @param upserts    Messages added or replaced, by record ID
+   * @param removedIds Record IDs of Messages removed
+   */
+  public void apply(Collection<Message> upserts, Collection<String> removedIds) {
+    // A null value marks a removal; a message both removed and upserted is kept.
+    NavigableMap<String, Message> changes = new TreeMap<>();
+    for (String recordId : removedIds) {
+      changes.put(recordId, null);
+    }
+    for (Message message : upserts) {
+      changes.put(message.getId(), message);
+    }
+    if (changes.isEmpty()) {
+      return;
+    }
+
+    synchronized (writeLock) {
+      Block[] blocks = snapshot.blocks;
+      List<Block> updated = new ArrayList<>(blocks.length + 1);
+      if (blocks.length == 0) {
+        split(merge(new Block(new String[0], new Message[0]), changes), updated);
+      }
+      for (int i = 0; i < blocks.length; i++) {
+        // Block i owns the IDs from its first one up to the next block's first one, with the ends
+        // extended to cover IDs before the first block and after the last.
+        String from = i == 0 ? null : blocks[i].ids[0];
+        String to = i == blocks.length - 1 ? null : blocks[i + 1].ids[0];
+        NavigableMap<String, Message> blockChanges = from == null
+            ? (to == null ? changes : changes.headMap(to, false))
+            : (to == null ? changes.tailMap(from, true) : changes.subMap(from, true, to, false));
+        if (blockChanges.isEmpty()) {
+          updated.add(blocks[i]);
+        } else {
+          split(merge(blocks[i], blockChanges), updated);
+        }
+      }
+      snapshot = new Snapshot(snapshot.version + 1, updated.toArray(new Block[0]));
+    }
+  }
+
+  private static List<Message> merge(Block block, NavigableMap<String, Message> changes) {
+    List<Message> merged = new ArrayList<>(block.ids.length + changes.size());
+    int i = 0;
+    for (Map.Entry<String, Message> change : changes.entrySet()) {
+      while (i < block.ids.length && block.ids[i].compareTo(change.getKey()) < 0) {
+        merged.add(block.messages[i++]);
+      }
+      if (i < block.ids.length && block.ids[i].equals(change.getKey())) {
+        i++;
+      }
+      if (change.getValue() != null) {
+        merged.add(change.getValue());
+      }
+    }
+    while (i < block.ids.length) {
+      merged.add(block.messages[i++]);
+    }
+    return merged;
+  }
+
+  private void split(List<Message> messages, List<Block> blocks) {
+    if (messages.isEmpty()) {
+      return;
+    }
+    int count = messages.size() <= 2 * blockSize
+        ? 1
+        : (messages.size() + blockSize - 1) / blockSize;
+    for (int i = 0; i < count; i++) {
+      List<Message> part = messages.subList(
+          i * messages.size() / count,
+          (i + 1) * messages.size() / count
+      );
+      String[] ids = new String[part.size()];
+      for (int j = 0; j < ids.length; j++) {
+        ids[j] = part.get(j).getId();
+      }
+      blocks.add(new Block(ids, part.toArray(new Message[0])));
+    }
+  }
+
+  private static final class Block {
+    final String[] ids;
+    final Message[] messages;
+
+    Block(String[] ids, Message[] messages) {
+      this.ids = ids;
+      this.messages = messages;
+    }
+  }
+
+  public static final class Snapshot {
+    private final long version;
+    private final Block[] blocks;
+    // Index of the first message of each block, followed by the total number of messages.
+    private final int[] offsets;
+    private final List<Message> messages = new MessagesView();
+
+    private Snapshot(long version, Block[] blocks) {
+      this.version = version;
+      this.blocks = blocks;
+      this.offsets = new int[blocks.length + 1];
+      for (int i = 0; i < blocks.length; i++) {
+        offsets[i + 1] = offsets[i] + blocks[i].ids.length;
+      }
+    }
+
+    public long getVersion() {
+      return version;
+    }
+
+    public int size() {
+      return offsets[blocks.length];
+    }
+
+    /**
+     * Look up a message by record ID.
+     *
+     * @param recordId Record ID of the Message
+     * @return Message, or null if the snapshot doesn't hold it
+     */
+    public Message get(String recordId) {
+      int low = 0;
+      int high = blocks.length - 1;
+      // Find the last block whose first ID is not after the record ID.
+      while (low < high) {
+        int middle = (low + high + 1) >>> 1;
+        if (blocks[middle].ids[0].compareTo(recordId) <= 0) {
+          low = middle;
+        } else {
+          high = middle - 1;
+        }
+      }
+      if (blocks.length == 0) {
+        return null;
+      }
+      int index = Arrays.binarySearch(blocks[low].ids, recordId);
+      return index >= 0 ? blocks[low].messages[index] : null;
+    }
+
+    /**
+     * Get the messages of the snapshot in record ID order, without copying them.
+     *
+     * @return Unmodifiable List of Messages
+     */
+    public List<Message> getMessages() {
+      return messages;
+    }
+
+    private final class MessagesView extends AbstractList<Message> implements RandomAccess {
+      @Override
+      public Message get(int index) {
+        if (index < 0 || index >= size()) {
+          throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        int block = Arrays.binarySearch(offsets, 0, blocks.length, index);
+        if (block < 0) {
+          block = -block - 2;
+        }
+        return blocks[block].messages[index - offsets[block]];
+      }
+
+      @Override
+      public int size() {
+        return Snapshot.this.size();
+      }
+
+      @Override
+      public Iterator<Message> iterator() {
+        // Walk the blocks directly rather than searching for every index.
+        return Arrays.stream(blocks).flatMap(block -> Arrays.stream(block.messages)).iterator();
+      }
+    }
+  }
+}
@@ -0,0 +1,252 @@
+package message;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.EventListener;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+public class MessageIndexListener implements EventListener<QuerySnapshot> {
+
+  private final MessageIndex index;
+  private final BiConsumer<List<Message>, List<Message>> changeListener;
+  private final CollectionReference messagesCollection;
+  private final CollectionReference deletesCollection;
+  private final Date since;
+  private final ScheduledExecutorService executor;
+  private final long initialRetryMillis;
+  private final long maxRetryMillis;
+  private final CountDownLatch loaded = new CountDownLatch(1);
+  private final CountDownLatch deletesLoaded;
+  private final LongAdder errorCount = new LongAdder();
+
+  // Delays before registering again after the next error, only used by the executor thread.
+  private long retryMillis;
+  private long deletesRetryMillis;
+
+  // Set when registering, cleared by the first event of the registration.
+  private volatile boolean isInitialSnapshot = true;
+  // Read times of the last events applied.
+  private volatile Timestamp readTime;
+  private volatile Timestamp deletesReadTime;
+
+  public MessageIndexListener(
+      MessageIndex index,
+      BiConsumer<List<Message>, List<Message>> changeListener,
+      CollectionReference messagesCollection,
+      ScheduledExecutorService executor,
+      long initialRetryMillis,
+      long maxRetryMillis
+  ) {
+    this(
+        index,
+        changeListener,
+        messagesCollection,
+        null,
+        null,
+        executor,
+        initialRetryMillis,
+        maxRetryMillis
+    );
+  }
+
+  /**
+   * Firestore snapshot listener keeping a MessageIndex up to date. Each event's document changes
+   * are applied to the index as one version. If the listener fails it is registered again after a
+   * delay doubling with each consecutive failure, so an unavailable backend isn't hammered, and
+   * the first snapshot of the new registration replaces the index contents so messages removed in
+   * the meantime don't linger. With since set, as for an index loaded from a MessageSnapshotFile,
+   * only messages written from then on are listened to, since every write sets the timestamp, and
+   * deletes are listened to from then on too, as Firestore keeps no trace of deleted documents.
+   *
+   * @param index              MessageIndex to update
+   * @param changeListener     Receives the upserted and removed messages of each event once
+   *                           applied, with removed messages as they were before
+   * @param messagesCollection CollectionReference of the messages
+   * @param deletesCollection  CollectionReference of the records of deleted messages, only used
+   *                           with since set
+   * @param since              Time from which messages are listened to, or null for all
+   * @param executor           ScheduledExecutorService delivering events and retries, which
+   *                           should run one at a time
+   * @param initialRetryMillis Delay in milliseconds before registering again after a failure
+   * @param maxRetryMillis     Longest delay in milliseconds before registering again
+   */
+  public MessageIndexListener(
+      MessageIndex index,
+      BiConsumer<List<Message>, List<Message>> changeListener,
+      CollectionReference messagesCollection,
+      CollectionReference deletesCollection,
+      Date since,
+      ScheduledExecutorService executor,
+      long initialRetryMillis,
+      long maxRetryMillis
+  ) {
+    this.index = index;
+    this.changeListener = changeListener;
+    this.messagesCollection = messagesCollection;
+    this.deletesCollection = deletesCollection;
+    this.since = since == null ? null : (Date) since.clone();
+    this.executor = executor;
+    this.initialRetryMillis = initialRetryMillis;
+    this.maxRetryMillis = maxRetryMillis;
+    this.retryMillis = initialRetryMillis;
+    this.deletesRetryMillis = initialRetryMillis;
+    this.deletesLoaded = new CountDownLatch(since == null ? 0 : 1);
+  }
+
+  /**
+   * Start listening for changes to the messages.
+   */
+  public void listen() {
+    if (since != null) {
+      listenForDeletes();
+    }
+    listenForMessages();
+  }
+
+  private void listenForMessages() {
+    isInitialSnapshot = true;
+    if (since == null) {
+      messagesCollection.addSnapshotListener(executor, this);
+    } else {
+      messagesCollection
+          .whereGreaterThanOrEqualTo(Message.FS_TIMESTAMP_FIELD_NAME, Timestamp.of(since))
+          .addSnapshotListener(executor, this);
+    }
+  }
+
+  private void listenForDeletes() {
+    deletesCollection
+        .whereGreaterThanOrEqualTo(Message.FS_TIMESTAMP_FIELD_NAME, Timestamp.of(since))
+        .addSnapshotListener(executor, this::onDeletesEvent);
+  }
+
+  /**
+   * Wait until the index holds the first full snapshot of the messages.
+   *
+   * @param timeout Maximum time to wait
+   * @param unit    TimeUnit of the timeout
+   * @return True if the index is loaded, false if the timeout passed first
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public boolean awaitLoaded(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    return loaded.await(timeout, unit)
+        && deletesLoaded.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  public long getErrorCount() {
+    return errorCount.sum();
+  }
+
+  /**
+   * Get the time up to which the index holds every change listened to: the read time of the last
+   * events applied, or the earlier of the two when listening to deletes as well. A snapshot of the
+   * index taken after this call can resume listening from this time.
+   *
+   * @return Read time, or null until the first events are applied
+   */
+  public Date getReadTime() {
+    Timestamp messages = readTime;
+    if (messages == null || since == null) {
+      return messages == null ? null : messages.toDate();
+    }
+    Timestamp deletes = deletesReadTime;
+    if (deletes == null) {
+      return null;
+    }
+    return (messages.compareTo(deletes) <= 0 ? messages : deletes).toDate();
+  }
+
+  @Override
+  public void onEvent(QuerySnapshot snapshot, FirestoreException error) {
+    if (error != null) {
+      // Firestore doesn't deliver events to a listener after an error.
+      errorCount.increment();
+      executor.schedule(this::listenForMessages, retryMillis, TimeUnit.MILLISECONDS);
+      retryMillis = Math.min(maxRetryMillis, retryMillis * 2);
+      return;
+    }
+    retryMillis = initialRetryMillis;
+
+    List<Message> upserts = new ArrayList<>();
+    List<Message> removed = new ArrayList<>();
+    List<String> removedIds = new ArrayList<>();
+    for (DocumentChange change : snapshot.getDocumentChanges()) {
+      Message message =
+          MessageFinderImpl.getMessageFromDocumentData(change.getDocument().getData());
+      if (change.getType() == DocumentChange.Type.REMOVED) {
+        removed.add(message);
+        removedIds.add(change.getDocument().getId());
+      } else {
+        upserts.add(message);
+      }
+    }
+    if (isInitialSnapshot) {
+      Set<String> ids = new HashSet<>();
+      for (QueryDocumentSnapshot document : snapshot.getDocuments()) {
+        ids.add(document.getId());
+      }
+      for (Message message : index.getSnapshot().getMessages()) {
+        // Older messages are outside of the listened range, rather than removed.
+        if (!ids.contains(message.getId())
+            && (since == null || !message.getTimestamp().before(since))) {
+          removed.add(message);
+          removedIds.add(message.getId());
+        }
+      }
+      isInitialSnapshot = false;
+    }
+    index.apply(upserts, removedIds);
+    changeListener.accept(upserts, removed);
+    readTime = snapshot.getReadTime();
+    loaded.countDown();
+  }
+
+  private void onDeletesEvent(QuerySnapshot snapshot, FirestoreException error) {
+    if (error != null) {
+      errorCount.increment();
+      executor.schedule(this::listenForDeletes, deletesRetryMillis, TimeUnit.MILLISECONDS);
+      deletesRetryMillis = Math.min(maxRetryMillis, deletesRetryMillis * 2);
+      return;
+    }
+    deletesRetryMillis = initialRetryMillis;
+
+    // Deletes replayed after registering again no longer match a message, so are skipped.
+    List<Message> removed = new ArrayList<>();
+    List<String> removedIds = new ArrayList<>();
+    MessageIndex.Snapshot current = index.getSnapshot();
+    for (DocumentChange change : snapshot.getDocumentChanges()) {
+      if (change.getType() == DocumentChange.Type.REMOVED) {
+        continue;
+      }
+      Message message = current.get(change.getDocument().getId());
+      Timestamp deletedAt = change.getDocument().getTimestamp(Message.FS_TIMESTAMP_FIELD_NAME);
+      // A message written again after the delete is kept.
+      if (message != null
+          && (deletedAt == null || !message.getTimestamp().after(deletedAt.toDate()))) {
+        removed.add(message);
+        removedIds.add(message.getId());
+      }
+    }
+    if (!removedIds.isEmpty()) {
+      index.apply(Collections.emptyList(), removedIds);
+      changeListener.accept(Collections.emptyList(), removed);
+    }
+    deletesReadTime = snapshot.getReadTime();
+    deletesLoaded.countDown();
+  }
+}
@@ -1,6 +1,7 @@
 package message;
 
 import com.google.cloud.Timestamp;
+import java.util.List;
 import responses.DeletePostResponse;
 import responses.NewPostResponse;
 import responses.UpdatePostResponse;
@@ -28,6 +29,17 @@ public interface MessagePoster {
       Timestamp now
   );
 
+  /**
+   * Post several new Messages, writing them to Firestore in atomic chunks. A failed chunk only
+   * fails the Messages it contains. If the deadline passes, the chunks not yet started are not
+   * written and the chunks not yet confirmed may still be; the Messages of both are answered with
+   * 504, while chunks that finished in time keep their own responses.
+   *
+   * @param messages List of Messages to create, with their record IDs already assigned
+   * @return List of NewPostResponse in the same order as the passed Messages
+   */
+  List<NewPostResponse> postNewMessages(List<Message> messages);
+
   /**
    * Update existing Message, saving the content to Firestore and the image to Cloud Storage.
    *
@@ -6,22 +6,89 @@ import com.google.cloud.firestore.CollectionReference;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.GeoPoint;
 import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
 import com.google.cloud.firestore.WriteResult;
 import constants.Constants;
+import deadline.Deadline;
+import deadline.DeadlineExceededException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import metrics.DocumentCounter;
+import metrics.FirestoreMetrics;
+import metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import responses.DeletePostResponse;
 import responses.NewPostResponse;
 import responses.UpdatePostResponse;
+import tracing.FirestoreWriteEvent;
+import tracing.RequestTrace;
 
 
 public class MessagePosterImpl implements MessagePoster {
+  private static final Logger logger = LoggerFactory.getLogger(MessagePosterImpl.class);
+  private static final String NOT_STARTED_ERROR = "Deadline exceeded before the write started";
+  private static final String NOT_CONFIRMED_ERROR =
+      "Deadline exceeded before the write was confirmed, it may still be applied";
+  private static final LatencyHistogram SET_MESSAGE_LATENCY =
+      FirestoreMetrics.getHistogram("set_message");
+  private static final LatencyHistogram UPDATE_MESSAGE_LATENCY =
+      FirestoreMetrics.getHistogram("update_message");
+  private static final LatencyHistogram DELETE_MESSAGE_LATENCY =
+      FirestoreMetrics.getHistogram("delete_message");
+  private static final LatencyHistogram COMMIT_BATCH_LATENCY =
+      FirestoreMetrics.getHistogram("commit_batch");
+  private static final DocumentCounter SET_MESSAGE_WRITES =
+      FirestoreMetrics.getWriteCounter("set_message");
+  private static final DocumentCounter UPDATE_MESSAGE_WRITES =
+      FirestoreMetrics.getWriteCounter("update_message");
+  private static final DocumentCounter DELETE_MESSAGE_WRITES =
+      FirestoreMetrics.getWriteCounter("delete_message");
+  private static final DocumentCounter COMMIT_BATCH_WRITES =
+      FirestoreMetrics.getWriteCounter("commit_batch");
 
+  private final Firestore firestore;
   private final CollectionReference messagesCollection;
+  private final CollectionReference deletesCollection;
+  private final int chunkSize;
+  private final int maxInFlightChunks;
+  private final boolean recordDeletes;
 
-  public MessagePosterImpl(Firestore firestore) {
+  public MessagePosterImpl(Firestore firestore, boolean recordDeletes) {
+    this(
+        firestore,
+        Constants.BATCH_POST_CHUNK_SIZE,
+        Constants.BATCH_POST_MAX_IN_FLIGHT_CHUNKS,
+        recordDeletes
+    );
+  }
+
+  /**
+   * MessagePoster that writes Messages to Firestore.
+   *
+   * @param firestore         Firestore instance holding the messages collection
+   * @param chunkSize         Maximum number of Messages written in one WriteBatch
+   * @param maxInFlightChunks Maximum number of WriteBatch commits waited on at once
+   * @param recordDeletes     Whether to record deletes for servers resuming from a snapshot, at
+   *                          the cost of a second document write per delete
+   */
+  public MessagePosterImpl(
+      Firestore firestore,
+      int chunkSize,
+      int maxInFlightChunks,
+      boolean recordDeletes
+  ) {
+    this.firestore = firestore;
     this.messagesCollection = firestore.collection(Constants.COLLECTION_PATH);
+    this.deletesCollection = firestore.collection(Constants.DELETES_COLLECTION_PATH);
+    this.chunkSize = chunkSize;
+    this.maxInFlightChunks = maxInFlightChunks;
+    this.recordDeletes = recordDeletes;
   }
 
   @Override
@@ -29,8 +96,35 @@ public class MessagePosterImpl implements MessagePoster {
 
     // TODO security
 
-    messagesCollection.document(recordId).delete();
-    return new DeletePostResponse(201, null);
+    DeletePostResponse response;
+    try {
+      // Committed together, so a message is never gone without a record of its delete.
+      WriteBatch batch = firestore.batch();
+      batch.delete(messagesCollection.document(recordId));
+      int writes = 1;
+      if (recordDeletes) {
+        Map<String, Object> tombstone = new HashMap<>();
+        tombstone.put(Message.FS_ID_FIELD_NAME, recordId);
+        tombstone.put(Message.FS_TIMESTAMP_FIELD_NAME, Timestamp.now());
+        batch.set(deletesCollection.document(recordId), tombstone);
+        writes++;
+      }
+      ApiFuture<List<WriteResult>> commit = FirestoreWriteEvent.record(
+          FirestoreMetrics.record(batch.commit(), DELETE_MESSAGE_LATENCY),
+          "delete_message",
+          writes
+      );
+      DELETE_MESSAGE_WRITES.add(writes);
+      Deadline.await(commit);
+      RequestTrace.mark("firestore_write");
+
+      response = new DeletePostResponse(201, null);
+    } catch (InterruptedException | ExecutionException e) {
+      logger.warn("Failed to delete message {}", recordId, e);
+      response = new DeletePostResponse(401, e.getMessage());
+    }
+
+    return response;
   }
 
   @Override
@@ -56,13 +150,23 @@ public class MessagePosterImpl implements MessagePoster {
       newPost.put(Message.FS_IMAGE_URL_FIELD_NAME, imageUrl);
       newPost.put(Message.FS_TIMESTAMP_FIELD_NAME, now);
 
-      ApiFuture<WriteResult> writeResult =
-          messagesCollection.document(recordId).set(newPost, SetOptions.merge());
-      writeResult.get();
+      ApiFuture<WriteResult> writeResult = FirestoreWriteEvent.record(
+          FirestoreMetrics.record(
+              messagesCollection.document(recordId).set(newPost, SetOptions.merge()),
+              SET_MESSAGE_LATENCY
+          ),
+          "set_message",
+          1
+      );
+      SET_MESSAGE_WRITES.add(1);
+      Deadline.await(writeResult);
+      RequestTrace.mark("firestore_write");
 
       response = new NewPostResponse(201, recordId, null);
+    } catch (DeadlineExceededException e) {
+      throw e;
     } catch (Exception e) {
-      System.out.println("AN ERROR OCCURED");
+      logger.warn("Failed to write new message {}", recordId, e);
       response = new NewPostResponse(401, null, e.getMessage());
     }
 
@@ -70,6 +174,104 @@ public class MessagePosterImpl implements MessagePoster {
 
   }
 
+  @Override
+  public List<NewPostResponse> postNewMessages(List<Message> messages) {
+    List<ApiFuture<List<WriteResult>>> commits = new ArrayList<>();
+    Deque<ApiFuture<List<WriteResult>>> inFlight = new ArrayDeque<>();
+
+    for (int start = 0; start < messages.size(); start += chunkSize) {
+      if (inFlight.size() >= maxInFlightChunks && !awaitCommit(inFlight.poll())) {
+        // Chunks not yet started are never written. Commits already sent are left to finish, as
+        // cancelling them wouldn't tell whether they were applied.
+        break;
+      }
+
+      WriteBatch batch = firestore.batch();
+      for (Message message : getChunk(messages, start)) {
+        batch.set(
+            messagesCollection.document(message.getId()),
+            getDocumentData(message),
+            SetOptions.merge()
+        );
+      }
+      ApiFuture<List<WriteResult>> commit = FirestoreWriteEvent.record(
+          FirestoreMetrics.record(batch.commit(), COMMIT_BATCH_LATENCY),
+          "commit_batch",
+          getChunk(messages, start).size()
+      );
+      COMMIT_BATCH_WRITES.add(getChunk(messages, start).size());
+      commits.add(commit);
+      inFlight.add(commit);
+    }
+
+    List<NewPostResponse> responses = new ArrayList<>(messages.size());
+    for (int start = 0; start < messages.size(); start += chunkSize) {
+      int chunk = start / chunkSize;
+      int responseCode = 201;
+      String error = null;
+      if (chunk >= commits.size()) {
+        responseCode = 504;
+        error = NOT_STARTED_ERROR;
+      } else {
+        try {
+          Deadline.awaitShared(commits.get(chunk));
+        } catch (InterruptedException | ExecutionException e) {
+          responseCode = 401;
+          error = String.valueOf(e.getMessage());
+        } catch (DeadlineExceededException e) {
+          responseCode = 504;
+          error = NOT_CONFIRMED_ERROR;
+        }
+      }
+
+      for (Message message : getChunk(messages, start)) {
+        responses.add(responseCode == 201
+            ? new NewPostResponse(201, message.getId(), null)
+            : new NewPostResponse(responseCode, null, error));
+      }
+    }
+    RequestTrace.mark("firestore_write");
+
+    return responses;
+  }
+
+  private List<Message> getChunk(List<Message> messages, int start) {
+    return messages.subList(start, Math.min(start + chunkSize, messages.size()));
+  }
+
+  /**
+   * Wait for a commit to finish before starting another one. Errors are reported per Message once
+   * every chunk has been committed.
+   *
+   * @return false if the deadline passed first, leaving the commit running
+   */
+  private static boolean awaitCommit(ApiFuture<List<WriteResult>> commit) {
+    try {
+      Deadline.awaitShared(commit);
+    } catch (ExecutionException e) {
+      // Reported with the Messages of the chunk.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (DeadlineExceededException e) {
+      return false;
+    }
+    return true;
+  }
+
+  private static Map<String, Object> getDocumentData(Message message) {
+    Map<String, Object> documentData = new HashMap<>();
+    documentData.put(Message.FS_USER_ID_FIELD_NAME, message.getUserId());
+    documentData.put(Message.FS_TEXT_FIELD_NAME, message.getText());
+    documentData.put(
+        Message.FS_GEOTAG_FIELD_NAME,
+        new GeoPoint(message.getLatitude(), message.getLongitude())
+    );
+    documentData.put(Message.FS_ID_FIELD_NAME, message.getId());
+    documentData.put(Message.FS_IMAGE_URL_FIELD_NAME, message.getImageUrl());
+    documentData.put(Message.FS_TIMESTAMP_FIELD_NAME, Timestamp.of(message.getTimestamp()));
+    return documentData;
+  }
+
   @Override
   public UpdatePostResponse updateMessage(
       String recordId,
@@ -95,13 +297,21 @@ public class MessagePosterImpl implements MessagePoster {
       update.put(Message.FS_IMAGE_URL_FIELD_NAME, imageUrl);
       update.put(Message.FS_TIMESTAMP_FIELD_NAME, now);
 
-      ApiFuture<WriteResult> writeResult =
-          messagesCollection.document(recordId).set(update, SetOptions.merge());
-      writeResult.get();
+      ApiFuture<WriteResult> writeResult = FirestoreWriteEvent.record(
+          FirestoreMetrics.record(
+              messagesCollection.document(recordId).set(update, SetOptions.merge()),
+              UPDATE_MESSAGE_LATENCY
+          ),
+          "update_message",
+          1
+      );
+      UPDATE_MESSAGE_WRITES.add(1);
+      Deadline.await(writeResult);
+      RequestTrace.mark("firestore_write");
 
       response = new UpdatePostResponse(201, null);
     } catch (InterruptedException | ExecutionException e) {
-      System.out.println("AN ERROR OCCURED");
+      logger.warn("Failed to update message {}", recordId, e);
       response = new UpdatePostResponse(401, e.getMessage());
     }
 
@@ -0,0 +1,178 @@
+package message;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+public class MessageSnapshotFile {
+  static final int MAGIC = 0x4d4b4d53;
+  static final int VERSION = 1;
+  // Magic, version, high-water time and message count.
+  private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+  // CRC32 of everything before it.
+  private static final int TRAILER_BYTES = 8;
+
+  private final List<Message> messages;
+  private final long highWaterMillis;
+
+  private MessageSnapshotFile(List<Message> messages, long highWaterMillis) {
+    this.messages = Collections.unmodifiableList(messages);
+    this.highWaterMillis = highWaterMillis;
+  }
+
+  public List<Message> getMessages() {
+    return messages;
+  }
+
+  /**
+   * Get the time up to which the snapshot holds every change, the read time of the last listener
+   * events applied to the index it was taken from. Every write sets the timestamp of its message,
+   * so later changes have later timestamps, up to the clock skew between the servers.
+   *
+   * @return High-water time in milliseconds since the epoch
+   */
+  public long getHighWaterMillis() {
+    return highWaterMillis;
+  }
+
+  /**
+   * Write messages to a snapshot file. The file is written next to its destination, synced and
+   * then moved over it, so readers see either the previous snapshot or the whole new one.
+   *
+   * @param file            Path of the snapshot file
+   * @param messages        Messages to write
+   * @param highWaterMillis Time in milliseconds since the epoch up to which the messages hold
+   *                        every change
+   * @throws IOException If the file can't be written
+   */
+  public static void write(Path file, List<Message> messages, long highWaterMillis)
+      throws IOException {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(
+        temporary,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE
+    )) {
+      CRC32 checksum = new CRC32();
+      // Left open, as closing it would close the channel before it is synced.
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+          new CheckedOutputStream(Channels.newOutputStream(channel), checksum)
+      ));
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeLong(highWaterMillis);
+      output.writeInt(messages.size());
+      for (Message message : messages) {
+        writeString(output, message.getId());
+        writeString(output, message.getImageUrl());
+        output.writeDouble(message.getLatitude());
+        output.writeDouble(message.getLongitude());
+        writeString(output, message.getText());
+        output.writeLong(message.getTimestamp().getTime());
+        writeString(output, message.getUserId());
+      }
+      output.flush();
+      output.writeLong(checksum.getValue());
+      output.flush();
+      channel.force(true);
+    }
+    Files.move(
+        temporary,
+        file,
+        StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING
+    );
+  }
+
+  /**
+   * Read a snapshot file by mapping it into memory, after checking its format version and
+   * checksum.
+   *
+   * @param file Path of the snapshot file
+   * @return MessageSnapshotFile holding the messages
+   * @throws IOException If the file can't be read, or is not a valid snapshot of this version
+   */
+  public static MessageSnapshotFile read(Path file) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_BYTES + TRAILER_BYTES || size > Integer.MAX_VALUE) {
+        throw new IOException("Not a message snapshot: " + file);
+      }
+      // The mapping stays valid once the channel is closed.
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    int checkedBytes = buffer.limit() - TRAILER_BYTES;
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      throw new IOException("Not a message snapshot of version " + VERSION + ": " + file);
+    }
+    CRC32 checksum = new CRC32();
+    ByteBuffer checked = buffer.duplicate();
+    checked.limit(checkedBytes);
+    checksum.update(checked);
+    if (checksum.getValue() != buffer.getLong(checkedBytes)) {
+      throw new IOException("Corrupt message snapshot: " + file);
+    }
+
+    buffer.position(8);
+    buffer.limit(checkedBytes);
+    try {
+      long highWaterMillis = buffer.getLong();
+      int count = buffer.getInt();
+      List<Message> messages = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        String id = readString(buffer);
+        String imageUrl = readString(buffer);
+        double latitude = buffer.getDouble();
+        double longitude = buffer.getDouble();
+        String text = readString(buffer);
+        Date timestamp = new Date(buffer.getLong());
+        String userId = readString(buffer);
+        messages.add(new Message(id, imageUrl, latitude, longitude, text, timestamp, userId));
+      }
+      return new MessageSnapshotFile(messages, highWaterMillis);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Corrupt message snapshot: " + file, e);
+    }
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    if (value == null) {
+      output.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length == -1) {
+      return null;
+    }
+    // Decoded straight from the mapping, without copying the bytes to the heap first.
+    ByteBuffer bytes = buffer.slice();
+    bytes.limit(length);
+    buffer.position(buffer.position() + length);
+    return StandardCharsets.UTF_8.decode(bytes).toString();
+  }
+}
@@ -0,0 +1,102 @@
+package message;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MessageSnapshotWriter {
+  private static final Logger logger = LoggerFactory.getLogger(MessageSnapshotWriter.class);
+
+  private final MessageIndex index;
+  private final Supplier<Date> readTime;
+  private final Path file;
+  private final ScheduledExecutorService executor;
+  private final LongAdder writeCount = new LongAdder();
+  private final LongAdder failureCount = new LongAdder();
+
+  private volatile long highWaterMillis;
+  // Only used by the executor thread.
+  private long writtenVersion = -1;
+
+  /**
+   * Background writer of a MessageIndex to a MessageSnapshotFile, so restarted servers load the
+   * snapshot and only replay the changes made since. The index is written from its immutable
+   * Snapshot, so readers and writers of the index never wait for it, and only when it changed.
+   *
+   * @param index          MessageIndex to write
+   * @param readTime       Supplies the time up to which the index holds every change, or null
+   *                       until it is known, as MessageIndexListener.getReadTime
+   * @param file           Path of the snapshot file
+   * @param intervalMillis Time in milliseconds between snapshots
+   */
+  public MessageSnapshotWriter(
+      MessageIndex index,
+      Supplier<Date> readTime,
+      Path file,
+      long intervalMillis
+  ) {
+    this.index = index;
+    this.readTime = readTime;
+    this.file = file;
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "message-snapshot-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::write, intervalMillis, intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  public long getWriteCount() {
+    return writeCount.sum();
+  }
+
+  public long getFailureCount() {
+    return failureCount.sum();
+  }
+
+  /**
+   * Get the high-water time of the last snapshot written.
+   *
+   * @return Timestamp in milliseconds since the epoch, or 0 if none was written
+   */
+  public long getHighWaterMillis() {
+    return highWaterMillis;
+  }
+
+  /**
+   * Write a last snapshot, so the next server starts from the latest messages, then stop.
+   *
+   * @throws InterruptedException If interrupted while waiting for the snapshot to be written
+   */
+  public void shutdown() throws InterruptedException {
+    executor.execute(this::write);
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+  }
+
+  private void write() {
+    // Read first, so the snapshot holds at least the changes up to it.
+    Date highWater = readTime.get();
+    MessageIndex.Snapshot snapshot = index.getSnapshot();
+    if (highWater == null || snapshot.getVersion() == writtenVersion) {
+      return;
+    }
+    try {
+      MessageSnapshotFile.write(file, snapshot.getMessages(), highWater.getTime());
+      highWaterMillis = highWater.getTime();
+      writtenVersion = snapshot.getVersion();
+      writeCount.increment();
+    } catch (IOException e) {
+      failureCount.increment();
+      logger.warn("Failed to write message snapshot", e);
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package message;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+public interface MessageSource {
+  /**
+   * Get every stored message, in storage order, for in-memory filtering.
+   *
+   * @return List of all Messages
+   */
+  List<Message> getAllMessages() throws ExecutionException, InterruptedException;
+
+  /**
+   * Get at most a number of stored messages, in storage order, reading no more documents than
+   * that.
+   *
+   * @param maxMessages Maximum number of Messages to get
+   * @return List of up to maxMessages Messages
+   */
+  List<Message> getMessages(int maxMessages) throws ExecutionException, InterruptedException;
+}
@@ -0,0 +1,38 @@
+package message;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+public final class MessageTokenizer {
+  private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+  private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+  private MessageTokenizer() {
+  }
+
+  /**
+   * Split text into the terms it is searched by: runs of letters and digits, lower-cased and
+   * stripped of accents, so keywords match regardless of case and diacritics.
+   *
+   * @param text Text to split, or null
+   * @return Distinct terms in the order they first appear
+   */
+  public static Set<String> tokenize(String text) {
+    Set<String> terms = new LinkedHashSet<>();
+    if (text == null) {
+      return terms;
+    }
+    String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD))
+        .replaceAll("")
+        .toLowerCase(Locale.ROOT);
+    for (String term : SEPARATORS.split(normalized)) {
+      if (!term.isEmpty()) {
+        terms.add(term);
+      }
+    }
+    return terms;
+  }
+}
@@ -0,0 +1,107 @@
+package message;
+
+import com.google.gson.annotations.SerializedName;
+import java.util.Collections;
+import java.util.List;
+
+public class QueryPlan {
+  @SerializedName("access_path")
+  private final String accessPath;
+  @SerializedName("indexed_messages")
+  private final long indexedMessages;
+  @SerializedName("estimated_records")
+  private final double estimatedRecords;
+  private final List<Path> paths;
+
+  /**
+   * Access path chosen for a query by MessageBitmapIndex, along with the estimates of every path
+   * considered, for EXPLAIN-style debugging output.
+   *
+   * @param accessPath       Name of the chosen path
+   * @param indexedMessages  Number of messages indexed when planning
+   * @param estimatedRecords Estimated number of messages matching the whole query
+   * @param paths            Every path considered, cheapest first
+   */
+  public QueryPlan(
+      String accessPath,
+      long indexedMessages,
+      double estimatedRecords,
+      List<Path> paths
+  ) {
+    this.accessPath = accessPath;
+    this.indexedMessages = indexedMessages;
+    this.estimatedRecords = estimatedRecords;
+    this.paths = Collections.unmodifiableList(paths);
+  }
+
+  public String getAccessPath() {
+    return accessPath;
+  }
+
+  public long getIndexedMessages() {
+    return indexedMessages;
+  }
+
+  public double getEstimatedRecords() {
+    return estimatedRecords;
+  }
+
+  public List<Path> getPaths() {
+    return paths;
+  }
+
+  public static final class Path {
+    private final String name;
+    @SerializedName("bitmap_lookups")
+    private final long bitmapLookups;
+    @SerializedName("estimated_candidates")
+    private final double estimatedCandidates;
+    @SerializedName("estimated_checked")
+    private final double estimatedChecked;
+    @SerializedName("estimated_cost")
+    private final double estimatedCost;
+
+    /**
+     * Estimates of one way to answer a query.
+     *
+     * @param name                Name of the path: the bitmaps intersected, or "scan"
+     * @param bitmapLookups       Number of bitmaps looked up
+     * @param estimatedCandidates Estimated number of messages left after intersecting the bitmaps
+     * @param estimatedChecked    Estimated number of candidates checked before the limit is reached
+     * @param estimatedCost       Estimated cost in units of checking one message
+     */
+    public Path(
+        String name,
+        long bitmapLookups,
+        double estimatedCandidates,
+        double estimatedChecked,
+        double estimatedCost
+    ) {
+      this.name = name;
+      this.bitmapLookups = bitmapLookups;
+      this.estimatedCandidates = estimatedCandidates;
+      this.estimatedChecked = estimatedChecked;
+      this.estimatedCost = estimatedCost;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getBitmapLookups() {
+      return bitmapLookups;
+    }
+
+    public double getEstimatedCandidates() {
+      return estimatedCandidates;
+    }
+
+    public double getEstimatedChecked() {
+      return estimatedChecked;
+    }
+
+    public double getEstimatedCost() {
+      return estimatedCost;
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package message;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+public final class ReadVersion {
+  private static final ThreadLocal<Long> required = ThreadLocal.withInitial(() -> -1L);
+
+  private ReadVersion() {
+  }
+
+  /**
+   * Run queries on the current thread that must see every write up to a version, restoring the
+   * previous requirement afterwards.
+   *
+   * @param version  Lowest write version the results may reflect, or -1 for any
+   * @param callable Work running the queries
+   * @param <T>      Result type of the work
+   * @return Result of the work
+   * @throws Exception If the work fails
+   */
+  public static <T> T call(long version, Callable<T> callable) throws Exception {
+    long previous = required.get();
+    required.set(version);
+    try {
+      return callable.call();
+    } finally {
+      required.set(previous);
+    }
+  }
+
+  /**
+   * Run a query on the current thread that must see every write up to a version, restoring the
+   * previous requirement afterwards.
+   *
+   * @param version Lowest write version the results may reflect, or -1 for any
+   * @param query   Query to run
+   * @param <T>     Result type of the query
+   * @return Result of the query
+   * @throws ExecutionException   If the query fails
+   * @throws InterruptedException If interrupted while running the query
+   */
+  public static <T> T query(long version, Query<T> query)
+      throws ExecutionException, InterruptedException {
+    long previous = required.get();
+    required.set(version);
+    try {
+      return query.run();
+    } finally {
+      required.set(previous);
+    }
+  }
+
+  /**
+   * Get the write version queries on the current thread must reflect.
+   *
+   * @return Lowest acceptable write version, or -1 for any
+   */
+  public static long getRequired() {
+    return required.get();
+  }
+
+  public interface Query<T> {
+    T run() throws ExecutionException, InterruptedException;
+  }
+}
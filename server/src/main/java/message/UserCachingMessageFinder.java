@@ -0,0 +1,245 @@
+package message;
+
+import com.google.cloud.firestore.GeoPoint;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+public class UserCachingMessageFinder implements MessageFinder {
+  // Rough size of a cached message besides its strings: the object, its Date and list slot.
+  private static final long MESSAGE_OVERHEAD_BYTES = 96;
+
+  private final MessageFinder delegate;
+  private final LongSupplier writeVersion;
+  private final Cache<String, UserMessages> cache;
+  // Users with a load in flight, so changes made during the load keep it out of the cache.
+  private final Map<String, PendingLoad> pendingLoads = new ConcurrentHashMap<>();
+  private final AtomicLong changeCount = new AtomicLong();
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder bypassCount = new LongAdder();
+
+  /**
+   * MessageFinder caching the message list of the most recently active users. Lists are loaded on
+   * first use and then kept up to date by applying the changes of the write path and the Firestore
+   * listener, rather than expiring on writes. A query that must see a write newer than the
+   * applied ones, because its client presented a version token this server can't track, loads the
+   * list again.
+   *
+   * @param delegate     MessageFinder loading the lists
+   * @param maxUsers     Maximum number of users cached, least recently used evicted first
+   * @param ttlMillis    Time in milliseconds a list is served for after it was last changed,
+   *                     bounding the staleness of changes nothing applied
+   * @param writeVersion Supplier of the last write version applied to the cached lists
+   */
+  public UserCachingMessageFinder(
+      MessageFinder delegate,
+      int maxUsers,
+      long ttlMillis,
+      LongSupplier writeVersion
+  ) {
+    this.delegate = delegate;
+    this.writeVersion = writeVersion;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxUsers)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  @Override
+  public List<Message> findByUserId(String userId) throws ExecutionException, InterruptedException {
+    UserMessages cached = cache.getIfPresent(userId);
+    if (cached != null && ReadVersion.getRequired() <= writeVersion.getAsLong()) {
+      hitCount.increment();
+      return cached.messages;
+    }
+    if (cached == null) {
+      missCount.increment();
+    } else {
+      bypassCount.increment();
+    }
+
+    pendingLoads.compute(userId, (key, pending) -> {
+      PendingLoad load = pending == null ? new PendingLoad() : pending;
+      load.count++;
+      return load;
+    });
+    // Read after registering the load: later changes are either seen by the query or recorded.
+    long start = changeCount.get();
+    // Earlier changes must be seen by the query, rather than joining one started before them.
+    long version = Math.max(ReadVersion.getRequired(), writeVersion.getAsLong());
+    UserMessages loaded = null;
+    try {
+      loaded = new UserMessages(ReadVersion.query(version, () -> delegate.findByUserId(userId)));
+      return loaded.messages;
+    } finally {
+      UserMessages result = loaded;
+      pendingLoads.compute(userId, (key, pending) -> {
+        if (result != null && pending.lastChange <= start) {
+          cache.put(userId, result);
+        }
+        return --pending.count == 0 ? null : pending;
+      });
+    }
+  }
+
+  @Override
+  public Message findByRecordId(String recordId)
+      throws ExecutionException, InterruptedException {
+    return delegate.findByRecordId(recordId);
+  }
+
+  @Override
+  public List<Message> findByBoundingBox(
+      GeoPoint lesserPoint,
+      GeoPoint greaterPoint,
+      int maxRecords,
+      boolean isCrossing90Latitude,
+      boolean isCrossing180Longitude
+  ) throws ExecutionException, InterruptedException {
+    return delegate.findByBoundingBox(
+        lesserPoint,
+        greaterPoint,
+        maxRecords,
+        isCrossing90Latitude,
+        isCrossing180Longitude
+    );
+  }
+
+  /**
+   * Apply written messages to the cached lists of their users. Removals are applied first, so a
+   * message both removed and upserted is kept.
+   *
+   * @param upserts Messages created or updated
+   * @param removed Messages deleted, as they were before the delete
+   */
+  public void apply(Collection<Message> upserts, Collection<Message> removed) {
+    Map<String, List<Message>> upsertsByUser = new HashMap<>();
+    for (Message message : upserts) {
+      upsertsByUser.computeIfAbsent(message.getUserId(), key -> new ArrayList<>()).add(message);
+    }
+    Map<String, Set<String>> removedIdsByUser = new HashMap<>();
+    for (Message message : removed) {
+      removedIdsByUser.computeIfAbsent(message.getUserId(), key -> new HashSet<>())
+          .add(message.getId());
+    }
+    Set<String> userIds = new HashSet<>(upsertsByUser.keySet());
+    userIds.addAll(removedIdsByUser.keySet());
+
+    for (String userId : userIds) {
+      long change = changeCount.incrementAndGet();
+      pendingLoads.computeIfPresent(userId, (key, pending) -> {
+        pending.lastChange = change;
+        return pending;
+      });
+      cache.asMap().computeIfPresent(userId, (key, cached) -> cached.apply(
+          upsertsByUser.getOrDefault(userId, Collections.emptyList()),
+          removedIdsByUser.getOrDefault(userId, Collections.emptySet())
+      ));
+    }
+  }
+
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  public long getBypassCount() {
+    return bypassCount.sum();
+  }
+
+  public long getUserCount() {
+    return cache.size();
+  }
+
+  /**
+   * Get the number of messages held across all cached users.
+   *
+   * @return Number of cached messages
+   */
+  public long getMessageCount() {
+    long count = 0;
+    for (UserMessages cached : cache.asMap().values()) {
+      count += cached.messages.size();
+    }
+    return count;
+  }
+
+  /**
+   * Estimate the memory held by the cached lists, counting two bytes per character of the
+   * messages' strings plus a fixed overhead per message.
+   *
+   * @return Estimated size in bytes
+   */
+  public long getEstimatedBytes() {
+    long bytes = 0;
+    for (UserMessages cached : cache.asMap().values()) {
+      bytes += cached.bytes;
+    }
+    return bytes;
+  }
+
+  private static long getEstimatedBytes(Message message) {
+    long chars = 0;
+    for (String value : new String[]{
+        message.getId(),
+        message.getImageUrl(),
+        message.getText(),
+        message.getUserId()
+    }) {
+      chars += value == null ? 0 : value.length();
+    }
+    return MESSAGE_OVERHEAD_BYTES + 2 * chars;
+  }
+
+  private static final class UserMessages {
+    final List<Message> messages;
+    final long bytes;
+
+    UserMessages(List<Message> messages) {
+      this.messages = Collections.unmodifiableList(new ArrayList<>(messages));
+      long bytes = 0;
+      for (Message message : messages) {
+        bytes += getEstimatedBytes(message);
+      }
+      this.bytes = bytes;
+    }
+
+    UserMessages apply(List<Message> upserts, Set<String> removedIds) {
+      // Keeps the loaded order, with updated messages in place and new ones at the end.
+      Map<String, Message> messagesById = new LinkedHashMap<>();
+      for (Message message : messages) {
+        if (!removedIds.contains(message.getId())) {
+          messagesById.put(message.getId(), message);
+        }
+      }
+      for (Message message : upserts) {
+        messagesById.put(message.getId(), message);
+      }
+      return new UserMessages(new ArrayList<>(messagesById.values()));
+    }
+  }
+
+  private static final class PendingLoad {
+    // Only changed inside compute calls on pendingLoads.
+    int count;
+    long lastChange = -1;
+  }
+}
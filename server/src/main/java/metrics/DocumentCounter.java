@@ -0,0 +1,35 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import tracing.RequestTrace;
+
+public class DocumentCounter {
+  private final LongAdder total;
+  private final boolean write;
+
+  /**
+   * Counter of Firestore documents read or written by an operation, which also charges the
+   * documents to the request traced on the current thread.
+   *
+   * @param total LongAdder counting documents across all requests
+   * @param write True if the counter counts written documents, false for read documents
+   */
+  public DocumentCounter(LongAdder total, boolean write) {
+    this.total = total;
+    this.write = write;
+  }
+
+  /**
+   * Count documents read or written.
+   *
+   * @param documents Number of documents
+   */
+  public void add(long documents) {
+    total.add(documents);
+    if (write) {
+      RequestTrace.addDocumentsWritten(documents);
+    } else {
+      RequestTrace.addDocumentsRead(documents);
+    }
+  }
+}
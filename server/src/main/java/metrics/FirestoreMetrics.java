@@ -0,0 +1,70 @@
+package metrics;
+
+import com.google.api.core.ApiFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public final class FirestoreMetrics {
+  public static final String CALL_DURATION = "firestore_call_duration_seconds";
+  public static final String DOCUMENTS_READ = "firestore_documents_read_total";
+  public static final String DOCUMENTS_WRITTEN = "firestore_documents_written_total";
+
+  private FirestoreMetrics() {
+  }
+
+  /**
+   * Get the latency histogram of a Firestore operation in the default registry.
+   *
+   * @param operation Name of the operation, such as get_all_messages
+   * @return LatencyHistogram for the operation
+   */
+  public static LatencyHistogram getHistogram(String operation) {
+    return MetricsRegistry.getDefault().getHistogram(
+        CALL_DURATION,
+        "Latency of Firestore calls",
+        "operation", operation
+    );
+  }
+
+  /**
+   * Get the counter of documents read by a Firestore operation in the default registry.
+   *
+   * @param operation Name of the operation, such as get_all_messages
+   * @return DocumentCounter for the operation
+   */
+  public static DocumentCounter getReadCounter(String operation) {
+    return new DocumentCounter(MetricsRegistry.getDefault().getCounter(
+        DOCUMENTS_READ,
+        "Number of Firestore documents read",
+        "operation", operation
+    ), false);
+  }
+
+  /**
+   * Get the counter of documents written by a Firestore operation in the default registry.
+   *
+   * @param operation Name of the operation, such as set_message
+   * @return DocumentCounter for the operation
+   */
+  public static DocumentCounter getWriteCounter(String operation) {
+    return new DocumentCounter(MetricsRegistry.getDefault().getCounter(
+        DOCUMENTS_WRITTEN,
+        "Number of Firestore documents written",
+        "operation", operation
+    ), true);
+  }
+
+  /**
+   * Record the latency of a Firestore call once its future completes, whether or not anyone waits
+   * on it.
+   *
+   * @param future    ApiFuture of the call
+   * @param histogram LatencyHistogram to record to
+   * @param <T>       Result type of the call
+   * @return The passed ApiFuture
+   */
+  public static <T> ApiFuture<T> record(ApiFuture<T> future, LatencyHistogram histogram) {
+    long start = System.nanoTime();
+    future.addListener(() -> histogram.recordSince(start), MoreExecutors.directExecutor());
+    return future;
+  }
+}
@@ -0,0 +1,96 @@
+package metrics;
+
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class InstrumentedHandler implements Handler {
+  public static final String REQUEST_DURATION = "http_request_duration_seconds";
+  public static final String REQUESTS = "http_requests_total";
+  public static final String RESPONSE_BYTES = "http_response_bytes_total";
+
+  private final MetricsRegistry registry;
+  private final String method;
+  private final String route;
+  private final Handler handler;
+  private final LatencyHistogram latency;
+  private final LongAdder responseBytes;
+  private final Map<Integer, LongAdder> requestsByStatus = new ConcurrentHashMap<>();
+
+  /**
+   * Handler that records the latency, response size and status of every request to a route.
+   *
+   * @param registry MetricsRegistry to record to
+   * @param method   HTTP method of the route
+   * @param route    Path of the route, with path parameters left unexpanded
+   * @param handler  Handler serving the route
+   */
+  public InstrumentedHandler(
+      MetricsRegistry registry,
+      String method,
+      String route,
+      Handler handler
+  ) {
+    this.registry = registry;
+    this.method = method;
+    this.route = route;
+    this.handler = handler;
+    this.latency = registry.getHistogram(
+        REQUEST_DURATION,
+        "Latency of HTTP requests",
+        "method", method,
+        "route", route
+    );
+    this.responseBytes = registry.getCounter(
+        RESPONSE_BYTES,
+        "Bytes written in HTTP response bodies",
+        "method", method,
+        "route", route
+    );
+  }
+
+  @Override
+  public void handle(Context ctx) throws Exception {
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      handler.handle(ctx);
+      failed = false;
+    } finally {
+      latency.recordSince(start);
+      getRequestCounter(failed ? 500 : ctx.status()).increment();
+      responseBytes.add(getResultLength(ctx));
+    }
+  }
+
+  private LongAdder getRequestCounter(int status) {
+    LongAdder counter = requestsByStatus.get(status);
+    if (counter == null) {
+      counter = requestsByStatus.computeIfAbsent(status, key -> registry.getCounter(
+          REQUESTS,
+          "Number of HTTP requests",
+          "method", method,
+          "route", route,
+          "status", String.valueOf(status)
+      ));
+    }
+    return counter;
+  }
+
+  private static long getResultLength(Context ctx) {
+    // Results are set as in-memory streams, so this doesn't copy the body.
+    InputStream result = ctx.resultStream();
+    if (result == null) {
+      return 0;
+    }
+    try {
+      return result.available();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+public class LatencyHistogram {
+  private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+  private final LongAdder sumNanos = new LongAdder();
+  // Only touched by readers, guarded by this.
+  private final Histogram cumulative = new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+  private Histogram interval;
+
+  /**
+   * Latency distribution in nanoseconds. Recording is wait-free, so request threads never block
+   * on a reader; readers fold the values recorded since the last read into a cumulative
+   * histogram.
+   */
+  public LatencyHistogram() {
+  }
+
+  /**
+   * Record a latency. Values above one minute are recorded as one minute.
+   *
+   * @param nanos Latency in nanoseconds
+   */
+  public void recordNanos(long nanos) {
+    long value = Math.max(0, Math.min(nanos, HIGHEST_TRACKABLE_NANOS));
+    recorder.recordValue(value);
+    sumNanos.add(value);
+  }
+
+  public void recordSince(long startNanos) {
+    recordNanos(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Get a copy of every value recorded so far.
+   *
+   * @return Histogram of latencies in nanoseconds
+   */
+  public synchronized Histogram getSnapshot() {
+    interval = recorder.getIntervalHistogram(interval);
+    cumulative.add(interval);
+    return cumulative.copy();
+  }
+
+  public long getSumNanos() {
+    return sumNanos.sum();
+  }
+}
@@ -0,0 +1,213 @@
+package metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import org.HdrHistogram.Histogram;
+
+public class MetricsRegistry {
+  private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private static final String TYPE_SUMMARY = "summary";
+  private static final String TYPE_COUNTER = "counter";
+  private static final String TYPE_GAUGE = "gauge";
+
+  private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+  /**
+   * Registry of named metrics, exported in the Prometheus text format. Lookups of existing
+   * metrics don't lock, so they can be done on the request path.
+   */
+  public MetricsRegistry() {
+  }
+
+  public static MetricsRegistry getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Get or create a latency histogram, exported as a summary in seconds.
+   *
+   * @param name   Metric name
+   * @param help   Description of the metric
+   * @param labels Label names and values, alternating
+   * @return LatencyHistogram for the name and labels
+   */
+  public LatencyHistogram getHistogram(String name, String help, String... labels) {
+    return (LatencyHistogram) getSeries(name, help, TYPE_SUMMARY, labels, LatencyHistogram::new);
+  }
+
+  /**
+   * Get or create a counter.
+   *
+   * @param name   Metric name
+   * @param help   Description of the metric
+   * @param labels Label names and values, alternating
+   * @return LongAdder for the name and labels
+   */
+  public LongAdder getCounter(String name, String help, String... labels) {
+    return (LongAdder) getSeries(name, help, TYPE_COUNTER, labels, LongAdder::new);
+  }
+
+  /**
+   * Export a counter maintained elsewhere, replacing any supplier registered before.
+   *
+   * @param name     Metric name
+   * @param help     Description of the metric
+   * @param supplier Supplier of the current count
+   * @param labels   Label names and values, alternating
+   */
+  public void registerCounter(String name, String help, LongSupplier supplier, String... labels) {
+    DoubleSupplier doubleSupplier = supplier::getAsLong;
+    getFamily(name, help, TYPE_COUNTER).series.put(getLabelString(labels), doubleSupplier);
+  }
+
+  /**
+   * Export a gauge maintained elsewhere, replacing any supplier registered before.
+   *
+   * @param name     Metric name
+   * @param help     Description of the metric
+   * @param supplier Supplier of the current value
+   * @param labels   Label names and values, alternating
+   */
+  public void registerGauge(String name, String help, DoubleSupplier supplier, String... labels) {
+    getFamily(name, help, TYPE_GAUGE).series.put(getLabelString(labels), supplier);
+  }
+
+  /**
+   * Write every metric in the Prometheus text exposition format.
+   *
+   * @return String to be returned from a metrics endpoint
+   */
+  public String scrape() {
+    StringBuilder builder = new StringBuilder();
+    for (Family family : new TreeMap<>(families).values()) {
+      builder.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+      builder.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+      for (Map.Entry<String, Object> entry : new TreeMap<>(family.series).entrySet()) {
+        appendSeries(builder, family.name, entry.getKey(), entry.getValue());
+      }
+    }
+    return builder.toString();
+  }
+
+  private Family getFamily(String name, String help, String type) {
+    Family family = families.get(name);
+    if (family == null) {
+      family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+    }
+    if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+    }
+    return family;
+  }
+
+  private Object getSeries(
+      String name,
+      String help,
+      String type,
+      String[] labels,
+      Supplier<Object> factory
+  ) {
+    Family family = getFamily(name, help, type);
+    String labelString = getLabelString(labels);
+    Object series = family.series.get(labelString);
+    if (series == null) {
+      series = family.series.computeIfAbsent(labelString, key -> factory.get());
+    }
+    return series;
+  }
+
+  private static void appendSeries(
+      StringBuilder builder,
+      String name,
+      String labelString,
+      Object series
+  ) {
+    if (series instanceof LatencyHistogram) {
+      LatencyHistogram latencyHistogram = (LatencyHistogram) series;
+      Histogram histogram = latencyHistogram.getSnapshot();
+      String separator = labelString.isEmpty() ? "" : ",";
+      for (double quantile : QUANTILES) {
+        double value = histogram.getTotalCount() == 0
+            ? Double.NaN
+            : histogram.getValueAtPercentile(quantile * 100) / NANOS_PER_SECOND;
+        appendSample(builder, name, labelString + separator + "quantile=\"" + quantile + "\"",
+            value);
+      }
+      appendSample(builder, name + "_sum", labelString,
+          latencyHistogram.getSumNanos() / NANOS_PER_SECOND);
+      appendSample(builder, name + "_count", labelString, histogram.getTotalCount());
+    } else if (series instanceof LongAdder) {
+      appendSample(builder, name, labelString, ((LongAdder) series).sum());
+    } else {
+      appendSample(builder, name, labelString, ((DoubleSupplier) series).getAsDouble());
+    }
+  }
+
+  private static void appendSample(
+      StringBuilder builder,
+      String name,
+      String labelString,
+      double value
+  ) {
+    builder.append(name);
+    if (!labelString.isEmpty()) {
+      builder.append('{').append(labelString).append('}');
+    }
+    builder.append(' ');
+    if (Double.isNaN(value)) {
+      builder.append("NaN");
+    } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      builder.append((long) value);
+    } else {
+      builder.append(value);
+    }
+    builder.append('\n');
+  }
+
+  private static String getLabelString(String[] labels) {
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels must be name and value pairs");
+    }
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(labels[i]).append("=\"");
+      String value = labels[i + 1];
+      for (int j = 0; j < value.length(); j++) {
+        char c = value.charAt(j);
+        if (c == '\\' || c == '"') {
+          builder.append('\\').append(c);
+        } else if (c == '\n') {
+          builder.append("\\n");
+        } else {
+          builder.append(c);
+        }
+      }
+      builder.append('"');
+    }
+    return builder.toString();
+  }
+
+  private static final class Family {
+    final String name;
+    final String help;
+    final String type;
+    final Map<String, Object> series = new ConcurrentHashMap<>();
+
+    Family(String name, String help, String type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+  }
+}
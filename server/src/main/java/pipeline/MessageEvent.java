@@ -0,0 +1,57 @@
+package pipeline;
+
+import message.Message;
+
+public final class MessageEvent {
+
+  public enum Type {
+    NEW,
+    UPDATE,
+    DELETE
+  }
+
+  private Type type;
+  private String recordId;
+  private Message message;
+  private Message previous;
+
+  /**
+   * Slot of the MessageEventRing describing one successful write. Slots are allocated once and
+   * overwritten by later writes, so handlers must copy anything they keep past onEvent.
+   */
+  MessageEvent() {
+  }
+
+  void set(Type type, String recordId, Message message, Message previous) {
+    this.type = type;
+    this.recordId = recordId;
+    this.message = message;
+    this.previous = previous;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getRecordId() {
+    return recordId;
+  }
+
+  /**
+   * Get the message as written.
+   *
+   * @return Message after the write, null for deletes
+   */
+  public Message getMessage() {
+    return message;
+  }
+
+  /**
+   * Get the message as it was before the write.
+   *
+   * @return Message before the write, null for new messages
+   */
+  public Message getPrevious() {
+    return previous;
+  }
+}
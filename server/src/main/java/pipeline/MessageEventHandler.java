@@ -0,0 +1,14 @@
+package pipeline;
+
+public interface MessageEventHandler {
+  /**
+   * Apply a write event to a derived structure. Called on the handler's own thread, in sequence
+   * order.
+   *
+   * @param event      MessageEvent to apply, only valid until the call returns
+   * @param sequence   Sequence number of the event
+   * @param endOfBatch True if no more events are available yet, so batched work should be flushed
+   * @throws Exception If the event can't be applied; the handler carries on with the next one
+   */
+  void onEvent(MessageEvent event, long sequence, boolean endOfBatch) throws Exception;
+}
@@ -0,0 +1,258 @@
+package pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import message.Message;
+
+public class MessageEventRing {
+  // Version of writes published by another ring, such as another server or before a restart.
+  public static final long UNKNOWN_VERSION = Long.MAX_VALUE;
+
+  private final MessageEvent[] slots;
+  private final int mask;
+  private final long idleNanos;
+  // Tells this ring's version tokens apart from those of other servers and earlier runs.
+  private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+  private final List<Processor> processors = new CopyOnWriteArrayList<>();
+  // Sequence of the last slot claimed by a publisher.
+  private final AtomicLong claimed = new AtomicLong(-1);
+  // Sequence of the last published event; publishers fill their slot before moving it, in turn.
+  private final AtomicLong cursor = new AtomicLong(-1);
+  private final LongAdder fullCount = new LongAdder();
+  private volatile boolean isRunning;
+
+  /**
+   * Pre-allocated ring of write events, Disruptor style. Publishers claim the next slot without a
+   * lock, fill it in place and then advance the cursor over it in the order the slots were
+   * claimed. Each handler runs on its
+   * own thread with its own sequence, applying every event published since its last pass as one
+   * batch. A slot is only reused once every handler is past it, so a writer waits for the slowest
+   * handler when the ring is full.
+   *
+   * @param size       Number of slots, a power of two
+   * @param idleMicros Time in microseconds an idle handler thread sleeps before looking again
+   */
+  public MessageEventRing(int size, long idleMicros) {
+    if (Integer.bitCount(size) != 1) {
+      throw new IllegalArgumentException("Ring size must be a power of two");
+    }
+    this.slots = new MessageEvent[size];
+    for (int i = 0; i < size; i++) {
+      slots[i] = new MessageEvent();
+    }
+    this.mask = size - 1;
+    this.idleNanos = TimeUnit.MICROSECONDS.toNanos(idleMicros);
+  }
+
+  /**
+   * Add a handler. Handlers must all be added before the ring is started.
+   *
+   * @param name    Name of the handler, used for its thread and metrics
+   * @param handler MessageEventHandler applying events to a derived structure
+   */
+  public void addHandler(String name, MessageEventHandler handler) {
+    if (isRunning) {
+      throw new IllegalStateException("Handlers must be added before starting");
+    }
+    processors.add(new Processor(name, handler));
+  }
+
+  /**
+   * Start a thread for every handler.
+   */
+  public void start() {
+    isRunning = true;
+    for (Processor processor : processors) {
+      processor.thread.start();
+    }
+  }
+
+  /**
+   * Stop the handler threads once they have applied every published event.
+   *
+   * @throws InterruptedException If interrupted while waiting for the handlers
+   */
+  public void shutdown() throws InterruptedException {
+    isRunning = false;
+    for (Processor processor : processors) {
+      processor.thread.join();
+    }
+  }
+
+  /**
+   * Publish a write event. Waits while the ring is full, regardless of the deadline of the
+   * current request: the write is already committed, so its event must not be dropped.
+   *
+   * @param type     Type of the write
+   * @param recordId Record ID of the written message
+   * @param message  Message after the write, null for deletes
+   * @param previous Message before the write, null for new messages
+   * @return Sequence number of the event, to pass to awaitProcessed
+   */
+  public long publish(
+      MessageEvent.Type type,
+      String recordId,
+      Message message,
+      Message previous
+  ) {
+    long next = claimed.incrementAndGet();
+    if (next - slots.length > getProcessedSequence()) {
+      fullCount.increment();
+      while (next - slots.length > getProcessedSequence()) {
+        LockSupport.parkNanos(idleNanos);
+      }
+    }
+    slots[(int) (next & mask)].set(type, recordId, message, previous);
+    // Publishers of earlier slots are filling them, or waiting for room themselves while the ring
+    // is full, so give up the processor rather than spin.
+    while (cursor.get() != next - 1) {
+      Thread.yield();
+    }
+    cursor.set(next);
+    return next;
+  }
+
+  /**
+   * Wait until every handler has applied an event, so that a read can see a write made through
+   * this server.
+   *
+   * @param sequence     Sequence number returned by publish
+   * @param timeoutNanos Maximum time to wait in nanoseconds
+   * @return True if every handler applied the event, false if the timeout passed first
+   */
+  public boolean awaitProcessed(long sequence, long timeoutNanos) {
+    long deadline = System.nanoTime() + timeoutNanos;
+    while (getProcessedSequence() < sequence) {
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+      LockSupport.parkNanos(idleNanos);
+    }
+    return true;
+  }
+
+  /**
+   * Get the version token of a write event, which clients present on later reads to see the
+   * write.
+   *
+   * @param sequence Sequence number returned by publish
+   * @return String version token
+   */
+  public String getVersionToken(long sequence) {
+    return epoch + "-" + sequence;
+  }
+
+  /**
+   * Get the sequence number a version token stands for.
+   *
+   * @param token String version token from getVersionToken
+   * @return Sequence number, or UNKNOWN_VERSION if another ring issued the token
+   * @throws IllegalArgumentException If the token is malformed
+   */
+  public long parseVersionToken(String token) {
+    int separator = token.lastIndexOf('-');
+    if (separator < 0) {
+      throw new IllegalArgumentException("Invalid version token");
+    }
+    long sequence = Long.parseLong(token.substring(separator + 1));
+    return token.substring(0, separator).equals(epoch) ? sequence : UNKNOWN_VERSION;
+  }
+
+  public long getCursor() {
+    return cursor.get();
+  }
+
+  /**
+   * Get the sequence number of the last event every handler has applied.
+   *
+   * @return Lowest handler sequence, or the cursor if there are no handlers
+   */
+  public long getProcessedSequence() {
+    long sequence = cursor.get();
+    for (Processor processor : processors) {
+      sequence = Math.min(sequence, processor.sequence.get());
+    }
+    return sequence;
+  }
+
+  public long getFullCount() {
+    return fullCount.sum();
+  }
+
+  public List<String> getHandlerNames() {
+    List<String> names = new ArrayList<>();
+    for (Processor processor : processors) {
+      names.add(processor.name);
+    }
+    return names;
+  }
+
+  /**
+   * Get the number of published events a handler has yet to apply.
+   *
+   * @param name Name of the handler
+   * @return Number of events behind the cursor
+   */
+  public long getLag(String name) {
+    return cursor.get() - getProcessor(name).sequence.get();
+  }
+
+  public long getErrorCount(String name) {
+    return getProcessor(name).errorCount.sum();
+  }
+
+  private Processor getProcessor(String name) {
+    for (Processor processor : processors) {
+      if (processor.name.equals(name)) {
+        return processor;
+      }
+    }
+    throw new IllegalArgumentException("Unknown handler " + name);
+  }
+
+  private final class Processor implements Runnable {
+    final String name;
+    final MessageEventHandler handler;
+    final Thread thread;
+    // Sequence of the last event the handler applied.
+    final AtomicLong sequence = new AtomicLong(-1);
+    final LongAdder errorCount = new LongAdder();
+
+    Processor(String name, MessageEventHandler handler) {
+      this.name = name;
+      this.handler = handler;
+      this.thread = new Thread(this, "message-event-" + name);
+      thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      long next = sequence.get() + 1;
+      while (true) {
+        long available = cursor.get();
+        if (available < next) {
+          if (!isRunning) {
+            return;
+          }
+          LockSupport.parkNanos(idleNanos);
+          continue;
+        }
+        for (long current = next; current <= available; current++) {
+          try {
+            handler.onEvent(slots[(int) (current & mask)], current, current == available);
+          } catch (Exception e) {
+            errorCount.increment();
+          }
+        }
+        sequence.set(available);
+        next = available + 1;
+      }
+    }
+  }
+}
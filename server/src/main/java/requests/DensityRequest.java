@@ -0,0 +1,25 @@
+package requests;
+
+public class DensityRequest {
+  private final FindMessagesByBoundingBoxRequest box;
+  private final Integer zoom;
+
+  /**
+   * Request content for hitting the /density endpoint.
+   *
+   * @param box  Bounding box request whose edges the grid covers; other fields are ignored
+   * @param zoom Integer zoom level of the grid's Web Mercator tiles
+   */
+  public DensityRequest(FindMessagesByBoundingBoxRequest box, Integer zoom) {
+    this.box = box;
+    this.zoom = zoom;
+  }
+
+  public FindMessagesByBoundingBoxRequest getBox() {
+    return box;
+  }
+
+  public Integer getZoom() {
+    return zoom;
+  }
+}
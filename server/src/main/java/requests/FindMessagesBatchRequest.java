@@ -0,0 +1,42 @@
+package requests;
+
+import com.google.gson.annotations.SerializedName;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class FindMessagesBatchRequest {
+  private final Map<String, FindMessagesByBoundingBoxRequest> boxes;
+  private final List<String> tiles;
+  @SerializedName("max_records")
+  private final Integer maxRecords;
+
+  /**
+   * Request content for hitting the /messages/batch endpoint.
+   *
+   * @param boxes      Map of client keys to bounding box requests
+   * @param tiles      List of map tile IDs in z/x/y form
+   * @param maxRecords Integer max number of records to return per tile
+   */
+  public FindMessagesBatchRequest(
+      Map<String, FindMessagesByBoundingBoxRequest> boxes,
+      List<String> tiles,
+      Integer maxRecords
+  ) {
+    this.boxes = boxes;
+    this.tiles = tiles;
+    this.maxRecords = maxRecords;
+  }
+
+  public Map<String, FindMessagesByBoundingBoxRequest> getBoxes() {
+    return boxes == null ? Collections.emptyMap() : Collections.unmodifiableMap(boxes);
+  }
+
+  public List<String> getTiles() {
+    return tiles == null ? Collections.emptyList() : Collections.unmodifiableList(tiles);
+  }
+
+  public Integer getMaxRecords() {
+    return maxRecords;
+  }
+}
@@ -13,6 +13,18 @@ public class FindMessagesByBoundingBoxRequest {
   private final Double longitudeRight;
   @SerializedName("max_records")
   private final Integer maxRecords;
+  @SerializedName("posted_after")
+  private final Long postedAfter;
+
+  public FindMessagesByBoundingBoxRequest(
+      Double latitudeBottom,
+      Double latitudeTop,
+      Double longitudeLeft,
+      Double longitudeRight,
+      Integer maxRecords
+  ) {
+    this(latitudeBottom, latitudeTop, longitudeLeft, longitudeRight, maxRecords, null);
+  }
 
   /**
    * Request content for hitting the /messages endpoint.
@@ -22,19 +34,22 @@ public class FindMessagesByBoundingBoxRequest {
    * @param longitudeLeft  Double left-most longitude to be considered
    * @param longitudeRight Double right-most longitude to be considered
    * @param maxRecords     Double max number of records to return
+   * @param postedAfter    Long epoch milliseconds only later messages are returned from, or null
    */
   public FindMessagesByBoundingBoxRequest(
       Double latitudeBottom,
       Double latitudeTop,
       Double longitudeLeft,
       Double longitudeRight,
-      Integer maxRecords
+      Integer maxRecords,
+      Long postedAfter
   ) {
     this.latitudeBottom = latitudeBottom;
     this.latitudeTop = latitudeTop;
     this.longitudeLeft = longitudeLeft;
     this.longitudeRight = longitudeRight;
     this.maxRecords = maxRecords;
+    this.postedAfter = postedAfter;
   }
 
   public Double getLatitudeBottom() {
@@ -56,4 +71,8 @@ public class FindMessagesByBoundingBoxRequest {
   public Integer getMaxRecords() {
     return maxRecords;
   }
+
+  public Long getPostedAfter() {
+    return postedAfter;
+  }
 }
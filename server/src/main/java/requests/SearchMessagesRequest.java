@@ -0,0 +1,25 @@
+package requests;
+
+public class SearchMessagesRequest {
+  private final FindMessagesByBoundingBoxRequest box;
+  private final String keywords;
+
+  /**
+   * Request content for hitting the /messages/search endpoint.
+   *
+   * @param box      Bounding box request with the area, max_records and optional posted_after
+   * @param keywords String of keywords the message texts all contain
+   */
+  public SearchMessagesRequest(FindMessagesByBoundingBoxRequest box, String keywords) {
+    this.box = box;
+    this.keywords = keywords;
+  }
+
+  public FindMessagesByBoundingBoxRequest getBox() {
+    return box;
+  }
+
+  public String getKeywords() {
+    return keywords;
+  }
+}
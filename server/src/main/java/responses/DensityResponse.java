@@ -0,0 +1,53 @@
+package responses;
+
+public class DensityResponse {
+  private final int zoom;
+  private final int x;
+  private final int y;
+  private final int columns;
+  private final int rows;
+  private final int[] counts;
+
+  /**
+   * Response for the /density endpoint: message counts of a grid of Web Mercator tiles.
+   *
+   * @param zoom    Zoom level of the tiles
+   * @param x       Column of the top-left tile
+   * @param y       Row of the top-left tile, counted from the north
+   * @param columns Number of columns, wrapping around to column 0 past the last one
+   * @param rows    Number of rows
+   * @param counts  Counts row by row from the top-left tile
+   */
+  public DensityResponse(int zoom, int x, int y, int columns, int rows, int[] counts) {
+    this.zoom = zoom;
+    this.x = x;
+    this.y = y;
+    this.columns = columns;
+    this.rows = rows;
+    this.counts = counts.clone();
+  }
+
+  public int getZoom() {
+    return zoom;
+  }
+
+  public int getX() {
+    return x;
+  }
+
+  public int getY() {
+    return y;
+  }
+
+  public int getColumns() {
+    return columns;
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  public int[] getCounts() {
+    return counts.clone();
+  }
+}
@@ -0,0 +1,41 @@
+package responses;
+
+import com.google.gson.annotations.SerializedName;
+import message.Message;
+
+public class MessageEventResponse {
+  public static final String TYPE_NEW = "new";
+  public static final String TYPE_UPDATE = "update";
+  public static final String TYPE_DELETE = "delete";
+  public static final String TYPE_RESYNC = "resync";
+
+  private final String type;
+  private final Message record;
+  @SerializedName("record_id")
+  private final String recordId;
+
+  /**
+   * Event pushed to viewport subscribers when a message inside their viewport changes.
+   *
+   * @param type     String event type, one of new, update, delete or resync
+   * @param record   Message that was created or updated, null for delete and resync events
+   * @param recordId String record ID of the affected message, null for resync events
+   */
+  public MessageEventResponse(String type, Message record, String recordId) {
+    this.type = type;
+    this.record = record;
+    this.recordId = recordId;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public Message getRecord() {
+    return record;
+  }
+
+  public String getRecordId() {
+    return recordId;
+  }
+}
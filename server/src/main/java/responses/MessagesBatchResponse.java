@@ -0,0 +1,51 @@
+package responses;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import message.Message;
+
+public class MessagesBatchResponse {
+  private final Map<String, Message> records;
+  private final Map<String, List<String>> results;
+  private final Map<String, String> errors;
+
+  /**
+   * Response for the /messages/batch endpoint. Each message is included once in records, keyed by
+   * its ID, and every query's result lists the IDs of its messages, so messages shared by
+   * overlapping tiles are only sent once.
+   *
+   * @param messagesByKey Map of query keys to the messages found for them
+   * @param errors        Map of query keys to the error for queries that failed
+   */
+  public MessagesBatchResponse(
+      Map<String, List<Message>> messagesByKey,
+      Map<String, String> errors
+  ) {
+    this.records = new LinkedHashMap<>();
+    this.results = new LinkedHashMap<>();
+    for (Map.Entry<String, List<Message>> entry : messagesByKey.entrySet()) {
+      List<String> ids = new ArrayList<>(entry.getValue().size());
+      for (Message message : entry.getValue()) {
+        records.putIfAbsent(message.getId(), message);
+        ids.add(message.getId());
+      }
+      results.put(entry.getKey(), ids);
+    }
+    this.errors = new LinkedHashMap<>(errors);
+  }
+
+  public Map<String, Message> getRecords() {
+    return Collections.unmodifiableMap(records);
+  }
+
+  public Map<String, List<String>> getResults() {
+    return Collections.unmodifiableMap(results);
+  }
+
+  public Map<String, String> getErrors() {
+    return Collections.unmodifiableMap(errors);
+  }
+}
@@ -3,16 +3,29 @@ package responses;
 import com.google.gson.annotations.SerializedName;
 import java.util.List;
 import message.Message;
+import message.QueryPlan;
 
 public class MessagesResponse {
   @SerializedName("records")
   private final List<Message> messages;
   @SerializedName("record_count")
   private final int recordCount;
+  private final QueryPlan plan;
 
   public MessagesResponse(List<Message> messages) {
+    this(messages, null);
+  }
+
+  /**
+   * Response for finding messages.
+   *
+   * @param messages List of Messages found
+   * @param plan     QueryPlan explaining how the messages were found, or null to leave it out
+   */
+  public MessagesResponse(List<Message> messages, QueryPlan plan) {
     this.messages = messages;
     this.recordCount = messages.size();
+    this.plan = plan;
   }
 
   public List<Message> getMessages() {
@@ -22,4 +35,8 @@ public class MessagesResponse {
   public int getRecordCount() {
     return recordCount;
   }
+
+  public QueryPlan getPlan() {
+    return plan;
+  }
 }
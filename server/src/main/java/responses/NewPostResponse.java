@@ -8,6 +8,11 @@ public class NewPostResponse {
   @SerializedName("record_id")
   private final String recordId;
   private final String error;
+  private final String version;
+
+  public NewPostResponse(int responseCode, String recordId, String error) {
+    this(responseCode, recordId, error, null);
+  }
 
   /**
    * Response for posting a new message.
@@ -15,11 +20,13 @@ public class NewPostResponse {
    * @param responseCode int http response code
    * @param recordId     String record ID that was created
    * @param error        String error message if an error occurred
+   * @param version      String write version token to present on reads, null if not written
    */
-  public NewPostResponse(int responseCode, String recordId, String error) {
+  public NewPostResponse(int responseCode, String recordId, String error, String version) {
     this.responseCode = responseCode;
     this.recordId = recordId;
     this.error = error;
+    this.version = version;
   }
 
   public String getError() {
@@ -33,5 +40,9 @@ public class NewPostResponse {
   public int getResponseCode() {
     return responseCode;
   }
+
+  public String getVersion() {
+    return version;
+  }
 }
 
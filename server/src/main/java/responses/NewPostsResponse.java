@@ -0,0 +1,38 @@
+package responses;
+
+import com.google.gson.annotations.SerializedName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class NewPostsResponse {
+  @SerializedName("response_code")
+  private final int responseCode;
+  private final List<NewPostResponse> results;
+  private final String error;
+
+  /**
+   * Response for posting a batch of new messages.
+   *
+   * @param responseCode int http response code
+   * @param results      List of NewPostResponse in the same order as the requested messages
+   * @param error        String error message if the whole batch was rejected
+   */
+  public NewPostsResponse(int responseCode, List<NewPostResponse> results, String error) {
+    this.responseCode = responseCode;
+    this.results = new ArrayList<>(results);
+    this.error = error;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public List<NewPostResponse> getResults() {
+    return Collections.unmodifiableList(results);
+  }
+
+  public int getResponseCode() {
+    return responseCode;
+  }
+}
@@ -6,10 +6,23 @@ public class UpdatePostResponse {
   @SerializedName("response_code")
   private final int responseCode;
   private final String error;
+  private final String version;
 
   public UpdatePostResponse(int responseCode, String error) {
+    this(responseCode, error, null);
+  }
+
+  /**
+   * Response for updating a message.
+   *
+   * @param responseCode int http response code
+   * @param error        String error message if an error occurred
+   * @param version      String write version token to present on reads, null if not written
+   */
+  public UpdatePostResponse(int responseCode, String error, String version) {
     this.error = error;
     this.responseCode = responseCode;
+    this.version = version;
   }
 
   public int getResponseCode() {
@@ -19,4 +32,8 @@ public class UpdatePostResponse {
   public String getError() {
     return error;
   }
+
+  public String getVersion() {
+    return version;
+  }
 }
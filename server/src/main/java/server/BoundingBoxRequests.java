@@ -0,0 +1,43 @@
+package server;
+
+import message.BoundingBox;
+import requests.FindMessagesByBoundingBoxRequest;
+
+public final class BoundingBoxRequests {
+
+  private BoundingBoxRequests() {
+  }
+
+  /**
+   * Validate the coordinates of a bounding box request.
+   *
+   * @param request FindMessagesByBoundingBoxRequest to validate
+   * @return String describing the first invalid field, or null if the coordinates are valid
+   */
+  public static String getBoundingBoxError(FindMessagesByBoundingBoxRequest request) {
+    Double latitudeTop = request.getLatitudeTop();
+    Double latitudeBottom = request.getLatitudeBottom();
+    Double longitudeLeft = request.getLongitudeLeft();
+    Double longitudeRight = request.getLongitudeRight();
+
+    if (latitudeBottom == null || latitudeBottom < -90 || latitudeBottom > 90) {
+      return "Invalid latitude_bottom";
+    } else if (latitudeTop == null || latitudeTop < -90 || latitudeTop > 90) {
+      return "Invalid latitude_top";
+    } else if (longitudeLeft == null || longitudeLeft < -180 || longitudeLeft > 180) {
+      return "Invalid longitude_left";
+    } else if (longitudeRight == null || longitudeRight < -180 || longitudeRight > 180) {
+      return "Invalid longitude_right";
+    }
+    return null;
+  }
+
+  public static BoundingBox getBoundingBox(FindMessagesByBoundingBoxRequest request) {
+    return BoundingBox.fromEdges(
+        request.getLatitudeBottom(),
+        request.getLatitudeTop(),
+        request.getLongitudeLeft(),
+        request.getLongitudeRight()
+    );
+  }
+}
@@ -0,0 +1,245 @@
+package server;
+
+import com.google.cloud.firestore.Firestore;
+import constants.Constants;
+import density.DensityPyramid;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import message.DeleteRecordPruner;
+import message.Message;
+import message.MessageBitmapIndex;
+import message.MessageIndex;
+import message.MessageIndexListener;
+import message.MessageSnapshotFile;
+import message.MessageSnapshotWriter;
+import message.UserCachingMessageFinder;
+import metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class IndexedMessages {
+  private static final MetricsRegistry metrics = MetricsRegistry.getDefault();
+  private static final Logger logger = LoggerFactory.getLogger(IndexedMessages.class);
+
+  private final MessageIndex index;
+  private final MessageBitmapIndex bitmapIndex;
+  private final DensityPyramid densityPyramid;
+  private final MessageSnapshotWriter snapshotWriter;
+  private final DeleteRecordPruner deleteRecordPruner;
+
+  private IndexedMessages(
+      MessageIndex index,
+      MessageBitmapIndex bitmapIndex,
+      DensityPyramid densityPyramid,
+      MessageSnapshotWriter snapshotWriter,
+      DeleteRecordPruner deleteRecordPruner
+  ) {
+    this.index = index;
+    this.bitmapIndex = bitmapIndex;
+    this.densityPyramid = densityPyramid;
+    this.snapshotWriter = snapshotWriter;
+    this.deleteRecordPruner = deleteRecordPruner;
+  }
+
+  /**
+   * Get the file message index snapshots are written to and loaded from.
+   *
+   * @return Path set by MESSAGE_SNAPSHOT_PATH, or null if it isn't set
+   */
+  public static Path getSnapshotFile() {
+    String snapshotPath = System.getenv(Constants.MESSAGE_SNAPSHOT_PATH_ENV_VAR);
+    return snapshotPath == null || snapshotPath.isEmpty() ? null : Paths.get(snapshotPath);
+  }
+
+  /**
+   * Load the messages into an in-memory index kept up to date by a Firestore listener, so bounding
+   * box queries no longer read the collection, along with the structures derived from it. When
+   * MESSAGE_SNAPSHOT_PATH is set, the index starts from the snapshot there and is written back to
+   * it periodically, and the records of deletes too old for a snapshot to need are pruned.
+   *
+   * @param firestore Firestore holding the messages
+   * @param userCache Supplies the UserCachingMessageFinder to apply changes to, or null before it
+   *                  is set up
+   * @return IndexedMessages holding every message
+   * @throws IOException If the messages don't load within MESSAGE_INDEX_LOAD_TIMEOUT_MILLIS
+   */
+  public static IndexedMessages load(
+      Firestore firestore,
+      Supplier<UserCachingMessageFinder> userCache
+  ) throws IOException {
+    MessageIndex index = new MessageIndex(Constants.MESSAGE_INDEX_BLOCK_SIZE);
+    MessageBitmapIndex bitmapIndex = new MessageBitmapIndex(
+        Constants.BITMAP_INDEX_CELL_DEGREES,
+        Constants.BITMAP_INDEX_TIME_BUCKET_MILLIS,
+        Constants.BITMAP_INDEX_MAX_CELLS
+    );
+    // Fed by the listener, so it counts the writes of every server, not only this one.
+    DensityPyramid pyramid =
+        new DensityPyramid(Constants.DENSITY_MAX_ZOOM, Constants.DENSITY_DENSE_MAX_ZOOM);
+    BiConsumer<List<Message>, List<Message>> changeListener = (upserts, removed) -> {
+      List<String> removedIds = new ArrayList<>();
+      for (Message message : removed) {
+        removedIds.add(message.getId());
+      }
+      bitmapIndex.apply(upserts, removedIds);
+      pyramid.apply(upserts, removedIds);
+      // Changes made before setup have been loaded by the time a list is first cached.
+      UserCachingMessageFinder userCachingMessageFinder = userCache.get();
+      if (userCachingMessageFinder != null) {
+        userCachingMessageFinder.apply(upserts, removed);
+      }
+    };
+
+    Path snapshotFile = getSnapshotFile();
+    Date since = snapshotFile == null
+        ? null
+        : loadSnapshot(snapshotFile, index, changeListener);
+    MessageIndexListener listener = new MessageIndexListener(
+        index,
+        changeListener,
+        firestore.collection(Constants.COLLECTION_PATH),
+        firestore.collection(Constants.DELETES_COLLECTION_PATH),
+        since,
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "message-index-listener");
+          thread.setDaemon(true);
+          return thread;
+        }),
+        Constants.MESSAGE_INDEX_RETRY_INITIAL_MILLIS,
+        Constants.MESSAGE_INDEX_RETRY_MAX_MILLIS
+    );
+    listener.listen();
+    boolean isLoaded;
+    try {
+      isLoaded =
+          listener.awaitLoaded(Constants.MESSAGE_INDEX_LOAD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted loading the message index", e);
+    }
+    if (!isLoaded) {
+      throw new IOException("Timed out loading the message index");
+    }
+    MessageSnapshotWriter snapshotWriter = null;
+    DeleteRecordPruner deleteRecordPruner = null;
+    if (snapshotFile != null) {
+      snapshotWriter = new MessageSnapshotWriter(
+          index,
+          listener::getReadTime,
+          snapshotFile,
+          Constants.MESSAGE_SNAPSHOT_INTERVAL_MILLIS
+      );
+      metrics.registerCounter("message_snapshot_writes_total",
+          "Number of message index snapshots written", snapshotWriter::getWriteCount);
+      metrics.registerCounter("message_snapshot_write_failures_total",
+          "Number of message index snapshots that failed to be written",
+          snapshotWriter::getFailureCount);
+      deleteRecordPruner = new DeleteRecordPruner(
+          firestore,
+          Constants.MESSAGE_DELETES_RETENTION_MILLIS,
+          Constants.MESSAGE_DELETES_PRUNE_INTERVAL_MILLIS
+      );
+      metrics.registerCounter("message_delete_records_pruned_total",
+          "Number of records of deleted messages pruned", deleteRecordPruner::getPrunedCount);
+      metrics.registerCounter("message_delete_record_prune_failures_total",
+          "Number of prunes of the records of deleted messages that failed",
+          deleteRecordPruner::getFailureCount);
+    }
+
+    metrics.registerGauge("message_index_size", "Number of messages in the in-memory index",
+        () -> index.getSnapshot().size());
+    metrics.registerGauge("message_index_version", "Number of versions the index has published",
+        () -> index.getSnapshot().getVersion());
+    metrics.registerCounter("message_index_listener_errors_total",
+        "Number of times the message index listener failed and was registered again",
+        listener::getErrorCount);
+    metrics.registerGauge("message_bitmap_index_bytes",
+        "Memory held by the bitmaps of the message bitmap index in bytes",
+        bitmapIndex::getBitmapBytes);
+    metrics.registerCounter("message_bitmap_index_queries_total",
+        "Number of queries answered from the message bitmap index", bitmapIndex::getQueryCount);
+    metrics.registerCounter("message_bitmap_index_materialized_total",
+        "Number of messages the message bitmap index checked after intersecting bitmaps",
+        bitmapIndex::getMaterializedCount);
+    metrics.registerGauge("message_bitmap_index_terms",
+        "Number of distinct terms in the message texts of the message bitmap index",
+        bitmapIndex::getTermCount);
+    metrics.registerGauge("density_pyramid_messages",
+        "Number of messages counted in the density pyramid", pyramid::getMessageCount);
+    return new IndexedMessages(index, bitmapIndex, pyramid, snapshotWriter, deleteRecordPruner);
+  }
+
+  /**
+   * Load the message index from a snapshot file, when there is a valid one, so only the changes
+   * made since need to be read from Firestore. Snapshots older than the retention of the records
+   * of deletes are ignored, since the deletes made since may have been pruned.
+   *
+   * @param file           Path of the snapshot file
+   * @param index          MessageIndex to load the messages into
+   * @param changeListener Receives the loaded messages, like the message index listener's changes
+   * @return Time from which to read changes, or null to read every message
+   */
+  private static Date loadSnapshot(
+      Path file,
+      MessageIndex index,
+      BiConsumer<List<Message>, List<Message>> changeListener
+  ) {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    MessageSnapshotFile snapshot;
+    try {
+      snapshot = MessageSnapshotFile.read(file);
+    } catch (IOException e) {
+      logger.warn("Ignoring message snapshot that failed to load", e);
+      return null;
+    }
+    // Replayed changes are applied again harmlessly, so allow for clock skew between servers.
+    long sinceMillis =
+        Math.max(0, snapshot.getHighWaterMillis() - Constants.MESSAGE_SNAPSHOT_OVERLAP_MILLIS);
+    if (sinceMillis < System.currentTimeMillis() - Constants.MESSAGE_DELETES_RETENTION_MILLIS) {
+      logger.warn("Ignoring message snapshot older than the records of deleted messages");
+      return null;
+    }
+    index.apply(snapshot.getMessages(), Collections.emptyList());
+    changeListener.accept(snapshot.getMessages(), Collections.emptyList());
+    return new Date(sinceMillis);
+  }
+
+  public MessageIndex getIndex() {
+    return index;
+  }
+
+  public MessageBitmapIndex getBitmapIndex() {
+    return bitmapIndex;
+  }
+
+  public DensityPyramid getDensityPyramid() {
+    return densityPyramid;
+  }
+
+  /**
+   * Stop writing snapshots of the index, after writing a last one, and pruning the records of
+   * deletes, when MESSAGE_SNAPSHOT_PATH is set.
+   *
+   * @throws InterruptedException If interrupted while waiting for the snapshot to be written
+   */
+  public void shutdown() throws InterruptedException {
+    if (snapshotWriter != null) {
+      snapshotWriter.shutdown();
+    }
+    if (deleteRecordPruner != null) {
+      deleteRecordPruner.shutdown();
+    }
+  }
+}
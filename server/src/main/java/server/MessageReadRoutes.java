@@ -0,0 +1,524 @@
+package server;
+
+import com.google.gson.Gson;
+import constants.Constants;
+import deadline.Deadline;
+import deadline.DeadlineExceededException;
+import density.DensityPyramid;
+import io.javalin.http.Context;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import limit.ConcurrencyLimitHandler;
+import message.BoundingBox;
+import message.CircuitBreakerMessageFinder;
+import message.Message;
+import message.MessageBitmapIndex;
+import message.MessageFinder;
+import message.MessageTokenizer;
+import message.QueryPlan;
+import message.ReadVersion;
+import pipeline.MessageEventRing;
+import requests.DensityRequest;
+import requests.FindMessagesBatchRequest;
+import requests.FindMessagesByBoundingBoxRequest;
+import requests.SearchMessagesRequest;
+import responses.DensityResponse;
+import responses.MessagesBatchResponse;
+import responses.MessagesResponse;
+import tracing.RequestTrace;
+
+public class MessageReadRoutes {
+  private static final Gson gson = new Gson();
+
+  private final MessageFinder messageFinder;
+  private final MessageBitmapIndex bitmapIndex;
+  private final DensityPyramid densityPyramid;
+  private final ExecutorService batchQueryExecutor;
+  private final MessageEventRing writeEvents;
+
+  /**
+   * Handlers of the routes reading messages. Reads presenting a version token wait until the
+   * write events up to it have been applied.
+   *
+   * @param messageFinder      MessageFinder answering the queries
+   * @param indexedMessages    IndexedMessages planning queries and counting density, or null when
+   *                           the message index isn't loaded
+   * @param batchQueryExecutor ExecutorService running the queries of a batch in parallel
+   * @param writeEvents        MessageEventRing of the writes made through this server
+   */
+  public MessageReadRoutes(
+      MessageFinder messageFinder,
+      IndexedMessages indexedMessages,
+      ExecutorService batchQueryExecutor,
+      MessageEventRing writeEvents
+  ) {
+    this.messageFinder = messageFinder;
+    this.bitmapIndex = indexedMessages == null ? null : indexedMessages.getBitmapIndex();
+    this.densityPyramid = indexedMessages == null ? null : indexedMessages.getDensityPyramid();
+    this.batchQueryExecutor = batchQueryExecutor;
+    this.writeEvents = writeEvents;
+  }
+
+  /**
+   * Find the messages in a bounding box.
+   *
+   * @param ctx Context of the request
+   * @throws Exception If the messages can't be found
+   */
+  public void findByBoundingBox(Context ctx) throws Exception {
+    FindMessagesByBoundingBoxRequest request = gson.fromJson(
+        ctx.body(),
+        FindMessagesByBoundingBoxRequest.class
+    );
+    RequestTrace.mark("parse_request");
+
+    Integer maxRecords = request.getMaxRecords();
+
+    String error = BoundingBoxRequests.getBoundingBoxError(request);
+    if (error != null) {
+      ctx.result(error);
+    } else if (maxRecords == null || maxRecords < 0) {
+      ctx.result("Invalid max_records");
+    } else {
+      BoundingBox boundingBox = BoundingBoxRequests.getBoundingBox(request);
+      Date postedAfter =
+          request.getPostedAfter() == null ? null : new Date(request.getPostedAfter());
+      long readVersion = getReadVersion(ctx);
+      List<QueryPlan> plans = isExplaining(ctx) ? new ArrayList<>() : null;
+
+      List<Message> messages;
+      // Plain box queries stay on the finder chain, which coalesces, batches and caches them like
+      // the boxes of /messages/batch; the planner only serves the conditions the chain can't.
+      if (postedAfter != null || plans != null) {
+        messages = ReadVersion.call(
+            readVersion,
+            () -> findMessages(
+                null,
+                boundingBox,
+                postedAfter,
+                Collections.emptySet(),
+                maxRecords,
+                plans
+            )
+        );
+      } else {
+        messages = ReadVersion.call(
+            readVersion,
+            () -> messageFinder.findByBoundingBox(
+                boundingBox.getLesserPoint(),
+                boundingBox.getGreaterPoint(),
+                maxRecords,
+                boundingBox.isCrossing90Latitude(),
+                boundingBox.isCrossing180Longitude()
+            )
+        );
+      }
+      RequestTrace.mark("query");
+      setStalenessHeaders(ctx, CircuitBreakerMessageFinder.takeStalenessMillis());
+
+      QueryPlan plan = plans == null ? null : plans.get(0);
+      ctx.result(gson.toJson(new MessagesResponse(messages, plan)));
+      RequestTrace.mark("serialize");
+    }
+  }
+
+  /**
+   * Count the messages in the map tiles covering a bounding box.
+   *
+   * @param ctx Context of the request
+   */
+  public void getDensity(Context ctx) {
+    DensityRequest request = gson.fromJson(ctx.body(), DensityRequest.class);
+    RequestTrace.mark("parse_request");
+
+    if (densityPyramid == null) {
+      // Without the index listener, the pyramid would only count the writes of this server.
+      ctx.result("Density requires MESSAGE_INDEX");
+      return;
+    }
+    Integer zoom = request.getZoom();
+    String error = request.getBox() == null
+        ? "Invalid box"
+        : BoundingBoxRequests.getBoundingBoxError(request.getBox());
+    if (error != null) {
+      ctx.result(error);
+      return;
+    }
+    if (zoom == null || zoom < 0 || zoom > densityPyramid.getMaxZoom()) {
+      ctx.result("Invalid zoom");
+      return;
+    }
+    DensityPyramid.Grid grid =
+        DensityPyramid.getGrid(BoundingBoxRequests.getBoundingBox(request.getBox()), zoom);
+    if ((long) grid.getColumns() * grid.getRows() > Constants.DENSITY_MAX_TILES) {
+      ctx.result("Too many tiles, use a lower zoom");
+      return;
+    }
+
+    int[] counts = densityPyramid.getCounts(
+        zoom,
+        grid.getX(),
+        grid.getY(),
+        grid.getColumns(),
+        grid.getRows()
+    );
+    RequestTrace.mark("query");
+    ctx.result(gson.toJson(new DensityResponse(
+        zoom,
+        grid.getX(),
+        grid.getY(),
+        grid.getColumns(),
+        grid.getRows(),
+        counts
+    )));
+  }
+
+  /**
+   * Find the messages in a bounding box whose text contains every keyword.
+   *
+   * @param ctx Context of the request
+   * @throws Exception If the messages can't be found
+   */
+  public void search(Context ctx) throws Exception {
+    SearchMessagesRequest request = gson.fromJson(ctx.body(), SearchMessagesRequest.class);
+    RequestTrace.mark("parse_request");
+
+    FindMessagesByBoundingBoxRequest box = request.getBox();
+    String error = box == null ? "Invalid box" : BoundingBoxRequests.getBoundingBoxError(box);
+    if (error != null) {
+      ctx.result(error);
+      return;
+    }
+    Integer maxRecords = box.getMaxRecords();
+    if (maxRecords == null || maxRecords < 0) {
+      ctx.result("Invalid max_records");
+      return;
+    }
+    Set<String> terms = MessageTokenizer.tokenize(request.getKeywords());
+    if (terms.isEmpty() || terms.size() > Constants.SEARCH_MAX_KEYWORDS) {
+      ctx.result("Invalid keywords");
+      return;
+    }
+
+    BoundingBox boundingBox = BoundingBoxRequests.getBoundingBox(box);
+    Date postedAfter = box.getPostedAfter() == null ? null : new Date(box.getPostedAfter());
+    List<QueryPlan> plans = isExplaining(ctx) ? new ArrayList<>() : null;
+    List<Message> messages = ReadVersion.call(
+        getReadVersion(ctx),
+        () -> findMessages(null, boundingBox, postedAfter, terms, maxRecords, plans)
+    );
+    RequestTrace.mark("query");
+    setStalenessHeaders(ctx, CircuitBreakerMessageFinder.takeStalenessMillis());
+
+    QueryPlan plan = plans == null ? null : plans.get(0);
+    ctx.result(gson.toJson(new MessagesResponse(messages, plan)));
+    RequestTrace.mark("serialize");
+  }
+
+  /**
+   * Find the messages of several bounding boxes and map tiles at once, querying them in parallel.
+   *
+   * @param ctx Context of the request
+   * @throws Exception If the request deadline passes first
+   */
+  public void findBatch(Context ctx) throws Exception {
+    FindMessagesBatchRequest request = gson.fromJson(ctx.body(), FindMessagesBatchRequest.class);
+
+    if (request == null) {
+      ctx.result("Invalid request");
+      return;
+    } else if (request.getBoxes().size() + request.getTiles().size()
+        > Constants.BATCH_ENDPOINT_MAX_QUERIES) {
+      // Checked before any query is parsed, so an oversized batch costs no work.
+      ctx.result("Too many queries");
+      return;
+    }
+
+    Map<String, BoundingBox> boundingBoxes = new LinkedHashMap<>();
+    Map<String, Integer> maxRecordsByKey = new HashMap<>();
+    Map<String, String> errors = new LinkedHashMap<>();
+
+    for (Map.Entry<String, FindMessagesByBoundingBoxRequest> entry :
+        request.getBoxes().entrySet()) {
+      FindMessagesByBoundingBoxRequest box = entry.getValue();
+      String error = box == null ? "Invalid box" : BoundingBoxRequests.getBoundingBoxError(box);
+      if (error == null && (box.getMaxRecords() == null || box.getMaxRecords() < 0)) {
+        error = "Invalid max_records";
+      }
+      if (error != null) {
+        errors.put(entry.getKey(), error);
+      } else {
+        boundingBoxes.put(entry.getKey(), BoundingBoxRequests.getBoundingBox(box));
+        maxRecordsByKey.put(entry.getKey(), box.getMaxRecords());
+      }
+    }
+
+    Integer tileMaxRecords = request.getMaxRecords();
+    for (String tile : request.getTiles()) {
+      BoundingBox boundingBox = getTileBoundingBox(tile);
+      if (boundingBox == null) {
+        errors.put(tile, "Invalid tile");
+      } else if (tileMaxRecords == null || tileMaxRecords < 0) {
+        errors.put(tile, "Invalid max_records");
+      } else {
+        boundingBoxes.put(tile, boundingBox);
+        maxRecordsByKey.put(tile, tileMaxRecords);
+      }
+    }
+
+    long readVersion = getReadVersion(ctx);
+    Deadline deadline = Deadline.current();
+    AtomicLong stalenessMillis = new AtomicLong(-1);
+    Map<String, Future<List<Message>>> futures = new LinkedHashMap<>();
+    for (Map.Entry<String, BoundingBox> entry : boundingBoxes.entrySet()) {
+      BoundingBox boundingBox = entry.getValue();
+      int maxRecords = maxRecordsByKey.get(entry.getKey());
+      futures.put(entry.getKey(), batchQueryExecutor.submit(() -> deadline.call(() -> {
+        List<Message> messages = ReadVersion.call(
+            readVersion,
+            () -> messageFinder.findByBoundingBox(
+                boundingBox.getLesserPoint(),
+                boundingBox.getGreaterPoint(),
+                maxRecords,
+                boundingBox.isCrossing90Latitude(),
+                boundingBox.isCrossing180Longitude()
+            )
+        );
+        stalenessMillis.accumulateAndGet(
+            CircuitBreakerMessageFinder.takeStalenessMillis(),
+            Math::max
+        );
+        return messages;
+      })));
+    }
+
+    Map<String, List<Message>> messagesByKey = new LinkedHashMap<>();
+    try {
+      for (Map.Entry<String, Future<List<Message>>> entry : futures.entrySet()) {
+        try {
+          messagesByKey.put(entry.getKey(), Deadline.await(entry.getValue()));
+        } catch (ExecutionException e) {
+          errors.put(entry.getKey(), String.valueOf(e.getCause().getMessage()));
+          ConcurrencyLimitHandler.reportFailure(ctx);
+        }
+      }
+    } catch (DeadlineExceededException e) {
+      for (Future<List<Message>> future : futures.values()) {
+        future.cancel(true);
+      }
+      throw e;
+    }
+
+    setStalenessHeaders(ctx, stalenessMillis.get());
+    ctx.result(gson.toJson(new MessagesBatchResponse(messagesByKey, errors)));
+  }
+
+  /**
+   * Find the messages of a user, optionally narrowed down to an area or a time window.
+   *
+   * @param ctx Context of the request
+   * @throws Exception If the messages can't be found
+   */
+  public void findByUserId(Context ctx) throws Exception {
+    String userId = ctx.pathParam("user_id");
+    // An optional body narrows the messages down to an area or a time window.
+    FindMessagesByBoundingBoxRequest request = gson.fromJson(
+        ctx.body(),
+        FindMessagesByBoundingBoxRequest.class
+    );
+    BoundingBox boundingBox = null;
+    Date postedAfter = null;
+    int maxRecords = Integer.MAX_VALUE;
+    if (request != null) {
+      if (request.getLatitudeBottom() != null || request.getLatitudeTop() != null
+          || request.getLongitudeLeft() != null || request.getLongitudeRight() != null) {
+        String error = BoundingBoxRequests.getBoundingBoxError(request);
+        if (error != null) {
+          ctx.result(error);
+          return;
+        }
+        boundingBox = BoundingBoxRequests.getBoundingBox(request);
+      }
+      if (request.getPostedAfter() != null) {
+        postedAfter = new Date(request.getPostedAfter());
+      }
+      if (request.getMaxRecords() != null) {
+        if (request.getMaxRecords() < 0) {
+          ctx.result("Invalid max_records");
+          return;
+        }
+        maxRecords = request.getMaxRecords();
+      }
+    }
+
+    List<QueryPlan> plans = isExplaining(ctx) ? new ArrayList<>() : null;
+    List<Message> messages;
+    if (boundingBox == null && postedAfter == null && maxRecords == Integer.MAX_VALUE
+        && plans == null) {
+      messages =
+          ReadVersion.call(getReadVersion(ctx), () -> messageFinder.findByUserId(userId));
+    } else {
+      BoundingBox userBoundingBox = boundingBox;
+      Date userPostedAfter = postedAfter;
+      int userMaxRecords = maxRecords;
+      messages = ReadVersion.call(
+          getReadVersion(ctx),
+          () -> findMessages(
+              userId,
+              userBoundingBox,
+              userPostedAfter,
+              Collections.emptySet(),
+              userMaxRecords,
+              plans
+          )
+      );
+    }
+    setStalenessHeaders(ctx, CircuitBreakerMessageFinder.takeStalenessMillis());
+
+    QueryPlan plan = plans == null ? null : plans.get(0);
+    ctx.result(gson.toJson(new MessagesResponse(messages, plan)));
+  }
+
+  /**
+   * Find messages matching a combination of a user, an area, a time window and keywords, with
+   * the access path the bitmap index planner picks when the message index is loaded. Otherwise
+   * the user's messages, or the messages in the area, are filtered by the other conditions.
+   *
+   * @param userId      User ID of the messages, or null for any
+   * @param boundingBox BoundingBox the messages are in, or null for anywhere
+   * @param postedAfter Time after which the messages were last posted, or null for any
+   * @param terms       Terms the message texts all contain, as tokenized by MessageTokenizer
+   * @param maxRecords  Maximum number of records to return
+   * @param plans       List to add the QueryPlan the query ran with to, for the explain=true debug
+   *                    parameter, or null
+   * @return List of matching Messages
+   */
+  private List<Message> findMessages(
+      String userId,
+      BoundingBox boundingBox,
+      Date postedAfter,
+      Collection<String> terms,
+      int maxRecords,
+      List<QueryPlan> plans
+  ) throws ExecutionException, InterruptedException {
+    if (bitmapIndex != null) {
+      return bitmapIndex.find(userId, boundingBox, postedAfter, terms, maxRecords, plans);
+    }
+    if (plans != null) {
+      plans.add(new QueryPlan(
+          userId != null ? "find_by_user_id" : "find_by_bounding_box",
+          -1,
+          -1,
+          Collections.emptyList()
+      ));
+    }
+    List<Message> messages = userId != null
+        ? messageFinder.findByUserId(userId)
+        : messageFinder.findByBoundingBox(
+            boundingBox.getLesserPoint(),
+            boundingBox.getGreaterPoint(),
+            Integer.MAX_VALUE,
+            boundingBox.isCrossing90Latitude(),
+            boundingBox.isCrossing180Longitude()
+        );
+    List<Message> filtered = new ArrayList<>();
+    for (Message message : messages) {
+      if (filtered.size() == maxRecords) {
+        break;
+      }
+      if ((boundingBox == null
+          || boundingBox.contains(message.getLatitude(), message.getLongitude()))
+          && (postedAfter == null || message.getTimestamp().after(postedAfter))
+          && (terms.isEmpty() || MessageTokenizer.tokenize(message.getText()).containsAll(terms))) {
+        filtered.add(message);
+      }
+    }
+    return filtered;
+  }
+
+  /**
+   * Parse a map tile ID of the form z/x/y.
+   *
+   * @param tile String tile ID
+   * @return BoundingBox of the tile, or null if the ID is invalid
+   */
+  private static BoundingBox getTileBoundingBox(String tile) {
+    String[] parts = tile == null ? new String[0] : tile.split("/");
+    if (parts.length != 3) {
+      return null;
+    }
+    try {
+      int zoom = Integer.parseInt(parts[0]);
+      int x = Integer.parseInt(parts[1]);
+      int y = Integer.parseInt(parts[2]);
+      if (zoom < 0 || zoom > Constants.BATCH_ENDPOINT_MAX_ZOOM
+          || x < 0 || x >= 1 << zoom || y < 0 || y >= 1 << zoom) {
+        return null;
+      }
+      return BoundingBox.fromTile(zoom, x, y);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static boolean isExplaining(Context ctx) {
+    return Boolean.parseBoolean(ctx.queryParam(Constants.EXPLAIN_QUERY_PARAM));
+  }
+
+  /**
+   * Get the write version a read must see from the token its client presented, waiting until
+   * every derived structure has applied that write. Tokens issued by another server or before a
+   * restart stand for no version of this server's writes, so they are read as any version rather
+   * than making every such read bypass, and replace, the cached results.
+   *
+   * @param ctx Context of the read
+   * @return Lowest acceptable write version, or -1 for any
+   * @throws DeadlineExceededException If the request deadline passes first
+   */
+  private long getReadVersion(Context ctx) {
+    String token = ctx.header(Constants.READ_VERSION_HEADER);
+    if (token == null) {
+      return -1;
+    }
+    long version;
+    try {
+      version = writeEvents.parseVersionToken(token);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+    if (version == MessageEventRing.UNKNOWN_VERSION) {
+      return -1;
+    }
+    if (!writeEvents.awaitProcessed(version, Deadline.current().getRemainingNanos())) {
+      throw new DeadlineExceededException();
+    }
+    RequestTrace.mark("await_writes");
+    return version;
+  }
+
+  /**
+   * Mark a response served from last known good results while the backend was unavailable. Age
+   * holds their age in seconds, as a cache would set it.
+   *
+   * @param ctx             Context of the response
+   * @param stalenessMillis Age of the oldest results in milliseconds, or -1 if none were stale
+   */
+  private static void setStalenessHeaders(Context ctx, long stalenessMillis) {
+    if (stalenessMillis >= 0) {
+      ctx.header("Age", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(stalenessMillis)));
+      ctx.header("Warning", "110 - \"Response is Stale\"");
+    }
+  }
+}
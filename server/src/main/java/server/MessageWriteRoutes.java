@@ -0,0 +1,301 @@
+package server;
+
+import com.google.cloud.Timestamp;
+import com.google.gson.Gson;
+import constants.Constants;
+import io.javalin.http.Context;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import limit.ConcurrencyLimitHandler;
+import message.Message;
+import message.MessageFinder;
+import message.MessagePoster;
+import pipeline.MessageEvent;
+import pipeline.MessageEventRing;
+import requests.MessageRequest;
+import responses.DeletePostResponse;
+import responses.NewPostResponse;
+import responses.NewPostsResponse;
+import responses.UpdatePostResponse;
+
+public class MessageWriteRoutes {
+  private static final Gson gson = new Gson();
+
+  private final MessageFinder messageFinder;
+  private final MessagePoster messagePoster;
+  private final MessageEventRing writeEvents;
+
+  /**
+   * Handlers of the routes writing messages. Successful writes are published to the write event
+   * ring, and answered with a version token reads can present to see them.
+   *
+   * @param messageFinder MessageFinder looking up the messages updated and deleted
+   * @param messagePoster MessagePoster saving the messages
+   * @param writeEvents   MessageEventRing feeding the structures derived from the messages
+   */
+  public MessageWriteRoutes(
+      MessageFinder messageFinder,
+      MessagePoster messagePoster,
+      MessageEventRing writeEvents
+  ) {
+    this.messageFinder = messageFinder;
+    this.messagePoster = messagePoster;
+    this.writeEvents = writeEvents;
+  }
+
+  /**
+   * Post a new message.
+   *
+   * @param ctx Context of the request
+   */
+  public void postNew(Context ctx) {
+    String userID = ctx.pathParam("user_id");
+    MessageRequest messageRequest = gson.fromJson(ctx.body(), MessageRequest.class);
+
+    NewPostResponse response;
+
+    UUID uuid = UUID.randomUUID();
+    Timestamp now = Timestamp.now();
+
+    response = messagePoster.postNewMessage(
+        uuid.toString(),
+        userID,
+        messageRequest.getImageUrl(),
+        messageRequest.getText(),
+        messageRequest.getLatitude(),
+        messageRequest.getLongitude(),
+        now
+    );
+
+    if (response.getResponseCode() == 201) {
+      Message message = new Message(
+          uuid.toString(),
+          messageRequest.getImageUrl(),
+          messageRequest.getLatitude(),
+          messageRequest.getLongitude(),
+          messageRequest.getText(),
+          now.toDate(),
+          userID
+      );
+      response = new NewPostResponse(
+          response.getResponseCode(),
+          response.getRecordId(),
+          response.getError(),
+          publishWrite(MessageEvent.Type.NEW, message.getId(), message, null)
+      );
+    }
+
+    reportBackendFailure(ctx, response.getResponseCode());
+    ctx.result(gson.toJson(response));
+  }
+
+  /**
+   * Post a batch of new messages, answering each with its own response.
+   *
+   * @param ctx Context of the request
+   */
+  public void postBatch(Context ctx) {
+    String userID = ctx.pathParam("user_id");
+    MessageRequest[] messageRequests = gson.fromJson(ctx.body(), MessageRequest[].class);
+
+    if (messageRequests == null) {
+      ctx.result(gson.toJson(new NewPostsResponse(400, new ArrayList<>(), "Invalid messages")));
+      return;
+    } else if (messageRequests.length > Constants.BATCH_POST_MAX_MESSAGES) {
+      ctx.result(gson.toJson(new NewPostsResponse(400, new ArrayList<>(), "Too many messages")));
+      return;
+    }
+
+    Timestamp now = Timestamp.now();
+    NewPostResponse[] results = new NewPostResponse[messageRequests.length];
+    List<Message> messages = new ArrayList<>();
+    List<Integer> positions = new ArrayList<>();
+
+    for (int i = 0; i < messageRequests.length; i++) {
+      MessageRequest messageRequest = messageRequests[i];
+      String error = getMessageRequestError(messageRequest);
+      if (error != null) {
+        results[i] = new NewPostResponse(400, null, error);
+      } else {
+        messages.add(new Message(
+            UUID.randomUUID().toString(),
+            messageRequest.getImageUrl(),
+            messageRequest.getLatitude(),
+            messageRequest.getLongitude(),
+            messageRequest.getText(),
+            now.toDate(),
+            userID
+        ));
+        positions.add(i);
+      }
+    }
+
+    List<NewPostResponse> written = messagePoster.postNewMessages(messages);
+    for (int i = 0; i < written.size(); i++) {
+      NewPostResponse response = written.get(i);
+      if (response.getResponseCode() == 201) {
+        Message message = messages.get(i);
+        response = new NewPostResponse(
+            response.getResponseCode(),
+            response.getRecordId(),
+            response.getError(),
+            publishWrite(MessageEvent.Type.NEW, message.getId(), message, null)
+        );
+      }
+      results[positions.get(i)] = response;
+      reportBackendFailure(ctx, response.getResponseCode());
+    }
+
+    ctx.result(gson.toJson(new NewPostsResponse(201, Arrays.asList(results), null)));
+  }
+
+  /**
+   * Update a message of the user.
+   *
+   * @param ctx Context of the request
+   * @throws Exception If the message can't be looked up
+   */
+  public void update(Context ctx) throws Exception {
+    // TODO validate user_id actually owns record_id
+    String userID = ctx.pathParam("user_id");
+    String recordID = ctx.pathParam("record_id");
+    MessageRequest messageRequest = gson.fromJson(ctx.body(), MessageRequest.class);
+
+    Message existing = checkUser(recordID, userID);
+
+    if (existing == null) {
+      UpdatePostResponse response = new UpdatePostResponse(404, "You do not own this post");
+      ctx.result(gson.toJson(response));
+      return;
+    }
+
+    Timestamp now = Timestamp.now();
+    UpdatePostResponse response = messagePoster.updateMessage(
+        recordID,
+        userID,
+        messageRequest.getImageUrl(),
+        messageRequest.getText(),
+        messageRequest.getLatitude(),
+        messageRequest.getLongitude(),
+        now
+    );
+
+    if (response.getResponseCode() == 201) {
+      Message message = new Message(
+          recordID,
+          messageRequest.getImageUrl(),
+          messageRequest.getLatitude(),
+          messageRequest.getLongitude(),
+          messageRequest.getText(),
+          now.toDate(),
+          userID
+      );
+      response = new UpdatePostResponse(
+          response.getResponseCode(),
+          response.getError(),
+          publishWrite(MessageEvent.Type.UPDATE, recordID, message, existing)
+      );
+    }
+
+    reportBackendFailure(ctx, response.getResponseCode());
+    ctx.result(gson.toJson(response));
+  }
+
+  /**
+   * Delete a message of the user.
+   *
+   * @param ctx Context of the request
+   * @throws Exception If the message can't be looked up
+   */
+  public void delete(Context ctx) throws Exception {
+    // TODO validate user_id actually owns record_id
+    String userId = ctx.pathParam("user_id");
+    String recordId = ctx.pathParam("record_id");
+
+    Message existing = checkUser(recordId, userId);
+
+    if (existing == null) {
+      DeletePostResponse response = new DeletePostResponse(404, "You do not own this post");
+      ctx.result(gson.toJson(response));
+      return;
+    }
+
+    DeletePostResponse response = messagePoster.deleteMessage(recordId);
+
+    if (response.getResponseCode() == 201) {
+      response = new DeletePostResponse(
+          response.getResponseCode(),
+          response.getError(),
+          publishWrite(MessageEvent.Type.DELETE, recordId, null, existing)
+      );
+    }
+
+    reportBackendFailure(ctx, response.getResponseCode());
+    ctx.result(gson.toJson(response));
+  }
+
+  /**
+   * Validate a message request in a batch of new messages.
+   *
+   * @param request MessageRequest to validate
+   * @return String describing the first invalid field, or null if the request is valid
+   */
+  private static String getMessageRequestError(MessageRequest request) {
+    if (request == null) {
+      return "Invalid message";
+    }
+
+    Double latitude = request.getLatitude();
+    Double longitude = request.getLongitude();
+
+    if (latitude == null || latitude < -90 || latitude > 90) {
+      return "Invalid latitude";
+    } else if (longitude == null || longitude < -180 || longitude > 180) {
+      return "Invalid longitude";
+    }
+    return null;
+  }
+
+  /**
+   * Report a write the backend failed to the route's concurrency limit. Such writes are answered
+   * with 200 and their response code in the body, so the limit can't tell them from the status.
+   *
+   * @param ctx          Context of the request
+   * @param responseCode Response code of the write
+   */
+  private static void reportBackendFailure(Context ctx, int responseCode) {
+    if (responseCode == 401) {
+      ConcurrencyLimitHandler.reportFailure(ctx);
+    }
+  }
+
+  /**
+   * Publish a successful write to the derived structures.
+   *
+   * @return String version token the client can present on reads to see the write
+   */
+  private String publishWrite(
+      MessageEvent.Type type,
+      String recordId,
+      Message message,
+      Message previous
+  ) {
+    return writeEvents.getVersionToken(writeEvents.publish(type, recordId, message, previous));
+  }
+
+  /**
+   * Look up a message and check that it belongs to a user.
+   *
+   * @param recordId String record ID of the message
+   * @param userId   String user ID that should own the message
+   * @return Message with the record ID, or null if it doesn't exist or belongs to another user
+   */
+  private Message checkUser(String recordId, String userId)
+      throws InterruptedException, ExecutionException {
+    Message message = messageFinder.findByRecordId(recordId);
+    return message != null && userId.equals(message.getUserId()) ? message : null;
+  }
+}
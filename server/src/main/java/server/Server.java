@@ -1,49 +1,67 @@
 package server;
 
-import com.google.api.core.ApiFuture;
+import capture.CapturingHandler;
+import capture.TrafficCapture;
 import com.google.auth.oauth2.GoogleCredentials;
-import com.google.cloud.Timestamp;
-import com.google.cloud.firestore.CollectionReference;
-import com.google.cloud.firestore.DocumentReference;
-import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.GeoPoint;
-import com.google.common.annotations.VisibleForTesting;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
 import com.google.firebase.cloud.FirestoreClient;
-import com.google.gson.Gson;
 import constants.Constants;
+import deadline.DeadlineHandler;
 import io.javalin.Javalin;
-import io.javalin.http.UploadedFile;
+import io.javalin.http.Handler;
 import java.io.ByteArrayInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
-import message.Message;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import limit.AimdConcurrencyLimit;
+import limit.Bulkhead;
+import limit.BulkheadHandler;
+import limit.CircuitBreaker;
+import limit.ConcurrencyLimitHandler;
+import message.BatchingMessageFinder;
+import message.BudgetedMessageSource;
+import message.CachingMessageFinder;
+import message.CircuitBreakerMessageFinder;
+import message.CoalescingMessageFinder;
 import message.MessageFinder;
 import message.MessageFinderImpl;
+import message.MessageIndex;
 import message.MessagePoster;
 import message.MessagePosterImpl;
-import requests.FindMessagesByBoundingBoxRequest;
-import requests.MessageRequest;
-import responses.DeletePostResponse;
-import responses.MessagesResponse;
-import responses.NewPostResponse;
-import responses.UpdatePostResponse;
-
+import message.MessageSource;
+import message.UserCachingMessageFinder;
+import metrics.InstrumentedHandler;
+import metrics.MetricsRegistry;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import pipeline.MessageEventRing;
+import tracing.SlowRequestLog;
+import tracing.TracedHandler;
 
 public class Server {
-  private static final Gson gson = new Gson();
+  private static final ViewportSubscriptions subscriptions = new ViewportSubscriptions();
+  private static final MetricsRegistry metrics = MetricsRegistry.getDefault();
 
   private static Javalin app;
-  private static MessageFinder messageFinder;
-  private static MessagePoster messagePoster;
-  private static Firestore firestore;
-  
+  private static SlowRequestLog slowRequestLog;
+  private static TrafficCapture trafficCapture;
+  private static MessageEventRing writeEvents;
+  // Set when the message index is loaded.
+  private static IndexedMessages indexedMessages;
+  // Read by the message index listener, which starts before setup creates it.
+  private static volatile UserCachingMessageFinder userCachingMessageFinder;
+  private static RouteClass reads;
+  private static RouteClass writes;
+  private static MessageReadRoutes readRoutes;
+  private static MessageWriteRoutes writeRoutes;
+
   private Server() {
   }
 
@@ -69,169 +87,407 @@ public class Server {
 
     FirebaseApp.initializeApp(firebaseOptions);
 
-    firestore = FirestoreClient.getFirestore();
+    Firestore firestore = FirestoreClient.getFirestore();
+    MessageFinderImpl messageFinderImpl = new MessageFinderImpl(firestore);
+    MessageSource messageSource = messageFinderImpl;
+    if (Boolean.parseBoolean(System.getenv(Constants.MESSAGE_INDEX_ENV_VAR))) {
+      indexedMessages = IndexedMessages.load(firestore, () -> userCachingMessageFinder);
+      messageSource = indexedMessages.getIndex();
+    }
 
-    app = Javalin.create().start(Constants.PORT);
-    messageFinder = new MessageFinderImpl(firestore);
-    messagePoster = new MessagePosterImpl(firestore);
+    // Deletes are recorded for servers resuming from a snapshot, which costs a second write.
+    boolean recordDeletes = IndexedMessages.getSnapshotFile() != null;
+    setup(
+        Constants.PORT,
+        messageFinderImpl,
+        messageSource,
+        new MessagePosterImpl(firestore, recordDeletes)
+    );
   }
 
   /**
-   * Start the server.
+   * Set up the server on a port with the passed backend, without connecting to Firebase. Used by
+   * the load testing harness to run against a stand-in backend.
+   *
+   * @param port          Port to listen on
+   * @param finder        MessageFinder answering user ID and record ID queries
+   * @param messageSource MessageSource scanned for bounding box queries
+   * @param poster        MessagePoster saving messages
+   * @throws IOException If traffic capture is enabled and its directory can't be created
    */
-  public static void start() {
-    app.post("/messages", ctx -> {
-      FindMessagesByBoundingBoxRequest request = gson.fromJson(
-          ctx.body(),
-          FindMessagesByBoundingBoxRequest.class
+  public static void setup(
+      int port,
+      MessageFinder finder,
+      MessageSource messageSource,
+      MessagePoster poster
+  ) throws IOException {
+    String captureDirectory = System.getenv(Constants.CAPTURE_DIR_ENV_VAR);
+    if (captureDirectory != null && !captureDirectory.isEmpty()) {
+      String salt = System.getenv(Constants.CAPTURE_SALT_ENV_VAR);
+      trafficCapture = new TrafficCapture(
+          Paths.get(captureDirectory),
+          Constants.CAPTURE_MAX_FILE_BYTES,
+          Constants.CAPTURE_MAX_FILES,
+          Constants.CAPTURE_QUEUE_SIZE,
+          salt == null ? "" : salt
       );
-
-      Double latitudeTop = request.getLatitudeTop();
-      Double latitudeBottom = request.getLatitudeBottom();
-      Double longitudeLeft = request.getLongitudeLeft();
-      Double longitudeRight = request.getLongitudeRight();
-      Integer maxRecords = request.getMaxRecords();
-
-      System.out.println("Getting messages for latitude_top " + latitudeTop + ", latitude_bottom "
-          + latitudeBottom + ", longitude_left " + longitudeLeft + ", longitude_right "
-          + longitudeRight + ", max_records " + maxRecords);
-
-      if (latitudeBottom == null || latitudeBottom < -90 || latitudeBottom > 90) {
-        ctx.result("Invalid latitude_bottom");
-      } else if (latitudeTop == null || latitudeTop < -90 || latitudeTop > 90) {
-        ctx.result("Invalid latitude_top");
-      } else if (longitudeLeft == null || longitudeLeft < -180 || longitudeLeft > 180) {
-        ctx.result("Invalid longitude_left");
-      } else if (longitudeRight == null || longitudeRight < -180 || longitudeRight > 180) {
-        ctx.result("Invalid longitude_right");
-      } else if (maxRecords == null || maxRecords < 0) {
-        ctx.result("Invalid max_records");
-      } else {
-        GeoPoint lesserPoint =
-            new GeoPoint(request.getLatitudeBottom(), request.getLongitudeLeft());
-        GeoPoint greaterPoint = new GeoPoint(request.getLatitudeTop(), request.getLongitudeRight());
-
-        boolean cross90Latitude = false;
-        boolean cross180Longitude = false;
-        if (lesserPoint.getLatitude() >= greaterPoint.getLatitude()) {
-          cross90Latitude = true;
-        }
-        if (lesserPoint.getLongitude() >= greaterPoint.getLongitude()) {
-          cross180Longitude = true;
+      // Keep captured bodies readable by the route handlers.
+      app = Javalin.create(config -> config.requestCacheSize = Constants.CAPTURE_MAX_BODY_BYTES)
+          .start(port);
+    } else {
+      app = Javalin.create().start(port);
+    }
+    BudgetedMessageSource budgetedMessageSource = new BudgetedMessageSource(
+        messageSource,
+        Constants.READ_BUDGET_DOCUMENTS,
+        Constants.READ_BUDGET_REFRESH_MILLIS,
+        Constants.READ_BUDGET_MAX_STALENESS_MILLIS,
+        Executors.newSingleThreadExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "message-source-refresh");
+          thread.setDaemon(true);
+          return thread;
+        })
+    );
+    // The index reads no documents, so only Firestore scans go through the read budget.
+    MessageSource scannedSource =
+        messageSource instanceof MessageIndex ? messageSource : budgetedMessageSource;
+    BatchingMessageFinder batchingMessageFinder = new BatchingMessageFinder(
+        finder,
+        scannedSource,
+        Constants.BATCH_QUERY_WINDOW_MILLIS,
+        Constants.BATCH_QUERY_THREADS
+    );
+    CoalescingMessageFinder coalescingMessageFinder = new CoalescingMessageFinder(
+        batchingMessageFinder,
+        Constants.COALESCING_TILE_DEGREES,
+        Constants.COALESCING_MAX_UNLIMITED_TILES
+    );
+    CircuitBreaker breaker = new CircuitBreaker(
+        Constants.BREAKER_WINDOW_SIZE,
+        Constants.BREAKER_MIN_CALLS,
+        Constants.BREAKER_FAILURE_RATE,
+        Constants.BREAKER_SLOW_CALL_MILLIS,
+        Constants.BREAKER_SLOW_CALL_RATE,
+        Constants.BREAKER_OPEN_MILLIS,
+        Constants.BREAKER_HALF_OPEN_PROBES
+    );
+    CachingMessageFinder cachingMessageFinder = new CachingMessageFinder(
+        coalescingMessageFinder,
+        Constants.COALESCING_TILE_DEGREES,
+        Constants.COALESCING_MAX_UNLIMITED_TILES,
+        Constants.READ_CACHE_TTL_MILLIS,
+        Constants.READ_CACHE_MAX_MESSAGES,
+        // Set below; every derived structure has applied the writes up to this version.
+        () -> writeEvents.getProcessedSequence()
+    );
+    userCachingMessageFinder = new UserCachingMessageFinder(
+        cachingMessageFinder,
+        Constants.USER_CACHE_MAX_USERS,
+        Constants.USER_CACHE_TTL_MILLIS,
+        () -> writeEvents.getProcessedSequence()
+    );
+    CircuitBreakerMessageFinder breakerMessageFinder = new CircuitBreakerMessageFinder(
+        userCachingMessageFinder,
+        breaker,
+        Constants.COALESCING_TILE_DEGREES,
+        Constants.COALESCING_MAX_UNLIMITED_TILES,
+        Constants.BREAKER_CACHE_MAX_MESSAGES,
+        Constants.BREAKER_REVALIDATE_MILLIS,
+        Constants.READ_TIMEOUT_MILLIS,
+        new ThreadPoolExecutor(
+            Constants.BREAKER_REFRESH_THREADS,
+            Constants.BREAKER_REFRESH_THREADS,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Constants.BREAKER_REFRESH_QUEUE_SIZE),
+            runnable -> {
+              Thread thread = new Thread(runnable, "message-finder-refresh");
+              thread.setDaemon(true);
+              return thread;
+            }
+        )
+    );
+    writeEvents = WriteEvents.start(
+        scannedSource,
+        indexedMessages,
+        userCachingMessageFinder,
+        breakerMessageFinder,
+        subscriptions
+    );
+    ExecutorService batchQueryExecutor = Executors.newFixedThreadPool(
+        Constants.BATCH_ENDPOINT_THREADS,
+        runnable -> {
+          Thread thread = new Thread(runnable, "batch-query");
+          thread.setDaemon(true);
+          return thread;
         }
+    );
+    readRoutes = new MessageReadRoutes(
+        breakerMessageFinder,
+        indexedMessages,
+        batchQueryExecutor,
+        writeEvents
+    );
+    writeRoutes = new MessageWriteRoutes(breakerMessageFinder, poster, writeEvents);
+
+    reads = new RouteClass(
+        new AimdConcurrencyLimit(
+            Constants.READ_LIMIT_INITIAL,
+            Constants.READ_LIMIT_MIN,
+            Constants.READ_LIMIT_MAX,
+            Constants.LIMIT_BACKOFF_RATIO,
+            Constants.LIMIT_LATENCY_TOLERANCE,
+            Constants.LIMIT_BASELINE_WINDOW,
+            Constants.LIMIT_BASELINE_PERCENTILE
+        ),
+        newBulkhead("read", Constants.READ_BULKHEAD_THREADS, Constants.READ_BULKHEAD_QUEUE_SIZE),
+        Constants.READ_TIMEOUT_MILLIS
+    );
+    writes = new RouteClass(
+        new AimdConcurrencyLimit(
+            Constants.WRITE_LIMIT_INITIAL,
+            Constants.WRITE_LIMIT_MIN,
+            Constants.WRITE_LIMIT_MAX,
+            Constants.LIMIT_BACKOFF_RATIO,
+            Constants.LIMIT_LATENCY_TOLERANCE,
+            Constants.LIMIT_BASELINE_WINDOW,
+            Constants.LIMIT_BASELINE_PERCENTILE
+        ),
+        newBulkhead("write", Constants.WRITE_BULKHEAD_THREADS, Constants.WRITE_BULKHEAD_QUEUE_SIZE),
+        Constants.WRITE_TIMEOUT_MILLIS
+    );
+
+    slowRequestLog = new SlowRequestLog(
+        Constants.TRACE_SLOW_REQUEST_MILLIS,
+        Constants.TRACE_SAMPLE_RATE,
+        Constants.TRACE_LOG_QUEUE_SIZE
+    );
+
+    registerMetrics(
+        breaker,
+        breakerMessageFinder,
+        cachingMessageFinder,
+        userCachingMessageFinder,
+        coalescingMessageFinder,
+        batchingMessageFinder,
+        budgetedMessageSource
+    );
+  }
 
-        List<Message> messages = messageFinder.findByBoundingBox(
-            lesserPoint,
-            greaterPoint,
-            maxRecords,
-            cross90Latitude,
-            cross180Longitude
-        );
-
-        ctx.result(gson.toJson(new MessagesResponse(messages)));
-      }
-    });
-
-    app.post("/messages/:user_id", ctx -> {
-      String userId = ctx.pathParam("user_id");
-
-      System.out.println("Getting messages for user_id " + userId);
-      List<Message> messages = messageFinder.findByUserId(userId);
-
-      ctx.result(gson.toJson(new MessagesResponse(messages)));
-    });
-
-    app.post("/messages/:user_id/new", ctx -> {
-
-      String userID = ctx.pathParam("user_id");
-      MessageRequest messageRequest = gson.fromJson(ctx.body(), MessageRequest.class);
-
-      System.out.println("Creating new message for user " + userID);
-
-      NewPostResponse response;
-
-      UUID uuid = UUID.randomUUID();
-
-      response = messagePoster.postNewMessage(
-          uuid.toString(),
-          userID,
-          messageRequest.getImageUrl(),
-          messageRequest.getText(),
-          messageRequest.getLatitude(),
-          messageRequest.getLongitude(),
-          Timestamp.now()
-      );
-
-      ctx.result(gson.toJson(response));
-    });
-
-    app.post("/messages/:user_id/update/:record_id", ctx -> {
-      // TODO validate user_id actually owns record_id
-      String userID = ctx.pathParam("user_id");
-      String recordID = ctx.pathParam("record_id");
-      MessageRequest messageRequest = gson.fromJson(ctx.body(), MessageRequest.class);
-
-      Map<String, Object> values = checkUser(recordID);
-
-      if (!values.get(Message.FS_USER_ID_FIELD_NAME).equals(userID)) {
-        UpdatePostResponse response = new UpdatePostResponse(404, "You do not own this post");
-        ctx.result(gson.toJson(response));
-        return;
-      }
-
-      System.out.println("Updating message " + recordID + " for user " + userID);
-
-      UpdatePostResponse response = messagePoster.updateMessage(
-          recordID,
-          userID,
-          messageRequest.getImageUrl(),
-          messageRequest.getText(),
-          messageRequest.getLatitude(),
-          messageRequest.getLongitude(),
-          Timestamp.now()
-      );
-
-      ctx.result(gson.toJson(response));
-
-    });
-
-    app.post("/messages/:user_id/delete/:record_id", ctx -> {
-
-      // TODO validate user_id actually owns record_id
-      String userId = ctx.pathParam("user_id");
-      String recordId = ctx.pathParam("record_id");
-
-      Map<String, Object> values = checkUser(recordId);;
-
-      if (!values.get(Message.FS_USER_ID_FIELD_NAME).equals(userId)) {
-        DeletePostResponse response = new DeletePostResponse(404, "You do not own this post");
-        ctx.result(gson.toJson(response));
-        return;
-      }
-
-      System.out.println("Deleting message " + recordId + " from user " + userId);
+  private static void registerMetrics(
+      CircuitBreaker breaker,
+      CircuitBreakerMessageFinder breakerMessageFinder,
+      CachingMessageFinder cachingMessageFinder,
+      UserCachingMessageFinder userCachingMessageFinder,
+      CoalescingMessageFinder coalescingMessageFinder,
+      BatchingMessageFinder batchingMessageFinder,
+      BudgetedMessageSource budgetedMessageSource
+  ) {
+    ThreadPool threadPool = app.server().server().getThreadPool();
+    if (threadPool instanceof QueuedThreadPool) {
+      QueuedThreadPool queuedThreadPool = (QueuedThreadPool) threadPool;
+      metrics.registerGauge("jetty_threads", "Number of Jetty threads",
+          queuedThreadPool::getThreads);
+      metrics.registerGauge("jetty_threads_busy", "Number of Jetty threads serving requests",
+          queuedThreadPool::getBusyThreads);
+      metrics.registerGauge("jetty_threads_max", "Maximum number of Jetty threads",
+          queuedThreadPool::getMaxThreads);
+      metrics.registerGauge("jetty_queue_size", "Number of jobs waiting for a Jetty thread",
+          queuedThreadPool::getQueueSize);
+    }
 
-      DeletePostResponse response = messagePoster.deleteMessage(recordId);
+    metrics.registerCounter("message_finder_requests_total",
+        "Number of message queries received", coalescingMessageFinder::getRequestCount);
+    metrics.registerCounter("message_finder_backend_calls_total",
+        "Number of message queries left after coalescing",
+        coalescingMessageFinder::getBackendCallCount);
+    metrics.registerGauge("circuit_breaker_state",
+        "State of the message query circuit breaker: 0 closed, 1 open, 2 half open",
+        () -> breaker.getState().ordinal());
+    metrics.registerCounter("circuit_breaker_opened_total",
+        "Number of times the message query circuit breaker opened", breaker::getOpenCount);
+    metrics.registerCounter("message_finder_stale_responses_total",
+        "Number of message queries answered with last known good results",
+        breakerMessageFinder::getStaleCount);
+    metrics.registerCounter("message_finder_rejected_total",
+        "Number of message queries failed by the open circuit breaker without cached results",
+        breakerMessageFinder::getRejectedCount);
+    metrics.registerCounter("message_finder_refreshes_total",
+        "Number of background refreshes of stale message query results",
+        breakerMessageFinder::getRefreshCount);
+    metrics.registerCounter("message_cache_lookups_total",
+        "Number of bounding box queries looked up in the result cache, by outcome",
+        cachingMessageFinder::getHitCount, "outcome", "hit");
+    metrics.registerCounter("message_cache_lookups_total",
+        "Number of bounding box queries looked up in the result cache, by outcome",
+        cachingMessageFinder::getMissCount, "outcome", "miss");
+    metrics.registerCounter("message_cache_lookups_total",
+        "Number of bounding box queries looked up in the result cache, by outcome",
+        cachingMessageFinder::getBypassCount, "outcome", "bypass");
+    metrics.registerCounter("user_message_cache_lookups_total",
+        "Number of user ID queries looked up in the user message cache, by outcome",
+        userCachingMessageFinder::getHitCount, "outcome", "hit");
+    metrics.registerCounter("user_message_cache_lookups_total",
+        "Number of user ID queries looked up in the user message cache, by outcome",
+        userCachingMessageFinder::getMissCount, "outcome", "miss");
+    metrics.registerCounter("user_message_cache_lookups_total",
+        "Number of user ID queries looked up in the user message cache, by outcome",
+        userCachingMessageFinder::getBypassCount, "outcome", "bypass");
+    metrics.registerGauge("user_message_cache_users", "Number of users with a cached message list",
+        userCachingMessageFinder::getUserCount);
+    metrics.registerGauge("user_message_cache_messages",
+        "Number of messages held in the user message cache",
+        userCachingMessageFinder::getMessageCount);
+    metrics.registerGauge("user_message_cache_bytes",
+        "Estimated memory held by the user message cache in bytes",
+        userCachingMessageFinder::getEstimatedBytes);
+    metrics.registerCounter("message_finder_batches_total",
+        "Number of shared scans answering bounding box queries",
+        batchingMessageFinder::getBatchCount);
+    metrics.registerCounter("message_finder_batched_queries_total",
+        "Number of bounding box queries answered by shared scans",
+        batchingMessageFinder::getQueryCount);
+    metrics.registerCounter("message_source_answers_total",
+        "Number of message scans, by how the read budget let them be answered",
+        budgetedMessageSource::getFullScanCount, "answer", "full_scan");
+    metrics.registerCounter("message_source_answers_total",
+        "Number of message scans, by how the read budget let them be answered",
+        budgetedMessageSource::getCachedCount, "answer", "cached");
+    metrics.registerCounter("message_source_answers_total",
+        "Number of message scans, by how the read budget let them be answered",
+        budgetedMessageSource::getSampledCount, "answer", "sampled");
+    metrics.registerCounter("message_source_answers_total",
+        "Number of message scans, by how the read budget let them be answered",
+        budgetedMessageSource::getAwaitedScanCount, "answer", "awaited_scan");
+    metrics.registerCounter("message_source_refreshes_total",
+        "Number of background refreshes of the cached message scan",
+        budgetedMessageSource::getRefreshCount);
+    metrics.registerGauge("viewport_subscribers", "Number of viewport subscriptions",
+        subscriptions::getSubscriberCount);
+    metrics.registerCounter("slow_request_log_dropped_total",
+        "Number of request traces dropped because the log queue was full",
+        slowRequestLog::getDroppedCount);
+    metrics.registerCounter("write_events_published_total",
+        "Number of write events published to the event ring", () -> writeEvents.getCursor() + 1);
+    metrics.registerCounter("write_events_ring_full_total",
+        "Number of writes that waited for a handler because the event ring was full",
+        writeEvents::getFullCount);
+    for (String handler : writeEvents.getHandlerNames()) {
+      metrics.registerGauge("write_event_handler_lag",
+          "Number of write events a handler has yet to apply",
+          () -> writeEvents.getLag(handler), "handler", handler);
+      metrics.registerCounter("write_event_handler_errors_total",
+          "Number of write events a handler failed to apply",
+          () -> writeEvents.getErrorCount(handler), "handler", handler);
+    }
+    registerLimitMetrics("read", reads.limit);
+    registerLimitMetrics("write", writes.limit);
+    if (trafficCapture != null) {
+      metrics.registerCounter("traffic_capture_records_total",
+          "Number of requests written to the traffic capture", trafficCapture::getRecordCount);
+      metrics.registerCounter("traffic_capture_dropped_total",
+          "Number of requests dropped from the traffic capture", trafficCapture::getDroppedCount);
+    }
+  }
 
-      ctx.result(gson.toJson(response));
+  private static Bulkhead newBulkhead(String pool, int threads, int queueSize) {
+    Bulkhead bulkhead = new Bulkhead(pool, threads, queueSize, metrics.getHistogram(
+        "bulkhead_queue_wait_seconds",
+        "Time requests waited for a bulkhead thread",
+        "pool", pool
+    ));
+    metrics.registerGauge("bulkhead_active_threads", "Number of bulkhead threads serving requests",
+        bulkhead::getActiveCount, "pool", pool);
+    metrics.registerGauge("bulkhead_queue_size", "Number of requests waiting for a bulkhead thread",
+        bulkhead::getQueueSize, "pool", pool);
+    metrics.registerCounter("bulkhead_rejected_total",
+        "Number of requests rejected with 503 because the bulkhead was full",
+        bulkhead::getRejectedCount, "pool", pool);
+    return bulkhead;
+  }
 
-    });
+  private static void registerLimitMetrics(String routeClass, AimdConcurrencyLimit limit) {
+    metrics.registerGauge("concurrency_limit", "Current adaptive concurrency limit",
+        limit::getLimit, "route_class", routeClass);
+    metrics.registerGauge("concurrency_limit_in_flight", "Number of requests holding a slot",
+        limit::getInFlight, "route_class", routeClass);
+    metrics.registerCounter("concurrency_limit_rejected_total",
+        "Number of requests rejected with 503 by the concurrency limit",
+        limit::getRejectedCount, "route_class", routeClass);
+  }
 
+  private static void post(String path, RouteClass routeClass, Handler handler) {
+    Handler isolated = new BulkheadHandler(
+        routeClass.bulkhead,
+        path,
+        Constants.LIMIT_RETRY_AFTER_SECONDS,
+        handler
+    );
+    // The deadline covers the time queued for a bulkhead thread.
+    Handler bounded =
+        new DeadlineHandler(routeClass.timeoutMillis, Constants.MAX_TIMEOUT_MILLIS, isolated);
+    // The limit measures latency including the time queued for a bulkhead thread.
+    Handler limited =
+        new ConcurrencyLimitHandler(routeClass.limit, Constants.LIMIT_RETRY_AFTER_SECONDS, bounded);
+    // Requests are captured before the limit so rejected ones are replayed too.
+    Handler captured = trafficCapture == null
+        ? limited
+        : new CapturingHandler(trafficCapture, path, Constants.CAPTURE_MAX_BODY_BYTES, limited);
+    app.post(path, new InstrumentedHandler(
+        metrics,
+        "POST",
+        path,
+        new TracedHandler(metrics, slowRequestLog, "POST", path, captured)
+    ));
   }
 
-  private static Map<String, Object> checkUser(String recordId) throws
-          InterruptedException, java.util.concurrent.ExecutionException {
-    CollectionReference messagesCollection = firestore.collection(Constants.COLLECTION_PATH);
-    DocumentReference docRef = messagesCollection.document(recordId);
-    ApiFuture<DocumentSnapshot> future = docRef.get();
-    DocumentSnapshot doc = future.get();
+  /**
+   * Start the server.
+   */
+  public static void start() {
+    post("/messages", reads, readRoutes::findByBoundingBox);
+    post("/density", reads, readRoutes::getDensity);
+    // Registered before /messages/:user_id, which would otherwise match it.
+    post("/messages/search", reads, readRoutes::search);
+    post("/messages/batch", reads, readRoutes::findBatch);
+    post("/messages/:user_id", reads, readRoutes::findByUserId);
+    post("/messages/:user_id/new", writes, writeRoutes::postNew);
+    post("/messages/:user_id/batch", writes, writeRoutes::postBatch);
+    post("/messages/:user_id/update/:record_id", writes, writeRoutes::update);
+    post("/messages/:user_id/delete/:record_id", writes, writeRoutes::delete);
+
+    app.get("/metrics", ctx -> {
+      ctx.contentType("text/plain; version=0.0.4");
+      ctx.result(metrics.scrape());
+    });
 
-    Map<String, Object> values = doc.getData();
-    return values;
+    app.ws("/messages/subscribe", subscriptions::handle);
   }
 
+  /**
+   * Stop the server, then finish writing the traffic capture and message snapshot if enabled.
+   */
   public static void stop() {
     app.stop();
+    try {
+      writeEvents.shutdown();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (indexedMessages != null) {
+      try {
+        indexedMessages.shutdown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (trafficCapture != null) {
+      try {
+        trafficCapture.shutdown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
   }
 
   /**
@@ -243,5 +499,18 @@ public class Server {
   public static void main(String[] args) throws IOException {
     setup();
     start();
+    Runtime.getRuntime().addShutdownHook(new Thread(Server::stop, "server-shutdown"));
+  }
+
+  private static final class RouteClass {
+    final AimdConcurrencyLimit limit;
+    final Bulkhead bulkhead;
+    final long timeoutMillis;
+
+    RouteClass(AimdConcurrencyLimit limit, Bulkhead bulkhead, long timeoutMillis) {
+      this.limit = limit;
+      this.bulkhead = bulkhead;
+      this.timeoutMillis = timeoutMillis;
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package server;
+
+import com.google.cloud.firestore.GeoPoint;
+import com.google.gson.Gson;
+import constants.Constants;
+import io.javalin.websocket.WsHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import message.Message;
+import pipeline.MessageEvent;
+import requests.FindMessagesByBoundingBoxRequest;
+import responses.MessageEventResponse;
+import subscription.ViewportSubscriber;
+import subscription.ViewportSubscriptionIndex;
+
+public class ViewportSubscriptions {
+  private static final Gson gson = new Gson();
+  private static final String RESYNC_PAYLOAD =
+      gson.toJson(new MessageEventResponse(MessageEventResponse.TYPE_RESYNC, null, null));
+
+  private final ViewportSubscriptionIndex subscriptionIndex = new ViewportSubscriptionIndex();
+  private final Map<String, ViewportSubscriber> subscribers = new ConcurrentHashMap<>();
+
+  /**
+   * WebSocket endpoint pushing message events to the clients whose viewport they fall in. Each
+   * message a client sends is a bounding box request replacing its viewport.
+   *
+   * @param ws WsHandler of the endpoint
+   */
+  public void handle(WsHandler ws) {
+    ws.onConnect(ctx -> subscribers.put(
+        ctx.getSessionId(),
+        new ViewportSubscriber(ctx.session, Constants.SUBSCRIBER_MAX_PENDING_MESSAGES,
+            RESYNC_PAYLOAD)
+    ));
+
+    ws.onMessage(ctx -> {
+      ViewportSubscriber subscriber = subscribers.get(ctx.getSessionId());
+      FindMessagesByBoundingBoxRequest request = gson.fromJson(
+          ctx.message(),
+          FindMessagesByBoundingBoxRequest.class
+      );
+
+      String error = BoundingBoxRequests.getBoundingBoxError(request);
+      if (error != null) {
+        ctx.send(error);
+      } else if (subscriber != null) {
+        subscriptionIndex.subscribe(subscriber, BoundingBoxRequests.getBoundingBox(request));
+      }
+    });
+
+    ws.onClose(ctx -> {
+      ViewportSubscriber subscriber = subscribers.remove(ctx.getSessionId());
+      if (subscriber != null) {
+        subscriptionIndex.unsubscribe(subscriber);
+      }
+    });
+  }
+
+  /**
+   * Push a write event to the subscribers whose viewport holds the message, before or after it.
+   *
+   * @param event MessageEvent of the write
+   */
+  public void publish(MessageEvent event) {
+    if (subscriptionIndex.getSubscriberCount() == 0) {
+      return;
+    }
+    Message message = event.getMessage();
+    Message previous = event.getPrevious();
+    String type;
+    if (event.getType() == MessageEvent.Type.NEW) {
+      type = MessageEventResponse.TYPE_NEW;
+    } else if (event.getType() == MessageEvent.Type.UPDATE) {
+      type = MessageEventResponse.TYPE_UPDATE;
+    } else {
+      type = MessageEventResponse.TYPE_DELETE;
+    }
+    // Notify viewports around the old location too, so moved and deleted markers disappear there.
+    List<GeoPoint> locations = new ArrayList<>();
+    if (previous != null) {
+      locations.add(new GeoPoint(previous.getLatitude(), previous.getLongitude()));
+    }
+    if (message != null) {
+      locations.add(new GeoPoint(message.getLatitude(), message.getLongitude()));
+    }
+    subscriptionIndex.publish(
+        gson.toJson(new MessageEventResponse(type, message, event.getRecordId())),
+        locations.toArray(new GeoPoint[0])
+    );
+  }
+
+  public int getSubscriberCount() {
+    return subscriptionIndex.getSubscriberCount();
+  }
+}
@@ -0,0 +1,125 @@
+package server;
+
+import com.google.cloud.firestore.GeoPoint;
+import constants.Constants;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import message.BudgetedMessageSource;
+import message.CircuitBreakerMessageFinder;
+import message.Message;
+import message.MessageIndex;
+import message.MessageSource;
+import message.UserCachingMessageFinder;
+import pipeline.MessageEvent;
+import pipeline.MessageEventRing;
+
+public final class WriteEvents {
+
+  private WriteEvents() {
+  }
+
+  /**
+   * Start the ring of write events feeding the structures derived from the messages, each on its
+   * own thread so writes don't wait for them.
+   *
+   * @param messageSource            MessageSource scanned for bounding box queries
+   * @param indexedMessages          IndexedMessages derived from the message index, or null
+   * @param userCachingMessageFinder UserCachingMessageFinder holding message lists by user
+   * @param breakerMessageFinder     CircuitBreakerMessageFinder holding last known good results
+   * @param subscriptions            ViewportSubscriptions pushed every write
+   * @return Started MessageEventRing
+   */
+  public static MessageEventRing start(
+      MessageSource messageSource,
+      IndexedMessages indexedMessages,
+      UserCachingMessageFinder userCachingMessageFinder,
+      CircuitBreakerMessageFinder breakerMessageFinder,
+      ViewportSubscriptions subscriptions
+  ) {
+    MessageEventRing ring =
+        new MessageEventRing(Constants.WRITE_EVENT_RING_SIZE, Constants.WRITE_EVENT_IDLE_MICROS);
+    ring.addHandler("subscriptions", (event, sequence, endOfBatch) -> subscriptions.publish(event));
+
+    List<String> userIds = new ArrayList<>();
+    List<GeoPoint> locations = new ArrayList<>();
+    ring.addHandler("fallback_cache", (event, sequence, endOfBatch) -> {
+      for (Message message : new Message[]{event.getMessage(), event.getPrevious()}) {
+        if (message != null) {
+          userIds.add(message.getUserId());
+          locations.add(new GeoPoint(message.getLatitude(), message.getLongitude()));
+        }
+      }
+      if (endOfBatch) {
+        breakerMessageFinder.invalidate(userIds, locations);
+        userIds.clear();
+        locations.clear();
+      }
+    });
+
+    if (indexedMessages != null) {
+      addApplyHandler(ring, "density", indexedMessages.getDensityPyramid()::apply);
+    }
+
+    List<Message> userUpserts = new ArrayList<>();
+    List<Message> userRemoved = new ArrayList<>();
+    ring.addHandler("user_cache", (event, sequence, endOfBatch) -> {
+      if (event.getType() == MessageEvent.Type.DELETE) {
+        // A message both removed and upserted in one apply is kept, so drop its earlier upserts.
+        userUpserts.removeIf(message -> message.getId().equals(event.getRecordId()));
+        userRemoved.add(event.getPrevious());
+      } else {
+        userUpserts.add(event.getMessage());
+      }
+      if (endOfBatch) {
+        userCachingMessageFinder.apply(userUpserts, userRemoved);
+        userUpserts.clear();
+        userRemoved.clear();
+      }
+    });
+
+    if (indexedMessages != null) {
+      addApplyHandler(ring, "bitmap_index", indexedMessages.getBitmapIndex()::apply);
+    }
+    if (messageSource instanceof MessageIndex) {
+      // Writes show up in the index before the Firestore listener delivers them.
+      addApplyHandler(ring, "index", ((MessageIndex) messageSource)::apply);
+    } else if (messageSource instanceof BudgetedMessageSource) {
+      // Reads waiting for a write find it in the cached scan instead of scanning again.
+      addApplyHandler(ring, "budgeted_scan", ((BudgetedMessageSource) messageSource)::apply);
+    }
+
+    ring.start();
+    return ring;
+  }
+
+  /**
+   * Add a handler applying each batch of write events as upserts and removed record IDs.
+   *
+   * @param ring  MessageEventRing to add the handler to
+   * @param name  Name of the handler
+   * @param apply Applies the upserts and removed record IDs, keeping messages both removed and
+   *              upserted
+   */
+  private static void addApplyHandler(
+      MessageEventRing ring,
+      String name,
+      BiConsumer<List<Message>, List<String>> apply
+  ) {
+    List<Message> upserts = new ArrayList<>();
+    List<String> removedIds = new ArrayList<>();
+    ring.addHandler(name, (event, sequence, endOfBatch) -> {
+      if (event.getType() == MessageEvent.Type.DELETE) {
+        upserts.removeIf(message -> message.getId().equals(event.getRecordId()));
+        removedIds.add(event.getRecordId());
+      } else {
+        upserts.add(event.getMessage());
+      }
+      if (endOfBatch) {
+        apply.accept(upserts, removedIds);
+        upserts.clear();
+        removedIds.clear();
+      }
+    });
+  }
+}
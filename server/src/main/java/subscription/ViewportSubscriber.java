@@ -0,0 +1,93 @@
+package subscription;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import message.BoundingBox;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+public class ViewportSubscriber {
+  private final Session session;
+  private final int maxPendingMessages;
+  private final String resyncPayload;
+  private final AtomicInteger pendingMessages = new AtomicInteger();
+  private final AtomicLong droppedMessages = new AtomicLong();
+  private final AtomicBoolean needsResync = new AtomicBoolean();
+
+  private volatile BoundingBox viewport;
+  // Cells of the subscription index holding this subscriber, guarded by this.
+  private int[] cells = new int[0];
+
+  /**
+   * WebSocket connection subscribed to message events inside a viewport. Pushes are written
+   * asynchronously; once more than maxPendingMessages writes are in flight further events are
+   * dropped and a single resync event is sent when the connection catches up, so a slow client
+   * never holds up the write path or buffers without bound.
+   *
+   * @param session            Jetty WebSocket session of the subscriber
+   * @param maxPendingMessages Maximum number of in-flight writes before events are dropped
+   * @param resyncPayload      String payload telling the client to re-query its viewport
+   */
+  public ViewportSubscriber(Session session, int maxPendingMessages, String resyncPayload) {
+    this.session = session;
+    this.maxPendingMessages = maxPendingMessages;
+    this.resyncPayload = resyncPayload;
+  }
+
+  public BoundingBox getViewport() {
+    return viewport;
+  }
+
+  void setViewport(BoundingBox viewport) {
+    this.viewport = viewport;
+  }
+
+  synchronized int[] getCells() {
+    return cells;
+  }
+
+  synchronized void setCells(int[] cells) {
+    this.cells = cells;
+  }
+
+  public int getPendingMessages() {
+    return pendingMessages.get();
+  }
+
+  public long getDroppedMessages() {
+    return droppedMessages.get();
+  }
+
+  /**
+   * Queue a payload for asynchronous delivery to the subscriber.
+   *
+   * @param payload String payload to send
+   * @return True if the payload was handed to the connection, false if it was dropped
+   */
+  public boolean offer(String payload) {
+    if (!session.isOpen()) {
+      return false;
+    }
+    if (pendingMessages.incrementAndGet() > maxPendingMessages) {
+      pendingMessages.decrementAndGet();
+      droppedMessages.incrementAndGet();
+      needsResync.set(true);
+      return false;
+    }
+    session.getRemote().sendString(payload, new WriteCallback() {
+      @Override
+      public void writeFailed(Throwable x) {
+        pendingMessages.decrementAndGet();
+      }
+
+      @Override
+      public void writeSuccess() {
+        if (pendingMessages.decrementAndGet() == 0 && needsResync.compareAndSet(true, false)) {
+          offer(resyncPayload);
+        }
+      }
+    });
+    return true;
+  }
+}
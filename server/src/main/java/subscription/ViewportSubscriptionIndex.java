@@ -0,0 +1,166 @@
+package subscription;
+
+import com.google.cloud.firestore.GeoPoint;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import message.BoundingBox;
+
+public class ViewportSubscriptionIndex {
+  @VisibleForTesting
+  static final int CELL_DEGREES = 5;
+  private static final int ROWS = 180 / CELL_DEGREES;
+  private static final int COLUMNS = 360 / CELL_DEGREES;
+
+  // Grid of subscriber sets; each subscriber is held in every cell its viewport overlaps, so a
+  // write only has to look at the subscribers registered in the cell it lands in.
+  private final List<Set<ViewportSubscriber>> cells;
+  private final AtomicInteger subscriberCount = new AtomicInteger();
+
+  /**
+   * Spatial index of viewport subscriptions.
+   */
+  public ViewportSubscriptionIndex() {
+    cells = new ArrayList<>(ROWS * COLUMNS);
+    for (int i = 0; i < ROWS * COLUMNS; i++) {
+      cells.add(ConcurrentHashMap.newKeySet());
+    }
+  }
+
+  /**
+   * Subscribe to events inside a viewport, replacing any previous viewport of the subscriber.
+   *
+   * @param subscriber ViewportSubscriber to register
+   * @param viewport   BoundingBox the subscriber is interested in
+   */
+  public void subscribe(ViewportSubscriber subscriber, BoundingBox viewport) {
+    synchronized (subscriber) {
+      int[] previousCells = subscriber.getCells();
+      if (previousCells.length == 0) {
+        subscriberCount.incrementAndGet();
+      }
+      for (int cell : previousCells) {
+        cells.get(cell).remove(subscriber);
+      }
+      int[] newCells = getCells(viewport);
+      subscriber.setViewport(viewport);
+      subscriber.setCells(newCells);
+      for (int cell : newCells) {
+        cells.get(cell).add(subscriber);
+      }
+    }
+  }
+
+  /**
+   * Remove a subscriber from the index.
+   *
+   * @param subscriber ViewportSubscriber to remove
+   */
+  public void unsubscribe(ViewportSubscriber subscriber) {
+    synchronized (subscriber) {
+      int[] previousCells = subscriber.getCells();
+      if (previousCells.length > 0) {
+        subscriberCount.decrementAndGet();
+      }
+      for (int cell : previousCells) {
+        cells.get(cell).remove(subscriber);
+      }
+      subscriber.setCells(new int[0]);
+    }
+  }
+
+  /**
+   * Push a payload to every subscriber whose viewport contains any of the passed locations. A
+   * subscriber matching several locations (e.g. a message moved within its viewport) receives
+   * the payload once.
+   *
+   * @param payload   String payload to push
+   * @param locations GeoPoints affected by the event
+   * @return Number of subscribers the payload was handed to
+   */
+  public int publish(String payload, GeoPoint... locations) {
+    Set<ViewportSubscriber> matched = new HashSet<>();
+    for (GeoPoint location : locations) {
+      double latitude = location.getLatitude();
+      double longitude = location.getLongitude();
+      for (ViewportSubscriber subscriber : cells.get(getCell(latitude, longitude))) {
+        BoundingBox viewport = subscriber.getViewport();
+        if (viewport != null && viewport.contains(latitude, longitude)) {
+          matched.add(subscriber);
+        }
+      }
+    }
+
+    int delivered = 0;
+    for (ViewportSubscriber subscriber : matched) {
+      if (subscriber.offer(payload)) {
+        delivered++;
+      }
+    }
+    return delivered;
+  }
+
+  public int getSubscriberCount() {
+    return subscriberCount.get();
+  }
+
+  @VisibleForTesting
+  static int getCell(double latitude, double longitude) {
+    return getRow(latitude) * COLUMNS + getColumn(longitude);
+  }
+
+  @VisibleForTesting
+  static int[] getCells(BoundingBox viewport) {
+    List<int[]> rowRanges = getRanges(
+        getRow(viewport.getLesserPoint().getLatitude()),
+        getRow(viewport.getGreaterPoint().getLatitude()),
+        ROWS,
+        viewport.isCrossing90Latitude()
+    );
+    List<int[]> columnRanges = getRanges(
+        getColumn(viewport.getLesserPoint().getLongitude()),
+        getColumn(viewport.getGreaterPoint().getLongitude()),
+        COLUMNS,
+        viewport.isCrossing180Longitude()
+    );
+
+    Set<Integer> result = new HashSet<>();
+    for (int[] rows : rowRanges) {
+      for (int row = rows[0]; row <= rows[1]; row++) {
+        for (int[] columns : columnRanges) {
+          for (int column = columns[0]; column <= columns[1]; column++) {
+            result.add(row * COLUMNS + column);
+          }
+        }
+      }
+    }
+    return result.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static List<int[]> getRanges(int lesser, int greater, int size, boolean wraps) {
+    List<int[]> ranges = new ArrayList<>(2);
+    if (wraps) {
+      ranges.add(new int[]{0, lesser});
+      ranges.add(new int[]{greater, size - 1});
+    } else {
+      ranges.add(new int[]{lesser, greater});
+    }
+    return ranges;
+  }
+
+  private static int getRow(double latitude) {
+    return clamp((int) Math.floor((latitude + 90) / CELL_DEGREES), ROWS);
+  }
+
+  private static int getColumn(double longitude) {
+    return clamp((int) Math.floor((longitude + 180) / CELL_DEGREES), COLUMNS);
+  }
+
+  private static int clamp(int index, int size) {
+    return Math.max(0, Math.min(size - 1, index));
+  }
+}
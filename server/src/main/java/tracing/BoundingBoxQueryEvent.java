@@ -0,0 +1,39 @@
+package tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("magikarp.BoundingBoxQuery")
+@Label("Bounding Box Query")
+@Category({"Magikarp", "Query"})
+@Description("Bounding box query answered from a scan of the messages")
+public class BoundingBoxQueryEvent extends Event {
+  @Label("Area")
+  @Description("Area of the bounding box in square degrees")
+  public double area;
+
+  @Label("Max Records")
+  public int maxRecords;
+
+  @Label("Batch Size")
+  @Description("Number of queries answered by the same scan")
+  public int batchSize;
+
+  @Label("Fetched Count")
+  @Description("Number of messages fetched for the scan")
+  public int fetchedCount;
+
+  @Label("Scanned Count")
+  @Description("Number of messages tested before the scan stopped")
+  public int scannedCount;
+
+  @Label("Matched Count")
+  @Description("Number of tested messages inside the bounding box")
+  public int matchedCount;
+
+  @Label("Returned Count")
+  public int returnedCount;
+}
@@ -0,0 +1,17 @@
+package tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("magikarp.FirestoreRead")
+@Label("Firestore Read")
+@Category({"Magikarp", "Firestore"})
+public class FirestoreReadEvent extends Event {
+  @Label("Operation")
+  public String operation;
+
+  @Label("Document Count")
+  public int documentCount;
+}
@@ -0,0 +1,63 @@
+package tracing;
+
+import com.google.api.core.ApiFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.ExecutionException;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("magikarp.FirestoreWrite")
+@Label("Firestore Write")
+@Category({"Magikarp", "Firestore"})
+public class FirestoreWriteEvent extends Event {
+  @Label("Operation")
+  public String operation;
+
+  @Label("Document Count")
+  public int documentCount;
+
+  @Label("Succeeded")
+  public boolean succeeded;
+
+  /**
+   * Record a Firestore write that lasts until its future completes, whether or not anyone waits on
+   * it. Nothing is attached to the future unless the event is enabled.
+   *
+   * @param future        ApiFuture of the write
+   * @param operation     Name of the operation, such as set_message
+   * @param documentCount Number of documents written
+   * @param <T>           Result type of the write
+   * @return The passed ApiFuture
+   */
+  public static <T> ApiFuture<T> record(ApiFuture<T> future, String operation, int documentCount) {
+    FirestoreWriteEvent event = new FirestoreWriteEvent();
+    if (!event.isEnabled()) {
+      return future;
+    }
+    event.begin();
+    future.addListener(() -> {
+      event.end();
+      if (event.shouldCommit()) {
+        event.operation = operation;
+        event.documentCount = documentCount;
+        event.succeeded = isSuccessful(future);
+        event.commit();
+      }
+    }, MoreExecutors.directExecutor());
+    return future;
+  }
+
+  private static boolean isSuccessful(ApiFuture<?> future) {
+    try {
+      future.get();
+      return true;
+    } catch (ExecutionException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package tracing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class RequestTrace {
+  private static final int MAX_STAGES = 16;
+  private static final AtomicLong nextId = new AtomicLong();
+  // One trace per thread, reused for every request the thread serves.
+  private static final ThreadLocal<RequestTrace> current =
+      ThreadLocal.withInitial(RequestTrace::new);
+
+  private final String[] stageNames = new String[MAX_STAGES];
+  private final long[] stageNanos = new long[MAX_STAGES];
+  private int stageCount;
+  private long id;
+  private String route;
+  private String path;
+  private long startNanos;
+  private long lastMarkNanos;
+  private long totalNanos;
+  private long documentsRead;
+  private long documentsWritten;
+  private boolean active;
+
+  private RequestTrace() {
+  }
+
+  /**
+   * Start tracing a request on the current thread.
+   *
+   * @param route Path of the route, with path parameters left unexpanded
+   * @param path  Path of the request
+   * @return RequestTrace of the current thread
+   */
+  public static RequestTrace begin(String route, String path) {
+    RequestTrace trace = current.get();
+    trace.id = nextId.incrementAndGet();
+    trace.route = route;
+    trace.path = path;
+    trace.stageCount = 0;
+    trace.startNanos = System.nanoTime();
+    trace.lastMarkNanos = trace.startNanos;
+    trace.totalNanos = 0;
+    trace.documentsRead = 0;
+    trace.documentsWritten = 0;
+    trace.active = true;
+    return trace;
+  }
+
+  /**
+   * Record the time since the previous stage, or since the request started, as a stage of the
+   * request traced on the current thread. Does nothing if no request is traced.
+   *
+   * @param stage Name of the stage that just finished
+   */
+  public static void mark(String stage) {
+    RequestTrace trace = current.get();
+    if (!trace.active || trace.stageCount == MAX_STAGES) {
+      return;
+    }
+    long now = System.nanoTime();
+    trace.stageNames[trace.stageCount] = stage;
+    trace.stageNanos[trace.stageCount] = now - trace.lastMarkNanos;
+    trace.stageCount++;
+    trace.lastMarkNanos = now;
+  }
+
+  /**
+   * Add a stage of known length, such as time spent queued for another thread, to the request
+   * traced on the current thread. Does nothing if no request is traced.
+   *
+   * @param stage Name of the stage
+   * @param nanos Length of the stage in nanoseconds
+   */
+  public static void addStage(String stage, long nanos) {
+    RequestTrace trace = current.get();
+    if (trace.active) {
+      trace.appendStage(stage, nanos);
+    }
+  }
+
+  /**
+   * Add the stages and document counts of a finished trace, recorded on another thread while it
+   * did work for the request traced on the current thread. Does nothing if no request is traced.
+   *
+   * @param other Finished RequestTrace of the other thread
+   */
+  public static void join(RequestTrace other) {
+    RequestTrace trace = current.get();
+    if (!trace.active) {
+      return;
+    }
+    for (int i = 0; i < other.stageCount; i++) {
+      trace.appendStage(other.stageNames[i], other.stageNanos[i]);
+    }
+    trace.documentsRead += other.documentsRead;
+    trace.documentsWritten += other.documentsWritten;
+    trace.lastMarkNanos = System.nanoTime();
+  }
+
+  private void appendStage(String stage, long nanos) {
+    if (stageCount < MAX_STAGES) {
+      stageNames[stageCount] = stage;
+      stageNanos[stageCount] = nanos;
+      stageCount++;
+    }
+  }
+
+  /**
+   * Count Firestore documents read for the request traced on the current thread. Does nothing if
+   * no request is traced.
+   *
+   * @param documents Number of documents read
+   */
+  public static void addDocumentsRead(long documents) {
+    RequestTrace trace = current.get();
+    if (trace.active) {
+      trace.documentsRead += documents;
+    }
+  }
+
+  /**
+   * Count Firestore documents written for the request traced on the current thread. Does nothing
+   * if no request is traced.
+   *
+   * @param documents Number of documents written
+   */
+  public static void addDocumentsWritten(long documents) {
+    RequestTrace trace = current.get();
+    if (trace.active) {
+      trace.documentsWritten += documents;
+    }
+  }
+
+  /**
+   * Stop tracing the request.
+   *
+   * @return This RequestTrace, which stays valid until the thread begins another request
+   */
+  public RequestTrace end() {
+    totalNanos = System.nanoTime() - startNanos;
+    active = false;
+    return this;
+  }
+
+  /**
+   * Copy the trace so it can be handed to another thread.
+   *
+   * @return RequestTrace with the same contents
+   */
+  public RequestTrace copy() {
+    RequestTrace copy = new RequestTrace();
+    System.arraycopy(stageNames, 0, copy.stageNames, 0, stageCount);
+    System.arraycopy(stageNanos, 0, copy.stageNanos, 0, stageCount);
+    copy.stageCount = stageCount;
+    copy.id = id;
+    copy.route = route;
+    copy.path = path;
+    copy.startNanos = startNanos;
+    copy.lastMarkNanos = lastMarkNanos;
+    copy.totalNanos = totalNanos;
+    copy.documentsRead = documentsRead;
+    copy.documentsWritten = documentsWritten;
+    return copy;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  public long getDocumentsRead() {
+    return documentsRead;
+  }
+
+  public long getDocumentsWritten() {
+    return documentsWritten;
+  }
+
+  public int getStageCount() {
+    return stageCount;
+  }
+
+  public String getStageName(int stage) {
+    return stageNames[stage];
+  }
+
+  public long getStageNanos(int stage) {
+    return stageNanos[stage];
+  }
+
+  /**
+   * Write the trace as space-separated key=value pairs, with times in microseconds.
+   *
+   * @param builder StringBuilder to append to
+   */
+  public void appendTo(StringBuilder builder) {
+    builder.append("request_id=").append(id)
+        .append(" route=").append(route)
+        .append(" path=").append(path)
+        .append(" total_us=").append(TimeUnit.NANOSECONDS.toMicros(totalNanos))
+        .append(" documents_read=").append(documentsRead)
+        .append(" documents_written=").append(documentsWritten);
+    for (int i = 0; i < stageCount; i++) {
+      builder.append(' ').append(stageNames[i]).append("_us=")
+          .append(TimeUnit.NANOSECONDS.toMicros(stageNanos[i]));
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package tracing;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.slf4j.LoggerFactory;
+
+public class SlowRequestLog {
+  private final long thresholdNanos;
+  private final double sampleRate;
+  private final BlockingQueue<Entry> queue;
+  private final Consumer<String> sink;
+  private final Thread writer;
+  private final LongAdder droppedCount = new LongAdder();
+
+  /**
+   * Log of request traces written by a background thread to the server log.
+   *
+   * @param thresholdMillis Requests taking at least this long are always logged
+   * @param sampleRate      Fraction of the remaining requests that are logged
+   * @param queueSize       Maximum number of traces waiting to be written before new ones are
+   *                        dropped
+   */
+  public SlowRequestLog(long thresholdMillis, double sampleRate, int queueSize) {
+    this(
+        thresholdMillis,
+        sampleRate,
+        queueSize,
+        LoggerFactory.getLogger(SlowRequestLog.class)::info
+    );
+  }
+
+  /**
+   * Log of request traces written by a background thread.
+   *
+   * @param thresholdMillis Requests taking at least this long are always logged
+   * @param sampleRate      Fraction of the remaining requests that are logged
+   * @param queueSize       Maximum number of traces waiting to be written before new ones are
+   *                        dropped
+   * @param sink            Consumer of the formatted log lines
+   */
+  public SlowRequestLog(
+      long thresholdMillis,
+      double sampleRate,
+      int queueSize,
+      Consumer<String> sink
+  ) {
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.sampleRate = sampleRate;
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.sink = sink;
+    this.writer = new Thread(this::write, "slow-request-log");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Queue a finished trace to be logged if it is slow or sampled. Never blocks; traces are dropped
+   * while the queue is full.
+   *
+   * @param trace Finished RequestTrace
+   */
+  public void submit(RequestTrace trace) {
+    boolean slow = trace.getTotalNanos() >= thresholdNanos;
+    if (!slow && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+      return;
+    }
+    if (!queue.offer(new Entry(trace.copy(), slow))) {
+      droppedCount.increment();
+    }
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.sum();
+  }
+
+  public void shutdown() {
+    writer.interrupt();
+  }
+
+  private void write() {
+    StringBuilder builder = new StringBuilder();
+    try {
+      while (true) {
+        Entry entry = queue.take();
+        builder.setLength(0);
+        builder.append(entry.slow ? "slow_request " : "sampled_request ");
+        entry.trace.appendTo(builder);
+        sink.accept(builder.toString());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static final class Entry {
+    final RequestTrace trace;
+    final boolean slow;
+
+    Entry(RequestTrace trace, boolean slow) {
+      this.trace = trace;
+      this.slow = slow;
+    }
+  }
+}
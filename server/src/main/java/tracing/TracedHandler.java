@@ -0,0 +1,66 @@
+package tracing;
+
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import java.util.concurrent.atomic.LongAdder;
+import metrics.MetricsRegistry;
+
+public class TracedHandler implements Handler {
+  public static final String REQUEST_ID_HEADER = "X-Request-Id";
+  public static final String DOCUMENTS_READ = "http_firestore_documents_read_total";
+  public static final String DOCUMENTS_WRITTEN = "http_firestore_documents_written_total";
+
+  private final SlowRequestLog slowRequestLog;
+  private final String route;
+  private final Handler handler;
+  private final LongAdder documentsRead;
+  private final LongAdder documentsWritten;
+
+  /**
+   * Handler that traces the stages of every request to a route, counts the Firestore documents
+   * each request read and wrote, and returns the request ID in a response header.
+   *
+   * @param registry       MetricsRegistry the document counts are recorded to
+   * @param slowRequestLog SlowRequestLog finished traces are submitted to
+   * @param method         HTTP method of the route
+   * @param route          Path of the route, with path parameters left unexpanded
+   * @param handler        Handler serving the route
+   */
+  public TracedHandler(
+      MetricsRegistry registry,
+      SlowRequestLog slowRequestLog,
+      String method,
+      String route,
+      Handler handler
+  ) {
+    this.slowRequestLog = slowRequestLog;
+    this.route = route;
+    this.handler = handler;
+    this.documentsRead = registry.getCounter(
+        DOCUMENTS_READ,
+        "Number of Firestore documents read by HTTP requests",
+        "method", method,
+        "route", route
+    );
+    this.documentsWritten = registry.getCounter(
+        DOCUMENTS_WRITTEN,
+        "Number of Firestore documents written by HTTP requests",
+        "method", method,
+        "route", route
+    );
+  }
+
+  @Override
+  public void handle(Context ctx) throws Exception {
+    RequestTrace trace = RequestTrace.begin(route, ctx.path());
+    ctx.header(REQUEST_ID_HEADER, Long.toString(trace.getId()));
+    try {
+      handler.handle(ctx);
+    } finally {
+      trace.end();
+      documentsRead.add(trace.getDocumentsRead());
+      documentsWritten.add(trace.getDocumentsWritten());
+      slowRequestLog.submit(trace);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package capture;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TestTrafficCapture {
+
+  @Test
+  public void testRecordRoundTrip() throws IOException {
+    List<CaptureRecord> records = new ArrayList<>();
+    records.add(new CaptureRecord(1000, "/messages", null, null, getBody("{}")));
+    records.add(new CaptureRecord(
+        900,
+        "/messages/:user_id/update/:record_id",
+        "00ff00ff00ff00ff",
+        "ffffffffffffffff",
+        getBody("{\"text\":\"hello\"}")
+    ));
+    records.add(new CaptureRecord(123456789L, "/messages/:user_id", "0123456789abcdef", null,
+        new byte[0]));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    long previousOffsetMicros = 0;
+    for (CaptureRecord record : records) {
+      record.write(output, previousOffsetMicros);
+      previousOffsetMicros = record.getOffsetMicros();
+    }
+
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    previousOffsetMicros = 0;
+    for (CaptureRecord record : records) {
+      CaptureRecord read = CaptureRecord.read(input, previousOffsetMicros);
+      assertEquals(record, read);
+      previousOffsetMicros = read.getOffsetMicros();
+    }
+    assertEquals(
+        "/messages/00ff00ff00ff00ff/update/ffffffffffffffff",
+        records.get(1).getPath()
+    );
+  }
+
+  @Test
+  public void testCaptureHashesIds(@TempDir Path directory)
+      throws IOException, InterruptedException {
+    TrafficCapture capture = new TrafficCapture(directory, 1 << 20, 4, 16, "salt");
+    long now = System.nanoTime();
+    capture.record(now, "/messages/:user_id", "alice", null, getBody("{}"));
+    capture.record(now + 1000, "/messages/:user_id/delete/:record_id", "alice", "record",
+        getBody(""));
+    capture.shutdown();
+
+    List<CaptureRecord> records = readAll(TrafficCapture.getFiles(directory));
+
+    assertEquals(2, records.size());
+    assertEquals(capture.hash("alice"), records.get(0).getUserHash());
+    assertEquals(records.get(0).getUserHash(), records.get(1).getUserHash());
+    assertNotEquals("alice", records.get(0).getUserHash());
+    assertEquals(capture.hash("record"), records.get(1).getRecordHash());
+    assertNull(records.get(0).getRecordHash());
+    assertArrayEquals(getBody("{}"), records.get(0).getBody());
+    assertTrue(records.get(1).getOffsetMicros() >= records.get(0).getOffsetMicros());
+    assertEquals(2, capture.getRecordCount());
+  }
+
+  @Test
+  public void testLogsRotate(@TempDir Path directory) throws IOException, InterruptedException {
+    TrafficCapture capture = new TrafficCapture(directory, 100, 3, 1024, "");
+    byte[] body = getBody("{\"latitude\":1.0,\"longitude\":2.0,\"text\":\"rotating\"}");
+    for (int i = 0; i < 200; i++) {
+      // Stay under the queue size so nothing is dropped.
+      capture.record(System.nanoTime(), "/messages/:user_id/new", "user" + i, null, body);
+    }
+    capture.shutdown();
+
+    List<Path> files = TrafficCapture.getFiles(directory);
+
+    assertEquals(3, files.size());
+    assertEquals(200, capture.getRecordCount());
+    assertEquals(0, capture.getDroppedCount());
+    // Only the newest logs are kept, so they hold the last records.
+    List<CaptureRecord> records = readAll(files);
+    assertEquals(
+        capture.hash("user199"),
+        records.get(records.size() - 1).getUserHash()
+    );
+  }
+
+  private static List<CaptureRecord> readAll(List<Path> files) throws IOException {
+    List<CaptureRecord> records = new ArrayList<>();
+    for (Path file : files) {
+      try (CaptureReader reader = new CaptureReader(file)) {
+        CaptureRecord record;
+        while ((record = reader.next()) != null) {
+          records.add(record);
+        }
+      }
+    }
+    return records;
+  }
+
+  private static byte[] getBody(String body) {
+    return body.getBytes(StandardCharsets.UTF_8);
+  }
+}
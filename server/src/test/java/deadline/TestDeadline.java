@@ -0,0 +1,92 @@
+package deadline;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class TestDeadline {
+  private static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+  @Test
+  public void testAwaitCancelsOnExpiry() {
+    CompletableFuture<String> future = new CompletableFuture<>();
+
+    assertThrows(
+        DeadlineExceededException.class,
+        () -> Deadline.after(TIMEOUT_NANOS).call(() -> Deadline.await(future))
+    );
+    assertTrue(future.isCancelled());
+  }
+
+  @Test
+  public void testAwaitSharedLeavesFutureRunning() {
+    CompletableFuture<String> future = new CompletableFuture<>();
+
+    assertThrows(
+        DeadlineExceededException.class,
+        () -> Deadline.after(TIMEOUT_NANOS).call(() -> Deadline.awaitShared(future))
+    );
+    assertFalse(future.isDone());
+  }
+
+  @Test
+  public void testAwaitReturnsResultBeforeDeadline() throws Exception {
+    assertEquals(
+        "done",
+        Deadline.after(TIMEOUT_NANOS).call(
+            () -> Deadline.await(CompletableFuture.completedFuture("done"))
+        )
+    );
+    // Outside of a request the default wait applies.
+    assertEquals("done", Deadline.await(CompletableFuture.completedFuture("done")));
+  }
+
+  @Test
+  public void testSharedWorkEndedByAnotherDeadline() {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    future.completeExceptionally(new DeadlineExceededException());
+
+    assertThrows(DeadlineExceededException.class, () -> Deadline.awaitShared(future));
+  }
+
+  @Test
+  public void testFailureIsPropagated() {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    future.completeExceptionally(new IllegalStateException());
+
+    assertThrows(ExecutionException.class, () -> Deadline.await(future));
+  }
+
+  @Test
+  public void testCallRestoresPreviousDeadline() throws Exception {
+    Deadline outer = Deadline.after(TimeUnit.SECONDS.toNanos(10));
+
+    outer.call(() -> {
+      Deadline.after(0).call(() -> {
+        assertThrows(DeadlineExceededException.class, Deadline::check);
+        return null;
+      });
+      assertEquals(outer, Deadline.current());
+      Deadline.check();
+      return null;
+    });
+    assertFalse(Deadline.current().isExpired());
+  }
+
+  @Test
+  public void testTimeoutHeader() {
+    DeadlineHandler handler = new DeadlineHandler(1000, 5000, ctx -> { });
+
+    assertEquals(1000, handler.getTimeoutMillis(null));
+    assertEquals(250, handler.getTimeoutMillis("250"));
+    assertEquals(5000, handler.getTimeoutMillis("60000"));
+    assertEquals(1000, handler.getTimeoutMillis("0"));
+    assertEquals(1000, handler.getTimeoutMillis("soon"));
+  }
+}
@@ -0,0 +1,101 @@
+package density;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.cloud.firestore.GeoPoint;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import message.BoundingBox;
+import message.Message;
+import org.junit.jupiter.api.Test;
+
+public class TestDensityPyramid {
+
+  @Test
+  public void testMessagesAreCountedAtEveryZoom() {
+    DensityPyramid pyramid = new DensityPyramid(4, 2);
+    pyramid.apply(
+        Arrays.asList(
+            getMessage("a", 10, 10),
+            getMessage("b", 10, 10),
+            getMessage("c", -10, -10)
+        ),
+        Collections.emptyList()
+    );
+
+    assertArrayEquals(new int[] {3}, pyramid.getCounts(0, 0, 0, 1, 1));
+    assertArrayEquals(new int[] {0, 2, 1, 0}, pyramid.getCounts(1, 0, 0, 2, 2));
+    int x = DensityPyramid.getTileX(10, 4);
+    int y = DensityPyramid.getTileY(10, 4);
+    assertArrayEquals(new int[] {2}, pyramid.getCounts(4, x, y, 1, 1));
+    assertEquals(3, pyramid.getMessageCount());
+  }
+
+  @Test
+  public void testChangesMoveCounts() {
+    DensityPyramid pyramid = new DensityPyramid(4, 2);
+    pyramid.apply(
+        Arrays.asList(getMessage("a", 10, 10), getMessage("b", 10, 10)),
+        Collections.emptyList()
+    );
+
+    pyramid.apply(
+        Arrays.asList(getMessage("a", -10, 10), getMessage("c", -10, -10)),
+        Collections.singletonList("b")
+    );
+    // Changes reaching the pyramid twice are only counted once.
+    pyramid.apply(Collections.singletonList(getMessage("c", -10, -10)), Arrays.asList("b", "d"));
+
+    assertArrayEquals(new int[] {0, 0, 1, 1}, pyramid.getCounts(1, 0, 0, 2, 2));
+    int x = DensityPyramid.getTileX(10, 4);
+    int y = DensityPyramid.getTileY(10, 4);
+    assertArrayEquals(new int[] {0}, pyramid.getCounts(4, x, y, 1, 1));
+    assertEquals(2, pyramid.getMessageCount());
+  }
+
+  @Test
+  public void testColumnsWrapAroundLongitude() {
+    DensityPyramid pyramid = new DensityPyramid(3, 3);
+    pyramid.apply(
+        Arrays.asList(getMessage("a", 0, 179), getMessage("b", 0, -179)),
+        Collections.emptyList()
+    );
+
+    int y = DensityPyramid.getTileY(0, 3);
+    assertArrayEquals(new int[] {1, 1, 0}, pyramid.getCounts(3, 7, y, 3, 1));
+    assertEquals(0, DensityPyramid.getTileX(-180, 3));
+    assertEquals(7, DensityPyramid.getTileX(180, 3));
+    assertEquals(0, DensityPyramid.getTileY(90, 3));
+    assertEquals(7, DensityPyramid.getTileY(-90, 3));
+  }
+
+  @Test
+  public void testGridCoversBoxLikeBoundingBoxQueries() {
+    DensityPyramid.Grid grid = DensityPyramid.getGrid(BoundingBox.fromEdges(-10, 10, -10, 10), 3);
+    assertEquals(3, grid.getX());
+    assertEquals(2, grid.getColumns());
+    assertEquals(DensityPyramid.getTileY(10, 3), grid.getY());
+    assertEquals(2, grid.getRows());
+
+    // Longitudes up to -170 and from 170 on: the two columns either side of the 180 line.
+    grid = DensityPyramid.getGrid(
+        new BoundingBox(new GeoPoint(-10, -170), new GeoPoint(10, 170), false, true),
+        3
+    );
+    assertEquals(7, grid.getX());
+    assertEquals(2, grid.getColumns());
+
+    // Overlapping edges hold every longitude and latitude.
+    grid = DensityPyramid.getGrid(BoundingBox.fromEdges(10, -10, 170, -170), 3);
+    assertEquals(0, grid.getX());
+    assertEquals(8, grid.getColumns());
+    assertEquals(0, grid.getY());
+    assertEquals(8, grid.getRows());
+  }
+
+  private static Message getMessage(String id, double latitude, double longitude) {
+    return new Message(id, "", latitude, longitude, "", new Date(0), "user");
+  }
+}
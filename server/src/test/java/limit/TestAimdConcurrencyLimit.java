@@ -0,0 +1,94 @@
+package limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class TestAimdConcurrencyLimit {
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testRejectsOverLimit() {
+    AimdConcurrencyLimit limit = new AimdConcurrencyLimit(2, 1, 10, 0.5, 2.0, 10, 0.1);
+
+    assertTrue(limit.tryAcquire());
+    assertTrue(limit.tryAcquire());
+    assertFalse(limit.tryAcquire());
+    assertEquals(2, limit.getInFlight());
+    assertEquals(1, limit.getRejectedCount());
+
+    limit.release(limit.newRoute(), FAST, false);
+    assertTrue(limit.tryAcquire());
+  }
+
+  @Test
+  public void testFastRequestsRaiseLimitWhenBusy() {
+    AimdConcurrencyLimit limit = new AimdConcurrencyLimit(10, 1, 12, 0.5, 2.0, 10, 0.1);
+    AimdConcurrencyLimit.Route route = limit.newRoute();
+
+    // Mostly idle, so there is no reason to raise the limit.
+    limit.update(route, FAST, false, 1, SECOND);
+    assertEquals(10, limit.getLimit());
+
+    for (int i = 0; i < 5; i++) {
+      limit.update(route, FAST, false, 10, SECOND + i);
+    }
+    assertEquals(12, limit.getLimit());
+  }
+
+  @Test
+  public void testSlowRequestsLowerLimitOncePerRequestDuration() {
+    AimdConcurrencyLimit limit = new AimdConcurrencyLimit(40, 5, 100, 0.5, 2.0, 10, 0.1);
+    AimdConcurrencyLimit.Route route = limit.newRoute();
+    limit.update(route, FAST, false, 1, SECOND);
+
+    limit.update(route, SLOW, false, 1, 2 * SECOND);
+    assertEquals(20, limit.getLimit());
+    // Part of the same slow burst.
+    limit.update(route, SLOW, false, 1, 2 * SECOND + FAST);
+    assertEquals(20, limit.getLimit());
+
+    limit.update(route, SLOW, false, 1, 3 * SECOND);
+    limit.update(route, SLOW, true, 1, 4 * SECOND);
+    limit.update(route, SLOW, true, 1, 5 * SECOND);
+    assertEquals(5, limit.getLimit());
+  }
+
+  /**
+   * Test that a few fast responses, like cache hits, don't make the usual latency look slow.
+   */
+  @Test
+  public void testBaselineIgnoresFastOutliers() {
+    AimdConcurrencyLimit limit = new AimdConcurrencyLimit(40, 5, 100, 0.5, 2.0, 20, 0.25);
+    AimdConcurrencyLimit.Route route = limit.newRoute();
+    for (int i = 0; i < 15; i++) {
+      limit.update(route, SLOW, false, 1, SECOND);
+    }
+
+    limit.update(route, FAST, false, 1, 2 * SECOND);
+    limit.update(route, SLOW, false, 1, 3 * SECOND);
+
+    assertEquals(40, limit.getLimit());
+  }
+
+  @Test
+  public void testRoutesKeepTheirOwnBaseline() {
+    AimdConcurrencyLimit limit = new AimdConcurrencyLimit(40, 5, 100, 0.5, 2.0, 10, 0.1);
+    AimdConcurrencyLimit.Route fast = limit.newRoute();
+    AimdConcurrencyLimit.Route slow = limit.newRoute();
+    limit.update(fast, FAST, false, 1, SECOND);
+
+    // Usual for this route, however slow next to the other.
+    limit.update(slow, SLOW, false, 1, 2 * SECOND);
+    limit.update(slow, SLOW, false, 1, 3 * SECOND);
+    assertEquals(40, limit.getLimit());
+
+    limit.update(fast, SLOW, false, 1, 4 * SECOND);
+    assertEquals(20, limit.getLimit());
+  }
+}
@@ -0,0 +1,53 @@
+package limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import metrics.LatencyHistogram;
+import org.junit.jupiter.api.Test;
+
+public class TestBulkhead {
+
+  @Test
+  public void testFullBulkheadRejects() throws Exception {
+    Bulkhead bulkhead = new Bulkhead("test", 1, 1, new LatencyHistogram());
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<Boolean> running = bulkhead.submit(queueWaitNanos -> release.await(5, TimeUnit.SECONDS));
+    Future<Long> queued = bulkhead.submit(queueWaitNanos -> queueWaitNanos);
+    assertThrows(RejectedExecutionException.class, () -> bulkhead.submit(queueWaitNanos -> 0));
+    assertEquals(1, bulkhead.getRejectedCount());
+
+    Thread.sleep(50);
+    release.countDown();
+
+    assertTrue(running.get());
+    // The queued task reports the time it spent waiting for the busy thread.
+    assertTrue(queued.get() >= TimeUnit.MILLISECONDS.toNanos(50));
+    bulkhead.shutdown();
+  }
+
+  @Test
+  public void testSaturatedBulkheadDoesNotDelayOther() throws Exception {
+    Bulkhead writes = new Bulkhead("write", 2, 2, new LatencyHistogram());
+    Bulkhead reads = new Bulkhead("read", 2, 2, new LatencyHistogram());
+    CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < 4; i++) {
+      writes.submit(queueWaitNanos -> release.await(5, TimeUnit.SECONDS));
+    }
+    assertThrows(RejectedExecutionException.class, () -> writes.submit(queueWaitNanos -> 0));
+
+    long start = System.nanoTime();
+    assertEquals(1, (int) reads.submit(queueWaitNanos -> 1).get(1, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+
+    release.countDown();
+    writes.shutdown();
+    reads.shutdown();
+  }
+}
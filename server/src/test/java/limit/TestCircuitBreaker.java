@@ -0,0 +1,77 @@
+package limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class TestCircuitBreaker {
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testOpensOnFailureRate() {
+    CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 100, 1.0, 1000, 1);
+
+    breaker.record(FAST, true, SECOND);
+    breaker.record(FAST, false, SECOND);
+    breaker.record(FAST, true, SECOND);
+    // Not enough calls yet to judge the rate.
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+    breaker.record(FAST, false, SECOND);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.tryAcquire(SECOND));
+    assertEquals(1, breaker.getOpenCount());
+    assertEquals(1, breaker.getRejectedCount());
+  }
+
+  @Test
+  public void testOpensOnSlowCallRate() {
+    CircuitBreaker breaker = new CircuitBreaker(4, 4, 1.0, 100, 0.75, 1000, 1);
+
+    breaker.record(FAST, false, SECOND);
+    breaker.record(SLOW, false, SECOND);
+    breaker.record(SLOW, false, SECOND);
+    breaker.record(FAST, false, SECOND);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+    // The oldest fast call leaves the window.
+    breaker.record(SLOW, false, SECOND);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  @Test
+  public void testHalfOpenProbesCloseBreaker() {
+    CircuitBreaker breaker = new CircuitBreaker(10, 1, 0.5, 100, 1.0, 1000, 2);
+    breaker.record(FAST, true, SECOND);
+
+    assertFalse(breaker.tryAcquire(SECOND + FAST));
+    assertTrue(breaker.tryAcquire(2 * SECOND));
+    assertTrue(breaker.tryAcquire(2 * SECOND));
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    // Only the probes are let through.
+    assertFalse(breaker.tryAcquire(2 * SECOND));
+
+    breaker.record(FAST, false, 2 * SECOND);
+    breaker.record(FAST, false, 2 * SECOND);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.tryAcquire(2 * SECOND));
+  }
+
+  @Test
+  public void testFailedProbeReopensBreaker() {
+    CircuitBreaker breaker = new CircuitBreaker(10, 1, 0.5, 100, 1.0, 1000, 2);
+    breaker.record(FAST, true, SECOND);
+
+    assertTrue(breaker.tryAcquire(2 * SECOND));
+    breaker.record(SLOW, false, 2 * SECOND);
+
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.tryAcquire(2 * SECOND + FAST));
+    assertTrue(breaker.tryAcquire(3 * SECOND));
+  }
+}
@@ -0,0 +1,153 @@
+package message;
+
+import static helper.TestHelper.getRandomDate;
+import static helper.TestHelper.getRandomLatitude;
+import static helper.TestHelper.getRandomLongitude;
+import static helper.TestHelper.getRandomString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.firestore.GeoPoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class TestBatchingMessageFinder {
+
+  /**
+   * Test that a shared scan returns the same records as scanning for each query individually.
+   */
+  @Test
+  public void testScanMatchesIndividualQueries() {
+    List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      messages.add(getMessage(getRandomLatitude(), getRandomLongitude()));
+    }
+    List<BatchingMessageFinder.PendingQuery> batch = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      GeoPoint lesserPoint = new GeoPoint(getRandomLatitude(), getRandomLongitude());
+      GeoPoint greaterPoint = new GeoPoint(getRandomLatitude(), getRandomLongitude());
+      batch.add(new BatchingMessageFinder.PendingQuery(
+          new BoundingBox(
+              lesserPoint,
+              greaterPoint,
+              lesserPoint.getLatitude() >= greaterPoint.getLatitude(),
+              lesserPoint.getLongitude() >= greaterPoint.getLongitude()
+          ),
+          1 + i % 25,
+          -1
+      ));
+    }
+
+    BatchingMessageFinder.scan(messages, batch);
+
+    for (BatchingMessageFinder.PendingQuery query : batch) {
+      List<Message> expected = messages
+          .stream()
+          .filter(message -> MessageFinderImpl.filterMessage(
+              message,
+              query.boundingBox.getLesserPoint(),
+              query.boundingBox.getGreaterPoint(),
+              query.boundingBox.isCrossing90Latitude(),
+              query.boundingBox.isCrossing180Longitude()
+          ))
+          .limit(query.maxRecords)
+          .collect(Collectors.toList());
+      assertEquals(expected, query.results);
+    }
+  }
+
+  @Test
+  public void testConcurrentQueriesShareScan() throws Exception {
+    int callers = 10;
+    List<Message> messages = new ArrayList<>();
+    messages.add(getMessage(1.0, 1.0));
+    messages.add(getMessage(-1.0, -1.0));
+    MessageSource messageSource = mock(MessageSource.class);
+    when(messageSource.getAllMessages()).thenReturn(messages);
+    BatchingMessageFinder finder =
+        new BatchingMessageFinder(mock(MessageFinder.class), messageSource, 200, 1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(callers);
+    List<Future<List<Message>>> futures = new ArrayList<>();
+    for (int i = 0; i < callers; i++) {
+      double offset = i % 2 == 0 ? 1.0 : -1.0;
+      futures.add(executor.submit(() -> finder.findByBoundingBox(
+          new GeoPoint(offset - 0.5, offset - 0.5),
+          new GeoPoint(offset + 0.5, offset + 0.5),
+          10,
+          false,
+          false
+      )));
+    }
+
+    for (Future<List<Message>> future : futures) {
+      assertEquals(1, future.get().size());
+    }
+    executor.shutdown();
+    finder.shutdown();
+
+    assertTrue(finder.getBatchCount() < callers);
+    assertEquals(callers, finder.getQueryCount());
+    verify(messageSource, times((int) finder.getBatchCount())).getAllMessages();
+  }
+
+  @Test
+  public void testZeroLimitSkipsScan() throws ExecutionException, InterruptedException {
+    MessageSource messageSource = mock(MessageSource.class);
+    BatchingMessageFinder finder =
+        new BatchingMessageFinder(mock(MessageFinder.class), messageSource, 1, 1);
+
+    List<Message> messages = finder.findByBoundingBox(
+        new GeoPoint(-90, -180),
+        new GeoPoint(90, 180),
+        0,
+        false,
+        false
+    );
+    finder.shutdown();
+
+    assertTrue(messages.isEmpty());
+    verify(messageSource, times(0)).getAllMessages();
+  }
+
+  @Test
+  public void testScanErrorIsPropagated() throws ExecutionException, InterruptedException {
+    MessageSource messageSource = mock(MessageSource.class);
+    when(messageSource.getAllMessages())
+        .thenThrow(new ExecutionException(new IllegalStateException()));
+    BatchingMessageFinder finder =
+        new BatchingMessageFinder(mock(MessageFinder.class), messageSource, 1, 1);
+
+    assertThrows(ExecutionException.class, () -> finder.findByBoundingBox(
+        new GeoPoint(-90, -180),
+        new GeoPoint(90, 180),
+        10,
+        false,
+        false
+    ));
+    finder.shutdown();
+  }
+
+  private static Message getMessage(double latitude, double longitude) {
+    return new Message(
+        getRandomString(20),
+        getRandomString(20),
+        latitude,
+        longitude,
+        getRandomString(20),
+        getRandomDate(),
+        getRandomString(20)
+    );
+  }
+}
@@ -0,0 +1,69 @@
+package message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.cloud.firestore.GeoPoint;
+import org.junit.jupiter.api.Test;
+
+public class TestBoundingBox {
+
+  @Test
+  public void testFromEdgesWithoutWrap() {
+    BoundingBox boundingBox = BoundingBox.fromEdges(-1.0, 1.0, -1.0, 1.0);
+
+    assertFalse(boundingBox.isCrossing90Latitude());
+    assertFalse(boundingBox.isCrossing180Longitude());
+    assertTrue(boundingBox.contains(0.0, 0.0));
+    assertFalse(boundingBox.contains(2.0, 0.0));
+  }
+
+  @Test
+  public void testFromEdgesFlipped() {
+    BoundingBox boundingBox = BoundingBox.fromEdges(1.0, -1.0, 1.0, -1.0);
+
+    assertTrue(boundingBox.isCrossing90Latitude());
+    assertTrue(boundingBox.isCrossing180Longitude());
+  }
+
+  @Test
+  public void testFromTileZoomZero() {
+    BoundingBox boundingBox = BoundingBox.fromTile(0, 0, 0);
+
+    assertEquals(-180.0, boundingBox.getLesserPoint().getLongitude(), 1e-9);
+    assertEquals(180.0, boundingBox.getGreaterPoint().getLongitude(), 1e-9);
+    assertEquals(-85.0511, boundingBox.getLesserPoint().getLatitude(), 1e-4);
+    assertEquals(85.0511, boundingBox.getGreaterPoint().getLatitude(), 1e-4);
+  }
+
+  @Test
+  public void testFromTileQuadrant() {
+    BoundingBox boundingBox = BoundingBox.fromTile(1, 1, 0);
+
+    assertEquals(0.0, boundingBox.getLesserPoint().getLatitude(), 1e-9);
+    assertEquals(0.0, boundingBox.getLesserPoint().getLongitude(), 1e-9);
+    assertTrue(boundingBox.contains(45.0, 90.0));
+    assertFalse(boundingBox.contains(-45.0, 90.0));
+    assertFalse(boundingBox.contains(45.0, -90.0));
+  }
+
+  @Test
+  public void testArea() {
+    assertEquals(4.0, BoundingBox.fromEdges(-1.0, 1.0, -1.0, 1.0).getArea(), 1e-9);
+    // Flipped edges overlap, so like bounding box queries the box spans every longitude.
+    BoundingBox flipped = BoundingBox.fromEdges(-1.0, 1.0, 170.0, -170.0);
+    assertEquals(2.0 * 360.0, flipped.getArea(), 1e-9);
+    assertTrue(flipped.contains(0.0, 0.0));
+    // Otherwise a crossing box covers the values outside of its edges.
+    BoundingBox crossing = new BoundingBox(
+        new GeoPoint(-1.0, -170.0),
+        new GeoPoint(1.0, 170.0),
+        false,
+        true
+    );
+    assertEquals(2.0 * 20.0, crossing.getArea(), 1e-9);
+    assertTrue(crossing.contains(0.0, 175.0));
+    assertFalse(crossing.contains(0.0, 0.0));
+  }
+}
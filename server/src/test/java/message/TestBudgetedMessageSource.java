@@ -0,0 +1,201 @@
+package message;
+
+import static helper.TestHelper.getRandomDate;
+import static helper.TestHelper.getRandomLatitude;
+import static helper.TestHelper.getRandomLongitude;
+import static helper.TestHelper.getRandomString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+
+public class TestBudgetedMessageSource {
+
+  @Test
+  public void testCollectionsWithinBudgetAreReadWithLimit()
+      throws ExecutionException, InterruptedException {
+    MessageSource delegate = mock(MessageSource.class);
+    when(delegate.getMessages(11)).thenReturn(getMessages(5));
+    BudgetedMessageSource source =
+        new BudgetedMessageSource(delegate, 10, 60000, 60000, Runnable::run);
+
+    source.getAllMessages();
+    List<Message> messages = source.getAllMessages();
+
+    assertEquals(5, messages.size());
+    verify(delegate, times(2)).getMessages(11);
+    verify(delegate, never()).getAllMessages();
+    assertEquals(2, source.getFullScanCount());
+  }
+
+  @Test
+  public void testScansOverBudgetAreServedFromCache()
+      throws ExecutionException, InterruptedException {
+    MessageSource delegate = mock(MessageSource.class);
+    List<Message> messages = getMessages(20);
+    when(delegate.getMessages(11)).thenReturn(messages.subList(0, 11));
+    when(delegate.getAllMessages()).thenReturn(messages);
+    BudgetedMessageSource source =
+        new BudgetedMessageSource(delegate, 10, 60000, 60000, Runnable::run);
+
+    // The request outgrowing the budget gets a sample while the full scan loads.
+    List<Message> sampled = source.getAllMessages();
+    List<Message> cached = source.getAllMessages();
+
+    assertEquals(10, sampled.size());
+    assertEquals(messages, cached);
+    verify(delegate, times(1)).getMessages(11);
+    verify(delegate, times(1)).getAllMessages();
+    assertEquals(1, source.getSampledCount());
+    assertEquals(1, source.getCachedCount());
+  }
+
+  /**
+   * Test that a cached scan due for a refresh is still served while it is refreshed.
+   */
+  @Test
+  public void testStaleScanIsRefreshedInBackground()
+      throws ExecutionException, InterruptedException {
+    MessageSource delegate = mock(MessageSource.class);
+    when(delegate.getMessages(11)).thenReturn(getMessages(11));
+    when(delegate.getAllMessages()).thenReturn(getMessages(20));
+    List<Runnable> refreshes = new ArrayList<>();
+    BudgetedMessageSource source =
+        new BudgetedMessageSource(delegate, 10, 0, 60000, refreshes::add);
+
+    source.getAllMessages();
+    assertEquals(1, refreshes.size());
+    refreshes.get(0).run();
+    source.getAllMessages();
+    source.getAllMessages();
+
+    // Only one refresh is queued until it has run.
+    assertEquals(2, refreshes.size());
+    verify(delegate, times(1)).getAllMessages();
+    refreshes.get(1).run();
+    verify(delegate, times(2)).getAllMessages();
+    assertEquals(2, source.getRefreshCount());
+    assertEquals(2, source.getCachedCount());
+  }
+
+  @Test
+  public void testTooStaleScanFallsBackToSample() throws ExecutionException, InterruptedException {
+    MessageSource delegate = mock(MessageSource.class);
+    when(delegate.getMessages(11)).thenReturn(getMessages(11));
+    when(delegate.getAllMessages()).thenReturn(getMessages(20));
+    when(delegate.getMessages(10)).thenReturn(getMessages(10));
+    BudgetedMessageSource source =
+        new BudgetedMessageSource(delegate, 10, 60000, 0, Runnable::run);
+
+    source.getAllMessages();
+    List<Message> sampled = source.getAllMessages();
+
+    assertEquals(10, sampled.size());
+    verify(delegate, times(1)).getMessages(10);
+    assertEquals(2, source.getSampledCount());
+  }
+
+  /**
+   * Test that a collection shrinking back within the budget is read directly again.
+   */
+  @Test
+  public void testCollectionBackWithinBudgetIsNotCached()
+      throws ExecutionException, InterruptedException {
+    MessageSource delegate = mock(MessageSource.class);
+    when(delegate.getMessages(11)).thenReturn(getMessages(11), getMessages(5));
+    when(delegate.getAllMessages()).thenReturn(getMessages(5));
+    BudgetedMessageSource source =
+        new BudgetedMessageSource(delegate, 10, 60000, 60000, Runnable::run);
+
+    source.getAllMessages();
+    List<Message> messages = source.getAllMessages();
+
+    assertEquals(5, messages.size());
+    assertEquals(0, source.getCachedCount());
+    assertEquals(1, source.getFullScanCount());
+  }
+
+  /**
+   * Test that a request that must see a write is served the cached scan with the write applied,
+   * without scanning again, even once the scan is too stale for other requests.
+   */
+  @Test
+  public void testNewerReadVersionIsServedPatchedScan() throws Exception {
+    MessageSource delegate = mock(MessageSource.class);
+    when(delegate.getMessages(11)).thenReturn(getMessages(11));
+    when(delegate.getMessages(10)).thenReturn(getMessages(10));
+    List<Message> scanned = getMessages(20);
+    when(delegate.getAllMessages()).thenReturn(scanned);
+    List<Runnable> refreshes = new ArrayList<>();
+    BudgetedMessageSource source =
+        new BudgetedMessageSource(delegate, 10, 60000, 0, refreshes::add);
+
+    source.getAllMessages();
+    refreshes.get(0).run();
+    Message written = getMessages(1).get(0);
+    source.apply(
+        Collections.singletonList(written),
+        Collections.singletonList(scanned.get(0).getId())
+    );
+
+    List<Message> messages = ReadVersion.call(5, source::getAllMessages);
+
+    assertEquals(20, messages.size());
+    assertTrue(messages.contains(written));
+    assertFalse(messages.contains(scanned.get(0)));
+    assertEquals(10, source.getAllMessages().size());
+    verify(delegate, times(1)).getAllMessages();
+  }
+
+  /**
+   * Test that a request that must see a write waits for the first scan rather than getting a
+   * sample, and that writes made during the scan are applied to it.
+   */
+  @Test
+  public void testNewerReadVersionAwaitsFirstScan() throws Exception {
+    MessageSource delegate = mock(MessageSource.class);
+    when(delegate.getMessages(11)).thenReturn(getMessages(11));
+    Message written = getMessages(1).get(0);
+    BudgetedMessageSource[] source = new BudgetedMessageSource[1];
+    when(delegate.getAllMessages()).thenAnswer(invocation -> {
+      // Committed during the scan, which doesn't include it.
+      source[0].apply(Collections.singletonList(written), Collections.emptyList());
+      return getMessages(20);
+    });
+    source[0] = new BudgetedMessageSource(delegate, 10, 60000, 60000, Runnable::run);
+
+    List<Message> messages = ReadVersion.call(5, source[0]::getAllMessages);
+
+    assertEquals(21, messages.size());
+    assertTrue(messages.contains(written));
+    assertEquals(21, source[0].getAllMessages().size());
+    assertEquals(1, source[0].getAwaitedScanCount());
+    assertEquals(0, source[0].getSampledCount());
+  }
+
+  private static List<Message> getMessages(int count) {
+    List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      messages.add(new Message(
+          getRandomString(20),
+          getRandomString(20),
+          getRandomLatitude(),
+          getRandomLongitude(),
+          getRandomString(20),
+          getRandomDate(),
+          getRandomString(20)
+      ));
+    }
+    return messages;
+  }
+}
@@ -0,0 +1,119 @@
+package message;
+
+import static helper.TestHelper.getRandomDate;
+import static helper.TestHelper.getRandomString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.firestore.GeoPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class TestCachingMessageFinder {
+  private static final GeoPoint LESSER_POINT = new GeoPoint(0.01, 0.01);
+  private static final GeoPoint GREATER_POINT = new GeoPoint(0.05, 0.05);
+
+  @Test
+  public void testNearbyQueriesShareCachedTile() throws Exception {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByBoundingBox(any(), any(), anyInt(), anyBoolean(), anyBoolean()))
+        .thenReturn(Arrays.asList(getMessage(0.02, 0.02), getMessage(0.04, 0.04)));
+    CachingMessageFinder finder = new CachingMessageFinder(delegate, 0.1, 64, 60000, 100, () -> 0);
+
+    assertEquals(2, finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, 10, false, false).size());
+    // Filtered down to its own box and limit.
+    List<Message> messages = finder.findByBoundingBox(
+        new GeoPoint(0.03, 0.03),
+        new GeoPoint(0.06, 0.06),
+        10,
+        false,
+        false
+    );
+    assertEquals(1, messages.size());
+    assertEquals(1, finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, 1, false, false).size());
+
+    verify(delegate, times(1))
+        .findByBoundingBox(any(), any(), anyInt(), anyBoolean(), anyBoolean());
+    assertEquals(1, finder.getMissCount());
+    assertEquals(2, finder.getHitCount());
+  }
+
+  @Test
+  public void testNewerReadVersionBypassesOlderEntry() throws Exception {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByBoundingBox(any(), any(), anyInt(), anyBoolean(), anyBoolean()))
+        .thenReturn(Arrays.asList(getMessage(0.02, 0.02)))
+        .thenReturn(Arrays.asList(getMessage(0.02, 0.02), getMessage(0.04, 0.04)));
+    AtomicLong writeVersion = new AtomicLong(4);
+    CachingMessageFinder finder =
+        new CachingMessageFinder(delegate, 0.1, 64, 60000, 100, writeVersion::get);
+
+    assertEquals(1, find(finder, 4));
+    // Reads that don't need the newer write keep getting the cached results.
+    writeVersion.set(5);
+    assertEquals(1, find(finder, 4));
+    assertEquals(1, find(finder, -1));
+    // The writer's own read bypasses the entry and refreshes it for everyone.
+    assertEquals(2, find(finder, 5));
+    assertEquals(2, find(finder, -1));
+
+    verify(delegate, times(2))
+        .findByBoundingBox(any(), any(), anyInt(), anyBoolean(), anyBoolean());
+    assertEquals(1, finder.getMissCount());
+    assertEquals(1, finder.getBypassCount());
+    assertEquals(3, finder.getHitCount());
+  }
+
+  /**
+   * Test that results loaded for a read without a version, which may come from a shared or cached
+   * read older than the latest writes, don't satisfy a read bound to a version, and that such a
+   * read asks the layers below for the current version.
+   */
+  @Test
+  public void testUnboundResultsDoNotVouchForVersion() throws Exception {
+    MessageFinder delegate = mock(MessageFinder.class);
+    List<Long> requiredVersions = new ArrayList<>();
+    when(delegate.findByBoundingBox(any(), any(), anyInt(), anyBoolean(), anyBoolean()))
+        .thenAnswer(invocation -> {
+          requiredVersions.add(ReadVersion.getRequired());
+          return Arrays.asList(getMessage(0.02, 0.02));
+        });
+    CachingMessageFinder finder = new CachingMessageFinder(delegate, 0.1, 64, 60000, 100, () -> 5);
+
+    find(finder, -1);
+    find(finder, 3);
+    find(finder, 3);
+
+    assertEquals(Arrays.asList(-1L, 5L), requiredVersions);
+    assertEquals(1, finder.getBypassCount());
+    assertEquals(1, finder.getHitCount());
+  }
+
+  private static int find(CachingMessageFinder finder, long version) throws Exception {
+    return ReadVersion.call(
+        version,
+        () -> finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, 10, false, false)
+    ).size();
+  }
+
+  private static Message getMessage(double latitude, double longitude) {
+    return new Message(
+        getRandomString(20),
+        getRandomString(20),
+        latitude,
+        longitude,
+        getRandomString(20),
+        getRandomDate(),
+        getRandomString(20)
+    );
+  }
+}
@@ -0,0 +1,198 @@
+package message;
+
+import static helper.TestHelper.getRandomDate;
+import static helper.TestHelper.getRandomString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.firestore.GeoPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import limit.CircuitBreaker;
+import limit.CircuitBreakerOpenException;
+import org.junit.jupiter.api.Test;
+
+public class TestCircuitBreakerMessageFinder {
+  private static final GeoPoint LESSER_POINT = new GeoPoint(0.01, 0.01);
+  private static final GeoPoint GREATER_POINT = new GeoPoint(0.05, 0.05);
+
+  @Test
+  public void testOpenBreakerServesLastKnownGoodResults()
+      throws ExecutionException, InterruptedException {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByBoundingBox(any(), any(), anyInt(), anyBoolean(), anyBoolean()))
+        .thenReturn(Arrays.asList(getMessage(0.02, 0.02), getMessage(0.04, 0.04)))
+        .thenThrow(new ExecutionException(new IllegalStateException()));
+    CircuitBreakerMessageFinder finder = newFinder(delegate, 60000, 60000, Runnable::run);
+
+    assertEquals(2, finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, 10, false, false).size());
+    assertEquals(-1, CircuitBreakerMessageFinder.takeStalenessMillis());
+
+    // The failure opens the breaker and is answered from the cache.
+    assertEquals(2, finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, 10, false, false).size());
+    assertTrue(CircuitBreakerMessageFinder.takeStalenessMillis() >= 0);
+
+    // A nearby viewport in the same tile is served without calling the backend, filtered down to
+    // its own box and limit.
+    List<Message> messages = finder.findByBoundingBox(
+        new GeoPoint(0.03, 0.03),
+        new GeoPoint(0.06, 0.06),
+        10,
+        false,
+        false
+    );
+    assertEquals(1, messages.size());
+    assertTrue(CircuitBreakerMessageFinder.takeStalenessMillis() >= 0);
+    verify(delegate, times(2))
+        .findByBoundingBox(any(), any(), anyInt(), anyBoolean(), anyBoolean());
+    assertEquals(2, finder.getStaleCount());
+  }
+
+  /**
+   * Test that the cached answer of an area holds its whole tile, not the box and limit of the
+   * request that loaded it.
+   */
+  @Test
+  public void testCachedAreaHoldsWholeTile() throws ExecutionException, InterruptedException {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByBoundingBox(any(), any(), anyInt(), anyBoolean(), anyBoolean()))
+        .thenReturn(Arrays.asList(
+            getMessage(0.02, 0.02),
+            getMessage(0.03, 0.03),
+            getMessage(0.08, 0.08)
+        ))
+        .thenThrow(new ExecutionException(new IllegalStateException()));
+    CircuitBreakerMessageFinder finder = newFinder(delegate, 60000, 60000, Runnable::run);
+
+    assertEquals(1, finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, 1, false, false).size());
+    verify(delegate).findByBoundingBox(
+        new GeoPoint(0, 0),
+        new GeoPoint(0.1, 0.1),
+        Integer.MAX_VALUE,
+        false,
+        false
+    );
+
+    // Served from the cache, with more messages than the first request's limit and outside of
+    // its box.
+    List<Message> messages = finder.findByBoundingBox(
+        LESSER_POINT,
+        new GeoPoint(0.09, 0.09),
+        10,
+        false,
+        false
+    );
+    assertEquals(3, messages.size());
+    assertTrue(CircuitBreakerMessageFinder.takeStalenessMillis() >= 0);
+  }
+
+  @Test
+  public void testOpenBreakerWithoutCachedResultsFailsFast()
+      throws ExecutionException, InterruptedException {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByUserId(any()))
+        .thenThrow(new ExecutionException(new IllegalStateException()));
+    CircuitBreakerMessageFinder finder = newFinder(delegate, 60000, 60000, Runnable::run);
+
+    ExecutionException e = assertThrows(ExecutionException.class, () -> finder.findByUserId("a"));
+    assertTrue(e.getCause() instanceof IllegalStateException);
+    e = assertThrows(ExecutionException.class, () -> finder.findByUserId("b"));
+    assertTrue(e.getCause() instanceof CircuitBreakerOpenException);
+
+    verify(delegate, times(1)).findByUserId(any());
+    assertEquals(1, finder.getRejectedCount());
+  }
+
+  @Test
+  public void testStaleResultsAreRevalidatedInBackground()
+      throws ExecutionException, InterruptedException {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByUserId(any()))
+        .thenReturn(Arrays.asList(getMessage(0, 0)))
+        .thenReturn(Arrays.asList(getMessage(0, 0), getMessage(1, 1)));
+    CircuitBreaker breaker = mock(CircuitBreaker.class);
+    // Open for requests after the first, letting only the refresh through.
+    when(breaker.tryAcquire()).thenReturn(true, false, false, true, false);
+    List<Runnable> refreshes = new ArrayList<>();
+    CircuitBreakerMessageFinder finder =
+        new CircuitBreakerMessageFinder(delegate, breaker, 0.1, 64, 100, 0, 1000, refreshes::add);
+
+    finder.findByUserId("user");
+    assertEquals(1, finder.findByUserId("user").size());
+    // A second stale read doesn't queue another refresh of the same entry.
+    assertEquals(1, finder.findByUserId("user").size());
+    assertEquals(1, refreshes.size());
+
+    refreshes.get(0).run();
+    assertEquals(1, finder.getRefreshCount());
+    assertEquals(2, finder.findByUserId("user").size());
+    verify(delegate, times(2)).findByUserId("user");
+  }
+
+  /**
+   * Test that a write in a cached area keeps its results as the last known good answer, but has
+   * them refreshed when they are next served.
+   */
+  @Test
+  public void testWriteMarksCachedAreaForRefresh()
+      throws ExecutionException, InterruptedException {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByBoundingBox(any(), any(), anyInt(), anyBoolean(), anyBoolean()))
+        .thenReturn(Arrays.asList(getMessage(0.02, 0.02)))
+        .thenThrow(new ExecutionException(new IllegalStateException()));
+    List<Runnable> refreshes = new ArrayList<>();
+    CircuitBreakerMessageFinder finder = newFinder(delegate, 60000, 60000, refreshes::add);
+
+    finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, 10, false, false);
+    // A write outside of the cached area leaves it alone.
+    finder.invalidate(Collections.emptyList(), Arrays.asList(new GeoPoint(0.5, 0.5)));
+    assertEquals(1, finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, 10, false, false).size());
+    assertEquals(0, refreshes.size());
+
+    finder.invalidate(Collections.emptyList(), Arrays.asList(new GeoPoint(0.07, 0.07)));
+    assertEquals(1, finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, 10, false, false).size());
+    assertEquals(1, refreshes.size());
+  }
+
+  private static CircuitBreakerMessageFinder newFinder(
+      MessageFinder delegate,
+      long openMillis,
+      long revalidateMillis,
+      Executor refreshExecutor
+  ) {
+    return new CircuitBreakerMessageFinder(
+        delegate,
+        new CircuitBreaker(10, 1, 0.5, 1000, 1.0, openMillis, 1),
+        0.1,
+        64,
+        100,
+        revalidateMillis,
+        1000,
+        refreshExecutor
+    );
+  }
+
+  private static Message getMessage(double latitude, double longitude) {
+    return new Message(
+        getRandomString(20),
+        getRandomString(20),
+        latitude,
+        longitude,
+        getRandomString(20),
+        getRandomDate(),
+        getRandomString(20)
+    );
+  }
+}
@@ -0,0 +1,242 @@
+package message;
+
+import static helper.TestHelper.getRandomDate;
+import static helper.TestHelper.getRandomString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.firestore.GeoPoint;
+import deadline.Deadline;
+import deadline.DeadlineExceededException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class TestCoalescingMessageFinder {
+  private static final GeoPoint LESSER_POINT = new GeoPoint(0.01, 0.01);
+  private static final GeoPoint GREATER_POINT = new GeoPoint(0.05, 0.05);
+
+  @Test
+  public void testConcurrentIdenticalQueriesShareBackendCall() throws Exception {
+    int callers = 8;
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByBoundingBox(any(), any(), anyInt(), anyBoolean(), anyBoolean()))
+        .thenAnswer(invocation -> {
+          started.countDown();
+          release.await(5, TimeUnit.SECONDS);
+          return Arrays.asList(getMessage(0.02, 0.02), getMessage(0.09, 0.09));
+        });
+    CoalescingMessageFinder finder = new CoalescingMessageFinder(delegate, 0.1, 64);
+
+    ExecutorService executor = Executors.newFixedThreadPool(callers);
+    List<Future<List<Message>>> futures = new ArrayList<>();
+    futures.add(executor.submit(
+        () -> finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, 10, false, false)
+    ));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    // Different limits share the computation, which is fetched without one.
+    for (int i = 1; i < callers; i++) {
+      int maxRecords = 10 + i;
+      futures.add(executor.submit(
+          () -> finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, maxRecords, false, false)
+      ));
+    }
+    // A joined caller is sure to get the shared result, however late it gets to wait for it.
+    while (finder.getJoinedCount() < callers - 1) {
+      Thread.yield();
+    }
+    release.countDown();
+
+    for (Future<List<Message>> future : futures) {
+      // The message outside of the exact box is filtered out for every caller.
+      assertEquals(1, future.get().size());
+    }
+    executor.shutdown();
+
+    assertEquals(1, finder.getBackendCallCount());
+    assertEquals(1 - 1.0 / callers, finder.getCoalescingRatio());
+  }
+
+  @Test
+  public void testSequentialQueriesDoNotShareBackendCall()
+      throws ExecutionException, InterruptedException {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByUserId(any())).thenReturn(Arrays.asList(getMessage(0, 0)));
+    CoalescingMessageFinder finder = new CoalescingMessageFinder(delegate, 0.1, 64);
+
+    finder.findByUserId("user");
+    finder.findByUserId("user");
+
+    verify(delegate, times(2)).findByUserId("user");
+    assertEquals(0.0, finder.getCoalescingRatio());
+  }
+
+  @Test
+  public void testSnappedBoxIsQueriedWithoutLimit()
+      throws ExecutionException, InterruptedException {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByBoundingBox(any(), any(), anyInt(), anyBoolean(), anyBoolean()))
+        .thenReturn(Arrays.asList(
+            getMessage(0.02, 0.02),
+            getMessage(0.03, 0.03),
+            getMessage(0.04, 0.04)
+        ));
+    CoalescingMessageFinder finder = new CoalescingMessageFinder(delegate, 0.1, 64);
+
+    List<Message> messages =
+        finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, 2, false, false);
+
+    assertEquals(2, messages.size());
+    assertEquals(3, finder.findByBoundingBox(LESSER_POINT, GREATER_POINT, 5, false, false).size());
+    verify(delegate, times(2)).findByBoundingBox(
+        new GeoPoint(0.0, 0.0),
+        new GeoPoint(0.1, 0.1),
+        Integer.MAX_VALUE,
+        false,
+        false
+    );
+  }
+
+  @Test
+  public void testAlignedAndLargeBoxesAreQueriedWithLimit()
+      throws ExecutionException, InterruptedException {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByBoundingBox(any(), any(), anyInt(), anyBoolean(), anyBoolean()))
+        .thenReturn(Arrays.asList(getMessage(0.05, 0.05)));
+    CoalescingMessageFinder finder = new CoalescingMessageFinder(delegate, 0.1, 64);
+    GeoPoint alignedLesser = new GeoPoint(0.1, 0.2);
+    GeoPoint alignedGreater = new GeoPoint(0.3, 0.4);
+    GeoPoint largeLesser = new GeoPoint(0.01, 0.01);
+    GeoPoint largeGreater = new GeoPoint(5.05, 5.05);
+
+    finder.findByBoundingBox(alignedLesser, alignedGreater, 2, false, false);
+    finder.findByBoundingBox(largeLesser, largeGreater, 3, false, false);
+
+    verify(delegate).findByBoundingBox(alignedLesser, alignedGreater, 2, false, false);
+    verify(delegate).findByBoundingBox(largeLesser, largeGreater, 3, false, false);
+  }
+
+  @Test
+  public void testBackendErrorIsPropagated() throws ExecutionException, InterruptedException {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByUserId(any()))
+        .thenThrow(new ExecutionException(new IllegalStateException()));
+    CoalescingMessageFinder finder = new CoalescingMessageFinder(delegate, 0.1, 64);
+
+    assertThrows(ExecutionException.class, () -> finder.findByUserId("user"));
+  }
+
+  @Test
+  public void testSnapWrappingBoxGrowsOutwards() {
+    CoalescingMessageFinder.BoundingBoxKey key = CoalescingMessageFinder.BoundingBoxKey.snap(
+        new GeoPoint(-10.05, -170.05),
+        new GeoPoint(10.05, 170.05),
+        true,
+        true,
+        0.1
+    );
+
+    assertEquals(-10.0, key.lesserPoint.getLatitude(), 1e-9);
+    assertEquals(-170.0, key.lesserPoint.getLongitude(), 1e-9);
+    assertEquals(10.0, key.greaterPoint.getLatitude(), 1e-9);
+    assertEquals(170.0, key.greaterPoint.getLongitude(), 1e-9);
+  }
+
+  /**
+   * Test that a query bound to a write version doesn't join a computation started for an older
+   * one, which may have read the messages before the write.
+   */
+  @Test
+  public void testNewerReadVersionDoesNotJoinOlderComputation() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByUserId(any())).thenAnswer(invocation -> {
+      if (ReadVersion.getRequired() < 0) {
+        started.countDown();
+        release.await(5, TimeUnit.SECONDS);
+      }
+      return Arrays.asList(getMessage(0, 0));
+    });
+    CoalescingMessageFinder finder = new CoalescingMessageFinder(delegate, 0.1, 64);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<List<Message>> older = executor.submit(() -> finder.findByUserId("user"));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertEquals(1, ReadVersion.call(5, () -> finder.findByUserId("user")).size());
+    release.countDown();
+    assertEquals(1, older.get(5, TimeUnit.SECONDS).size());
+    executor.shutdown();
+
+    assertEquals(2, finder.getBackendCallCount());
+    assertEquals(0, finder.getJoinedCount());
+  }
+
+  /**
+   * Test that a caller whose shared computation is ended by the deadline of the caller running it
+   * computes the result itself with the time it has left.
+   */
+  @Test
+  public void testJoinedCallerRetriesWhenLeaderDeadlinePasses() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch joined = new CountDownLatch(1);
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByUserId(any()))
+        .thenAnswer(invocation -> {
+          started.countDown();
+          joined.await(5, TimeUnit.SECONDS);
+          throw new DeadlineExceededException();
+        })
+        .thenReturn(Arrays.asList(getMessage(0, 0)));
+    CoalescingMessageFinder finder = new CoalescingMessageFinder(delegate, 0.1, 64);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    Future<List<Message>> leader = executor.submit(() -> finder.findByUserId("user"));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    executor.submit(() -> {
+      while (finder.getJoinedCount() < 1) {
+        Thread.yield();
+      }
+      joined.countDown();
+    });
+
+    List<Message> messages = Deadline.after(TimeUnit.SECONDS.toNanos(5))
+        .call(() -> finder.findByUserId("user"));
+
+    assertEquals(1, messages.size());
+    ExecutionException e = assertThrows(ExecutionException.class, leader::get);
+    assertTrue(e.getCause() instanceof DeadlineExceededException);
+    executor.shutdown();
+    assertEquals(2, finder.getBackendCallCount());
+    assertEquals(0, finder.getJoinedCount());
+  }
+
+  private static Message getMessage(double latitude, double longitude) {
+    return new Message(
+        getRandomString(20),
+        getRandomString(20),
+        latitude,
+        longitude,
+        getRandomString(20),
+        getRandomDate(),
+        getRandomString(20)
+    );
+  }
+}
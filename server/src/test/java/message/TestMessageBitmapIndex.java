@@ -0,0 +1,209 @@
+package message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class TestMessageBitmapIndex {
+  private static final long HOUR = 3600000;
+  private static final BoundingBox BOX = BoundingBox.fromEdges(0, 1, 0, 1);
+
+  @Test
+  public void testConditionsAreIntersected() {
+    MessageBitmapIndex index = new MessageBitmapIndex(0.1, HOUR, 1000);
+    index.apply(
+        Arrays.asList(
+            getMessage("a", "user", 0.5, 0.5, 10 * HOUR),
+            getMessage("b", "user", 0.5, 0.5, HOUR),
+            getMessage("c", "user", 5, 5, 10 * HOUR),
+            getMessage("d", "other", 0.5, 0.5, 10 * HOUR),
+            // Shares a cell and a time bucket with the others, but is outside of the conditions.
+            getMessage("e", "user", 1.05, 0.5, 10 * HOUR - 1)
+        ),
+        Collections.emptyList()
+    );
+
+    assertEquals(set("a", "b", "c", "e"), ids(index.find("user", null, null, 10)));
+    assertEquals(set("a", "b", "e"), ids(index.find("user", box(1.1), null, 10)));
+    assertEquals(set("a", "b", "d"), ids(index.find(null, BOX, null, 10)));
+    assertEquals(set("a", "d"), ids(index.find(null, BOX, new Date(9 * HOUR), 10)));
+    assertEquals(set("a"), ids(index.find("user", BOX, new Date(10 * HOUR - 1), 10)));
+    assertEquals(1, index.find("user", null, null, 1).size());
+    assertTrue(index.find("missing", BOX, null, 10).isEmpty());
+  }
+
+  @Test
+  public void testChangesMoveMessagesBetweenBitmaps() {
+    MessageBitmapIndex index = new MessageBitmapIndex(0.1, HOUR, 1000);
+    index.apply(
+        Arrays.asList(
+            getMessage("a", "user", 0.5, 0.5, HOUR),
+            getMessage("b", "user", 0.5, 0.5, HOUR)
+        ),
+        Collections.emptyList()
+    );
+
+    index.apply(
+        Arrays.asList(
+            getMessage("a", "user", 5, 5, HOUR),
+            getMessage("c", "other", 0.5, 0.5, HOUR)
+        ),
+        Collections.singletonList("b")
+    );
+
+    assertEquals(2, index.size());
+    assertEquals(set("a"), ids(index.find("user", null, null, 10)));
+    assertEquals(set("c"), ids(index.find(null, BOX, null, 10)));
+    assertTrue(index.find("user", BOX, null, 10).isEmpty());
+  }
+
+  @Test
+  public void testAreasSpanningTooManyCellsAreCheckedPerMessage() {
+    MessageBitmapIndex index = new MessageBitmapIndex(0.1, HOUR, 4);
+    index.apply(
+        Arrays.asList(
+            getMessage("a", "user", 0.5, 0.5, HOUR),
+            getMessage("b", "user", 50, 50, HOUR),
+            getMessage("c", "user", 70, 70, HOUR)
+        ),
+        Collections.emptyList()
+    );
+
+    assertEquals(set("a", "b"), ids(index.find(null, box(60), null, 10)));
+    assertEquals(set("a", "b"), ids(index.find("user", box(60), null, 10)));
+  }
+
+  @Test
+  public void testPlannerPicksCheapestAccessPath() {
+    MessageBitmapIndex index = new MessageBitmapIndex(0.1, HOUR, 100000);
+    List<Message> messages = new ArrayList<>();
+    Random random = new Random(0);
+    for (int i = 0; i < 2000; i++) {
+      messages.add(getMessage(
+          "crowd-" + i,
+          "crowd-" + i % 100,
+          random.nextDouble() * 10,
+          random.nextDouble() * 10,
+          HOUR
+      ));
+    }
+    messages.add(getMessage("solo-0", "solo", 5, 5, HOUR));
+    messages.add(getMessage("solo-1", "solo", 9, 9, HOUR));
+    index.apply(messages, Collections.emptyList());
+
+    // A user with few posts is looked up by user, rather than in 10000 cells.
+    QueryPlan plan = index.explain("solo", box(10), null, 100);
+    assertEquals("user", plan.getAccessPath());
+    assertEquals(set("solo-0", "solo-1"), ids(index.find("solo", box(10), null, 100)));
+    // A small area is looked up in its cells.
+    assertEquals("area", index.explain(null, box(0.05), null, 10).getAccessPath());
+    // Nearly every message matches a world-wide box, so the first ones scanned will do.
+    BoundingBox world = BoundingBox.fromEdges(-90, 90, -180, 180);
+    plan = index.explain(null, world, null, 10);
+    assertEquals("scan", plan.getAccessPath());
+    assertEquals(2002, plan.getIndexedMessages());
+    assertEquals(10, plan.getPaths().get(0).getEstimatedChecked(), 0.001);
+    assertEquals(10, index.find(null, world, null, 10).size());
+    // Queries report the plan they ran with.
+    List<QueryPlan> plans = new ArrayList<>();
+    index.find(null, box(0.05), null, Collections.emptyList(), 10, plans);
+    assertEquals("area", plans.get(0).getAccessPath());
+  }
+
+  @Test
+  public void testKeywordsAreIntersectedWithArea() {
+    MessageBitmapIndex index = new MessageBitmapIndex(0.1, HOUR, 1000);
+    index.apply(
+        Arrays.asList(
+            getMessage("a", "user", 0.5, 0.5, HOUR, "Live concert tonight"),
+            getMessage("b", "user", 0.5, 0.5, HOUR, "Coffee, then a CONCERT"),
+            getMessage("c", "user", 5, 5, HOUR, "concert"),
+            getMessage("d", "user", 0.5, 0.5, HOUR, "coffee")
+        ),
+        Collections.emptyList()
+    );
+
+    assertEquals(set("a", "b"), ids(index.find(null, BOX, null, terms("concert"), 10)));
+    assertEquals(set("b"), ids(index.find(null, BOX, null, terms("coffee", "concert"), 10)));
+    assertEquals(set("a", "b", "c"), ids(index.find(null, null, null, terms("concert"), 10)));
+    assertTrue(index.find(null, BOX, null, terms("opera"), 10).isEmpty());
+
+    // Edits move a message between the posting lists of its old and new terms.
+    index.apply(
+        Collections.singletonList(getMessage("a", "user", 0.5, 0.5, HOUR, "Coffee")),
+        Collections.singletonList("d")
+    );
+    assertEquals(set("a", "b"), ids(index.find(null, BOX, null, terms("coffee"), 10)));
+    assertEquals(set("b"), ids(index.find(null, BOX, null, terms("concert"), 10)));
+    assertEquals(4, index.getTermCount());
+  }
+
+  @Test
+  public void testPlannerLooksUpRareKeywords() {
+    MessageBitmapIndex index = new MessageBitmapIndex(0.1, HOUR, 100000);
+    List<Message> messages = new ArrayList<>();
+    Random random = new Random(0);
+    for (int i = 0; i < 2000; i++) {
+      messages.add(getMessage(
+          "crowd-" + i,
+          "crowd",
+          random.nextDouble() * 10,
+          random.nextDouble() * 10,
+          HOUR,
+          "hello world"
+      ));
+    }
+    messages.add(getMessage("rare", "crowd", 5, 5, HOUR, "hello opera"));
+    index.apply(messages, Collections.emptyList());
+
+    QueryPlan plan = index.explain(null, box(10), null, terms("opera", "hello"), 10);
+    assertEquals("text:opera", plan.getAccessPath());
+    assertEquals(set("rare"), ids(index.find(null, box(10), null, terms("opera", "hello"), 10)));
+  }
+
+  private static List<String> terms(String... terms) {
+    return Arrays.asList(terms);
+  }
+
+  private static BoundingBox box(double size) {
+    return BoundingBox.fromEdges(0, size, 0, size);
+  }
+
+  private static Set<String> set(String... ids) {
+    return Arrays.stream(ids).collect(Collectors.toSet());
+  }
+
+  private static Set<String> ids(List<Message> messages) {
+    return messages.stream().map(Message::getId).collect(Collectors.toSet());
+  }
+
+  private static Message getMessage(
+      String id,
+      String userId,
+      double latitude,
+      double longitude,
+      long timestamp
+  ) {
+    return getMessage(id, userId, latitude, longitude, timestamp, "");
+  }
+
+  private static Message getMessage(
+      String id,
+      String userId,
+      double latitude,
+      double longitude,
+      long timestamp,
+      String text
+  ) {
+    return new Message(id, "", latitude, longitude, text, new Date(timestamp), userId);
+  }
+}
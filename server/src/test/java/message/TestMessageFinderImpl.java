@@ -5,6 +5,7 @@ import static helper.TestHelper.getRandomDocumentData;
 import static helper.TestHelper.getRandomString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -14,6 +15,8 @@ import static org.mockito.Mockito.when;
 import com.google.api.core.SettableApiFuture;
 import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.GeoPoint;
 import com.google.cloud.firestore.Query;
@@ -185,6 +188,45 @@ public class TestMessageFinderImpl {
     }
   }
 
+  @Test
+  public void testFindByRecordId() throws ExecutionException, InterruptedException {
+    Map<String, Object> documentData = getRandomDocumentData();
+    String recordId = (String) documentData.get(Message.FS_ID_FIELD_NAME);
+    DocumentSnapshot mockDocumentSnapshot = mock(DocumentSnapshot.class);
+    when(mockDocumentSnapshot.exists()).thenReturn(true);
+    when(mockDocumentSnapshot.getData()).thenReturn(documentData);
+    SettableApiFuture<DocumentSnapshot> futureMockDocumentSnapshot = SettableApiFuture.create();
+    futureMockDocumentSnapshot.set(mockDocumentSnapshot);
+    DocumentReference mockDocumentReference = mock(DocumentReference.class);
+    when(mockDocumentReference.get()).thenReturn(futureMockDocumentSnapshot);
+    CollectionReference mockMessageCollection = mock(CollectionReference.class);
+    when(mockMessageCollection.document(recordId)).thenReturn(mockDocumentReference);
+    Firestore mockFirestore = mock(Firestore.class);
+    when(mockFirestore.collection(Constants.COLLECTION_PATH)).thenReturn(mockMessageCollection);
+
+    MessageFinderImpl messageFinder = new MessageFinderImpl(mockFirestore);
+
+    assertMessageEqualToDocumentData(messageFinder.findByRecordId(recordId), documentData);
+  }
+
+  @Test
+  public void testFindByRecordIdMissing() throws ExecutionException, InterruptedException {
+    DocumentSnapshot mockDocumentSnapshot = mock(DocumentSnapshot.class);
+    when(mockDocumentSnapshot.exists()).thenReturn(false);
+    SettableApiFuture<DocumentSnapshot> futureMockDocumentSnapshot = SettableApiFuture.create();
+    futureMockDocumentSnapshot.set(mockDocumentSnapshot);
+    DocumentReference mockDocumentReference = mock(DocumentReference.class);
+    when(mockDocumentReference.get()).thenReturn(futureMockDocumentSnapshot);
+    CollectionReference mockMessageCollection = mock(CollectionReference.class);
+    when(mockMessageCollection.document(any())).thenReturn(mockDocumentReference);
+    Firestore mockFirestore = mock(Firestore.class);
+    when(mockFirestore.collection(Constants.COLLECTION_PATH)).thenReturn(mockMessageCollection);
+
+    MessageFinderImpl messageFinder = new MessageFinderImpl(mockFirestore);
+
+    assertNull(messageFinder.findByRecordId(getRandomString(20)));
+  }
+
   @Test
   public void testFindByBoundingBoxBigLimit() throws ExecutionException, InterruptedException {
     List<Map<String, Object>> documentDataList = Arrays.asList(
@@ -0,0 +1,153 @@
+package message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class TestMessageIndex {
+
+  @Test
+  public void testChangesAreKeptInRecordIdOrder() {
+    MessageIndex index = new MessageIndex(2);
+    List<Message> messages = new ArrayList<>();
+    for (int i = 19; i >= 0; i--) {
+      messages.add(getMessage(String.format("m-%02d", i), "0"));
+    }
+    index.apply(messages, Collections.emptyList());
+
+    index.apply(
+        Arrays.asList(getMessage("m-05", "1"), getMessage("m-20", "1"), getMessage("a", "1")),
+        Arrays.asList("m-00", "m-10", "m-19", "missing")
+    );
+
+    MessageIndex.Snapshot snapshot = index.getSnapshot();
+    assertEquals(2, snapshot.getVersion());
+    assertEquals(19, snapshot.size());
+    List<String> ids = snapshot.getMessages()
+        .stream()
+        .map(Message::getId)
+        .collect(Collectors.toList());
+    List<String> sortedIds = new ArrayList<>(ids);
+    Collections.sort(sortedIds);
+    assertEquals(sortedIds, ids);
+    assertEquals("a", snapshot.getMessages().get(0).getId());
+    assertEquals("m-20", snapshot.getMessages().get(18).getId());
+    assertEquals("1", snapshot.get("m-05").getText());
+    assertEquals("0", snapshot.get("m-06").getText());
+    assertNull(snapshot.get("m-10"));
+    assertEquals(3, index.getMessages(3).size());
+  }
+
+  @Test
+  public void testSnapshotIsUnchangedByLaterWrites() {
+    MessageIndex index = new MessageIndex(4);
+    index.apply(Arrays.asList(getMessage("a", "0"), getMessage("b", "0")), Collections.emptyList());
+    MessageIndex.Snapshot snapshot = index.getSnapshot();
+    Message a = snapshot.get("a");
+
+    index.apply(Collections.singletonList(getMessage("a", "1")), Collections.singletonList("b"));
+
+    assertSame(a, snapshot.get("a"));
+    assertEquals(2, snapshot.size());
+    assertEquals("1", index.getSnapshot().get("a").getText());
+    assertEquals(1, index.getSnapshot().size());
+  }
+
+  /**
+   * Stress test readers against a writer publishing versions as fast as it can. Every version
+   * rewrites all messages with its own number and swaps one message for a new one, so a reader
+   * seeing parts of two versions would find mixed texts, a wrong size or out of order IDs.
+   */
+  @Test
+  public void testReadersSeeConsistentSnapshots() throws InterruptedException {
+    int messageCount = 200;
+    int versions = 2000;
+    MessageIndex index = new MessageIndex(4);
+    index.apply(getVersion(messageCount, 0), Collections.emptyList());
+
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicReference<String> failure = new AtomicReference<>();
+    List<Thread> readers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Thread reader = new Thread(() -> {
+        long lastVersion = 0;
+        while (!done.get() && failure.get() == null) {
+          MessageIndex.Snapshot snapshot = index.getSnapshot();
+          String error = check(snapshot, messageCount + 1, lastVersion);
+          if (error != null) {
+            failure.compareAndSet(null, error);
+          }
+          lastVersion = snapshot.getVersion();
+        }
+      });
+      reader.start();
+      readers.add(reader);
+    }
+
+    for (int version = 1; version < versions; version++) {
+      index.apply(
+          getVersion(messageCount, version),
+          Collections.singletonList("churn-" + (version - 1))
+      );
+    }
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    assertNull(failure.get());
+    assertNull(check(index.getSnapshot(), messageCount + 1, versions));
+    assertEquals(versions, index.getSnapshot().getVersion());
+  }
+
+  private static List<Message> getVersion(int messageCount, int version) {
+    String text = String.valueOf(version);
+    List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < messageCount; i++) {
+      messages.add(getMessage("message-" + i, text));
+    }
+    messages.add(getMessage("churn-" + version, text));
+    return messages;
+  }
+
+  private static String check(MessageIndex.Snapshot snapshot, int size, long lastVersion) {
+    if (snapshot.getVersion() < lastVersion) {
+      return "Version went back from " + lastVersion + " to " + snapshot.getVersion();
+    }
+    if (snapshot.size() != size) {
+      return "Version " + snapshot.getVersion() + " has " + snapshot.size() + " messages";
+    }
+    String text = String.valueOf(snapshot.getVersion() - 1);
+    String previousId = null;
+    int count = 0;
+    for (Message message : snapshot.getMessages()) {
+      if (!text.equals(message.getText())) {
+        return "Version " + snapshot.getVersion() + " holds text " + message.getText();
+      }
+      if (previousId != null && previousId.compareTo(message.getId()) >= 0) {
+        return "Version " + snapshot.getVersion() + " is out of order at " + message.getId();
+      }
+      if (snapshot.get(message.getId()) != message
+          || snapshot.getMessages().get(count) != message) {
+        return "Version " + snapshot.getVersion() + " lookups disagree at " + message.getId();
+      }
+      previousId = message.getId();
+      count++;
+    }
+    return count == size ? null : "Version " + snapshot.getVersion() + " iterated " + count;
+  }
+
+  private static Message getMessage(String id, String text) {
+    return new Message(id, "", 0, 0, text, new Date(0), "user");
+  }
+}
@@ -1,11 +1,24 @@
 package message;
 
 import static helper.TestHelper.getMockQueryDocumentSnapshotsFromDocumentDataList;
+import static helper.TestHelper.getRandomDate;
 import static helper.TestHelper.getRandomDocumentData;
+import static helper.TestHelper.getRandomLatitude;
+import static helper.TestHelper.getRandomLongitude;
+import static helper.TestHelper.getRandomString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.api.core.ApiFuture;
@@ -20,13 +33,17 @@ import com.google.cloud.firestore.Query;
 import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.QuerySnapshot;
 import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
 import com.google.cloud.firestore.WriteResult;
 import constants.Constants;
+import deadline.Deadline;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
 import responses.DeletePostResponse;
 import responses.NewPostResponse;
@@ -62,17 +79,24 @@ public class TestMessagePosterImpl {
     DocumentSnapshot doc = mock(DocumentSnapshot.class);
     when(doc.getString(Message.FS_IMAGE_URL_FIELD_NAME)).thenReturn("test.com/test.png");
     ApiFuture<DocumentSnapshot> future = mock(ApiFuture.class);
-    ApiFuture<WriteResult> write = mock(ApiFuture.class);
+    ApiFuture<List<WriteResult>> write = mock(ApiFuture.class);
 
     when(future.get()).thenReturn(doc);
     when(mockFirestore.collection(Constants.COLLECTION_PATH)
         .document((String) documentDataList.get(0).get(Message.FS_ID_FIELD_NAME)).get())
         .thenReturn(future);
-    when(mockFirestore.collection(Constants.COLLECTION_PATH)
-        .document((String) documentDataList.get(0).get(Message.FS_ID_FIELD_NAME)).delete())
-        .thenReturn(write);
+    CollectionReference mockDeletesCollection = mock(CollectionReference.class);
+    when(mockFirestore.collection(Constants.DELETES_COLLECTION_PATH))
+        .thenReturn(mockDeletesCollection);
+    DocumentReference tombstoneRef = mock(DocumentReference.class);
+    when(mockDeletesCollection
+        .document((String) documentDataList.get(0).get(Message.FS_ID_FIELD_NAME)))
+        .thenReturn(tombstoneRef);
+    WriteBatch batch = mock(WriteBatch.class);
+    when(mockFirestore.batch()).thenReturn(batch);
+    when(batch.commit()).thenReturn(write);
 
-    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore);
+    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore, true);
 
 
     DeletePostResponse test =
@@ -80,7 +104,62 @@ public class TestMessagePosterImpl {
 
     assertEquals(test.getResponseCode(), 201);
     assertNull(test.getError());
+    verify(batch).delete(ref);
+    verify(batch).set(eq(tombstoneRef), anyMap());
+    verify(batch).commit();
+
+  }
+
+  /**
+   * Test that a delete whose commit fails is reported as a backend failure.
+   */
+  @Test
+  public void testDeleteMessageError() {
+    Firestore mockFirestore = mock(Firestore.class);
+    when(mockFirestore.collection(Constants.COLLECTION_PATH))
+        .thenReturn(mock(CollectionReference.class));
+    when(mockFirestore.collection(Constants.DELETES_COLLECTION_PATH))
+        .thenReturn(mock(CollectionReference.class));
+    WriteBatch batch = mock(WriteBatch.class);
+    when(mockFirestore.batch()).thenReturn(batch);
+    SettableApiFuture<List<WriteResult>> commit = SettableApiFuture.create();
+    commit.setException(new IllegalStateException("commit failed"));
+    when(batch.commit()).thenReturn(commit);
+
+    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore, true);
+
+    DeletePostResponse test = messagePoster.deleteMessage(getRandomString(20));
+
+    assertEquals(401, test.getResponseCode());
+    assertNotNull(test.getError());
+  }
+
+  /**
+   * Test that a delete isn't recorded when no server resumes from a snapshot.
+   */
+  @Test
+  public void testDeleteMessageWithoutRecord() {
+    Firestore mockFirestore = mock(Firestore.class);
+    CollectionReference mockMessageCollection = mock(CollectionReference.class);
+    when(mockFirestore.collection(Constants.COLLECTION_PATH)).thenReturn(mockMessageCollection);
+    when(mockFirestore.collection(Constants.DELETES_COLLECTION_PATH))
+        .thenReturn(mock(CollectionReference.class));
+    String recordId = getRandomString(20);
+    DocumentReference ref = mock(DocumentReference.class);
+    when(mockMessageCollection.document(recordId)).thenReturn(ref);
+    WriteBatch batch = mock(WriteBatch.class);
+    when(mockFirestore.batch()).thenReturn(batch);
+    SettableApiFuture<List<WriteResult>> commit = SettableApiFuture.create();
+    commit.set(new ArrayList<>());
+    when(batch.commit()).thenReturn(commit);
+
+    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore, false);
+
+    DeletePostResponse test = messagePoster.deleteMessage(recordId);
 
+    assertEquals(201, test.getResponseCode());
+    verify(batch).delete(ref);
+    verify(batch, never()).set(any(DocumentReference.class), anyMap());
   }
 
   /**
@@ -112,7 +191,7 @@ public class TestMessagePosterImpl {
     ApiFuture<WriteResult> write = mock(ApiFuture.class);
 
     WriteResult res = mock(WriteResult.class);
-    when(write.get()).thenReturn(res);
+    when(write.get(anyLong(), any())).thenReturn(res);
 
     String userID = "Test";
     double lon = 90.0;
@@ -142,7 +221,7 @@ public class TestMessagePosterImpl {
         .document((String) documentData.get(Message.FS_ID_FIELD_NAME))
         .set(newPost, SetOptions.merge())).thenReturn(write);
 
-    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore);
+    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore, false);
 
     NewPostResponse test = messagePoster
         .postNewMessage((String) documentData.get(Message.FS_ID_FIELD_NAME), userID,
@@ -178,7 +257,7 @@ public class TestMessagePosterImpl {
     when(doc.getString(Message.FS_IMAGE_URL_FIELD_NAME)).thenReturn("test.com/test.png");
     ApiFuture<WriteResult> write = mock(ApiFuture.class);
 
-    when(write.get()).thenThrow(InterruptedException.class);
+    when(write.get(anyLong(), any())).thenThrow(InterruptedException.class);
 
     String userID = "Test";
     double lon = 90.0;
@@ -208,7 +287,7 @@ public class TestMessagePosterImpl {
         .document((String) documentData.get(Message.FS_ID_FIELD_NAME))
         .set(newPost, SetOptions.merge())).thenReturn(write);
 
-    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore);
+    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore, false);
 
     NewPostResponse test = messagePoster
         .postNewMessage((String) documentData.get(Message.FS_ID_FIELD_NAME), userID,
@@ -249,7 +328,7 @@ public class TestMessagePosterImpl {
 
     when(future.get()).thenReturn(doc);
     WriteResult res = mock(WriteResult.class);
-    when(write.get()).thenReturn(res);
+    when(write.get(anyLong(), any())).thenReturn(res);
 
     String userID = "Test";
     double lon = 90.0;
@@ -278,7 +357,7 @@ public class TestMessagePosterImpl {
         .document((String) documentData.get(Message.FS_ID_FIELD_NAME))
         .set(newPost, SetOptions.merge())).thenReturn(write);
 
-    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore);
+    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore, false);
 
     UpdatePostResponse test = messagePoster
         .updateMessage((String) documentData.get(Message.FS_ID_FIELD_NAME), userID,
@@ -316,7 +395,7 @@ public class TestMessagePosterImpl {
     ApiFuture<WriteResult> write = mock(ApiFuture.class);
 
     when(future.get()).thenReturn(doc);
-    when(write.get()).thenThrow(ExecutionException.class);
+    when(write.get(anyLong(), any())).thenThrow(ExecutionException.class);
 
     String userID = "Test";
     double lon = 90.0;
@@ -345,7 +424,7 @@ public class TestMessagePosterImpl {
         .document((String) documentData.get(Message.FS_ID_FIELD_NAME))
         .set(newPost, SetOptions.merge())).thenReturn(write);
 
-    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore);
+    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore, false);
 
     UpdatePostResponse test = messagePoster
         .updateMessage((String) documentData.get(Message.FS_ID_FIELD_NAME), userID,
@@ -354,4 +433,118 @@ public class TestMessagePosterImpl {
     assertEquals(test.getResponseCode(), 401);
 
   }
+
+  /**
+   * Test that a batch of messages is written in chunks and that a failed chunk only fails its own
+   * messages.
+   */
+  @Test
+  public void testPostMessages() {
+    Firestore mockFirestore = mock(Firestore.class);
+    when(mockFirestore.collection(Constants.COLLECTION_PATH))
+        .thenReturn(mock(CollectionReference.class));
+
+    WriteBatch firstBatch = mock(WriteBatch.class);
+    WriteBatch failedBatch = mock(WriteBatch.class);
+    WriteBatch lastBatch = mock(WriteBatch.class);
+    when(mockFirestore.batch()).thenReturn(firstBatch, failedBatch, lastBatch);
+
+    SettableApiFuture<List<WriteResult>> firstCommit = SettableApiFuture.create();
+    firstCommit.set(Collections.emptyList());
+    SettableApiFuture<List<WriteResult>> failedCommit = SettableApiFuture.create();
+    failedCommit.setException(new IllegalStateException("commit failed"));
+    SettableApiFuture<List<WriteResult>> lastCommit = SettableApiFuture.create();
+    lastCommit.set(Collections.emptyList());
+    when(firstBatch.commit()).thenReturn(firstCommit);
+    when(failedBatch.commit()).thenReturn(failedCommit);
+    when(lastBatch.commit()).thenReturn(lastCommit);
+
+    List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      messages.add(new Message(
+          getRandomString(20),
+          getRandomString(20),
+          getRandomLatitude(),
+          getRandomLongitude(),
+          getRandomString(20),
+          getRandomDate(),
+          getRandomString(20)
+      ));
+    }
+
+    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore, 2, 1, false);
+
+    List<NewPostResponse> responses = messagePoster.postNewMessages(messages);
+
+    assertEquals(5, responses.size());
+    int[] expectedCodes = {201, 201, 401, 401, 201};
+    for (int i = 0; i < 5; i++) {
+      assertEquals(expectedCodes[i], responses.get(i).getResponseCode());
+    }
+    assertEquals(messages.get(0).getId(), responses.get(0).getRecordId());
+    assertNull(responses.get(2).getRecordId());
+    assertNotNull(responses.get(2).getError());
+    verify(firstBatch, times(2)).set(any(), anyMap(), any(SetOptions.class));
+    verify(failedBatch, times(2)).set(any(), anyMap(), any(SetOptions.class));
+    verify(lastBatch, times(1)).set(any(), anyMap(), any(SetOptions.class));
+  }
+
+  /**
+   * Test that when the deadline passes, chunks already sent are left running and reported per
+   * message, and chunks not yet started are never written.
+   */
+  @Test
+  public void testPostMessagesDeadline() throws Exception {
+    Firestore mockFirestore = mock(Firestore.class);
+    when(mockFirestore.collection(Constants.COLLECTION_PATH))
+        .thenReturn(mock(CollectionReference.class));
+
+    WriteBatch firstBatch = mock(WriteBatch.class);
+    WriteBatch slowBatch = mock(WriteBatch.class);
+    when(mockFirestore.batch()).thenReturn(firstBatch, slowBatch);
+
+    SettableApiFuture<List<WriteResult>> firstCommit = SettableApiFuture.create();
+    firstCommit.set(Collections.emptyList());
+    SettableApiFuture<List<WriteResult>> slowCommit = SettableApiFuture.create();
+    when(firstBatch.commit()).thenReturn(firstCommit);
+    when(slowBatch.commit()).thenReturn(slowCommit);
+
+    List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      messages.add(new Message(
+          getRandomString(20),
+          getRandomString(20),
+          getRandomLatitude(),
+          getRandomLongitude(),
+          getRandomString(20),
+          getRandomDate(),
+          getRandomString(20)
+      ));
+    }
+
+    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore, 2, 1, false);
+
+    List<NewPostResponse> responses = Deadline.after(TimeUnit.MILLISECONDS.toNanos(50))
+        .call(() -> messagePoster.postNewMessages(messages));
+
+    assertEquals(5, responses.size());
+    int[] expectedCodes = {201, 201, 504, 504, 504};
+    for (int i = 0; i < 5; i++) {
+      assertEquals(expectedCodes[i], responses.get(i).getResponseCode());
+    }
+    assertEquals(messages.get(1).getId(), responses.get(1).getRecordId());
+    assertNotEquals(responses.get(2).getError(), responses.get(4).getError());
+    assertFalse(slowCommit.isCancelled());
+    verify(mockFirestore, times(2)).batch();
+  }
+
+  @Test
+  public void testPostMessagesEmpty() {
+    Firestore mockFirestore = mock(Firestore.class);
+
+    MessagePosterImpl messagePoster = new MessagePosterImpl(mockFirestore, false);
+
+    assertEquals(0, messagePoster.postNewMessages(new ArrayList<>()).size());
+    verify(mockFirestore, times(0)).batch();
+  }
 }
@@ -0,0 +1,109 @@
+package message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TestMessageSnapshotFile {
+
+  @Test
+  public void testSnapshotRoundTrip(@TempDir Path directory) throws IOException {
+    Path file = directory.resolve("messages.snapshot");
+    List<Message> messages = Arrays.asList(
+        new Message(
+            "a",
+            "https://example.com/a.png",
+            40.5,
+            -73.9,
+            "caf\u00e9 \u2615",
+            new Date(2000),
+            "user"
+        ),
+        new Message("b", null, -90, 180, null, new Date(1000), "other")
+    );
+
+    MessageSnapshotFile.write(file, messages, 3000);
+    MessageSnapshotFile snapshot = MessageSnapshotFile.read(file);
+
+    assertEquals(3000, snapshot.getHighWaterMillis());
+    assertEquals(2, snapshot.getMessages().size());
+    for (int i = 0; i < messages.size(); i++) {
+      Message expected = messages.get(i);
+      Message read = snapshot.getMessages().get(i);
+      assertEquals(expected.getId(), read.getId());
+      assertEquals(expected.getImageUrl(), read.getImageUrl());
+      assertEquals(expected.getLatitude(), read.getLatitude());
+      assertEquals(expected.getLongitude(), read.getLongitude());
+      assertEquals(expected.getText(), read.getText());
+      assertEquals(expected.getTimestamp(), read.getTimestamp());
+      assertEquals(expected.getUserId(), read.getUserId());
+    }
+    assertNull(snapshot.getMessages().get(1).getText());
+  }
+
+  @Test
+  public void testCorruptSnapshotIsRejected(@TempDir Path directory) throws IOException {
+    Path file = directory.resolve("messages.snapshot");
+    MessageSnapshotFile.write(
+        file,
+        Collections.singletonList(new Message("a", "", 1, 2, "hello", new Date(1000), "user")),
+        1000
+    );
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[bytes.length / 2] ^= 1;
+    Files.write(file, bytes);
+
+    assertThrows(IOException.class, () -> MessageSnapshotFile.read(file));
+    Files.write(file, new byte[] {1, 2, 3});
+    assertThrows(IOException.class, () -> MessageSnapshotFile.read(file));
+  }
+
+  @Test
+  public void testWriterWritesLastSnapshotOnShutdown(@TempDir Path directory)
+      throws IOException, InterruptedException {
+    Path file = directory.resolve("messages.snapshot");
+    MessageIndex index = new MessageIndex(4);
+    index.apply(
+        Collections.singletonList(new Message("a", "", 1, 2, "hello", new Date(1000), "user")),
+        Collections.emptyList()
+    );
+    MessageSnapshotWriter writer =
+        new MessageSnapshotWriter(index, () -> new Date(1500), file, 60000);
+
+    writer.shutdown();
+
+    assertTrue(Files.exists(file));
+    assertEquals(1, writer.getWriteCount());
+    assertEquals(1500, writer.getHighWaterMillis());
+    assertEquals("a", MessageSnapshotFile.read(file).getMessages().get(0).getId());
+  }
+
+  @Test
+  public void testWriterWaitsForReadTime(@TempDir Path directory) throws InterruptedException {
+    Path file = directory.resolve("messages.snapshot");
+    MessageIndex index = new MessageIndex(4);
+    index.apply(
+        Collections.singletonList(new Message("a", "", 1, 2, "hello", new Date(1000), "user")),
+        Collections.emptyList()
+    );
+    MessageSnapshotWriter writer = new MessageSnapshotWriter(index, () -> null, file, 60000);
+
+    writer.shutdown();
+
+    // Without the read time, a restart wouldn't know which changes the snapshot holds.
+    assertFalse(Files.exists(file));
+    assertEquals(0, writer.getWriteCount());
+  }
+}
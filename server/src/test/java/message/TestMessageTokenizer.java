@@ -0,0 +1,25 @@
+package message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class TestMessageTokenizer {
+
+  @Test
+  public void testTextIsSplitIntoNormalizedTerms() {
+    assertEquals(
+        Arrays.asList("great", "cafe", "on", "5th", "ave"),
+        new ArrayList<>(MessageTokenizer.tokenize("Great CAF\u00c9 on 5th-Ave... great!"))
+    );
+  }
+
+  @Test
+  public void testMissingTextHasNoTerms() {
+    assertTrue(MessageTokenizer.tokenize(null).isEmpty());
+    assertTrue(MessageTokenizer.tokenize(" -- ").isEmpty());
+  }
+}
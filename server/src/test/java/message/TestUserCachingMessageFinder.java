@@ -0,0 +1,121 @@
+package message;
+
+import static helper.TestHelper.getRandomDate;
+import static helper.TestHelper.getRandomString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class TestUserCachingMessageFinder {
+
+  @Test
+  public void testWritesUpdateCachedList() throws ExecutionException, InterruptedException {
+    Message first = getMessage("a", "user");
+    Message second = getMessage("b", "user");
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByUserId("user")).thenReturn(Arrays.asList(first, second));
+    UserCachingMessageFinder finder = new UserCachingMessageFinder(delegate, 10, 60000, () -> 0);
+
+    assertEquals(2, finder.findByUserId("user").size());
+
+    Message updated = getMessage("a", "user");
+    Message added = getMessage("c", "user");
+    finder.apply(
+        Arrays.asList(updated, added, getMessage("d", "other")),
+        Collections.singletonList(second)
+    );
+
+    List<Message> messages = finder.findByUserId("user");
+    assertEquals(Arrays.asList(updated, added), messages);
+    verify(delegate, times(1)).findByUserId("user");
+    assertEquals(1, finder.getMissCount());
+    assertEquals(1, finder.getHitCount());
+    // Writes don't cache lists of users that weren't cached.
+    assertEquals(1, finder.getUserCount());
+    assertEquals(2, finder.getMessageCount());
+    assertTrue(finder.getEstimatedBytes() > 0);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedUserIsEvicted()
+      throws ExecutionException, InterruptedException {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByUserId("a")).thenReturn(Collections.singletonList(getMessage("1", "a")));
+    when(delegate.findByUserId("b")).thenReturn(Collections.singletonList(getMessage("2", "b")));
+    when(delegate.findByUserId("c")).thenReturn(Collections.singletonList(getMessage("3", "c")));
+    UserCachingMessageFinder finder = new UserCachingMessageFinder(delegate, 2, 60000, () -> 0);
+
+    finder.findByUserId("a");
+    finder.findByUserId("b");
+    finder.findByUserId("a");
+    finder.findByUserId("c");
+    finder.findByUserId("a");
+    finder.findByUserId("b");
+
+    verify(delegate, times(1)).findByUserId("a");
+    verify(delegate, times(2)).findByUserId("b");
+    assertEquals(2, finder.getUserCount());
+  }
+
+  @Test
+  public void testWriteDuringLoadKeepsResultsOutOfCache() throws Exception {
+    MessageFinder delegate = mock(MessageFinder.class);
+    UserCachingMessageFinder finder = new UserCachingMessageFinder(delegate, 10, 60000, () -> 0);
+    Message written = getMessage("b", "user");
+    // The write lands after the query read the collection, so the loaded list misses it.
+    when(delegate.findByUserId("user"))
+        .thenAnswer(invocation -> {
+          finder.apply(Collections.singletonList(written), Collections.emptyList());
+          return Collections.singletonList(getMessage("a", "user"));
+        })
+        .thenReturn(Arrays.asList(getMessage("a", "user"), written));
+
+    assertEquals(1, finder.findByUserId("user").size());
+    assertEquals(2, finder.findByUserId("user").size());
+    assertEquals(2, finder.findByUserId("user").size());
+    verify(delegate, times(2)).findByUserId("user");
+  }
+
+  @Test
+  public void testUntrackedReadVersionBypassesCache() throws Exception {
+    MessageFinder delegate = mock(MessageFinder.class);
+    when(delegate.findByUserId("user"))
+        .thenReturn(Collections.singletonList(getMessage("a", "user")))
+        .thenReturn(Arrays.asList(getMessage("a", "user"), getMessage("b", "user")));
+    UserCachingMessageFinder finder = new UserCachingMessageFinder(delegate, 10, 60000, () -> 3);
+
+    assertEquals(1, finder.findByUserId("user").size());
+    assertEquals(1, ReadVersion.call(3, () -> finder.findByUserId("user")).size());
+    assertEquals(2, ReadVersion.call(Long.MAX_VALUE, () -> finder.findByUserId("user")).size());
+    assertEquals(2, finder.findByUserId("user").size());
+
+    verify(delegate, times(2)).findByUserId("user");
+    assertEquals(1, finder.getBypassCount());
+    assertEquals(
+        Arrays.asList("a", "b"),
+        finder.findByUserId("user").stream().map(Message::getId).collect(Collectors.toList())
+    );
+  }
+
+  private static Message getMessage(String id, String userId) {
+    return new Message(
+        id,
+        getRandomString(20),
+        0,
+        0,
+        getRandomString(20),
+        getRandomDate(),
+        userId
+    );
+  }
+}
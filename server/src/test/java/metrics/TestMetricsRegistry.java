@@ -0,0 +1,78 @@
+package metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Test;
+
+public class TestMetricsRegistry {
+
+  @Test
+  public void testSameSeriesIsReturnedForSameLabels() {
+    MetricsRegistry registry = new MetricsRegistry();
+
+    assertSame(
+        registry.getCounter("requests_total", "Requests", "route", "/messages"),
+        registry.getCounter("requests_total", "Requests", "route", "/messages")
+    );
+  }
+
+  @Test
+  public void testTypeConflictIsRejected() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.getCounter("requests_total", "Requests");
+
+    assertThrows(IllegalArgumentException.class,
+        () -> registry.getHistogram("requests_total", "Requests"));
+  }
+
+  /**
+   * Test that every metric type is written in the Prometheus text format.
+   */
+  @Test
+  public void testScrape() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.getCounter("requests_total", "Requests", "route", "/messages", "status", "201").add(3);
+    registry.registerGauge("queue_size", "Queue size", () -> 7);
+    LatencyHistogram histogram = registry.getHistogram("latency_seconds", "Latency", "op", "get");
+    for (int i = 0; i < 100; i++) {
+      histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    String scrape = registry.scrape();
+
+    assertTrue(scrape.contains("# TYPE requests_total counter\n"));
+    assertTrue(scrape.contains("requests_total{route=\"/messages\",status=\"201\"} 3\n"));
+    assertTrue(scrape.contains("# TYPE queue_size gauge\n"));
+    assertTrue(scrape.contains("queue_size 7\n"));
+    assertTrue(scrape.contains("# TYPE latency_seconds summary\n"));
+    assertTrue(scrape.contains("latency_seconds{op=\"get\",quantile=\"0.99\"} 0.01"));
+    assertTrue(scrape.contains("latency_seconds_sum{op=\"get\"} 1\n"));
+    assertTrue(scrape.contains("latency_seconds_count{op=\"get\"} 100\n"));
+  }
+
+  @Test
+  public void testLabelValuesAreEscaped() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.getCounter("requests_total", "Requests", "route", "a\"b\\c").increment();
+
+    assertTrue(registry.scrape().contains("requests_total{route=\"a\\\"b\\\\c\"} 1\n"));
+  }
+
+  @Test
+  public void testHistogramSnapshotIsCumulative() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.recordNanos(1000);
+    histogram.getSnapshot();
+    histogram.recordNanos(TimeUnit.HOURS.toNanos(1));
+
+    Histogram snapshot = histogram.getSnapshot();
+
+    assertEquals(2, snapshot.getTotalCount());
+    assertEquals(TimeUnit.MINUTES.toNanos(1), histogram.getSumNanos() - 1000);
+  }
+}
@@ -0,0 +1,164 @@
+package pipeline;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import deadline.Deadline;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class TestMessageEventRing {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testHandlersSeeEveryEventInOrder() throws InterruptedException {
+    MessageEventRing ring = new MessageEventRing(8, 10);
+    List<String> first = Collections.synchronizedList(new ArrayList<>());
+    List<String> second = Collections.synchronizedList(new ArrayList<>());
+    ring.addHandler("first", (event, sequence, endOfBatch) -> first.add(event.getRecordId()));
+    ring.addHandler("second", (event, sequence, endOfBatch) -> second.add(event.getRecordId()));
+    ring.start();
+
+    List<String> expected = new ArrayList<>();
+    long sequence = -1;
+    // More events than slots, so slots are reused.
+    for (int i = 0; i < 100; i++) {
+      expected.add("record-" + i);
+      sequence = ring.publish(MessageEvent.Type.DELETE, "record-" + i, null, null);
+    }
+
+    assertEquals(99, sequence);
+    assertTrue(ring.awaitProcessed(sequence, 5 * SECOND));
+    assertEquals(expected, first);
+    assertEquals(expected, second);
+    assertEquals(0, ring.getLag("first"));
+    ring.shutdown();
+  }
+
+  @Test
+  public void testFullRingWaitsForSlowestHandler() throws Exception {
+    MessageEventRing ring = new MessageEventRing(2, 10);
+    CountDownLatch release = new CountDownLatch(1);
+    ring.addHandler("slow", (event, sequence, endOfBatch) -> release.await(5, TimeUnit.SECONDS));
+    ring.start();
+
+    ring.publish(MessageEvent.Type.DELETE, "a", null, null);
+    ring.publish(MessageEvent.Type.DELETE, "b", null, null);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<Long> blocked =
+        executor.submit(() -> ring.publish(MessageEvent.Type.DELETE, "c", null, null));
+
+    Thread.sleep(100);
+    assertFalse(blocked.isDone());
+    assertFalse(ring.awaitProcessed(0, TimeUnit.MILLISECONDS.toNanos(10)));
+    release.countDown();
+
+    long sequence = blocked.get(5, TimeUnit.SECONDS);
+    assertEquals(2, sequence);
+    assertEquals(1, ring.getFullCount());
+    executor.shutdown();
+    ring.shutdown();
+  }
+
+  /**
+   * Test that an event is published once the ring has room, even after the deadline of the
+   * request publishing it has passed, as its write is already committed.
+   */
+  @Test
+  public void testFullRingPublishIgnoresDeadline() throws Exception {
+    MessageEventRing ring = new MessageEventRing(2, 10);
+    CountDownLatch release = new CountDownLatch(1);
+    ring.addHandler("slow", (event, sequence, endOfBatch) -> release.await(5, TimeUnit.SECONDS));
+    ring.start();
+
+    ring.publish(MessageEvent.Type.DELETE, "a", null, null);
+    ring.publish(MessageEvent.Type.DELETE, "b", null, null);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<Long> blocked = executor.submit(() -> Deadline.after(0).call(
+        () -> ring.publish(MessageEvent.Type.DELETE, "c", null, null)
+    ));
+
+    Thread.sleep(100);
+    release.countDown();
+
+    assertEquals(2, (long) blocked.get(5, TimeUnit.SECONDS));
+    executor.shutdown();
+    ring.shutdown();
+  }
+
+  @Test
+  public void testConcurrentPublishersGetDistinctSequences() throws Exception {
+    MessageEventRing ring = new MessageEventRing(4, 10);
+    List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+    ring.addHandler("record", (event, sequence, endOfBatch) -> sequences.add(sequence));
+    ring.start();
+
+    int publishers = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(publishers);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < publishers; i++) {
+      futures.add(executor.submit(() -> {
+        for (int j = 0; j < 100; j++) {
+          ring.publish(MessageEvent.Type.DELETE, "record", null, null);
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get(5, TimeUnit.SECONDS);
+    }
+
+    assertTrue(ring.awaitProcessed(publishers * 100 - 1, 5 * SECOND));
+    List<Long> expected = new ArrayList<>();
+    for (long i = 0; i < publishers * 100; i++) {
+      expected.add(i);
+    }
+    assertEquals(expected, sequences);
+    executor.shutdown();
+    ring.shutdown();
+  }
+
+  @Test
+  public void testFailedEventDoesNotStopHandler() throws InterruptedException {
+    MessageEventRing ring = new MessageEventRing(4, 10);
+    List<String> applied = Collections.synchronizedList(new ArrayList<>());
+    ring.addHandler("flaky", (event, sequence, endOfBatch) -> {
+      if (sequence == 0) {
+        throw new IllegalStateException();
+      }
+      applied.add(event.getRecordId());
+    });
+    ring.start();
+
+    ring.publish(MessageEvent.Type.DELETE, "a", null, null);
+    long sequence = ring.publish(MessageEvent.Type.DELETE, "b", null, null);
+
+    assertTrue(ring.awaitProcessed(sequence, 5 * SECOND));
+    assertEquals(Collections.singletonList("b"), applied);
+    assertEquals(1, ring.getErrorCount("flaky"));
+    assertThrows(IllegalStateException.class, () -> ring.addHandler("late", (e, s, b) -> { }));
+    ring.shutdown();
+  }
+
+  @Test
+  public void testVersionTokensOfOtherRingsAreUnknown() {
+    MessageEventRing ring = new MessageEventRing(4, 10);
+    MessageEventRing other = new MessageEventRing(4, 10);
+
+    assertEquals(3, ring.parseVersionToken(ring.getVersionToken(3)));
+    assertEquals(
+        MessageEventRing.UNKNOWN_VERSION,
+        ring.parseVersionToken(other.getVersionToken(3))
+    );
+    assertThrows(IllegalArgumentException.class, () -> ring.parseVersionToken("3"));
+    assertThrows(IllegalArgumentException.class, () -> ring.parseVersionToken("abc-x"));
+  }
+}
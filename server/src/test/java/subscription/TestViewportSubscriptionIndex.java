@@ -0,0 +1,125 @@
+package subscription;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.firestore.GeoPoint;
+import java.util.Arrays;
+import message.BoundingBox;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.jupiter.api.Test;
+
+public class TestViewportSubscriptionIndex {
+  private static final String PAYLOAD = "payload";
+
+  @Test
+  public void testPublishInsideViewport() {
+    RemoteEndpoint remote = mock(RemoteEndpoint.class);
+    ViewportSubscriber subscriber = getSubscriber(remote, 10);
+    ViewportSubscriptionIndex index = new ViewportSubscriptionIndex();
+    index.subscribe(subscriber, BoundingBox.fromEdges(-1.0, 1.0, -1.0, 1.0));
+
+    assertEquals(1, index.publish(PAYLOAD, new GeoPoint(0.5, 0.5)));
+    verify(remote).sendString(eq(PAYLOAD), any(WriteCallback.class));
+  }
+
+  @Test
+  public void testPublishOutsideViewportInSameCell() {
+    RemoteEndpoint remote = mock(RemoteEndpoint.class);
+    ViewportSubscriber subscriber = getSubscriber(remote, 10);
+    ViewportSubscriptionIndex index = new ViewportSubscriptionIndex();
+    index.subscribe(subscriber, BoundingBox.fromEdges(0.0, 1.0, 0.0, 1.0));
+
+    assertEquals(0, index.publish(PAYLOAD, new GeoPoint(2.0, 2.0)));
+    verify(remote, never()).sendString(any(), any());
+  }
+
+  @Test
+  public void testPublishToMovedSubscriberOnce() {
+    RemoteEndpoint remote = mock(RemoteEndpoint.class);
+    ViewportSubscriber subscriber = getSubscriber(remote, 10);
+    ViewportSubscriptionIndex index = new ViewportSubscriptionIndex();
+    index.subscribe(subscriber, BoundingBox.fromEdges(-1.0, 1.0, -1.0, 1.0));
+
+    assertEquals(1, index.publish(PAYLOAD, new GeoPoint(0.0, 0.0), new GeoPoint(0.5, 0.5)));
+    verify(remote, times(1)).sendString(eq(PAYLOAD), any(WriteCallback.class));
+  }
+
+  @Test
+  public void testResubscribeReplacesViewport() {
+    RemoteEndpoint remote = mock(RemoteEndpoint.class);
+    ViewportSubscriber subscriber = getSubscriber(remote, 10);
+    ViewportSubscriptionIndex index = new ViewportSubscriptionIndex();
+    index.subscribe(subscriber, BoundingBox.fromEdges(-1.0, 1.0, -1.0, 1.0));
+    index.subscribe(subscriber, BoundingBox.fromEdges(40.0, 41.0, 40.0, 41.0));
+
+    assertEquals(1, index.getSubscriberCount());
+    assertEquals(0, index.publish(PAYLOAD, new GeoPoint(0.0, 0.0)));
+    assertEquals(1, index.publish(PAYLOAD, new GeoPoint(40.5, 40.5)));
+  }
+
+  @Test
+  public void testUnsubscribe() {
+    RemoteEndpoint remote = mock(RemoteEndpoint.class);
+    ViewportSubscriber subscriber = getSubscriber(remote, 10);
+    ViewportSubscriptionIndex index = new ViewportSubscriptionIndex();
+    index.subscribe(subscriber, BoundingBox.fromEdges(-1.0, 1.0, -1.0, 1.0));
+    index.unsubscribe(subscriber);
+
+    assertEquals(0, index.getSubscriberCount());
+    assertEquals(0, index.publish(PAYLOAD, new GeoPoint(0.0, 0.0)));
+  }
+
+  @Test
+  public void testPublishAcrossLongitudeWrap() {
+    RemoteEndpoint remote = mock(RemoteEndpoint.class);
+    ViewportSubscriber subscriber = getSubscriber(remote, 10);
+    ViewportSubscriptionIndex index = new ViewportSubscriptionIndex();
+    index.subscribe(
+        subscriber,
+        new BoundingBox(new GeoPoint(-1.0, -179.0), new GeoPoint(1.0, 179.0), false, true)
+    );
+
+    assertEquals(1, index.publish(PAYLOAD, new GeoPoint(0.0, 179.5)));
+    assertEquals(1, index.publish(PAYLOAD, new GeoPoint(0.0, -179.5)));
+    assertEquals(0, index.publish(PAYLOAD, new GeoPoint(0.0, 0.0)));
+  }
+
+  @Test
+  public void testGetCellsCoversWholeGlobe() {
+    int[] cells = ViewportSubscriptionIndex.getCells(BoundingBox.fromEdges(0.0, 0.0, 0.0, 0.0));
+    int expected = (180 / ViewportSubscriptionIndex.CELL_DEGREES)
+        * (360 / ViewportSubscriptionIndex.CELL_DEGREES);
+
+    assertEquals(expected, Arrays.stream(cells).distinct().count());
+  }
+
+  @Test
+  public void testOfferDropsWhenBackpressured() {
+    RemoteEndpoint remote = mock(RemoteEndpoint.class);
+    ViewportSubscriber subscriber = getSubscriber(remote, 2);
+
+    assertTrue(subscriber.offer(PAYLOAD));
+    assertTrue(subscriber.offer(PAYLOAD));
+    assertFalse(subscriber.offer(PAYLOAD));
+    assertEquals(2, subscriber.getPendingMessages());
+    assertEquals(1, subscriber.getDroppedMessages());
+  }
+
+  private static ViewportSubscriber getSubscriber(RemoteEndpoint remote, int maxPending) {
+    Session session = mock(Session.class);
+    when(session.isOpen()).thenReturn(true);
+    when(session.getRemote()).thenReturn(remote);
+    return new ViewportSubscriber(session, maxPending, "resync");
+  }
+}
@@ -0,0 +1,92 @@
+package tracing;
+
+import static helper.TestHelper.getMockQueryDocumentSnapshotsFromDocumentDataList;
+import static helper.TestHelper.getRandomDocumentData;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.GeoPoint;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import constants.Constants;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import message.MessageFinderImpl;
+import org.junit.jupiter.api.Test;
+
+public class TestFlightRecorderEvents {
+
+  /**
+   * Test that a bounding box query emits a query event and a Firestore read event.
+   */
+  @Test
+  public void testBoundingBoxQueryEvents() throws Exception {
+    List<Map<String, Object>> documentDataList = Arrays.asList(
+        getRandomDocumentData(),
+        getRandomDocumentData(),
+        getRandomDocumentData()
+    );
+    List<QueryDocumentSnapshot> mockQueryDocumentSnapshots =
+        getMockQueryDocumentSnapshotsFromDocumentDataList(documentDataList);
+    QuerySnapshot mockQuerySnapshot = mock(QuerySnapshot.class);
+    when(mockQuerySnapshot.getDocuments()).thenReturn(mockQueryDocumentSnapshots);
+    SettableApiFuture<QuerySnapshot> futureMockQuerySnapshot = SettableApiFuture.create();
+    futureMockQuerySnapshot.set(mockQuerySnapshot);
+    CollectionReference mockMessageCollection = mock(CollectionReference.class);
+    when(mockMessageCollection.get()).thenReturn(futureMockQuerySnapshot);
+    Firestore mockFirestore = mock(Firestore.class);
+    when(mockFirestore.collection(Constants.COLLECTION_PATH)).thenReturn(mockMessageCollection);
+
+    MessageFinderImpl messageFinder = new MessageFinderImpl(mockFirestore);
+
+    Path file = Files.createTempFile("events", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(BoundingBoxQueryEvent.class);
+      recording.enable(FirestoreReadEvent.class);
+      recording.start();
+      messageFinder.findByBoundingBox(
+          new GeoPoint(-90, -180),
+          new GeoPoint(90, 180),
+          2,
+          false,
+          false
+      );
+      recording.stop();
+      recording.dump(file);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    Files.delete(file);
+
+    List<RecordedEvent> readEvents = getEvents(events, "magikarp.FirestoreRead");
+    assertEquals(1, readEvents.size());
+    assertEquals("get_all_messages", readEvents.get(0).getString("operation"));
+    assertEquals(3, readEvents.get(0).getInt("documentCount"));
+
+    List<RecordedEvent> queryEvents = getEvents(events, "magikarp.BoundingBoxQuery");
+    assertEquals(1, queryEvents.size());
+    RecordedEvent queryEvent = queryEvents.get(0);
+    assertEquals(180.0 * 360.0, queryEvent.getDouble("area"));
+    assertEquals(3, queryEvent.getInt("fetchedCount"));
+    assertEquals(2, queryEvent.getInt("scannedCount"));
+    assertEquals(2, queryEvent.getInt("returnedCount"));
+  }
+
+  private static List<RecordedEvent> getEvents(List<RecordedEvent> events, String name) {
+    return events
+        .stream()
+        .filter(event -> event.getEventType().getName().equals(name))
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,73 @@
+package tracing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class TestSlowRequestLog {
+
+  @Test
+  public void testStagesAreRecordedInOrder() {
+    RequestTrace trace = RequestTrace.begin("/messages", "/messages");
+    RequestTrace.mark("parse_request");
+    RequestTrace.mark("query");
+    trace.end();
+    RequestTrace.mark("ignored");
+
+    assertEquals(2, trace.getStageCount());
+    assertEquals("parse_request", trace.getStageName(0));
+    assertEquals("query", trace.getStageName(1));
+    assertTrue(trace.getStageNanos(0) + trace.getStageNanos(1) <= trace.getTotalNanos());
+  }
+
+  @Test
+  public void testSlowRequestIsLogged() throws InterruptedException {
+    BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    SlowRequestLog log = new SlowRequestLog(0, 0.0, 16, lines::add);
+
+    RequestTrace trace = RequestTrace.begin("/messages/:user_id", "/messages/user");
+    RequestTrace.mark("query");
+    log.submit(trace.end());
+
+    String line = lines.poll(5, TimeUnit.SECONDS);
+    log.shutdown();
+
+    assertTrue(line.startsWith("slow_request request_id=" + trace.getId()));
+    assertTrue(line.contains(" route=/messages/:user_id path=/messages/user "));
+    assertTrue(line.contains(" query_us="));
+  }
+
+  @Test
+  public void testFastRequestIsNotLoggedWithoutSampling() throws InterruptedException {
+    BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    SlowRequestLog log = new SlowRequestLog(60000, 0.0, 16, lines::add);
+
+    log.submit(RequestTrace.begin("/messages", "/messages").end());
+
+    assertNull(lines.poll(100, TimeUnit.MILLISECONDS));
+    log.shutdown();
+  }
+
+  @Test
+  public void testTracesAreDroppedWhenQueueIsFull() {
+    SlowRequestLog log = new SlowRequestLog(0, 1.0, 1, line -> {
+      try {
+        Thread.sleep(60000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    for (int i = 0; i < 10; i++) {
+      log.submit(RequestTrace.begin("/messages", "/messages").end());
+    }
+    log.shutdown();
+
+    assertTrue(log.getDroppedCount() >= 8);
+  }
+}